@@ -0,0 +1,66 @@
+package hudson.console;
+
+import jenkins.benchmark.BenchmarkJenkins;
+import org.apache.commons.io.output.NullWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@link ConsoleAnnotationOutputStream} over 1MB of console output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+public class ConsoleAnnotationOutputStreamBenchmark {
+    /**
+     * One in this many lines carries a {@link ConsoleNote}. 0 for no notes at all.
+     */
+    @Param({"0","10"})
+    public int noteEvery;
+
+    private final BenchmarkJenkins j = new BenchmarkJenkins();
+    private byte[] log;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        j.start();
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        String note = HyperlinkNote.encodeTo("/job/foo/","foo");
+        for (int i=0; buf.size()<1024*1024; i++) {
+            buf.write(("[INFO] Compiling 42 source files to /home/jenkins/workspace/target/classes, line "+i).getBytes("UTF-8"));
+            if (noteEvery>0 && i%noteEvery==0)
+                buf.write(note.getBytes("UTF-8"));
+            buf.write('\n');
+        }
+        log = buf.toByteArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        j.stop();
+    }
+
+    @Benchmark
+    public ConsoleAnnotator annotate() throws IOException {
+        ConsoleAnnotationOutputStream<Object> out = new ConsoleAnnotationOutputStream<Object>(
+                new NullWriter(), ConsoleAnnotator.initial(null), null, Charset.forName("UTF-8"));
+        out.write(log);
+        out.close();
+        return out.getConsoleAnnotator();
+    }
+}
@@ -0,0 +1,129 @@
+package hudson.model;
+
+import hudson.model.Fingerprint.RangeSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link RangeSet#add(int)} and {@link RangeSet#add(RangeSet)},
+ * against the list-based implementation it replaced ({@link ListRangeSet}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class FingerprintRangeSetBenchmark {
+    /**
+     * Number of builds recorded in the set.
+     */
+    @Param({"100","10000"})
+    public int size;
+
+    private int[] sequential, scattered;
+    private RangeSet fragmented;
+    private ListRangeSet legacyFragmented;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sequential = new int[size];
+        scattered = new int[size];
+        Random r = new Random(0);
+        for (int i=0; i<size; i++) {
+            sequential[i] = i+1;
+            scattered[i] = r.nextInt(size*4)+1;
+        }
+        // every other build number, so that there's no coalescing
+        fragmented = new RangeSet();
+        legacyFragmented = new ListRangeSet();
+        for (int i=0; i<size; i++) {
+            fragmented.add(i*2+1);
+            legacyFragmented.add(i*2+1);
+        }
+        encoded = fragmented.toByteArray();
+    }
+
+    /**
+     * The common case, where each new build of a job is recorded in turn.
+     */
+    @Benchmark
+    public RangeSet addSequential() {
+        RangeSet rs = new RangeSet();
+        for (int n : sequential)
+            rs.add(n);
+        return rs;
+    }
+
+    @Benchmark
+    public RangeSet addScattered() {
+        RangeSet rs = new RangeSet();
+        for (int n : scattered)
+            rs.add(n);
+        return rs;
+    }
+
+    @Benchmark
+    public RangeSet merge() {
+        RangeSet rs = new RangeSet();
+        for (int i=0; i<size; i++)
+            rs.add(i*2+2);
+        rs.add(fragmented);
+        return rs;
+    }
+
+    @Benchmark
+    public ListRangeSet legacyAddSequential() {
+        ListRangeSet rs = new ListRangeSet();
+        for (int n : sequential)
+            rs.add(n);
+        return rs;
+    }
+
+    @Benchmark
+    public ListRangeSet legacyAddScattered() {
+        ListRangeSet rs = new ListRangeSet();
+        for (int n : scattered)
+            rs.add(n);
+        return rs;
+    }
+
+    @Benchmark
+    public ListRangeSet legacyMerge() {
+        ListRangeSet rs = new ListRangeSet();
+        for (int i=0; i<size; i++)
+            rs.add(i*2+2);
+        rs.add(legacyFragmented);
+        return rs;
+    }
+
+    @Benchmark
+    public boolean includes() {
+        return fragmented.includes(size);
+    }
+
+    @Benchmark
+    public boolean legacyIncludes() {
+        return legacyFragmented.includes(size);
+    }
+
+    @Benchmark
+    public byte[] toByteArray() {
+        return fragmented.toByteArray();
+    }
+
+    @Benchmark
+    public RangeSet fromByteArray() {
+        return RangeSet.fromByteArray(encoded);
+    }
+}
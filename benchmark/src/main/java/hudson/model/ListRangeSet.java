@@ -0,0 +1,94 @@
+package hudson.model;
+
+import hudson.model.Fingerprint.Range;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@link ArrayList}-based {@link Fingerprint.RangeSet} implementation of Jenkins 1.474,
+ * kept as the baseline for {@link FingerprintRangeSetBenchmark}.
+ */
+final class ListRangeSet {
+    // sorted
+    private final List<Range> ranges = new ArrayList<Range>();
+
+    public synchronized void add(int n) {
+        for( int i=0; i<ranges.size(); i++ ) {
+            Range r = ranges.get(i);
+            if(r.includes(n))   return; // already included
+            if(r.getEnd()==n) {
+                ranges.set(i,r.expandRight());
+                checkCollapse(i);
+                return;
+            }
+            if(r.getStart()==n+1) {
+                ranges.set(i,r.expandLeft());
+                checkCollapse(i-1);
+                return;
+            }
+            if(r.isBiggerThan(n)) {
+                // needs to insert a single-value Range
+                ranges.add(i,new Range(n,n+1));
+                return;
+            }
+        }
+
+        ranges.add(new Range(n,n+1));
+    }
+
+    private void checkCollapse(int i) {
+        if(i<0 || i==ranges.size()-1)     return;
+        Range lhs = ranges.get(i);
+        Range rhs = ranges.get(i+1);
+        if(lhs.isAdjacentTo(rhs)) {
+            // collapsed
+            Range r = new Range(lhs.getStart(),rhs.getEnd());
+            ranges.set(i,r);
+            ranges.remove(i+1);
+        }
+    }
+
+    public synchronized boolean includes(int i) {
+        for (Range r : ranges) {
+            if(r.includes(i))
+                return true;
+        }
+        return false;
+    }
+
+    public synchronized void add(ListRangeSet that) {
+        int lhs=0,rhs=0;
+        while(lhs<this.ranges.size() && rhs<that.ranges.size()) {
+            Range lr = this.ranges.get(lhs);
+            Range rr = that.ranges.get(rhs);
+
+            // no overlap
+            if(lr.getEnd()<rr.getStart()) {
+                lhs++;
+                continue;
+            }
+            if(rr.getEnd()<lr.getStart()) {
+                ranges.add(lhs,rr);
+                lhs++;
+                rhs++;
+                continue;
+            }
+
+            // overlap. merge two
+            Range m = lr.combine(rr);
+            rhs++;
+
+            // since ranges[lhs] is expanded, it might overlap with others in this.ranges
+            while(lhs+1<this.ranges.size() && !m.isIndependent(this.ranges.get(lhs+1))) {
+                m = m.combine(this.ranges.get(lhs+1));
+                this.ranges.remove(lhs+1);
+            }
+
+            this.ranges.set(lhs,m);
+        }
+
+        // if anything is left in that.ranges, add them all
+        this.ranges.addAll(that.ranges.subList(rhs,that.ranges.size()));
+    }
+}
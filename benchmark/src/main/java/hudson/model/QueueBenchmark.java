@@ -0,0 +1,95 @@
+package hudson.model;
+
+import hudson.model.Queue.Item;
+import jenkins.benchmark.BenchmarkJenkins;
+import jenkins.model.Jenkins;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Queue#maintain()} and the item lookups, with N idle executors and M queued items.
+ *
+ * <p>
+ * Items are tied to a label that no node has, so that they stay in the queue
+ * and every maintenance pass has to consider all of them against all the executors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class QueueBenchmark {
+    @Param({"2","50"})
+    public int executors;
+
+    @Param({"10","100","1000"})
+    public int items;
+
+    private final BenchmarkJenkins j = new BenchmarkJenkins();
+    private Queue queue;
+    private final List<FreeStyleProject> projects = new ArrayList<FreeStyleProject>();
+    private final List<Integer> ids = new ArrayList<Integer>();
+    private final Random random = new Random(0);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Jenkins jenkins = j.start();
+        jenkins.setNumExecutors(executors);
+        queue = jenkins.getQueue();
+
+        Label nowhere = jenkins.getLabel("nowhere");
+        for (int i=0; i<items; i++) {
+            FreeStyleProject p = j.createFreeStyleProject();
+            p.setAssignedLabel(nowhere);
+            projects.add(p);
+            ids.add(queue.schedule(p, 0).id);
+        }
+        queue.maintain();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        j.stop();
+    }
+
+    @Benchmark
+    public void maintain() {
+        queue.maintain();
+    }
+
+    @Benchmark
+    public Item getItemById() {
+        return queue.getItem(ids.get(random.nextInt(ids.size())));
+    }
+
+    @Benchmark
+    public Item getItemByTask() {
+        return queue.getItem(projects.get(random.nextInt(projects.size())));
+    }
+
+    @Benchmark
+    public Item[] getItems() {
+        return queue.getItems();
+    }
+
+    /**
+     * Scheduling an already queued task exercises the duplicate check.
+     */
+    @Benchmark
+    public Item scheduleDuplicate() {
+        return queue.schedule(projects.get(random.nextInt(projects.size())), 0);
+    }
+}
@@ -0,0 +1,82 @@
+package hudson.model;
+
+import hudson.Util;
+import jenkins.benchmark.BenchmarkJenkins;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link RunMap#load(Job, RunMap.Constructor)} of a job with many build records,
+ * both in the eager and the lazy mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class RunMapBenchmark {
+    @Param({"100","1000"})
+    public int builds;
+
+    @Param({"false","true"})
+    public boolean lazy;
+
+    private final BenchmarkJenkins j = new BenchmarkJenkins();
+    private FreeStyleProject p;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        j.start();
+        p = j.createFreeStyleProject();
+        FreeStyleBuild b = p.scheduleBuild2(0).get();
+
+        // clone the build record to fabricate a long history
+        File dir = b.getRootDir();
+        String xml = FileUtils.readFileToString(new File(dir,"build.xml"),"UTF-8");
+        long t = b.getTimeInMillis();
+        for (int i=2; i<=builds; i++) {
+            File d = new File(p.getBuildDir(), Run.ID_FORMATTER.get().format(t + i*1000L));
+            d.mkdirs();
+            FileUtils.writeStringToFile(new File(d,"build.xml"),
+                    xml.replace("<number>1</number>","<number>"+i+"</number>"), "UTF-8");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Util.deleteRecursive(p.getBuildDir());
+        j.stop();
+    }
+
+    @Benchmark
+    public RunMap<FreeStyleBuild> load() {
+        RunMap<FreeStyleBuild> m = new RunMap<FreeStyleBuild>(lazy);
+        m.load(p, new RunMap.Constructor<FreeStyleBuild>() {
+            public FreeStyleBuild create(File dir) throws IOException {
+                return new FreeStyleBuild(p,dir);
+            }
+        });
+        return m;
+    }
+
+    /**
+     * Load, then access the newest build, which is what most pages do.
+     */
+    @Benchmark
+    public FreeStyleBuild loadAndGetLastBuild() {
+        return load().newestValue();
+    }
+}
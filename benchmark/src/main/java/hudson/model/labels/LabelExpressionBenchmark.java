@@ -0,0 +1,88 @@
+package hudson.model.labels;
+
+import antlr.ANTLRException;
+import hudson.model.Label;
+import hudson.model.Node;
+import jenkins.benchmark.BenchmarkJenkins;
+import jenkins.model.Jenkins;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link LabelExpression} parsing and evaluation, both by walking the expression tree
+ * ({@link Label#matches}) and through the compiled form in {@link LabelIndex} ({@link Label#contains}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+public class LabelExpressionBenchmark {
+    @Param({
+        "linux",
+        "linux&&x86",
+        "(linux||solaris)&&!windows&&(jdk6->x86)",
+        "a&&b&&c&&d&&e&&f&&g&&h||i&&j&&k&&!l"})
+    public String expression;
+
+    private final BenchmarkJenkins j = new BenchmarkJenkins();
+    private Label label;
+    private Set<LabelAtom> matching, nonMatching;
+    private Node matchingNode, nonMatchingNode;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        j.start();
+        label = Label.parseExpression(expression);
+        matching = Label.parse("linux x86 jdk6 a b c d e f g h i j k");
+        nonMatching = Label.parse("windows amd64 jdk7 i j k l");
+        matchingNode = j.createSlave("linux x86 jdk6 a b c d e f g h i j k", null);
+        nonMatchingNode = j.createSlave("windows amd64 jdk7 i j k l", null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        j.stop();
+    }
+
+    @Benchmark
+    public Label parse() throws ANTLRException {
+        return Label.parseExpression(expression);
+    }
+
+    @Benchmark
+    public boolean matches() {
+        return label.matches(matching);
+    }
+
+    @Benchmark
+    public boolean doesNotMatch() {
+        return label.matches(nonMatching);
+    }
+
+    @Benchmark
+    public boolean matchesNode() {
+        return label.matches(matchingNode);
+    }
+
+    @Benchmark
+    public boolean containsNode() {
+        return label.contains(matchingNode);
+    }
+
+    @Benchmark
+    public boolean doesNotContainNode() {
+        return label.contains(nonMatchingNode);
+    }
+}
@@ -0,0 +1,133 @@
+package hudson.model.queue;
+
+import hudson.model.Action;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.FreeStyleProject;
+import hudson.model.Label;
+import hudson.model.LoadBalancer;
+import hudson.model.Queue.BuildableItem;
+import hudson.model.Queue.WaitingItem;
+import hudson.model.queue.MappingWorksheet.ExecutorSlot;
+import hudson.model.queue.MappingWorksheet.Mapping;
+import jenkins.benchmark.BenchmarkJenkins;
+import jenkins.model.Jenkins;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures one pass of {@link LoadBalancer#map(MappingBatch)} over M buildable items and N idle executors,
+ * which is what {@link hudson.model.Queue#maintain()} does with the buildable items.
+ *
+ * <p>
+ * Items are tied to a label that no node has, so nothing gets assigned and every pass builds the worksheets
+ * of all the items. {@link MappingBatch} asks each computer once per label, so the time per pass should grow
+ * with M but hardly with N. Asking every executor about every item made it grow with M*N.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class MappingBatchBenchmark {
+    @Param({"2","50","200"})
+    public int executors;
+
+    @Param({"10","100","1000"})
+    public int items;
+
+    private final BenchmarkJenkins j = new BenchmarkJenkins();
+    private final List<BuildableItem> buildables = new ArrayList<BuildableItem>();
+    private final List<ExecutorSlot> slots = new ArrayList<ExecutorSlot>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Jenkins jenkins = j.start();
+        jenkins.setNumExecutors(executors);
+
+        Label nowhere = jenkins.getLabel("nowhere");
+        for (int i=0; i<items; i++) {
+            FreeStyleProject p = j.createFreeStyleProject();
+            p.setAssignedLabel(nowhere);
+            buildables.add(new BuildableItem(new WaitingItem(new GregorianCalendar(), p, Collections.<Action>emptyList())));
+        }
+
+        for (Executor e : jenkins.toComputer().getExecutors())
+            slots.add(new Slot(e));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        j.stop();
+    }
+
+    @Benchmark
+    public void pass() {
+        LoadBalancer.CONSISTENT_HASH.map(new MappingBatch(buildables, slots) {
+            @Override
+            protected boolean isBlocked(BuildableItem item) {
+                return false;
+            }
+
+            /**
+             * What {@link hudson.model.Queue} checks, save for the statistics.
+             */
+            @Override
+            protected boolean canTake(ExecutorSlot slot, BuildableItem item) {
+                if (slot.getExecutor().getOwner().getNode().canTake(item)!=null)
+                    return false;
+                for (QueueTaskDispatcher d : QueueTaskDispatcher.all())
+                    if (d.canTake(slot.getExecutor().getOwner().getNode(),item)!=null)
+                        return false;
+                return slot.isAvailable();
+            }
+
+            @Override
+            protected boolean canTakeDependsOnlyOnLabel(Computer c) {
+                return isDecidedByLabel(c.getNode());
+            }
+
+            @Override
+            protected void execute(BuildableItem item, Mapping m) {
+                throw new IllegalStateException(item+" shouldn't have found an executor");
+            }
+        });
+    }
+
+    private static final class Slot extends ExecutorSlot {
+        private final Executor executor;
+
+        Slot(Executor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public Executor getExecutor() {
+            return executor;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        protected void set(WorkUnit p) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
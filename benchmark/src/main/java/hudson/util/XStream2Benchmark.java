@@ -0,0 +1,60 @@
+package hudson.util;
+
+import hudson.XmlFile;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Items;
+import hudson.model.Run;
+import jenkins.benchmark.BenchmarkJenkins;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link XStream2} unmarshalling of config.xml and build.xml.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class XStream2Benchmark {
+    private final BenchmarkJenkins j = new BenchmarkJenkins();
+    private FreeStyleProject p;
+    private FreeStyleBuild b;
+    private XmlFile configXml, buildXml;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        j.start();
+        p = j.createFreeStyleProject();
+        b = p.scheduleBuild2(0).get();
+        configXml = Items.getConfigFile(p);
+        buildXml = new XmlFile(Run.XSTREAM, new File(b.getRootDir(),"build.xml"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        j.stop();
+    }
+
+    @Benchmark
+    public Object configXml() throws IOException {
+        return configXml.unmarshal(p);
+    }
+
+    @Benchmark
+    public Object buildXml() throws IOException {
+        return buildXml.unmarshal(b);
+    }
+}
@@ -0,0 +1,44 @@
+package jenkins.benchmark;
+
+import hudson.model.FreeStyleProject;
+import hudson.security.ACL;
+import jenkins.model.Jenkins;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.IOException;
+
+/**
+ * Boots a {@link Jenkins} instance for benchmarks that need one, outside JUnit.
+ *
+ * <p>
+ * Call {@link #start()} from a {@code @Setup} method and {@link #stop()} from
+ * the matching {@code @TearDown}.
+ */
+public class BenchmarkJenkins extends JenkinsRule {
+    public Jenkins start() throws Exception {
+        try {
+            before();
+        } catch (Exception e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new Error(t);
+        }
+        ACL.impersonate(ACL.SYSTEM);
+        return jenkins;
+    }
+
+    public void stop() {
+        after();
+    }
+
+    @Override
+    protected void recipe() throws Exception {
+        // there's no test method to look for recipe annotations on
+        recipeLoadCurrentPlugin();
+    }
+
+    @Override
+    public FreeStyleProject createFreeStyleProject() throws IOException {
+        return super.createFreeStyleProject();
+    }
+}
@@ -46,6 +46,8 @@ import jenkins.InitReactorRunner;
 import jenkins.RestartRequiredException;
 import jenkins.YesNoMaybe;
 import jenkins.model.Jenkins;
+import jenkins.model.StartupProfile;
+import jenkins.model.StartupProfile.Category;
 import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
@@ -311,6 +313,7 @@ public abstract class PluginManager extends AbstractModelObject {
                     for (final PluginWrapper p : activePlugins.toArray(new PluginWrapper[activePlugins.size()])) {
                         g.followedBy().notFatal().attains(PLUGINS_PREPARED).add("Loading plugin " + p.getShortName(), new Executable() {
                             public void run(Reactor session) throws Exception {
+                                long start = System.currentTimeMillis();
                                 try {
                                     p.resolvePluginDependencies();
                                     strategy.load(p);
@@ -319,6 +322,8 @@ public abstract class PluginManager extends AbstractModelObject {
                                     activePlugins.remove(p);
                                     plugins.remove(p);
                                     throw e;
+                                } finally {
+                                    recordStartupTime(p, "load", start);
                                 }
                             }
                         });
@@ -328,6 +333,7 @@ public abstract class PluginManager extends AbstractModelObject {
                     for (final PluginWrapper p : activePlugins.toArray(new PluginWrapper[activePlugins.size()])) {
                         g.followedBy().notFatal().attains(PLUGINS_STARTED).add("Initializing plugin " + p.getShortName(), new Executable() {
                             public void run(Reactor session) throws Exception {
+                                long start = System.currentTimeMillis();
                                 try {
                                     p.getPlugin().postInitialize();
                                 } catch (Exception e) {
@@ -335,6 +341,8 @@ public abstract class PluginManager extends AbstractModelObject {
                                     activePlugins.remove(p);
                                     plugins.remove(p);
                                     throw e;
+                                } finally {
+                                    recordStartupTime(p, "initialize", start);
                                 }
                             }
                         });
@@ -363,6 +371,13 @@ public abstract class PluginManager extends AbstractModelObject {
                 || bundledPlugins.contains(name.replaceAll("\\.jpi",".hpi"));
     }
 
+    private void recordStartupTime(PluginWrapper p, String stage, long start) {
+        Jenkins j = Jenkins.getInstance();
+        StartupProfile profile = j!=null ? j.getStartupProfile() : null;
+        if (profile!=null)
+            profile.record(Category.PLUGIN, p.getShortName(), stage, System.currentTimeMillis()-start);
+    }
+
     /**
      * TODO: revisit where/how to expose this. This is an experiment.
      */
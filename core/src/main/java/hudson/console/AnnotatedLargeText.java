@@ -25,6 +25,7 @@ package hudson.console;
 
 import com.trilead.ssh2.crypto.Base64;
 import jenkins.model.Jenkins;
+import hudson.model.Api;
 import hudson.remoting.ObjectInputStreamEx;
 import hudson.util.IOException2;
 import hudson.util.Secret;
@@ -33,21 +34,35 @@ import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.kohsuke.stapler.Stapler;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
 import org.kohsuke.stapler.framework.io.ByteBuffer;
 import org.kohsuke.stapler.framework.io.LargeText;
+import org.kohsuke.stapler.framework.io.LineEndNormalizingWriter;
+import org.kohsuke.stapler.framework.io.WriterOutputStream;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import javax.crypto.CipherOutputStream;
+import javax.servlet.http.HttpServletResponse;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
 import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
 import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -76,14 +91,127 @@ public class AnnotatedLargeText<T> extends LargeText {
      */
     private T context;
 
+    /**
+     * If the log has been compressed, the compressed log to read from instead of the file.
+     */
+    private final BlockCompressedLog compressed;
+
+    /**
+     * If the log is a plain file, that file. We read it ourselves to reuse buffers between requests.
+     */
+    private final File file;
+
     public AnnotatedLargeText(File file, Charset charset, boolean completed, T context) {
         super(file, charset, completed);
         this.context = context;
+        this.compressed = null;
+        this.file = file;
+    }
+
+    /**
+     * Reads the log from its block compressed form.
+     *
+     * @since 1.475
+     */
+    public AnnotatedLargeText(BlockCompressedLog compressed, Charset charset, boolean completed, T context) {
+        super(compressed.getFile(), charset, completed);
+        this.context = context;
+        this.compressed = compressed;
+        this.file = null;
     }
 
     public AnnotatedLargeText(ByteBuffer memory, Charset charset, boolean completed, T context) {
         super(memory, charset, completed);
         this.context = context;
+        this.compressed = null;
+        this.file = null;
+    }
+
+    @Override
+    public long length() {
+        return compressed!=null ? compressed.length() : super.length();
+    }
+
+    @Override
+    public Reader readAll() throws IOException {
+        if (compressed==null)   return super.readAll();
+        return new InputStreamReader(compressed.read(0),charset);
+    }
+
+    /**
+     * Serves the text from the given offset, with the same protocol as {@link LargeText}.
+     *
+     * <p>
+     * Browsers poll this every few seconds for every open console page, so for logs on the disk
+     * we take over from {@link LargeText} and read through the per-thread buffers of {@link LogBuffers}
+     * instead of allocating new ones for every request. The plain text output is streamed straight
+     * to the response, and only the HTML output, which needs to set a header after the fact, is spooled.
+     */
+    @Override
+    public void doProgressText(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        if (file==null && compressed==null) {
+            // in-memory text
+            super.doProgressText(req,rsp);
+            return;
+        }
+
+        long allocated = Statistics.MEASURE_ALLOCATION ? Statistics.allocatedBytes() : -1;
+        long startTime = System.nanoTime();
+
+        setContentType(rsp);
+        rsp.setStatus(HttpServletResponse.SC_OK);
+
+        if (compressed==null && !file.exists()) {
+            // file doesn't exist yet
+            rsp.addHeader("X-Text-Size","0");
+            rsp.addHeader("X-More-Data","true");
+            return;
+        }
+
+        long start = 0;
+        String s = req.getParameter("start");
+        if(s!=null)
+            start = Long.parseLong(s);
+        if(length() < start)
+            start = 0;  // text rolled over
+
+        long end;
+        Writer w;
+        if (isHtml()) {
+            // spool the output, since writing it sets the X-ConsoleAnnotator header
+            LogBuffers.Spool spool = LogBuffers.borrowSpool();
+            try {
+                end = writeHtmlTo(start,spool);
+                addProgressHeaders(rsp,end);
+                w = openWriter(req,rsp,end-start);
+                spool.writeTo(w);
+            } finally {
+                LogBuffers.release(spool);
+            }
+        } else {
+            end = endOfText(start);
+            addProgressHeaders(rsp,end);
+            w = openWriter(req,rsp,end-start);
+            writePlainTo(start,end,w);
+        }
+        w.close();
+
+        STATISTICS.record(end-start, allocated, startTime);
+    }
+
+    private void addProgressHeaders(StaplerResponse rsp, long end) {
+        rsp.addHeader("X-Text-Size",String.valueOf(end));
+        if(!isComplete())
+            rsp.addHeader("X-More-Data","true");
+    }
+
+    private Writer openWriter(StaplerRequest req, StaplerResponse rsp, long size) throws IOException {
+        Writer w;
+        if(size>4096)
+            w = rsp.getCompressedWriter(req);
+        else
+            w = rsp.getWriter();
+        return new LineEndNormalizingWriter(w);
     }
 
     public void doProgressiveHtml(StaplerRequest req, StaplerResponse rsp) throws IOException {
@@ -143,19 +271,38 @@ public class AnnotatedLargeText<T> extends LargeText {
     public long writeLogTo(long start, Writer w) throws IOException {
         if (isHtml())
             return writeHtmlTo(start, w);
-        else
+        else if (file==null && compressed==null)
             return super.writeLogTo(start,w);
+
+        long end = endOfText(start);
+        writePlainTo(start,end,w);
+        return end;
     }
 
     @Override
     public long writeLogTo(long start, OutputStream out) throws IOException {
-        return super.writeLogTo(start, new PlainTextConsoleOutputStream(out));
+        PlainTextConsoleOutputStream plain = new PlainTextConsoleOutputStream(out);
+        long r = writeRawLogTo(start, plain);
+        plain.forceEol();
+        out.flush();
+        return r;
+    }
+
+    /**
+     * Writes the log in the given range with console notes stripped.
+     */
+    private void writePlainTo(long start, long end, Writer w) throws IOException {
+        WriterOutputStream out = new WriterOutputStream(w,charset);
+        PlainTextConsoleOutputStream plain = new PlainTextConsoleOutputStream(out);
+        writeRange(start,end,plain);
+        plain.forceEol();
+        out.flush();
     }
 
     public long writeHtmlTo(long start, Writer w) throws IOException {
         ConsoleAnnotationOutputStream caw = new ConsoleAnnotationOutputStream(
                 w, createAnnotator(Stapler.getCurrentRequest()), context, charset);
-        long r = super.writeLogTo(start,caw);
+        long r = writeRawLogTo(start,caw);
 
         try {
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -174,4 +321,218 @@ public class AnnotatedLargeText<T> extends LargeText {
         return r;
     }
 
+    /**
+     * Writes the log bytes as they are, from the given offset.
+     *
+     * @return the offset to continue from next time.
+     */
+    private long writeRawLogTo(long start, OutputStream out) throws IOException {
+        if (file==null && compressed==null)
+            return super.writeLogTo(start,out);
+
+        long end = endOfText(start);
+        writeRange(start,end,out);
+        return end;
+    }
+
+    /**
+     * Determines where the text to be sent ends. If the log is still being written,
+     * that's the end of the last complete line, so that we never send a partial line.
+     */
+    private long endOfText(long start) throws IOException {
+        if (compressed!=null)
+            return Math.max(start,compressed.length());
+
+        RandomAccessFile raf = new RandomAccessFile(file,"r");
+        try {
+            long size = raf.length();
+            if (size<=start)    return start;
+            if (isComplete())   return size;
+
+            byte[] buf = LogBuffers.borrowBytes();
+            try {
+                long pos = size;
+                while (pos>start) {
+                    int len = (int)Math.min(buf.length,pos-start);
+                    pos -= len;
+                    raf.seek(pos);
+                    raf.readFully(buf,0,len);
+                    for (int i=len-1; i>=0; i--)
+                        if (buf[i]=='\n')
+                            return pos+i+1;
+                }
+                return start;
+            } finally {
+                LogBuffers.release(buf);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Copies the log bytes in the given range.
+     */
+    private void writeRange(long start, long end, OutputStream out) throws IOException {
+        byte[] buf = LogBuffers.borrowBytes();
+        try {
+            if (compressed!=null) {
+                long pos = start;
+                while (pos<end) {
+                    int n = compressed.read(pos,buf,0,(int)Math.min(buf.length,end-pos));
+                    if (n<0)    break;
+                    out.write(buf,0,n);
+                    pos += n;
+                }
+            } else {
+                RandomAccessFile raf = new RandomAccessFile(file,"r");
+                try {
+                    raf.seek(start);
+                    long pos = start;
+                    while (pos<end) {
+                        int n = raf.read(buf,0,(int)Math.min(buf.length,end-pos));
+                        if (n<0)    break;
+                        out.write(buf,0,n);
+                        pos += n;
+                    }
+                } finally {
+                    raf.close();
+                }
+            }
+            out.flush();
+        } finally {
+            LogBuffers.release(buf);
+        }
+    }
+
+    /**
+     * Statistics of the progressive text requests served so far, to keep an eye on
+     * how much the console pages cost.
+     *
+     * <p>
+     * This object is exposed to the remote API as {@code /consoleStatistics/api/}.
+     *
+     * @since 1.475
+     * @see ConsoleStatisticsLink
+     */
+    @ExportedBean
+    public static final class Statistics {
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong bytesServed = new AtomicLong();
+        private final AtomicLong bytesAllocated = new AtomicLong();
+
+        private Statistics() {}
+
+        /**
+         * Number of progressive text requests served from the disk.
+         */
+        @Exported
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * Total number of log bytes served.
+         */
+        @Exported
+        public long getBytesServed() {
+            return bytesServed.get();
+        }
+
+        /**
+         * Total number of bytes allocated on the heap while serving, or -1 if the JVM can't tell us
+         * or {@link #MEASURE_ALLOCATION} is off.
+         */
+        @Exported
+        public long getBytesAllocated() {
+            return MEASURE_ALLOCATION && THREAD_ALLOCATED_BYTES!=null ? bytesAllocated.get() : -1;
+        }
+
+        /**
+         * Number of times a buffer had to be allocated because the thread didn't have one to reuse.
+         */
+        @Exported
+        public long getBufferMisses() {
+            return LogBuffers.getMisses();
+        }
+
+        private void record(long bytes, long allocatedBefore, long startTime) {
+            requests.incrementAndGet();
+            bytesServed.addAndGet(bytes);
+
+            long allocated = -1;
+            if (allocatedBefore>=0) {
+                long now = allocatedBytes();
+                if (now>=0) {
+                    allocated = now-allocatedBefore;
+                    bytesAllocated.addAndGet(allocated);
+                }
+            }
+
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.fine(String.format("Served %d bytes of progressive text in %dms, allocating %d bytes",
+                        bytes, (System.nanoTime()-startTime)/1000000, allocated));
+        }
+
+        public Api getApi() {
+            return new Api(this);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requests=%d bytesServed=%d bytesAllocated=%d bufferMisses=%d",
+                    getRequests(), getBytesServed(), getBytesAllocated(), getBufferMisses());
+        }
+
+        /**
+         * Bytes allocated so far by the current thread, or -1 if the JVM doesn't support it.
+         */
+        private static long allocatedBytes() {
+            if (THREAD_ALLOCATED_BYTES==null)   return -1;
+            try {
+                return (Long)THREAD_ALLOCATED_BYTES.invoke(THREADS, Thread.currentThread().getId());
+            } catch (Exception e) {
+                return -1;
+            }
+        }
+
+        /**
+         * Measuring the allocation takes two reflective calls per request, so it's off unless asked for.
+         */
+        public static boolean MEASURE_ALLOCATION = Boolean.getBoolean(AnnotatedLargeText.class.getName()+".measureAllocation");
+
+        private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+        /**
+         * {@code com.sun.management.ThreadMXBean.getThreadAllocatedBytes(long)}, which is only available on some JVMs.
+         */
+        private static final Method THREAD_ALLOCATED_BYTES;
+
+        static {
+            Method m = null;
+            try {
+                Class<?> c = Class.forName("com.sun.management.ThreadMXBean");
+                if (c.isInstance(THREADS))
+                    m = c.getMethod("getThreadAllocatedBytes", long.class);
+            } catch (ClassNotFoundException e) {
+                // not available on this JVM
+            } catch (NoSuchMethodException e) {
+                // ditto
+            }
+            THREAD_ALLOCATED_BYTES = m;
+        }
+    }
+
+    private static final Statistics STATISTICS = new Statistics();
+
+    /**
+     * Gets the statistics of the progressive text requests served so far.
+     *
+     * @since 1.475
+     */
+    public static Statistics getStatistics() {
+        return STATISTICS;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(AnnotatedLargeText.class.getName());
 }
@@ -0,0 +1,290 @@
+package hudson.console;
+
+import hudson.util.IOException2;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Console log compressed in independently deflated blocks, so that any part of the log
+ * can be read by inflating just the blocks that cover it.
+ *
+ * <p>
+ * The file consists of a magic header, followed by the blocks, each of which holds {@link #BLOCK_SIZE}
+ * bytes of the log (except the last one), then the table of the file offsets of the blocks as 8-byte integers,
+ * and finally the trailer of the number of blocks (4 bytes), the uncompressed length of the log (8 bytes),
+ * the offset of the table (8 bytes), and the magic header again.
+ *
+ * <p>
+ * Logs are compressed once they are complete (see {@link #compress(File)}), as the console of a running build
+ * needs to see the output as soon as it's written. Offsets into a compressed log are the same as offsets into
+ * the original log, so {@link ConsoleLineIndex} and progressive console output work the same way.
+ *
+ * @since 1.475
+ */
+public final class BlockCompressedLog {
+    private final File file;
+    private final int blocks;
+    private final long length;
+    private final long[] offsets;
+
+    /**
+     * The last block we inflated, to serve sequential reads.
+     */
+    private int cachedIndex = -1;
+    private byte[] cached;
+
+    private BlockCompressedLog(File file) throws IOException {
+        this.file = file;
+        RandomAccessFile raf = new RandomAccessFile(file,"r");
+        try {
+            long size = raf.length();
+            if (size < MAGIC.length+TRAILER_SIZE)
+                throw new IOException(file+" is not a block compressed log");
+            raf.seek(size-TRAILER_SIZE);
+            blocks = raf.readInt();
+            length = raf.readLong();
+            long table = raf.readLong();
+            byte[] magic = new byte[MAGIC.length];
+            raf.readFully(magic);
+            if (!Arrays.equals(magic,MAGIC) || blocks<0 || table+blocks*8L+TRAILER_SIZE!=size)
+                throw new IOException(file+" is not a block compressed log");
+
+            offsets = new long[blocks+1];
+            raf.seek(table);
+            for (int i=0; i<blocks; i++)
+                offsets[i] = raf.readLong();
+            offsets[blocks] = table;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Opens a compressed log.
+     *
+     * @throws IOException
+     *      if the file doesn't exist, or if it isn't a block compressed log.
+     */
+    public static BlockCompressedLog open(File file) throws IOException {
+        return new BlockCompressedLog(file);
+    }
+
+    /**
+     * Where the compressed form of the given log is kept.
+     */
+    public static File getFile(File log) {
+        return new File(log.getPath()+".blocks");
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Length of the uncompressed log.
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Reads the uncompressed log at the given offset.
+     *
+     * @return
+     *      number of bytes read, or -1 if the offset is at or beyond the end of the log.
+     */
+    public synchronized int read(long pos, byte[] buf, int off, int len) throws IOException {
+        if (pos>=length)    return -1;
+        int index = (int)(pos/BLOCK_SIZE);
+        byte[] block = block(index);
+        int start = (int)(pos-(long)index*BLOCK_SIZE);
+        int n = Math.min(len, block.length-start);
+        System.arraycopy(block,start,buf,off,n);
+        return n;
+    }
+
+    /**
+     * Reads the uncompressed log from the given offset.
+     */
+    public InputStream read(final long start) {
+        return new InputStream() {
+            private long pos = start;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b,0,1)<0 ? -1 : b[0]&0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len==0)     return 0;
+                int n = BlockCompressedLog.this.read(pos,b,off,len);
+                if (n>0)    pos+=n;
+                return n;
+            }
+
+            @Override
+            public long skip(long n) {
+                n = Math.max(0,Math.min(n,length-pos));
+                pos += n;
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return (int)Math.min(Integer.MAX_VALUE, Math.max(0,length-pos));
+            }
+        };
+    }
+
+    private byte[] block(int index) throws IOException {
+        if (index==cachedIndex)     return cached;
+
+        byte[] compressed = new byte[(int)(offsets[index+1]-offsets[index])];
+        RandomAccessFile raf = new RandomAccessFile(file,"r");
+        try {
+            raf.seek(offsets[index]);
+            raf.readFully(compressed);
+        } finally {
+            raf.close();
+        }
+
+        byte[] block = new byte[(int)Math.min(BLOCK_SIZE, length-(long)index*BLOCK_SIZE)];
+        Inflater inf = new Inflater(true);
+        try {
+            // nowrap inflater needs an extra dummy byte at the end
+            byte[] input = new byte[compressed.length+1];
+            System.arraycopy(compressed,0,input,0,compressed.length);
+            inf.setInput(input);
+            int n = 0;
+            while (n<block.length) {
+                int r = inf.inflate(block,n,block.length-n);
+                if (r==0 && (inf.finished() || inf.needsInput()))
+                    throw new IOException("Block "+index+" of "+file+" is truncated");
+                n += r;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException2("Block "+index+" of "+file+" is corrupted",e);
+        } finally {
+            inf.end();
+        }
+
+        cachedIndex = index;
+        cached = block;
+        return block;
+    }
+
+    /**
+     * Compresses the given log into {@link #getFile(File)}, and deletes the original.
+     *
+     * @return
+     *      the compressed log.
+     */
+    public static File compress(File log) throws IOException {
+        File dst = getFile(log);
+        File tmp = new File(dst.getPath()+".tmp");
+        FileInputStream in = new FileInputStream(log);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.write(MAGIC);
+                long pos = MAGIC.length;
+                long length = 0;
+                LongList offsets = new LongList();
+                byte[] block = new byte[BLOCK_SIZE];
+                byte[] buf = new byte[BLOCK_SIZE+BLOCK_SIZE/8];
+                Deflater def = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+                try {
+                    int len;
+                    while ((len=readBlock(in,block))>0) {
+                        def.reset();
+                        def.setInput(block,0,len);
+                        def.finish();
+                        offsets.add(pos);
+                        while (!def.finished()) {
+                            int n = def.deflate(buf);
+                            out.write(buf,0,n);
+                            pos += n;
+                        }
+                        length += len;
+                    }
+                } finally {
+                    def.end();
+                }
+
+                long table = pos;
+                for (int i=0; i<offsets.size; i++)
+                    out.writeLong(offsets.data[i]);
+                out.writeInt(offsets.size);
+                out.writeLong(length);
+                out.writeLong(table);
+                out.write(MAGIC);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        } finally {
+            in.close();
+        }
+
+        if (dst.exists() && !dst.delete()) {
+            tmp.delete();
+            throw new IOException("Unable to delete "+dst);
+        }
+        if (!tmp.renameTo(dst))
+            throw new IOException("Unable to rename "+tmp+" to "+dst);
+        if (!log.delete())
+            throw new IOException("Unable to delete "+log);
+        return dst;
+    }
+
+    /**
+     * Reads up to one full block.
+     */
+    private static int readBlock(InputStream in, byte[] block) throws IOException {
+        int n = 0;
+        while (n<block.length) {
+            int r = in.read(block,n,block.length-n);
+            if (r<0)    break;
+            n += r;
+        }
+        return n;
+    }
+
+    private static final class LongList {
+        long[] data = new long[64];
+        int size;
+
+        void add(long v) {
+            if (size==data.length) {
+                long[] d = new long[size*2];
+                System.arraycopy(data,0,d,0,size);
+                data = d;
+            }
+            data[size++] = v;
+        }
+    }
+
+    /**
+     * Number of uncompressed bytes in a block.
+     */
+    public static final int BLOCK_SIZE = 64*1024;
+
+    private static final byte[] MAGIC = {'J','L','O','G','B','L','K','1'};
+
+    private static final int TRAILER_SIZE = 4+8+8+8;
+}
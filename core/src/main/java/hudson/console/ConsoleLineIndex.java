@@ -0,0 +1,383 @@
+package hudson.console;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Index of line offsets of a console log, so that lines can be located without reading the log from the start.
+ *
+ * <p>
+ * The index lives next to the log as "log-index", and it's a sequence of 8-byte offsets,
+ * one for every {@link #INTERVAL}-th line: the n-th entry is the offset where the line {@code (n+1)*INTERVAL}
+ * (0-origin) starts. It's written by {@link #createIndexingStream(OutputStream)} while the log is written,
+ * so it can lag a bit behind the log of a running build, and lines after the last indexed one are
+ * found by scanning the log.
+ *
+ * <p>
+ * The log is read with positional {@link FileChannel} reads (or from the {@link BlockCompressedLog}
+ * if the log has been compressed), so locating N lines from the end or from a given line costs
+ * roughly the size of those lines, not the size of the whole log.
+ * (We don't memory-map the log, since on Windows a mapped file can't be deleted until the mapping
+ * is garbage collected, which would get in the way of deleting builds.)
+ *
+ * @since 1.475
+ */
+public final class ConsoleLineIndex {
+    private final File log;
+    private final File index;
+
+    public ConsoleLineIndex(File log) {
+        this.log = log;
+        this.index = new File(log.getPath()+"-index");
+    }
+
+    public File getLogFile() {
+        return log;
+    }
+
+    /**
+     * Returns true if the index exists. Builds done by earlier versions don't have it,
+     * and locating a line by its number then requires scanning the log from the start.
+     */
+    public boolean exists() {
+        return index.exists();
+    }
+
+    /**
+     * Wraps the stream that writes to the log, so that the index is written along with it.
+     * The returned stream must receive all the bytes that go to the log file, in the same order.
+     *
+     * <p>
+     * If the index can't be created, this method just returns the given stream.
+     */
+    public OutputStream createIndexingStream(OutputStream out) {
+        try {
+            return new IndexingOutputStream(out, new FileOutputStream(index));
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to create "+index, e);
+            return out;
+        }
+    }
+
+    /**
+     * Counts the lines in the log. A trailing line without a line terminator counts as a line, too.
+     */
+    public long getLineCount() throws IOException {
+        Source ch = open();
+        try {
+            long[] last = lastIndexed();
+            return last[0] + countLines(ch, last[1]);
+        } finally {
+            ch.close();
+        }
+    }
+
+    /**
+     * Gets the offset where the given line (0-origin) starts.
+     *
+     * @return
+     *      the size of the log if the log doesn't have that many lines.
+     */
+    public long getLineOffset(long line) throws IOException {
+        if (line<=0)    return 0;
+
+        Source ch = open();
+        try {
+            long n = Math.min(line/INTERVAL, entries());
+            long offset = n==0 ? 0 : readEntry(n-1);
+            return skipLines(ch, offset, line-n*INTERVAL);
+        } finally {
+            ch.close();
+        }
+    }
+
+    /**
+     * Gets the offset where the last N lines of the log start.
+     * This only reads the tail of the log, and doesn't need the index.
+     */
+    public long getTailOffset(int lines) throws IOException {
+        Source ch = open();
+        try {
+            long end = ch.size();
+            if (lines<=0)   return end;
+
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            long pos = end;
+            boolean tail = true; // still looking at the last byte of the log?
+            while (pos>0) {
+                int len = (int)Math.min(buf.capacity(), pos);
+                pos -= len;
+                buf.clear();
+                buf.limit(len);
+                readFully(ch, buf, pos);
+                for (int i=len-1; i>=0; i--) {
+                    if (buf.get(i)=='\n') {
+                        // the terminator of the last line doesn't start a new line
+                        if (!tail && --lines==0)
+                            return pos+i+1;
+                    }
+                    tail = false;
+                }
+            }
+            return 0;
+        } finally {
+            ch.close();
+        }
+    }
+
+    /**
+     * Writes the bytes of the log between the two offsets.
+     */
+    public void writeTo(long start, long end, OutputStream out) throws IOException {
+        Source ch = open();
+        try {
+            ch.writeTo(start, Math.min(end, ch.size()), out);
+        } finally {
+            ch.close();
+        }
+    }
+
+    /**
+     * Opens the log starting at the given offset.
+     */
+    public InputStream read(long offset) throws IOException {
+        if (!log.exists()) {
+            File compressed = BlockCompressedLog.getFile(log);
+            if (compressed.exists())
+                return BlockCompressedLog.open(compressed).read(offset);
+        }
+        FileInputStream in = new FileInputStream(log);
+        in.getChannel().position(offset);
+        return in;
+    }
+
+    /**
+     * Opens the log, or its compressed form if the log has been compressed.
+     */
+    private Source open() throws IOException {
+        if (!log.exists()) {
+            File compressed = BlockCompressedLog.getFile(log);
+            if (compressed.exists())
+                return new CompressedSource(BlockCompressedLog.open(compressed));
+        }
+        return new FileSource(new FileInputStream(log).getChannel());
+    }
+
+    /**
+     * Number of entries in the index.
+     */
+    private long entries() {
+        return index.length()/8;
+    }
+
+    private long readEntry(long n) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(index,"r");
+        try {
+            raf.seek(n*8);
+            return raf.readLong();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the line number and the offset of the last indexed line.
+     */
+    private long[] lastIndexed() throws IOException {
+        long n = entries();
+        if (n==0)   return new long[]{0,0};
+        return new long[]{n*INTERVAL, readEntry(n-1)};
+    }
+
+    /**
+     * Skips the given number of lines from the offset, and returns the offset of the line that follows.
+     */
+    private static long skipLines(Source ch, long pos, long lines) throws IOException {
+        if (lines==0)   return pos;
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        while (true) {
+            buf.clear();
+            int len = ch.read(buf, pos);
+            if (len<=0)     return pos;
+            for (int i=0; i<len; i++) {
+                if (buf.get(i)=='\n' && --lines==0)
+                    return pos+i+1;
+            }
+            pos += len;
+        }
+    }
+
+    private static long countLines(Source ch, long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        long lines = 0;
+        boolean partial = false;
+        while (true) {
+            buf.clear();
+            int len = ch.read(buf, pos);
+            if (len<=0)     break;
+            for (int i=0; i<len; i++)
+                if (buf.get(i)=='\n')  lines++;
+            partial = buf.get(len-1)!='\n';
+            pos += len;
+        }
+        return partial ? lines+1 : lines;
+    }
+
+    private static void readFully(Source ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos+buf.position());
+            if (n<0)    throw new IOException("Unexpected end of file");
+        }
+    }
+
+    /**
+     * Positional access to the bytes of the log.
+     */
+    private static abstract class Source {
+        abstract long size() throws IOException;
+
+        /**
+         * Reads into the buffer from the given position.
+         *
+         * @return number of bytes read, or -1 at the end.
+         */
+        abstract int read(ByteBuffer buf, long pos) throws IOException;
+
+        abstract void writeTo(long start, long end, OutputStream out) throws IOException;
+
+        void close() throws IOException {}
+    }
+
+    private static final class FileSource extends Source {
+        private final FileChannel ch;
+
+        FileSource(FileChannel ch) {
+            this.ch = ch;
+        }
+
+        long size() throws IOException {
+            return ch.size();
+        }
+
+        int read(ByteBuffer buf, long pos) throws IOException {
+            return ch.read(buf, pos);
+        }
+
+        void writeTo(long start, long end, OutputStream out) throws IOException {
+            WritableByteChannel target = Channels.newChannel(out);
+            long pos = start;
+            while (pos<end) {
+                long n = ch.transferTo(pos, end-pos, target);
+                if (n<=0)   break;
+                pos += n;
+            }
+        }
+
+        @Override
+        void close() throws IOException {
+            ch.close();
+        }
+    }
+
+    private static final class CompressedSource extends Source {
+        private final BlockCompressedLog log;
+
+        CompressedSource(BlockCompressedLog log) {
+            this.log = log;
+        }
+
+        long size() {
+            return log.length();
+        }
+
+        int read(ByteBuffer buf, long pos) throws IOException {
+            int n = log.read(pos, buf.array(), buf.arrayOffset()+buf.position(), buf.remaining());
+            if (n>0)    buf.position(buf.position()+n);
+            return n;
+        }
+
+        void writeTo(long start, long end, OutputStream out) throws IOException {
+            byte[] buf = new byte[BUFFER_SIZE];
+            long pos = start;
+            while (pos<end) {
+                int n = log.read(pos, buf, 0, (int)Math.min(buf.length, end-pos));
+                if (n<=0)   break;
+                out.write(buf,0,n);
+                pos += n;
+            }
+        }
+    }
+
+    /**
+     * Passes through the log while recording the start offsets of lines.
+     */
+    private static final class IndexingOutputStream extends FilterOutputStream {
+        private final OutputStream index;
+        private final byte[] entry = new byte[8];
+        private long pos;
+        private long lines;
+
+        IndexingOutputStream(OutputStream out, OutputStream index) {
+            super(out);
+            this.index = index;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            advance(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            for (int i=0; i<len; i++)
+                advance(b[off+i]);
+        }
+
+        private void advance(int b) throws IOException {
+            pos++;
+            if (b=='\n' && ++lines%INTERVAL==0) {
+                for (int i=0; i<8; i++)
+                    entry[i] = (byte)(pos>>>(56-i*8));
+                // unbuffered, so that readers see the entry right away
+                index.write(entry);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.close();
+            } finally {
+                index.close();
+            }
+        }
+    }
+
+    /**
+     * Number of lines between index entries.
+     */
+    public static final int INTERVAL = 64;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final Logger LOGGER = Logger.getLogger(ConsoleLineIndex.class.getName());
+}
@@ -0,0 +1,42 @@
+package hudson.console;
+
+import hudson.Extension;
+import hudson.model.Api;
+import hudson.model.ManagementLink;
+import jenkins.model.Jenkins;
+
+/**
+ * Shows {@link AnnotatedLargeText.Statistics} from "Manage Jenkins".
+ *
+ * @since 1.475
+ */
+@Extension
+public class ConsoleStatisticsLink extends ManagementLink {
+    @Override
+    public String getIconFileName() {
+        return "terminal.png";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "consoleStatistics";
+    }
+
+    public String getDisplayName() {
+        return Messages.ConsoleStatisticsLink_DisplayName();
+    }
+
+    @Override
+    public String getDescription() {
+        return Messages.ConsoleStatisticsLink_Description();
+    }
+
+    public AnnotatedLargeText.Statistics getStatistics() {
+        return AnnotatedLargeText.getStatistics();
+    }
+
+    public Api getApi() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        return getStatistics().getApi();
+    }
+}
@@ -0,0 +1,131 @@
+package hudson.console;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-thread buffers reused across progressive log requests.
+ *
+ * <p>
+ * Browsers poll the console of a running build every few seconds, so allocating fresh buffers
+ * for every poll adds up to a lot of garbage. Request handling threads are pooled by the container,
+ * so keeping one small buffer per thread bounds the retained memory by the size of the thread pool:
+ * a few KB per thread, even if individual requests needed more than that while they ran.
+ *
+ * <p>
+ * Buffers are borrowed and returned, so that a nested use on the same thread gets its own buffer
+ * instead of clobbering the one in use.
+ *
+ * @since 1.475
+ */
+/*package*/ final class LogBuffers {
+    private LogBuffers() {}
+
+    private static final ThreadLocal<byte[]> BYTES = new ThreadLocal<byte[]>();
+    private static final ThreadLocal<Spool> SPOOLS = new ThreadLocal<Spool>();
+
+    /**
+     * Number of times a buffer had to be allocated because none was available on the thread.
+     */
+    private static final AtomicLong misses = new AtomicLong();
+
+    static byte[] borrowBytes() {
+        byte[] buf = BYTES.get();
+        if (buf==null) {
+            misses.incrementAndGet();
+            return new byte[BUFFER_SIZE];
+        }
+        BYTES.set(null);
+        return buf;
+    }
+
+    static void release(byte[] buf) {
+        BYTES.set(buf);
+    }
+
+    static Spool borrowSpool() {
+        Spool spool = SPOOLS.get();
+        if (spool==null) {
+            misses.incrementAndGet();
+            return new Spool();
+        }
+        SPOOLS.set(null);
+        return spool;
+    }
+
+    static void release(Spool spool) {
+        spool.reset();
+        SPOOLS.set(spool);
+    }
+
+    static long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Growable character buffer that can be reset and reused.
+     *
+     * <p>
+     * If a request needed a bigger buffer than {@link #MAX_RETAINED_SPOOL}, the buffer is dropped upon
+     * {@link #reset()} so that one big response doesn't pin memory on the thread forever.
+     */
+    static final class Spool extends Writer {
+        private char[] buf = new char[MAX_RETAINED_SPOOL];
+        private int size;
+
+        @Override
+        public void write(int c) {
+            ensureCapacity(size+1);
+            buf[size++] = (char)c;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            ensureCapacity(size+len);
+            System.arraycopy(cbuf,off,buf,size,len);
+            size += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            ensureCapacity(size+len);
+            str.getChars(off,off+len,buf,size);
+            size += len;
+        }
+
+        private void ensureCapacity(int required) {
+            if (required<=buf.length)   return;
+            char[] newBuf = new char[Math.max(required,buf.length*2)];
+            System.arraycopy(buf,0,newBuf,0,size);
+            buf = newBuf;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void writeTo(Writer w) throws IOException {
+            w.write(buf,0,size);
+        }
+
+        public void reset() {
+            size = 0;
+            if (buf.length>MAX_RETAINED_SPOOL)
+                buf = new char[MAX_RETAINED_SPOOL];
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    }
+
+    /*package*/ static final int BUFFER_SIZE = 8*1024;
+
+    /**
+     * Spools bigger than this (in chars) are not kept around after use.
+     */
+    /*package*/ static final int MAX_RETAINED_SPOOL = 4*1024;
+}
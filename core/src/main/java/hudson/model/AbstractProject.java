@@ -82,6 +82,9 @@ import hudson.util.EditDistance;
 import hudson.util.FormValidation;
 import hudson.widgets.BuildHistoryWidget;
 import hudson.widgets.HistoryWidget;
+import jenkins.model.DeferredItemLoad;
+import jenkins.model.DeferredItemLoad.Stage;
+import jenkins.model.DeferredItemLoad.Step;
 import jenkins.model.Jenkins;
 import jenkins.scm.DefaultSCMCheckoutStrategyImpl;
 import jenkins.scm.SCMCheckoutStrategy;
@@ -271,9 +274,21 @@ public abstract class AbstractProject<P extends AbstractProject<P,R>,R extends A
 
         if (this.builds==null)
             this.builds = new RunMap<R>();
-        this.builds.load(this,new Constructor<R>() {
-            public R create(File dir) throws IOException {
-                return loadBuild(dir);
+        // during the start up, these run later as separate tasks. see Jenkins.loadTasks()
+        if (builds.isLazy()) {
+            DeferredItemLoad.run(Stage.BUILD_INDEX, new Step() {
+                public void run() {
+                    getBuildIndex().preload();
+                }
+            });
+        }
+        DeferredItemLoad.run(Stage.BUILDS, new Step() {
+            public void run() throws IOException {
+                builds.load(AbstractProject.this,new Constructor<R>() {
+                    public R create(File dir) throws IOException {
+                        return loadBuild(dir);
+                    }
+                });
             }
         });
 
@@ -282,14 +297,18 @@ public abstract class AbstractProject<P extends AbstractProject<P,R>,R extends A
             triggers = new Vector<Trigger<?>>();
             OldDataMonitor.report(this, "1.28");
         }
-        for (Trigger t : triggers)
-            t.start(this,false);
         if(scm==null)
             scm = new NullSCM(); // perhaps it was pointing to a plugin that no longer exists.
 
         if(transientActions==null)
             transientActions = new Vector<Action>();    // happens when loaded from disk
-        updateTransientActions();
+        DeferredItemLoad.run(Stage.TRIGGERS, new Step() {
+            public void run() {
+                for (Trigger t : triggers)
+                    t.start(AbstractProject.this,false);
+                updateTransientActions();
+            }
+        });
     }
 
     @Override
@@ -304,6 +323,8 @@ public abstract class AbstractProject<P extends AbstractProject<P,R>,R extends A
                 on.getFileSystemProvisioner().discardWorkspace(this,ws);
         }
         super.performDelete();
+        for (Trigger t : triggers)
+            t.stop();
     }
 
     /**
@@ -940,6 +961,11 @@ public abstract class AbstractProject<P extends AbstractProject<P,R>,R extends A
         return builds.getView();
     }
 
+    @Override
+    /*package*/ boolean isLazilyLoaded() {
+        return builds.isLazy();
+    }
+
     @Override
     public void removeRun(R run) {
         this.builds.remove(run);
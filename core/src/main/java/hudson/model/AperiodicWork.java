@@ -84,7 +84,7 @@ public abstract class AperiodicWork extends SafeTimerTask implements ExtensionPo
     @Override
     public final void doRun() throws Exception{
     	doAperiodicRun();
-    	Trigger.timer.schedule(getNewInstance(), getRecurrencePeriod());
+    	Trigger.scheduler.schedule(getNewInstance(), getRecurrencePeriod());
     }
     
     protected abstract void doAperiodicRun();
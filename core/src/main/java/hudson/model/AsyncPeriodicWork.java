@@ -69,6 +69,14 @@ public abstract class AsyncPeriodicWork extends PeriodicWork {
         }
     }
 
+    /**
+     * All this does on the timer is to start a thread, so it doesn't need to wait for other timer tasks.
+     */
+    @Override
+    protected boolean isConcurrent() {
+        return true;
+    }
+
     protected StreamTaskListener createListener() {
         try {
             return new StreamTaskListener(getLogFile());
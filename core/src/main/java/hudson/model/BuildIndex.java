@@ -0,0 +1,276 @@
+package hudson.model;
+
+import hudson.util.AtomicFileWriter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Index of the build records of a {@link Job}, so that build numbers, IDs and
+ * the basic outcome of builds can be obtained without unmarshalling every build.xml.
+ *
+ * <p>
+ * The index is kept in the "builds.index" file in the build directory of the job.
+ * Each line is either "number ID result timestamp duration", or "-number" for a deleted build.
+ * Lines are only ever appended, and a line overrides earlier lines of the same build number.
+ * The file is rewritten once it accumulates too many superseded lines.
+ *
+ * <p>
+ * {@link Run#save()} and {@link RunMap#remove(Run)} keep the index up to date,
+ * but it can still lag behind the actual build records (for example right after an upgrade),
+ * so callers should be prepared to find builds that are missing from the index.
+ *
+ * @see Job#getBuildIndex()
+ */
+public final class BuildIndex {
+    private final File dir;
+
+    /**
+     * Entries keyed by build number, newest first. Lazily read from the disk.
+     */
+    private SortedMap<Integer,Entry> entries;
+
+    /**
+     * Number of lines in the file that are superseded by later lines.
+     */
+    private int garbage;
+
+    /*package*/ BuildIndex(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Build directory of the job that this index covers.
+     */
+    public File getDir() {
+        return dir;
+    }
+
+    private File getFile() {
+        return new File(dir,"builds.index");
+    }
+
+    public boolean exists() {
+        return getFile().exists();
+    }
+
+    /**
+     * Gets the entry for the given build number, or null if the build isn't indexed.
+     */
+    public synchronized Entry get(int number) {
+        return load().get(number);
+    }
+
+    /**
+     * Gets all the entries, newest first.
+     */
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<Entry>(load().values());
+    }
+
+    /**
+     * Reads the index from the disk now, rather than on the first access.
+     */
+    public synchronized void preload() {
+        load();
+    }
+
+    /**
+     * Records the current state of the given build.
+     */
+    public void update(Run<?,?> r) throws IOException {
+        Result result = r.isBuilding() ? null : r.getResult();
+        update(new Entry(r.getNumber(), r.getId(), result, r.getTimeInMillis(), result!=null ? r.getDuration() : 0));
+    }
+
+    /*package*/ synchronized void update(Entry e) throws IOException {
+        Entry old = load().get(e.number);
+        if (e.equals(old))  return; // no change
+        entries.put(e.number,e);
+        if (old!=null)  garbage++;
+        append(e.toString());
+    }
+
+    /**
+     * Removes the record of the given build.
+     */
+    public synchronized void remove(int number) throws IOException {
+        if (load().remove(number)==null)    return;
+        garbage+=2; // both the original entry and the tombstone are garbage
+        append("-"+number);
+    }
+
+    private void append(String line) throws IOException {
+        if (garbage > COMPACTION_THRESHOLD && garbage > entries.size()) {
+            compact();
+            return;
+        }
+
+        dir.mkdirs();
+        Writer w = new OutputStreamWriter(new FileOutputStream(getFile(),true),"UTF-8");
+        try {
+            w.write(line);
+            w.write('\n');
+        } finally {
+            w.close();
+        }
+    }
+
+    /**
+     * Rewrites the file only with the live entries.
+     */
+    private void compact() throws IOException {
+        dir.mkdirs();
+        AtomicFileWriter w = new AtomicFileWriter(getFile());
+        try {
+            for (Entry e : entries.values()) {
+                w.write(e.toString());
+                w.write('\n');
+            }
+            w.commit();
+        } finally {
+            w.abort();
+        }
+        garbage = 0;
+    }
+
+    private SortedMap<Integer,Entry> load() {
+        if (entries!=null)  return entries;
+
+        entries = new TreeMap<Integer,Entry>(RunMap.COMPARATOR);
+        garbage = 0;
+        File f = getFile();
+        if (!f.exists())    return entries;
+
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(f),"UTF-8"));
+            try {
+                String line;
+                while ((line=in.readLine())!=null) {
+                    line = line.trim();
+                    if (line.length()==0)   continue;
+                    try {
+                        if (line.charAt(0)=='-') {
+                            if (entries.remove(Integer.valueOf(line.substring(1)))!=null)
+                                garbage++;
+                            garbage++;
+                        } else {
+                            Entry e = Entry.parse(line);
+                            if (entries.put(e.number,e)!=null)
+                                garbage++;
+                        }
+                    } catch (IllegalArgumentException e) {
+                        // NumberFormatException is a subtype, too
+                        LOGGER.log(Level.WARNING, "Skipping a malformed line in "+f+": "+line, e);
+                        garbage++;
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read "+f, e);
+        }
+        return entries;
+    }
+
+    /**
+     * Indexed information about one build.
+     */
+    public static final class Entry {
+        private final int number;
+        private final String id;
+        private final Result result;
+        private final long timestamp;
+        private final long duration;
+
+        /*package*/ Entry(int number, String id, Result result, long timestamp, long duration) {
+            this.number = number;
+            this.id = id;
+            this.result = result;
+            this.timestamp = timestamp;
+            this.duration = duration;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        /**
+         * @see Run#getId()
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Result of the build, or null if the build was still in progress when it was last indexed,
+         * or if its result is simply not known to the index.
+         */
+        public Result getResult() {
+            return result;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Duration of the build in milliseconds, if {@link #getResult()} is non-null.
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Entry that = (Entry) o;
+            return number==that.number && timestamp==that.timestamp && duration==that.duration
+                && result==that.result && id.equals(that.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return number;
+        }
+
+        @Override
+        public String toString() {
+            return number+" "+id+" "+(result!=null ? result.toString() : "-")+" "+timestamp+" "+duration;
+        }
+
+        /*package*/ static Entry parse(String line) {
+            String[] tokens = line.split(" ");
+            if (tokens.length!=5)
+                throw new IllegalArgumentException("Expected 5 tokens but found "+tokens.length);
+            return new Entry(
+                    Integer.parseInt(tokens[0]),
+                    tokens[1],
+                    tokens[2].equals("-") ? null : Result.fromString(tokens[2]),
+                    Long.parseLong(tokens[3]),
+                    Long.parseLong(tokens[4]));
+        }
+    }
+
+    /**
+     * Rewrite the file once it has this many superseded lines (and more of them than live entries.)
+     */
+    private static final int COMPACTION_THRESHOLD = 256;
+
+    private static final Logger LOGGER = Logger.getLogger(BuildIndex.class.getName());
+}
@@ -0,0 +1,141 @@
+package hudson.model;
+
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.model.listeners.SaveableListener;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * {@link FingerprintStorage} that keeps each fingerprint in its own XML file,
+ * as in "fingerprints/xx/yy/zzzz...zz.xml".
+ *
+ * <p>
+ * This is how fingerprints used to be stored. {@link ShardedFingerprintStorage} uses this
+ * to read the records left by earlier versions.
+ *
+ * @since 1.475
+ */
+public class FileFingerprintStorage extends FingerprintStorage {
+    private final File root;
+
+    public FileFingerprintStorage(File root) {
+        this.root = root;
+    }
+
+    /**
+     * Determines the file name from md5sum.
+     */
+    public File getFile(byte[] md5sum) {
+        assert md5sum.length==16;
+        return new File(root,
+            Util.toHexString(md5sum,0,1)+'/'+Util.toHexString(md5sum,1,1)+'/'+Util.toHexString(md5sum,2,md5sum.length-2)+".xml");
+    }
+
+    @Override
+    public Fingerprint load(byte[] md5sum) throws IOException {
+        return Fingerprint.load(getFile(md5sum));
+    }
+
+    @Override
+    public void save(Fingerprint fp) throws IOException {
+        long start=0;
+        if(LOGGER.isLoggable(Level.FINE))
+            start = System.currentTimeMillis();
+
+        File file = getFile(Util.fromHexString(fp.getHashString()));
+        XmlFile xml = Fingerprint.getConfigFile(file);
+        xml.write(fp);
+        SaveableListener.fireOnChange(fp, xml);
+
+        if(LOGGER.isLoggable(Level.FINE))
+            LOGGER.fine("Saving fingerprint "+file+" took "+(System.currentTimeMillis()-start)+"ms");
+    }
+
+    @Override
+    public void delete(byte[] md5sum) throws IOException {
+        File f = getFile(md5sum);
+        if (!f.delete())    return;
+        // clean up the directories that became empty
+        deleteIfEmpty(f.getParentFile());
+        deleteIfEmpty(f.getParentFile().getParentFile());
+    }
+
+    /**
+     * Deletes a directory if it's empty.
+     */
+    private void deleteIfEmpty(File dir) {
+        String[] r = dir.list();
+        if(r==null)     return; // can happen in a rare occasion
+        if(r.length==0)
+            dir.delete();
+    }
+
+    @Override
+    public SortedSet<String> keys(String from, String to) {
+        SortedSet<String> r = new TreeSet<String>();
+        for (File d1 : list(root, LENGTH2DIR_FILTER)) {
+            String p1 = d1.getName();
+            if (!mayContain(p1,from,to))    continue;
+            for (File d2 : list(d1, LENGTH2DIR_FILTER)) {
+                String p2 = p1+d2.getName();
+                if (!mayContain(p2,from,to))    continue;
+                for (File f : list(d2, FINGERPRINTFILE_FILTER)) {
+                    String key = p2+f.getName().substring(0,28);
+                    if ((from==null || key.compareTo(from)>=0) && (to==null || key.compareTo(to)<0))
+                        r.add(key);
+                }
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Can a key that starts with the given prefix be in the [from,to) range?
+     */
+    private static boolean mayContain(String prefix, String from, String to) {
+        if (from!=null && prefix.compareTo(from.substring(0,Math.min(from.length(),prefix.length())))<0)
+            return false;
+        if (to!=null && prefix.compareTo(to)>=0)
+            return false;
+        return true;
+    }
+
+    private static File[] list(File dir, FileFilter filter) {
+        File[] files = dir.listFiles(filter);
+        if (files==null)    return new File[0];
+        Arrays.sort(files);
+        return files;
+    }
+
+    @Override
+    public boolean isReady() {
+        return root.exists();
+    }
+
+    private static final FileFilter LENGTH2DIR_FILTER = new FileFilter() {
+        private final Pattern PATTERN = Pattern.compile("[0-9a-f]{2}");
+
+        public boolean accept(File f) {
+            return f.isDirectory() && PATTERN.matcher(f.getName()).matches();
+        }
+    };
+
+    private static final FileFilter FINGERPRINTFILE_FILTER = new FileFilter() {
+        private final Pattern PATTERN = Pattern.compile("[0-9a-f]{28}\\.xml");
+
+        public boolean accept(File f) {
+            return f.isFile() && PATTERN.matcher(f.getName()).matches();
+        }
+    };
+
+    private static final Logger LOGGER = Logger.getLogger(FileFingerprintStorage.class.getName());
+}
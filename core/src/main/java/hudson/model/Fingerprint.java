@@ -37,7 +37,6 @@ import hudson.XmlFile;
 import hudson.BulkChange;
 import hudson.Extension;
 import hudson.model.listeners.ItemListener;
-import hudson.model.listeners.SaveableListener;
 import hudson.util.HexBinaryConverter;
 import hudson.util.Iterators;
 import hudson.util.PersistedList;
@@ -51,6 +50,11 @@ import org.kohsuke.stapler.export.ExportedBean;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -68,7 +72,7 @@ import java.util.logging.Logger;
  * A file being tracked by Jenkins.
  *
  * <p>
- * Lifecycle is managed by {@link FingerprintMap}.
+ * Lifecycle is managed by {@link FingerprintMap}, and persistence by {@link FingerprintStorage}.
  *
  * @author Kohsuke Kawaguchi
  * @see FingerprintMap
@@ -265,15 +269,22 @@ public class Fingerprint implements ModelObject, Saveable {
      */
     @ExportedBean(defaultVisibility=3)
     public static final class RangeSet {
-        // sorted
-        private final List<Range> ranges;
+        /**
+         * Start (inclusive) and end (exclusive) of each range, one after another.
+         * Ranges are sorted, and they neither overlap nor touch each other.
+         * Only the first {@code size*2} elements are in use.
+         */
+        private int[] ranges;
+        private int size;
 
         public RangeSet() {
-            this(new ArrayList<Range>());
+            this.ranges = new int[8];
         }
 
         private RangeSet(List<Range> data) {
-            this.ranges = data;
+            this();
+            for (Range r : data)
+                add(r.start,r.end);
         }
 
         /**
@@ -332,7 +343,10 @@ public class Fingerprint implements ModelObject, Saveable {
          */
         @Exported
         public synchronized List<Range> getRanges() {
-            return new ArrayList<Range>(ranges);
+            List<Range> r = new ArrayList<Range>(size);
+            for (int i=0; i<size; i++)
+                r.add(new Range(ranges[i*2],ranges[i*2+1]));
+            return r;
         }
 
         /**
@@ -340,96 +354,116 @@ public class Fingerprint implements ModelObject, Saveable {
          * If the set already includes this number, this will be a no-op.
          */
         public synchronized void add(int n) {
-            for( int i=0; i<ranges.size(); i++ ) {
-                Range r = ranges.get(i);
-                if(r.includes(n))   return; // already included
-                if(r.end==n) {
-                    ranges.set(i,r.expandRight());
-                    checkCollapse(i);
-                    return;
-                }
-                if(r.start==n+1) {
-                    ranges.set(i,r.expandLeft());
-                    checkCollapse(i-1);
-                    return;
-                }
-                if(r.isBiggerThan(n)) {
-                    // needs to insert a single-value Range
-                    ranges.add(i,new Range(n,n+1));
-                    return;
+            add(n,n+1);
+        }
+
+        /**
+         * Expands the range set to include [start,end).
+         * Runs in O(log n) plus the cost of shifting the ranges that follow.
+         */
+        private void add(int start, int end) {
+            // ranges [i,j) overlap or touch [start,end)
+            int i = firstEndNotSmallerThan(start);
+            int j = i;
+            while (j<size && ranges[j*2]<=end)
+                j++;
+
+            if (i==j) {
+                // no overlap. insert a new range
+                if (size*2==ranges.length) {
+                    int[] a = new int[ranges.length*2];
+                    System.arraycopy(ranges,0,a,0,i*2);
+                    System.arraycopy(ranges,i*2,a,i*2+2,(size-i)*2);
+                    ranges = a;
+                } else {
+                    System.arraycopy(ranges,i*2,ranges,i*2+2,(size-i)*2);
                 }
+                ranges[i*2] = start;
+                ranges[i*2+1] = end;
+                size++;
+                return;
             }
 
-            ranges.add(new Range(n,n+1));
+            // collapse ranges [i,j) into one
+            ranges[i*2] = Math.min(start,ranges[i*2]);
+            ranges[i*2+1] = Math.max(end,ranges[j*2-1]);
+            if (j-i>1) {
+                System.arraycopy(ranges,j*2,ranges,i*2+2,(size-j)*2);
+                size -= j-i-1;
+            }
         }
 
-        private void checkCollapse(int i) {
-            if(i<0 || i==ranges.size()-1)     return;
-            Range lhs = ranges.get(i);
-            Range rhs = ranges.get(i+1);
-            if(lhs.isAdjacentTo(rhs)) {
-                // collapsed
-                Range r = new Range(lhs.start,rhs.end);
-                ranges.set(i,r);
-                ranges.remove(i+1);
+        /**
+         * Binary-searches the index of the first range whose end is n or bigger.
+         */
+        private int firstEndNotSmallerThan(int n) {
+            int lo=0, hi=size;
+            while (lo<hi) {
+                int mid = (lo+hi)>>>1;
+                if (ranges[mid*2+1]<n)  lo=mid+1;
+                else                    hi=mid;
             }
+            return lo;
         }
 
         public synchronized boolean includes(int i) {
-            for (Range r : ranges) {
-                if(r.includes(i))
-                    return true;
-            }
-            return false;
+            int k = firstEndNotSmallerThan(i+1);
+            return k<size && ranges[k*2]<=i;
         }
 
-        public synchronized void add(RangeSet that) {
-            int lhs=0,rhs=0;
-            while(lhs<this.ranges.size() && rhs<that.ranges.size()) {
-                Range lr = this.ranges.get(lhs);
-                Range rr = that.ranges.get(rhs);
-
-                // no overlap
-                if(lr.end<rr.start) {
-                    lhs++;
-                    continue;
-                }
-                if(rr.end<lr.start) {
-                    ranges.add(lhs,rr);
-                    lhs++;
-                    rhs++;
-                    continue;
-                }
-
-                // overlap. merge two
-                Range m = lr.combine(rr);
-                rhs++;
+        /**
+         * Adds all the numbers in the given set to this set, in time linear to the number of ranges.
+         */
+        public void add(RangeSet that) {
+            int[] rhs;
+            int rsize;
+            synchronized (that) {
+                rhs = that.ranges.clone();
+                rsize = that.size;
+            }
+            if (rsize==0)   return;
+
+            synchronized (this) {
+                int[] lhs = this.ranges;
+                int lsize = this.size;
+                int[] m = new int[Math.max(8,(lsize+rsize)*2)];
+                int msize = 0;
+                int l=0, r=0;
+                while (l<lsize || r<rsize) {
+                    // pick the range that starts first
+                    int start,end;
+                    if (r==rsize || (l<lsize && lhs[l*2]<=rhs[r*2])) {
+                        start = lhs[l*2]; end = lhs[l*2+1]; l++;
+                    } else {
+                        start = rhs[r*2]; end = rhs[r*2+1]; r++;
+                    }
 
-                // since ranges[lhs] is expanded, it might overlap with others in this.ranges
-                while(lhs+1<this.ranges.size() && !m.isIndependent(this.ranges.get(lhs+1))) {
-                    m = m.combine(this.ranges.get(lhs+1));
-                    this.ranges.remove(lhs+1);
+                    if (msize>0 && start<=m[msize*2-1]) {
+                        // overlaps with or touches the last range
+                        m[msize*2-1] = Math.max(m[msize*2-1],end);
+                    } else {
+                        m[msize*2] = start;
+                        m[msize*2+1] = end;
+                        msize++;
+                    }
                 }
-
-                this.ranges.set(lhs,m);
+                this.ranges = m;
+                this.size = msize;
             }
-
-            // if anything is left in that.ranges, add them all
-            this.ranges.addAll(that.ranges.subList(rhs,that.ranges.size()));
         }
 
         @Override
         public synchronized String toString() {
             StringBuilder buf = new StringBuilder();
-            for (Range r : ranges) {
+            for (int i=0; i<size; i++) {
                 if(buf.length()>0)  buf.append(',');
-                buf.append(r);
+                buf.append('[').append(ranges[i*2]).append(',').append(ranges[i*2+1]).append(')');
             }
             return buf.toString();
         }
 
         public synchronized boolean isEmpty() {
-            return ranges.isEmpty();
+            return size==0;
         }
 
         /**
@@ -438,7 +472,8 @@ public class Fingerprint implements ModelObject, Saveable {
          * If this range is empty, this method throws an exception.
          */
         public synchronized int min() {
-            return ranges.get(0).start;
+            if (size==0)    throw new IndexOutOfBoundsException();
+            return ranges[0];
         }
 
         /**
@@ -447,7 +482,8 @@ public class Fingerprint implements ModelObject, Saveable {
          * If this range is empty, this method throws an exception.
          */
         public synchronized int max() {
-            return ranges.get(ranges.size()-1).end;
+            if (size==0)    throw new IndexOutOfBoundsException();
+            return ranges[size*2-1];
         }
 
         /**
@@ -458,9 +494,7 @@ public class Fingerprint implements ModelObject, Saveable {
          * Note that {} is smaller than any n.
          */
         public synchronized boolean isSmallerThan(int n) {
-            if(ranges.isEmpty())    return true;
-
-            return ranges.get(ranges.size() - 1).isSmallerThan(n);
+            return size==0 || ranges[size*2-1]<=n;
         }
 
         /**
@@ -475,10 +509,14 @@ public class Fingerprint implements ModelObject, Saveable {
                 try {
                     if(s.contains("-")) {
                         String[] tokens = Util.tokenize(s,"-");
-                        rs.ranges.add(new Range(Integer.parseInt(tokens[0]),Integer.parseInt(tokens[1])+1));
+                        int start = Integer.parseInt(tokens[0]);
+                        int end = Integer.parseInt(tokens[1])+1;
+                        if (start>=end)
+                            throw new NumberFormatException();
+                        rs.add(start,end);
                     } else {
                         int n = Integer.parseInt(s);
-                        rs.ranges.add(new Range(n,n+1));
+                        rs.add(n,n+1);
                     }
                 } catch (NumberFormatException e) {
                     if (!skipError)
@@ -504,15 +542,18 @@ public class Fingerprint implements ModelObject, Saveable {
             public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
                 RangeSet src = (RangeSet) source;
 
-                StringBuilder buf = new StringBuilder(src.ranges.size()*10);
-                for (Range r : src.ranges) {
-                    if(buf.length()>0)  buf.append(',');
-                    if(r.isSingle())
-                        buf.append(r.start);
-                    else
-                        buf.append(r.start).append('-').append(r.end-1);
+                synchronized (src) {
+                    StringBuilder buf = new StringBuilder(src.size*10);
+                    for (int i=0; i<src.size; i++) {
+                        int start=src.ranges[i*2], end=src.ranges[i*2+1];
+                        if(buf.length()>0)  buf.append(',');
+                        if(end-1==start)
+                            buf.append(start);
+                        else
+                            buf.append(start).append('-').append(end-1);
+                    }
+                    writer.setValue(buf.toString());
                 }
-                writer.setValue(buf.toString());
             }
 
             public Object unmarshal(HierarchicalStreamReader reader, final UnmarshallingContext context) {
@@ -542,11 +583,20 @@ public class Fingerprint implements ModelObject, Saveable {
                     for (Object build : builds) {
                         if (build instanceof AbstractBuild) {
                             Collection<Fingerprint> fingerprints = ((AbstractBuild)build).getBuildFingerprints();
-                            for (Fingerprint f : fingerprints) {
+                            FingerprintStorage.Batch batch = FingerprintStorage.get().openBatch();
+                            try {
+                                for (Fingerprint f : fingerprints) {
+                                    try {
+                                        f.rename(oldName, newName);
+                                    } catch (IOException e) {
+                                        logger.log(Level.WARNING, "Failed to update fingerprint record " + f.getFileName() + " when " + oldName + " was renamed to " + newName, e);
+                                    }
+                                }
+                            } finally {
                                 try {
-                                    f.rename(oldName, newName);
+                                    batch.close();
                                 } catch (IOException e) {
-                                    logger.log(Level.WARNING, "Failed to update fingerprint record " + f.getFileName() + " when " + oldName + " was renamed to " + newName, e);
+                                    logger.log(Level.WARNING, "Failed to update fingerprint records when " + oldName + " was renamed to " + newName, e);
                                 }
                             }
                         }
@@ -828,21 +878,11 @@ public class Fingerprint implements ModelObject, Saveable {
     }
 
     /**
-     * Save the settings to a file.
+     * Save the settings to the {@link FingerprintStorage}.
      */
     public synchronized void save() throws IOException {
         if(BulkChange.contains(this))   return;
-
-        long start=0;
-        if(logger.isLoggable(Level.FINE))
-            start = System.currentTimeMillis();
-
-        File file = getFingerprintFile(md5sum);
-        getConfigFile(file).write(this);
-        SaveableListener.fireOnChange(this, getConfigFile(file));
-
-        if(logger.isLoggable(Level.FINE))
-            logger.fine("Saving fingerprint "+file+" took "+(System.currentTimeMillis()-start)+"ms");
+        FingerprintStorage.get().save(this);
     }
 
     /**
@@ -878,25 +918,20 @@ public class Fingerprint implements ModelObject, Saveable {
     /**
      * The file we save our configuration.
      */
-    private static XmlFile getConfigFile(File file) {
+    /*package*/ static XmlFile getConfigFile(File file) {
         return new XmlFile(XSTREAM,file);
     }
 
     /**
-     * Determines the file name from md5sum.
+     * Loads a {@link Fingerprint} from the {@link FingerprintStorage}.
      */
-    private static File getFingerprintFile(byte[] md5sum) {
-        assert md5sum.length==16;
-        return new File( Jenkins.getInstance().getRootDir(),
-            "fingerprints/"+ Util.toHexString(md5sum,0,1)+'/'+Util.toHexString(md5sum,1,1)+'/'+Util.toHexString(md5sum,2,md5sum.length-2)+".xml");
+    /*package*/ static Fingerprint load(byte[] md5sum) throws IOException {
+        return FingerprintStorage.get().load(md5sum);
     }
 
     /**
      * Loads a {@link Fingerprint} from a file in the image.
      */
-    /*package*/ static Fingerprint load(byte[] md5sum) throws IOException {
-        return load(getFingerprintFile(md5sum));
-    }
     /*package*/ static Fingerprint load(File file) throws IOException {
         XmlFile configFile = getConfigFile(file);
         if(!configFile.exists())
@@ -907,13 +942,9 @@ public class Fingerprint implements ModelObject, Saveable {
             start = System.currentTimeMillis();
 
         try {
-            Fingerprint f = (Fingerprint) configFile.read();
+            Fingerprint f = ((Fingerprint) configFile.read()).onLoad();
             if(logger.isLoggable(Level.FINE))
                 logger.fine("Loading fingerprint "+file+" took "+(System.currentTimeMillis()-start)+"ms");
-            if (f.facets==null)
-                f.facets = new PersistedList<FingerprintFacet>(f);
-            for (FingerprintFacet facet : f.facets)
-                facet._setOwner(f);
             return f;
         } catch (IOException e) {
             if(file.exists() && file.length()==0) {
@@ -932,6 +963,30 @@ public class Fingerprint implements ModelObject, Saveable {
         }
     }
 
+    /**
+     * Reads a {@link Fingerprint} written by {@link #toXML(OutputStream)}.
+     */
+    /*package*/ static Fingerprint fromXML(InputStream in) throws IOException {
+        return ((Fingerprint) XSTREAM.fromXML(new InputStreamReader(in,"UTF-8"))).onLoad();
+    }
+
+    /**
+     * Writes the XML representation of this fingerprint in UTF-8.
+     */
+    /*package*/ synchronized void toXML(OutputStream out) throws IOException {
+        Writer w = new OutputStreamWriter(out,"UTF-8");
+        XSTREAM.toXML(this,w);
+        w.flush();
+    }
+
+    private Fingerprint onLoad() {
+        if (facets==null)
+            facets = new PersistedList<FingerprintFacet>(this);
+        for (FingerprintFacet facet : facets)
+            facet._setOwner(this);
+        return this;
+    }
+
     private static final XStream XSTREAM = new XStream2();
     static {
         XSTREAM.alias("fingerprint",Fingerprint.class);
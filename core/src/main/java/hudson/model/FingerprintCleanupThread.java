@@ -24,13 +24,11 @@
 package hudson.model;
 
 import hudson.Extension;
+import hudson.Util;
 import jenkins.model.Jenkins;
 
-import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
 import java.util.logging.Level;
-import java.util.regex.Pattern;
 
 /**
  * Scans the fingerprint database and remove old records
@@ -64,63 +62,33 @@ public final class FingerprintCleanupThread extends AsyncPeriodicWork {
     protected void execute(TaskListener listener) {
         int numFiles = 0;
 
-        File root = new File(Jenkins.getInstance().getRootDir(),"fingerprints");
-        File[] files1 = root.listFiles(LENGTH2DIR_FILTER);
-        if(files1!=null) {
-            for (File file1 : files1) {
-                File[] files2 = file1.listFiles(LENGTH2DIR_FILTER);
-                for(File file2 : files2) {
-                    File[] files3 = file2.listFiles(FINGERPRINTFILE_FILTER);
-                    for(File file3 : files3) {
-                        if(check(file3))
-                            numFiles++;
-                    }
-                    deleteIfEmpty(file2);
+        FingerprintStorage storage = FingerprintStorage.get();
+        FingerprintStorage.Visitor visitor = new FingerprintStorage.Visitor() {
+            public boolean visit(Fingerprint fp) {
+                return !fp.isAlive();
+            }
+
+            @Override
+            public void onError(String key, IOException e) {
+                logger.log(Level.WARNING, "Failed to process "+key, e);
+            }
+        };
+        // go through one shard-sized range at a time, so that we don't have to read all the fingerprints at once
+        for (int i=0; i<256; i++) {
+            String from = Util.toHexString(new byte[]{(byte)i});
+            String to = i<255 ? Util.toHexString(new byte[]{(byte)(i+1)}) : null;
+            try {
+                FingerprintStorage.Batch batch = storage.openBatch();
+                try {
+                    numFiles += storage.visit(from,to,visitor);
+                } finally {
+                    batch.close();
                 }
-                deleteIfEmpty(file1);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to clean up fingerprints in the range "+from, e);
             }
         }
 
         logger.log(Level.INFO, "Cleaned up "+numFiles+" records");
     }
-
-    /**
-     * Deletes a directory if it's empty.
-     */
-    private void deleteIfEmpty(File dir) {
-        String[] r = dir.list();
-        if(r==null)     return; // can happen in a rare occasion
-        if(r.length==0)
-            dir.delete();
-    }
-
-    /**
-     * Examines the file and returns true if a file was deleted.
-     */
-    private boolean check(File fingerprintFile) {
-        try {
-            Fingerprint fp = Fingerprint.load(fingerprintFile);
-            if(!fp.isAlive()) {
-                fingerprintFile.delete();
-                return true;
-            }
-        } catch (IOException e) {
-            logger.log(Level.WARNING, "Failed to process "+fingerprintFile, e);
-        }
-        return false;
-    }
-
-    private static final FileFilter LENGTH2DIR_FILTER = new FileFilter() {
-        public boolean accept(File f) {
-            return f.isDirectory() && f.getName().length()==2;
-        }
-    };
-
-    private static final FileFilter FINGERPRINTFILE_FILTER = new FileFilter() {
-        private final Pattern PATTERN = Pattern.compile("[0-9a-f]{28}\\.xml");
-
-        public boolean accept(File f) {
-            return f.isFile() && PATTERN.matcher(f.getName()).matches();
-        }
-    };
 }
@@ -0,0 +1,199 @@
+package hudson.model;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import hudson.Util;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.util.SortedSet;
+
+/**
+ * Persists {@link Fingerprint}s.
+ *
+ * <p>
+ * {@link FingerprintMap} makes sure that there's only one {@link Fingerprint} object in memory
+ * for any MD5 checksum, so implementations only need to worry about moving data to and from the disk.
+ * Fingerprints are identified by the lower-case hex representation of their MD5 checksum.
+ *
+ * <p>
+ * The first implementation found in the extension list is used, so plugins can replace
+ * the default {@link ShardedFingerprintStorage} by registering theirs with a higher ordinal.
+ *
+ * @since 1.475
+ * @see Jenkins#getFingerprintMap()
+ */
+public abstract class FingerprintStorage implements ExtensionPoint {
+    /**
+     * Batches that are open on the current thread, innermost first.
+     */
+    private final ThreadLocal<Batch> batch = new ThreadLocal<Batch>();
+
+    /**
+     * Loads the fingerprint of the given checksum.
+     *
+     * @return
+     *      null if no such fingerprint is recorded.
+     */
+    public abstract Fingerprint load(byte[] md5sum) throws IOException;
+
+    /**
+     * Persists the current state of the fingerprint.
+     *
+     * <p>
+     * This is called from {@link Fingerprint#save()}, with the lock of the fingerprint held.
+     * While a {@link Batch} is open on the current thread, implementations may defer the I/O
+     * until {@link #flush()}.
+     */
+    public abstract void save(Fingerprint fp) throws IOException;
+
+    /**
+     * Removes the record of the given fingerprint, if any.
+     */
+    public abstract void delete(byte[] md5sum) throws IOException;
+
+    /**
+     * Lists the checksums of the recorded fingerprints in the given range, in the ascending order.
+     *
+     * @param from
+     *      Inclusive lower bound, such as "3f". Null to start from the first fingerprint.
+     * @param to
+     *      Exclusive upper bound. Null to go all the way to the last fingerprint.
+     */
+    public abstract SortedSet<String> keys(String from, String to) throws IOException;
+
+    /**
+     * Goes over the recorded fingerprints in the given range, deleting those the visitor rejects.
+     *
+     * <p>
+     * The default implementation loads the fingerprints of {@link #keys(String, String)} one by one.
+     * Implementations that can read their records in bulk should override this.
+     *
+     * @param from
+     *      Inclusive lower bound, as in {@link #keys(String, String)}.
+     * @param to
+     *      Exclusive upper bound, as in {@link #keys(String, String)}.
+     * @return
+     *      The number of fingerprints deleted.
+     */
+    public int visit(String from, String to, Visitor v) throws IOException {
+        int deleted = 0;
+        for (String key : keys(from,to)) {
+            byte[] md5sum = Util.fromHexString(key);
+            try {
+                Fingerprint fp = load(md5sum);
+                if (fp!=null && v.visit(fp)) {
+                    delete(md5sum);
+                    deleted++;
+                }
+            } catch (IOException e) {
+                v.onError(key,e);
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Receives fingerprints from {@link FingerprintStorage#visit(String, String, Visitor)}.
+     */
+    public static abstract class Visitor {
+        /**
+         * Called for each recorded fingerprint.
+         *
+         * @return
+         *      true to delete the fingerprint.
+         */
+        public abstract boolean visit(Fingerprint fp) throws IOException;
+
+        /**
+         * Called when a fingerprint fails to load or to be deleted.
+         * The visit continues with the next fingerprint.
+         *
+         * @param key
+         *      Checksum of the fingerprint.
+         */
+        public void onError(String key, IOException e) {
+        }
+    }
+
+    /**
+     * Returns true if there's some data in this storage.
+     */
+    public abstract boolean isReady();
+
+    /**
+     * Writes out the updates that were deferred while the {@link Batch} was open.
+     */
+    protected void flush() throws IOException {
+    }
+
+    /**
+     * Returns true if the current thread has a {@link Batch} open.
+     */
+    protected final boolean isBatching() {
+        return batch.get()!=null;
+    }
+
+    /**
+     * Starts a batch of updates on the current thread.
+     *
+     * <p>
+     * This allows all the fingerprints touched by a build to be written out together,
+     * instead of one file write per fingerprint. Use it like this:
+     *
+     * <pre>
+     * Batch b = FingerprintStorage.get().openBatch();
+     * try {
+     *     ... update fingerprints ...
+     * } finally {
+     *     b.close();
+     * }
+     * </pre>
+     *
+     * Batches can nest, in which case only closing the outermost batch flushes the updates.
+     */
+    public Batch openBatch() {
+        Batch b = new Batch(batch.get());
+        batch.set(b);
+        return b;
+    }
+
+    public final class Batch {
+        private final Batch parent;
+        private boolean closed;
+
+        private Batch(Batch parent) {
+            this.parent = parent;
+        }
+
+        /**
+         * Ends this batch. If this is the outermost batch, deferred updates are written out.
+         */
+        public void close() throws IOException {
+            if (closed)     return;
+            if (batch.get()!=this)
+                throw new IllegalStateException("Batches must be closed in the reverse order they are opened");
+            closed = true;
+            if (parent==null) {
+                batch.remove();
+                flush();
+            } else {
+                batch.set(parent);
+            }
+        }
+    }
+
+    /**
+     * Returns all the registered {@link FingerprintStorage}s.
+     */
+    public static ExtensionList<FingerprintStorage> all() {
+        return Jenkins.getInstance().getExtensionList(FingerprintStorage.class);
+    }
+
+    /**
+     * Returns the storage in effect.
+     */
+    public static FingerprintStorage get() {
+        return all().get(0);
+    }
+}
@@ -114,6 +114,11 @@ public abstract class Job<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
      */
     protected transient volatile int nextBuildNumber = 1;
 
+    /**
+     * Lazily created. See {@link #getBuildIndex()}.
+     */
+    private transient volatile BuildIndex buildIndex;
+
     /**
      * Newly copied jobs get this flag set, so that Hudson doesn't try to run the job until its configuration
      * is saved once.
@@ -656,6 +661,33 @@ public abstract class Job<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
         return Jenkins.getInstance().getBuildDirFor(this);
     }
 
+    /**
+     * Gets the index of the build records of this job.
+     *
+     * @since 1.475
+     */
+    public BuildIndex getBuildIndex() {
+        File dir = getBuildDir();
+        BuildIndex idx = buildIndex;
+        if (idx==null || !idx.getDir().equals(dir)) {  // the job might have been renamed
+            synchronized (this) {
+                // make sure concurrent callers end up with the same instance
+                idx = buildIndex;
+                if (idx==null || !idx.getDir().equals(dir))
+                    buildIndex = idx = new BuildIndex(dir);
+            }
+        }
+        return idx;
+    }
+
+    /**
+     * Returns true if the builds of this job are {@linkplain RunMap#isLazy() loaded on demand}.
+     */
+    /*package*/ boolean isLazilyLoaded() {
+        SortedMap<Integer,? extends RunT> runs = _getRuns();
+        return runs instanceof RunMap && ((RunMap)runs).isLazy();
+    }
+
     /**
      * Gets all the runs.
      * 
@@ -707,13 +739,11 @@ public abstract class Job<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
     @Exported
     @QuickSilver
     public RunT getLastSuccessfulBuild() {
-        RunT r = getLastBuild();
-        // temporary hack till we figure out what's causing this bug
-        while (r != null
-                && (r.isBuilding() || r.getResult() == null || r.getResult()
-                        .isWorseThan(Result.UNSTABLE)))
-            r = r.getPreviousBuild();
-        return r;
+        return findLastBuild(new BuildMatcher() {
+            boolean matches(Result r) {
+                return r.isBetterOrEqualTo(Result.UNSTABLE);
+            }
+        });
     }
 
     /**
@@ -723,11 +753,15 @@ public abstract class Job<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
     @Exported
     @QuickSilver
     public RunT getLastUnsuccessfulBuild() {
-        RunT r = getLastBuild();
-        while (r != null
-                && (r.isBuilding() || r.getResult() == Result.SUCCESS))
-            r = r.getPreviousBuild();
-        return r;
+        return findLastBuild(new BuildMatcher() {
+            boolean matches(Result r) {
+                return r != Result.SUCCESS;
+            }
+            @Override
+            boolean matches(Run<?,?> r) {
+                return !r.isBuilding() && r.getResult() != Result.SUCCESS;
+            }
+        });
     }
 
     /**
@@ -737,11 +771,11 @@ public abstract class Job<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
     @Exported
     @QuickSilver
     public RunT getLastUnstableBuild() {
-        RunT r = getLastBuild();
-        while (r != null
-                && (r.isBuilding() || r.getResult() != Result.UNSTABLE))
-            r = r.getPreviousBuild();
-        return r;
+        return findLastBuild(new BuildMatcher() {
+            boolean matches(Result r) {
+                return r == Result.UNSTABLE;
+            }
+        });
     }
 
     /**
@@ -751,11 +785,11 @@ public abstract class Job<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
     @Exported
     @QuickSilver
     public RunT getLastStableBuild() {
-        RunT r = getLastBuild();
-        while (r != null
-                && (r.isBuilding() || r.getResult().isWorseThan(Result.SUCCESS)))
-            r = r.getPreviousBuild();
-        return r;
+        return findLastBuild(new BuildMatcher() {
+            boolean matches(Result r) {
+                return r == Result.SUCCESS;
+            }
+        });
     }
 
     /**
@@ -764,10 +798,11 @@ public abstract class Job<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
     @Exported
     @QuickSilver
     public RunT getLastFailedBuild() {
-        RunT r = getLastBuild();
-        while (r != null && (r.isBuilding() || r.getResult() != Result.FAILURE))
-            r = r.getPreviousBuild();
-        return r;
+        return findLastBuild(new BuildMatcher() {
+            boolean matches(Result r) {
+                return r == Result.FAILURE;
+            }
+        });
     }
 
     /**
@@ -776,10 +811,69 @@ public abstract class Job<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
     @Exported
     @QuickSilver
     public RunT getLastCompletedBuild() {
+        return findLastBuild(new BuildMatcher() {
+            boolean matches(Result r) {
+                return true;
+            }
+            @Override
+            boolean matches(Run<?,?> r) {
+                return !r.isBuilding();
+            }
+        });
+    }
+
+    /**
+     * Condition used by {@link Job#findLastBuild(BuildMatcher)}.
+     */
+    private static abstract class BuildMatcher {
+        /**
+         * Decides from the result of a completed build alone.
+         */
+        abstract boolean matches(Result r);
+
+        /**
+         * Decides from the build itself.
+         */
+        boolean matches(Run<?,?> r) {
+            return !r.isBuilding() && r.getResult()!=null && matches(r.getResult());
+        }
+    }
+
+    /**
+     * Finds the newest build that matches the condition.
+     *
+     * <p>
+     * When {@linkplain #isLazilyLoaded() builds are loaded on demand}, the results recorded in the
+     * {@link BuildIndex} are consulted first, so that builds that can't possibly match don't get
+     * loaded just to be looked at.
+     */
+    private RunT findLastBuild(BuildMatcher m) {
         RunT r = getLastBuild();
-        while (r != null && r.isBuilding())
+        if (!isLazilyLoaded()) {
+            while (r != null && !m.matches(r))
+                r = r.getPreviousBuild();
+            return r;
+        }
+
+        List<BuildIndex.Entry> entries = getBuildIndex().getEntries();
+
+        // builds the index doesn't know about yet, typically those in progress
+        int newestIndexed = entries.isEmpty() ? 0 : entries.get(0).getNumber();
+        while (r != null && r.getNumber() > newestIndexed) {
+            if (m.matches(r))   return r;
             r = r.getPreviousBuild();
-        return r;
+        }
+
+        for (BuildIndex.Entry e : entries) {
+            Result result = e.getResult();
+            if (result!=null && !m.matches(result))
+                continue;   // no need to load this one
+            // the index can lag behind, so the build itself has the final say
+            RunT b = getBuildByNumber(e.getNumber());
+            if (b != null && m.matches(b))
+                return b;
+        }
+        return null;
     }
     
     /**
@@ -805,17 +899,42 @@ public abstract class Job<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
     }
     
     public long getEstimatedDuration() {
-        List<RunT> builds = getLastBuildsOverThreshold(3, Result.UNSTABLE);
-        
-        if(builds.isEmpty())     return -1;
-
+        // same as getLastBuildsOverThreshold(3, Result.UNSTABLE), but consult the build index
+        // first so that we don't need to load builds just to learn their durations.
+        int count = 0;
         long totalDuration = 0;
-        for (RunT b : builds) {
-            totalDuration += b.getDuration();
+        List<BuildIndex.Entry> entries = getBuildIndex().getEntries();
+        for (BuildIndex.Entry e : entries) {
+            if (count==3)   break;
+
+            Result r = e.getResult();
+            long d = e.getDuration();
+            if (r==null) {
+                // the index doesn't know, so look at the actual build
+                RunT b = getBuildByNumber(e.getNumber());
+                if (b==null || b.isBuilding())  continue;
+                r = b.getResult();
+                d = b.getDuration();
+            }
+            if (r!=null && r.isBetterOrEqualTo(Result.UNSTABLE)) {
+                totalDuration += d;
+                count++;
+            }
         }
+
+        if (entries.isEmpty()) {
+            // the index is empty, for example because the builds predate it
+            List<RunT> builds = getLastBuildsOverThreshold(3, Result.UNSTABLE);
+            for (RunT b : builds) {
+                totalDuration += b.getDuration();
+            }
+            count = builds.size();
+        }
+
+        if(count==0)     return -1;
         if(totalDuration==0) return -1;
 
-        return Math.round((double)totalDuration / builds.size());
+        return Math.round((double)totalDuration / count);
     }
 
     /**
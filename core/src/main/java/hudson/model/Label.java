@@ -38,6 +38,7 @@ import hudson.model.labels.LabelExpression.Or;
 import hudson.model.labels.LabelExpression.Paren;
 import hudson.model.labels.LabelExpressionLexer;
 import hudson.model.labels.LabelExpressionParser;
+import hudson.model.labels.LabelIndex;
 import hudson.model.labels.LabelOperatorPrecedence;
 import hudson.model.labels.LabelVisitor;
 import hudson.slaves.NodeProvisioner;
@@ -76,7 +77,8 @@ public abstract class Label extends Actionable implements Comparable<Label>, Mod
      * Display name of this label.
      */
     protected transient final String name;
-    private transient volatile Set<Node> nodes;
+    private transient volatile LabelIndex.Membership nodes;
+    private transient volatile LabelIndex.CompiledLabel compiled;
     private transient volatile Set<Cloud> clouds;
 
     @Exported
@@ -175,18 +177,11 @@ public abstract class Label extends Actionable implements Comparable<Label>, Mod
      */
     @Exported
     public Set<Node> getNodes() {
-        Set<Node> nodes = this.nodes;
-        if(nodes!=null) return nodes;
-
-        Set<Node> r = new HashSet<Node>();
-        Jenkins h = Jenkins.getInstance();
-        if(this.matches(h))
-            r.add(h);
-        for (Node n : h.getNodes()) {
-            if(this.matches(n))
-                r.add(n);
-        }
-        return this.nodes = Collections.unmodifiableSet(r);
+        LabelIndex index = Jenkins.getInstance().getLabelIndex();
+        LabelIndex.Membership nodes = this.nodes;
+        if(nodes==null || !index.isUpToDate(nodes))
+            this.nodes = nodes = index.resolve(this);
+        return nodes.getNodes();
     }
 
     /**
@@ -343,8 +338,18 @@ public abstract class Label extends Actionable implements Comparable<Label>, Mod
         return r;
     }
 
+    /**
+     * Checks if the node is in this label. Same as {@code getNodes().contains(node)},
+     * but this evaluates the compiled expression against the labels of the given node, so that
+     * it stays cheap even while nodes come and go. The compiled expression is kept on this label,
+     * and checking if it's still valid doesn't lock the index.
+     */
     public boolean contains(Node node) {
-        return getNodes().contains(node);
+        LabelIndex index = Jenkins.getInstance().getLabelIndex();
+        LabelIndex.CompiledLabel compiled = this.compiled;
+        if(compiled==null || !index.isUpToDate(compiled))
+            this.compiled = compiled = index.compile(this);
+        return index.contains(compiled,node);
     }
 
     /**
@@ -357,6 +362,7 @@ public abstract class Label extends Actionable implements Comparable<Label>, Mod
     
     /*package*/ void reset() {
         nodes = null;
+        compiled = null;
         clouds = null;
     }
 
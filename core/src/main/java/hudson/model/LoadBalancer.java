@@ -24,14 +24,22 @@
 package hudson.model;
 
 import hudson.model.Queue.Task;
+import com.google.common.base.Functions;
+import com.google.common.collect.Iterables;
+import hudson.model.queue.MappingBatch;
 import hudson.model.queue.MappingWorksheet;
 import hudson.model.queue.MappingWorksheet.ExecutorChunk;
 import hudson.model.queue.MappingWorksheet.Mapping;
+import hudson.model.queue.MappingWorksheet.WorkChunk;
 import hudson.util.ConsistentHash;
-import hudson.util.ConsistentHash.Hash;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Strategy that decides which {@link Task} gets run on which {@link Executor}.
@@ -63,47 +71,93 @@ public abstract class LoadBalancer /*implements ExtensionPoint*/ {
      */
     public abstract Mapping map(Task task, MappingWorksheet worksheet);
 
+    /**
+     * Chooses the executors for all the items in the batch.
+     *
+     * <p>
+     * {@link Queue} calls this method once per maintenance, instead of calling {@link #map(Task, MappingWorksheet)}
+     * for every buildable item. Implementations can override this method to reuse the work
+     * they do across items. See {@link MappingBatch} for the protocol.
+     *
+     * <p>
+     * The same threading guarantee as {@link #map(Task, MappingWorksheet)} applies.
+     *
+     * <p>
+     * The default implementation calls {@link #map(Task, MappingWorksheet)} for each item.
+     *
+     * @since 1.475
+     */
+    public void map(MappingBatch batch) {
+        for (int i=0; i<batch.size(); i++) {
+            MappingWorksheet ws = batch.worksheet(i);
+            if (ws!=null)
+                batch.assign(i, map(batch.get(i).task, ws));
+        }
+    }
+
     /**
      * Uses a consistent hash for scheduling.
      */
     public static final LoadBalancer CONSISTENT_HASH = new LoadBalancer() {
+        /**
+         * Consistent hashes of node names, one per label. Items with the same label see mostly the same
+         * executor chunks, so as executors become busy or idle, the ring of the label is updated
+         * by adding and removing just the nodes that changed, across maintenances.
+         */
+        private final Map<String,Ring> rings = new LinkedHashMap<String,Ring>(16,0.75f,true);
+        /**
+         * Total number of points in {@link #rings}.
+         */
+        private int points;
+
+        /**
+         * Upper bound of {@link #points}, which keeps the cache under 10MB or so.
+         */
+        private static final int MAX_POINTS = 1000000;
+
+        /**
+         * Upper bound of the number of rings, in case there are lots of labels with few nodes.
+         */
+        private static final int MAX_RINGS = 1024;
+
         @Override
         public Mapping map(Task task, MappingWorksheet ws) {
-            // build consistent hash for each work chunk
-            List<ConsistentHash<ExecutorChunk>> hashes = new ArrayList<ConsistentHash<ExecutorChunk>>(ws.works.size());
+            // list executor chunks for each work chunk, in the order of the consistent hash
+            List<Iterable<ExecutorChunk>> candidates = new ArrayList<Iterable<ExecutorChunk>>(ws.works.size());
+            List<Ring> used = new ArrayList<Ring>(ws.works.size());
             for (int i=0; i<ws.works.size(); i++) {
-                ConsistentHash<ExecutorChunk> hash = new ConsistentHash<ExecutorChunk>(new Hash<ExecutorChunk>() {
-                    public String hash(ExecutorChunk node) {
-                        return node.getName();
-                    }
-                });
-                for (ExecutorChunk ec : ws.works(i).applicableExecutorChunks())
-                    hash.add(ec,ec.size()*100);
-
-                hashes.add(hash);
+                WorkChunk wc = ws.works(i);
+                Map<String,ExecutorChunk> chunks = new HashMap<String,ExecutorChunk>();
+                for (ExecutorChunk ec : wc.applicableExecutorChunks())
+                    chunks.put(ec.getName(),ec);
+
+                // the points of a node only depend on its name and its replicas,
+                // so a hash of names gives the same permutation as a hash of the executor chunks
+                Ring r = getRing(wc.assignedLabel, chunks.values(), used);
+                used.add(r);
+                String key = task.getFullDisplayName() + (i>0 ? String.valueOf(i) : "");
+                candidates.add(Iterables.transform(r.hash.list(key),Functions.forMap(chunks)));
             }
 
             // do a greedy assignment
             Mapping m = ws.new Mapping();
             assert m.size()==ws.works.size();   // just so that you the reader of the source code don't get confused with the for loop index
 
-            if (assignGreedily(m,task,hashes,0)) {
+            if (assignGreedily(m,candidates,0)) {
                 assert m.isCompletelyValid();
                 return m;
             } else
                 return null;
         }
 
-        private boolean assignGreedily(Mapping m, Task task, List<ConsistentHash<ExecutorChunk>> hashes, int i) {
-            if (i==hashes.size())   return true;    // fully assigned
-
-            String key = task.getFullDisplayName() + (i>0 ? String.valueOf(i) : "");
+        private boolean assignGreedily(Mapping m, List<Iterable<ExecutorChunk>> candidates, int i) {
+            if (i==candidates.size())   return true;    // fully assigned
 
-            for (ExecutorChunk ec : hashes.get(i).list(key)) {
+            for (ExecutorChunk ec : candidates.get(i)) {
                 // let's attempt this assignment
                 m.assign(i,ec);
 
-                if (m.isPartiallyValid() && assignGreedily(m,task,hashes,i+1))
+                if (m.isPartiallyValid() && assignGreedily(m,candidates,i+1))
                     return true;    // successful greedily allocation
 
                 // otherwise 'ec' wasn't a good fit for us. try next.
@@ -113,8 +167,79 @@ public abstract class LoadBalancer /*implements ExtensionPoint*/ {
             m.assign(i,null);
             return false;
         }
+
+        /**
+         * Gets the ring of the label, brought up to date with the given executor chunks.
+         *
+         * @param used
+         *      Rings that other work chunks of the same task are iterating. If the ring of the label is one of them
+         *      and it needs to change, we use a throw-away ring instead, so as not to pull the rug from under them.
+         */
+        private Ring getRing(Label label, Collection<ExecutorChunk> chunks, List<Ring> used) {
+            Map<String,Integer> replicas = new HashMap<String,Integer>();
+            for (ExecutorChunk ec : chunks)
+                replicas.put(ec.getName(),ec.size()*100);
+
+            String key = label!=null ? label.getExpression() : "";
+            synchronized (rings) {
+                Ring r = rings.get(key);
+                if (r==null) {
+                    r = new Ring();
+                    rings.put(key,r);
+                } else if (used.contains(r) && !r.replicas.equals(replicas)) {
+                    r = new Ring();
+                    r.update(replicas);
+                    return r;
+                }
+
+                points -= r.hash.countAllPoints();
+                r.update(replicas);
+                points += r.hash.countAllPoints();
+
+                // evict least recently used ones to keep the memory footprint in check
+                for (Iterator<Ring> itr = rings.values().iterator(); (points>MAX_POINTS || rings.size()>MAX_RINGS) && itr.hasNext();) {
+                    Ring e = itr.next();
+                    if (e==r)    break;
+                    points -= e.hash.countAllPoints();
+                    itr.remove();
+                }
+                return r;
+            }
+        }
     };
 
+    /**
+     * {@link ConsistentHash} of node names, along with the replicas of each node in it.
+     */
+    private static final class Ring {
+        final ConsistentHash<String> hash = new ConsistentHash<String>();
+        final Map<String,Integer> replicas = new HashMap<String,Integer>();
+
+        /**
+         * Adds, removes and resizes the nodes that differ from the given replicas.
+         */
+        void update(Map<String,Integer> newReplicas) {
+            Map<String,Integer> diff = new HashMap<String,Integer>();
+            for (Map.Entry<String,Integer> e : newReplicas.entrySet())
+                if (!e.getValue().equals(replicas.get(e.getKey())))
+                    diff.put(e.getKey(),e.getValue());
+            for (String name : replicas.keySet())
+                if (!newReplicas.containsKey(name))
+                    diff.put(name,0);
+            if (diff.isEmpty())     return;
+
+            if (diff.size()*4 < newReplicas.size()) {
+                // a few nodes have changed, so update the ring in place
+                for (Map.Entry<String,Integer> e : diff.entrySet())
+                    hash.add(e.getKey(),e.getValue());
+            } else {
+                hash.addAll(diff);  // rebuilds the whole ring just once
+            }
+            replicas.clear();
+            replicas.putAll(newReplicas);
+        }
+    }
+
     /**
      * Traditional implementation of this.
      *
@@ -141,6 +266,14 @@ public abstract class LoadBalancer /*implements ExtensionPoint*/ {
                 return base.map(task, worksheet);
             }
 
+            /**
+             * {@link MappingBatch} already skips tasks that are blocked by the shutdown.
+             */
+            @Override
+            public void map(MappingBatch batch) {
+                base.map(batch);
+            }
+
             /**
              * Double-sanitization is pointless.
              */
@@ -29,6 +29,7 @@ import hudson.model.MultiStageTimeSeries.TrendChart;
 import hudson.util.ColorPalette;
 import hudson.util.NoOverlapCategoryAxis;
 import jenkins.model.Jenkins;
+import jenkins.model.UnlabeldLoadStatistics;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.CategoryAxis;
@@ -45,7 +46,14 @@ import org.kohsuke.stapler.export.Exported;
 
 import java.awt.*;
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Utilization statistics for a node or a set of nodes.
@@ -191,6 +199,15 @@ public abstract class LoadStatistics {
         busyExecutors.update(t-i);
     }
 
+    /**
+     * Records a sample that {@link LoadStatisticsUpdater} computed in bulk.
+     */
+    private void update(int total, int idle, int queue) {
+        totalExecutors.update(total);
+        busyExecutors.update(total-idle);
+        queueLength.update(queue);
+    }
+
     /**
      * With 0.90 decay ratio for every 10sec, half reduction is about 1 min.
      */
@@ -202,38 +219,143 @@ public abstract class LoadStatistics {
 
     /**
      * Periodically update the load statistics average.
+     *
+     * <p>
+     * Instead of letting every {@link LoadStatistics} compute its own snapshot, which would count
+     * the queue and walk the nodes once per label, this counts the executors of each computer and
+     * buckets the buildable items by their labels in one sweep, then adds them up for each label.
+     *
+     * <p>
+     * The sweep reproduces the counting rules of {@link Label}, {@link OverallLoadStatistics} and
+     * {@link UnlabeldLoadStatistics}. If a subclass changes how the executors are counted,
+     * its overridden methods are called as before.
      */
     @Extension
     public static class LoadStatisticsUpdater extends PeriodicWork {
+        /**
+         * How long the last sample took to compute, in nanoseconds.
+         */
+        private volatile long lastDuration;
+
         public long getRecurrencePeriod() {
             return CLOCK;
         }
 
+        /**
+         * How long the last sample took to compute, in milliseconds,
+         * so that the cost on large installations can be monitored.
+         */
+        public long getLastSampleDuration() {
+            return lastDuration/1000000;
+        }
+
         protected void doRun() {
+            long start = System.nanoTime();
             Jenkins j = Jenkins.getInstance();
             List<Queue.BuildableItem> bis = j.getQueue().getBuildableItems();
 
+            // bucket buildable items by their labels. null key for the unlabeled items
+            Map<Label,Counter> queueLengths = new HashMap<Label,Counter>();
+            for (Queue.BuildableItem bi : bis) {
+                Label l = bi.task.getAssignedLabel();
+                Counter c = queueLengths.get(l);
+                if (c==null)
+                    queueLengths.put(l, c=new Counter());
+                c.total++;
+            }
+
+            // count executors of each node just once
+            Map<Node,Counter> executors = new HashMap<Node,Counter>();
+            Counter overall = new Counter(), unlabeled = new Counter();
+            for (Computer c : j.getComputers()) {
+                Counter e = new Counter();
+                if (c.isOnline())
+                    e.total = c.countExecutors();
+                if (c.isOnline() || c.isConnecting())
+                    e.idle = c.countIdle();
+                overall.add(e);
+
+                Node n = c.getNode();
+                if (n==null)    continue;   // being removed, so it's in no label
+                executors.put(n,e);
+                if (n.getMode()==Node.Mode.NORMAL)
+                    unlabeled.add(e);
+            }
+
             // update statistics on slaves
+            int labels = 0;
             for( Label l : j.getLabels() ) {
-                l.loadStatistics.updateExecutorCounts();
-                l.loadStatistics.queueLength.update(count(bis, l));
+                if (countsInBulk(l.getClass(), Label.class, "getTotalExecutors", "getIdleExecutors")) {
+                    Counter sum = new Counter();
+                    for (Node n : l.getNodes()) {
+                        Counter e = executors.get(n);
+                        if (e!=null)
+                            sum.add(e);
+                    }
+                    l.loadStatistics.update(sum.total, sum.idle, count(queueLengths, l));
+                } else {
+                    l.loadStatistics.updateExecutorCounts();
+                    l.loadStatistics.queueLength.update(count(queueLengths, l));
+                }
+                labels++;
             }
 
             // update statistics of the entire system
-            j.unlabeledLoad.updateExecutorCounts();
-            j.unlabeledLoad.queueLength.update(count(bis, null));
+            update(j.unlabeledLoad, UnlabeldLoadStatistics.class, unlabeled, count(queueLengths, null));
+            update(j.overallLoad, OverallLoadStatistics.class, overall, bis.size());
 
-            j.overallLoad.updateExecutorCounts();
-            j.overallLoad.queueLength.update(bis.size());
+            lastDuration = System.nanoTime()-start;
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.fine(String.format("Updated load statistics of %d labels, %d computers and %d buildable items in %dms",
+                        labels, executors.size(), bis.size(), getLastSampleDuration()));
         }
 
-        private int count(List<Queue.BuildableItem> bis, Label l) {
-            int q=0;
-            for (Queue.BuildableItem bi : bis) {
-                if(bi.task.getAssignedLabel()==l)
-                    q++;
+        private void update(LoadStatistics stat, Class<? extends LoadStatistics> base, Counter c, int queue) {
+            if (countsInBulk(stat.getClass(), base, "computeTotalExecutors", "computeIdleExecutors", "updateExecutorCounts")) {
+                stat.update(c.total, c.idle, queue);
+            } else {
+                stat.updateExecutorCounts();
+                stat.queueLength.update(queue);
+            }
+        }
+
+        /**
+         * Checks if the given class inherits the methods of the given name from {@code base} as they are,
+         * which means the executor counts computed by {@link #doRun()} are what they'd compute.
+         */
+        /*package*/ static boolean countsInBulk(Class<?> c, Class<?> base, String... methods) {
+            Boolean b = COUNTS_IN_BULK.get(c);
+            if (b==null) {
+                b = base.isAssignableFrom(c);
+                for (Class<?> t=c; b && t!=base; t=t.getSuperclass()) {
+                    for (Method m : t.getDeclaredMethods()) {
+                        if (m.getParameterTypes().length==0 && Arrays.asList(methods).contains(m.getName())) {
+                            b = false;
+                            break;
+                        }
+                    }
+                }
+                COUNTS_IN_BULK.put(c,b);
+            }
+            return b;
+        }
+
+        private static final Map<Class<?>,Boolean> COUNTS_IN_BULK = new ConcurrentHashMap<Class<?>,Boolean>();
+
+        private int count(Map<Label,Counter> queueLengths, Label l) {
+            Counter c = queueLengths.get(l);
+            return c!=null ? c.total : 0;
+        }
+
+        private static final class Counter {
+            int total, idle;
+
+            void add(Counter that) {
+                total += that.total;
+                idle += that.idle;
             }
-            return q;
         }
     }
+
+    private static final Logger LOGGER = Logger.getLogger(LoadStatistics.class.getName());
 }
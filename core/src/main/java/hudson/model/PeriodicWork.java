@@ -43,7 +43,7 @@ import java.util.Timer;
  *
  * <p>
  * Put {@link Extension} on your class to have it picked up and registered automatically, or
- * manually insert this to {@link Trigger#timer}.
+ * manually insert this to {@link Trigger#scheduler}.
  *
  * <p>
  * This class is designed to run a short task. Implementations whose periodic work takes a long time
@@ -41,7 +41,12 @@ import hudson.model.queue.AbstractQueueTask;
 import hudson.model.queue.Executables;
 import hudson.model.queue.SubTask;
 import hudson.model.queue.FutureImpl;
+import hudson.model.queue.MaintenanceStatistics;
+import hudson.model.queue.MaintenanceStatistics.Timing;
+import hudson.model.queue.MaintenanceStatistics.Transition;
+import hudson.model.queue.MappingBatch;
 import hudson.model.queue.MappingWorksheet;
+import hudson.model.queue.MappingWorksheet.ExecutorSlot;
 import hudson.model.queue.MappingWorksheet.Mapping;
 import hudson.model.queue.QueueSorter;
 import hudson.model.queue.QueueTaskDispatcher;
@@ -56,6 +61,7 @@ import hudson.model.queue.CauseOfBlockage.BecauseNodeIsOffline;
 import hudson.model.queue.CauseOfBlockage.BecauseLabelIsOffline;
 import hudson.model.queue.CauseOfBlockage.BecauseNodeIsBusy;
 import hudson.model.queue.WorkUnitContext;
+import hudson.slaves.NodeProvisioner;
 import hudson.triggers.SafeTimerTask;
 import hudson.triggers.Trigger;
 import hudson.util.OneShotEvent;
@@ -70,6 +76,8 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
@@ -78,10 +86,12 @@ import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.RandomAccess;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.Map.Entry;
@@ -125,6 +135,12 @@ import com.thoughtworks.xstream.converters.basic.AbstractSingleValueConverter;
  * In addition, at any stage, an item can be removed from the queue (for example, when the user
  * cancels a job in the queue.) See the corresponding field for their exact meanings.
  *
+ * <p>
+ * All the changes to the queue are made while holding the lock of the {@link Queue} object.
+ * Methods that only inspect the queue (such as {@link #getItems()}) do not acquire the lock,
+ * and instead read an immutable {@link Snapshot} that is republished at the end of every change,
+ * so that rendering the queue never has to wait for {@link #maintain()}.
+ *
  * @author Kohsuke Kawaguchi
  */
 @ExportedBean
@@ -136,7 +152,7 @@ public class Queue extends ResourceController implements Saveable {
      * This consists of {@link Item}s that cannot be run yet
      * because its time has not yet come.
      */
-    private final Set<WaitingItem> waitingList = new TreeSet<WaitingItem>();
+    private final WaitingList waitingList = new WaitingList();
 
     /**
      * {@link Task}s that can be built immediately
@@ -204,15 +220,38 @@ public class Queue extends ResourceController implements Saveable {
          * Verifies that the {@link Executor} represented by this object is capable of executing the given task.
          */
         public boolean canTake(BuildableItem item) {
+            return canTake(item,null);
+        }
+
+        /**
+         * @param pass
+         *      If non-null, the maintenance pass that records the decision.
+         */
+        private boolean canTake(BuildableItem item, MaintenanceStatistics.Pass pass) {
             Node node = getNode();
             if (node==null)     return false;   // this executor is about to die
 
-            if(node.canTake(item)!=null)
+            CauseOfBlockage c = node.canTake(item);
+            if(c!=null) {
+                if (pass!=null)
+                    maintenanceStatistics.blocked(pass, "canTake", Node.class.getName(), c);
                 return false;   // this node is not able to take the task
+            }
 
-            for (QueueTaskDispatcher d : QueueTaskDispatcher.all())
-                if (d.canTake(node,item)!=null)
-                    return false;
+            long start = pass!=null ? System.nanoTime() : 0;
+            try {
+                for (QueueTaskDispatcher d : QueueTaskDispatcher.all()) {
+                    c = d.canTake(node,item);
+                    if (c!=null) {
+                        if (pass!=null)
+                            maintenanceStatistics.blocked(pass, "canTake", d.getClass().getName(), c);
+                        return false;
+                    }
+                }
+            } finally {
+                if (pass!=null)
+                    pass.time(Timing.DISPATCHERS, System.nanoTime()-start);
+            }
 
             return isAvailable();
         }
@@ -238,10 +277,18 @@ public class Queue extends ResourceController implements Saveable {
      */
     private final Map<Executor,JobOffer> parked = new HashMap<Executor,JobOffer>();
 
+    /**
+     * Read-only copy of the queue content for lock-free readers.
+     * Republished by {@link #updateSnapshot()} at the end of every change.
+     */
+    private transient volatile Snapshot snapshot = new Snapshot();
+
     private volatile transient LoadBalancer loadBalancer;
 
     private volatile transient QueueSorter sorter;
 
+    private final transient MaintenanceStatistics maintenanceStatistics = new MaintenanceStatistics();
+
     public Queue(LoadBalancer loadBalancer) {
         this.loadBalancer =  loadBalancer.sanitize();
         // if all the executors are busy doing something, then the queue won't be maintained in
@@ -329,6 +376,7 @@ public class Queue extends ResourceController implements Saveable {
         } catch (IOException e) {
             LOGGER.log(Level.WARNING, "Failed to load the queue file " + getXMLQueueFile(), e);
         }
+        updateSnapshot();
     }
 
     /**
@@ -364,6 +412,7 @@ public class Queue extends ResourceController implements Saveable {
         waitingList.clear();
         blockedProjects.cancelAll();
         buildables.cancelAll();
+        updateSnapshot();
         scheduleMaintenance();
     }
 
@@ -458,7 +507,7 @@ public class Queue extends ResourceController implements Saveable {
 
         // Do we already have this task in the queue? Because if so, we won't schedule a new one.
     	List<Item> duplicatesInQueue = new ArrayList<Item>();
-    	for(Item item : getItems(p)) {
+    	for(Item item : _getItems(p)) {
     		boolean shouldScheduleItem = false;
     		for (QueueAction action: item.getActions(QueueAction.class)) {
                 shouldScheduleItem |= action.shouldSchedule(actions);
@@ -476,6 +525,8 @@ public class Queue extends ResourceController implements Saveable {
     		// put the item in the queue
             WaitingItem added = new WaitingItem(due,p,actions);
     		waitingList.add(added);
+            NodeProvisioner.of(p.getAssignedLabel()).onArrival();
+            updateSnapshot();
             scheduleMaintenance();   // let an executor know that a new item is in the queue.
             return added;
     	}
@@ -510,7 +561,10 @@ public class Queue extends ResourceController implements Saveable {
             queueUpdated=true;
         }
 
-        if (queueUpdated)   scheduleMaintenance();
+        if (queueUpdated) {
+            updateSnapshot();
+            scheduleMaintenance();
+        }
         return null;
     }
     
@@ -554,24 +608,31 @@ public class Queue extends ResourceController implements Saveable {
             if (item.task.equals(p)) {
                 itr.remove();
                 item.onCancelled();
+                updateSnapshot();
                 return true;
             }
         }
         // use bitwise-OR to make sure that both branches get evaluated all the time
-        return blockedProjects.cancel(p)!=null | buildables.cancel(p)!=null;
+        boolean r = blockedProjects.cancel(p)!=null | buildables.cancel(p)!=null;
+        if(r)
+            updateSnapshot();
+        return r;
     }
     
     public synchronized boolean cancel(Item item) {
         LOGGER.fine("Cancelling " + item.task.getFullDisplayName() + " item#" + item.id);
         // use bitwise-OR to make sure that all the branches get evaluated all the time
         boolean r = (item instanceof WaitingItem && waitingList.remove(item)) | blockedProjects.remove(item) | buildables.remove(item);
-        if(r)
+        if(r) {
             item.onCancelled();
+            updateSnapshot();
+        }
         return r;
     }
 
-    public synchronized boolean isEmpty() {
-        return waitingList.isEmpty() && blockedProjects.isEmpty() && buildables.isEmpty() && pendings.isEmpty();
+    public boolean isEmpty() {
+        Snapshot snapshot = getSnapshot();
+        return snapshot.waitingList.items.isEmpty() && snapshot.blockedProjects.items.isEmpty() && snapshot.buildables.items.isEmpty() && snapshot.pendings.items.isEmpty();
     }
 
     private synchronized WaitingItem peek() {
@@ -585,40 +646,38 @@ public class Queue extends ResourceController implements Saveable {
      * at the end.
      */
     @Exported(inline=true)
-    public synchronized Item[] getItems() {
-        Item[] r = new Item[waitingList.size() + blockedProjects.size() + buildables.size() + pendings.size()];
-        waitingList.toArray(r);
-        int idx = waitingList.size();
-        for (BlockedItem p : blockedProjects.values())
+    public Item[] getItems() {
+        Snapshot snapshot = getSnapshot();
+        Item[] r = new Item[snapshot.waitingList.items.size() + snapshot.blockedProjects.items.size() + snapshot.buildables.items.size() + snapshot.pendings.items.size()];
+        snapshot.waitingList.items.toArray(r);
+        int idx = snapshot.waitingList.items.size();
+        for (BlockedItem p : snapshot.blockedProjects.items)
             r[idx++] = p;
-        for (BuildableItem p : reverse(buildables.values()))
+        for (BuildableItem p : reverse(snapshot.buildables.items))
             r[idx++] = p;
-        for (BuildableItem p : reverse(pendings.values()))
+        for (BuildableItem p : reverse(snapshot.pendings.items))
             r[idx++] = p;
         return r;
     }
     
-    public synchronized Item getItem(int id) {
-    	for (Item item: waitingList) if (item.id == id) return item;
-    	for (Item item: blockedProjects) if (item.id == id) return item;
-    	for (Item item: buildables) if (item.id == id) return item;
-        for (Item item: pendings) if (item.id == id) return item;
-    	return null;
+    public Item getItem(int id) {
+        return getSnapshot().get(id);
     }
 
     /**
      * Gets all the {@link BuildableItem}s that are waiting for an executor in the given {@link Computer}.
      */
-    public synchronized List<BuildableItem> getBuildableItems(Computer c) {
+    public List<BuildableItem> getBuildableItems(Computer c) {
+        Snapshot snapshot = getSnapshot();
         List<BuildableItem> result = new ArrayList<BuildableItem>();
-        _getBuildableItems(c, buildables, result);
-        _getBuildableItems(c, pendings, result);
+        _getBuildableItems(c, snapshot.buildables.items, result);
+        _getBuildableItems(c, snapshot.pendings.items, result);
         return result;
     }
 
-    private void _getBuildableItems(Computer c, ItemList<BuildableItem> col, List<BuildableItem> result) {
+    private void _getBuildableItems(Computer c, List<BuildableItem> col, List<BuildableItem> result) {
         Node node = c.getNode();
-        for (BuildableItem p : col.values()) {
+        for (BuildableItem p : col) {
             if (node.canTake(p) == null)
                 result.add(p);
         }
@@ -627,17 +686,18 @@ public class Queue extends ResourceController implements Saveable {
     /**
      * Gets the snapshot of all {@link BuildableItem}s.
      */
-    public synchronized List<BuildableItem> getBuildableItems() {
-        ArrayList<BuildableItem> r = new ArrayList<BuildableItem>(buildables.values());
-        r.addAll(pendings.values());
+    public List<BuildableItem> getBuildableItems() {
+        Snapshot snapshot = getSnapshot();
+        ArrayList<BuildableItem> r = new ArrayList<BuildableItem>(snapshot.buildables.items);
+        r.addAll(snapshot.pendings.items);
         return r;
     }
 
     /**
      * Gets the snapshot of all {@link BuildableItem}s.
      */
-    public synchronized List<BuildableItem> getPendingItems() {
-        return new ArrayList<BuildableItem>(pendings.values());
+    public List<BuildableItem> getPendingItems() {
+        return new ArrayList<BuildableItem>(getSnapshot().pendings.items);
     }
 
     /**
@@ -645,11 +705,12 @@ public class Queue extends ResourceController implements Saveable {
      *
      * @since 1.402
      */
-    public synchronized List<Item> getUnblockedItems() {
+    public List<Item> getUnblockedItems() {
+        Snapshot snapshot = getSnapshot();
     	List<Item> queuedNotBlocked = new ArrayList<Item>();
-        queuedNotBlocked.addAll(waitingList);
-        queuedNotBlocked.addAll(buildables);
-        queuedNotBlocked.addAll(pendings);
+        queuedNotBlocked.addAll(snapshot.waitingList.items);
+        queuedNotBlocked.addAll(snapshot.buildables.items);
+        queuedNotBlocked.addAll(snapshot.pendings.items);
         // but not 'blockedProjects'
         return queuedNotBlocked;
     }
@@ -659,7 +720,7 @@ public class Queue extends ResourceController implements Saveable {
      *
      * @since 1.402
      */
-    public synchronized Set<Task> getUnblockedTasks() {
+    public Set<Task> getUnblockedTasks() {
         List<Item> items = getUnblockedItems();
         Set<Task> unblockedTasks = new HashSet<Task>(items.size());
         for (Queue.Item t : items)
@@ -670,8 +731,8 @@ public class Queue extends ResourceController implements Saveable {
     /**
      * Is the given task currently pending execution?
      */
-    public synchronized boolean isPending(Task t) {
-        for (BuildableItem i : pendings)
+    public boolean isPending(Task t) {
+        for (BuildableItem i : getSnapshot().pendings.items)
             if (i.task.equals(t))
                 return true;
         return false;
@@ -680,12 +741,13 @@ public class Queue extends ResourceController implements Saveable {
     /**
      * How many {@link BuildableItem}s are assigned for the given label?
      */
-    public synchronized int countBuildableItemsFor(Label l) {
+    public int countBuildableItemsFor(Label l) {
+        Snapshot snapshot = getSnapshot();
         int r = 0;
-        for (BuildableItem bi : buildables.values())
+        for (BuildableItem bi : snapshot.buildables.items)
             if(bi.getAssignedLabel()==l)
                 r++;
-        for (BuildableItem bi : pendings.values())
+        for (BuildableItem bi : snapshot.pendings.items)
             if(bi.getAssignedLabel()==l)
                 r++;
         return r;
@@ -694,8 +756,9 @@ public class Queue extends ResourceController implements Saveable {
     /**
      * Counts all the {@link BuildableItem}s currently in the queue.
      */
-    public synchronized int countBuildableItems() {
-        return buildables.size()+pendings.size();
+    public int countBuildableItems() {
+        Snapshot snapshot = getSnapshot();
+        return snapshot.buildables.items.size()+snapshot.pendings.items.size();
     }
 
     /**
@@ -703,22 +766,9 @@ public class Queue extends ResourceController implements Saveable {
      *
      * @return null if the project is not in the queue.
      */
-    public synchronized Item getItem(Task t) {
-        BlockedItem bp = blockedProjects.get(t);
-        if (bp!=null)
-            return bp;
-        BuildableItem bi = buildables.get(t);
-        if(bi!=null)
-            return bi;
-        bi = pendings.get(t);
-        if(bi!=null)
-            return bi;
-
-        for (Item item : waitingList) {
-            if (item.task == t)
-                return item;
-        }
-        return null;
+    public Item getItem(Task t) {
+        List<Item> items = getSnapshot().get(t);
+        return items.isEmpty() ? null : items.get(0);
     }
 
     /**
@@ -726,15 +776,20 @@ public class Queue extends ResourceController implements Saveable {
      *
      * @return null if the project is not in the queue.
      */
-    public synchronized List<Item> getItems(Task t) {
+    public List<Item> getItems(Task t) {
+        return getSnapshot().get(t);
+    }
+
+    /**
+     * Works like {@link #getItems(Task)} but looks at the live data structure,
+     * as opposed to the snapshot. Must be called while holding the lock.
+     */
+    private List<Item> _getItems(Task t) {
     	List<Item> result =new ArrayList<Item>();
     	result.addAll(blockedProjects.getAll(t));
     	result.addAll(buildables.getAll(t));
         result.addAll(pendings.getAll(t));
-        for (Item item : waitingList) {
-            if (item.task == t)
-                result.add(item);
-        }
+        result.addAll(waitingList.getAll(t));
         return result;
     }
 
@@ -750,14 +805,8 @@ public class Queue extends ResourceController implements Saveable {
     /**
      * Returns true if this queue contains the said project.
      */
-    public synchronized boolean contains(Task t) {
-        if (blockedProjects.containsKey(t) || buildables.containsKey(t) || pendings.containsKey(t))
-            return true;
-        for (Item item : waitingList) {
-            if (item.task == t)
-                return true;
-        }
-        return false;
+    public boolean contains(Task t) {
+        return getItem(t)!=null;
     }
 
     /**
@@ -772,6 +821,7 @@ public class Queue extends ResourceController implements Saveable {
             OneOffExecutor ooe = (OneOffExecutor) exec;
             final WorkUnit wu = ooe.getAssignedWorkUnit();
             pendings.remove(wu.context.item);
+            updateSnapshot();
             return wu;
         }
 
@@ -815,8 +865,10 @@ public class Queue extends ResourceController implements Saveable {
                     LOGGER.fine("Pop returning " + offer.workUnit + " for " + exec.getName());
 
                     // TODO: I think this has to be done by the last executor that leaves the pop(), not by main executor
-                    if (offer.workUnit.isMainWork())
+                    if (offer.workUnit.isMainWork()) {
                         pendings.remove(offer.workUnit.context.item);
+                        updateSnapshot();
+                    }
 
                     return offer.workUnit;
                 }
@@ -862,16 +914,35 @@ public class Queue extends ResourceController implements Saveable {
      * Checks if the given item should be prevented from entering into the {@link #buildables} state
      * and instead stay in the {@link #blockedProjects} state.
      */
-    private boolean isBuildBlocked(Item i) {
-        if (i.task.isBuildBlocked() || !canRun(i.task.getResourceList()))
-            return true;
-
-        for (QueueTaskDispatcher d : QueueTaskDispatcher.all()) {
-            if (d.canRun(i)!=null)
+    private boolean isBuildBlocked(Item i, MaintenanceStatistics.Pass pass) {
+        long start = System.nanoTime();
+        try {
+            if (i.task.isBuildBlocked()) {
+                maintenanceStatistics.blocked(pass, "canRun", Task.class.getName(), null);
                 return true;
-        }
+            }
+            if (!canRun(i.task.getResourceList())) {
+                maintenanceStatistics.blocked(pass, "canRun", ResourceList.class.getName(), null);
+                return true;
+            }
 
-        return false;
+            long d0 = System.nanoTime();
+            try {
+                for (QueueTaskDispatcher d : QueueTaskDispatcher.all()) {
+                    CauseOfBlockage c = d.canRun(i);
+                    if (c!=null) {
+                        maintenanceStatistics.blocked(pass, "canRun", d.getClass().getName(), c);
+                        return true;
+                    }
+                }
+            } finally {
+                pass.time(Timing.DISPATCHERS, System.nanoTime()-d0);
+            }
+
+            return false;
+        } finally {
+            pass.time(Timing.BLOCKAGE_CHECK, System.nanoTime()-start);
+        }
     }
 
     /**
@@ -899,23 +970,31 @@ public class Queue extends ResourceController implements Saveable {
      * Jenkins internally invokes this method by itself whenever there's a change that can affect
      * the scheduling (such as new node becoming online, # of executors change, a task completes execution, etc.),
      * and it also gets invoked periodically (see {@link MaintainTask}.)
+     *
+     * <p>
+     * What each invocation does is recorded in {@link #getMaintenanceStatistics()}.
      */
     public synchronized void maintain() {
         if (LOGGER.isLoggable(Level.FINE))
             LOGGER.fine("Queue maintenance started " + this);
 
+        final MaintenanceStatistics.Pass pass = maintenanceStatistics.start();
+
         {// blocked -> buildable
             Iterator<BlockedItem> itr = blockedProjects.values().iterator();
             while (itr.hasNext()) {
                 BlockedItem p = itr.next();
-                if (!isBuildBlocked(p) && allowNewBuildableTask(p.task)) {
+                pass.examined();
+                if (!isBuildBlocked(p,pass) && allowNewBuildableTask(p.task)) {
                     // ready to be executed
                     LOGGER.fine(p.task.getFullDisplayName() + " no longer blocked");
                     itr.remove();
                     makeBuildable(new BuildableItem(p));
+                    pass.moved(Transition.BLOCKED_TO_BUILDABLE);
                 }
             }
         }
+        pass.endPhase(Timing.BLOCKED);
 
         // waitingList -> buildable/blocked
         while (!waitingList.isEmpty()) {
@@ -925,56 +1004,108 @@ public class Queue extends ResourceController implements Saveable {
                 break; // finished moving all ready items from queue
 
             waitingList.remove(top);
+            pass.examined();
             Task p = top.task;
-            if (!isBuildBlocked(top) && allowNewBuildableTask(p)) {
+            if (!isBuildBlocked(top,pass) && allowNewBuildableTask(p)) {
                 // ready to be executed immediately
                 LOGGER.fine(p.getFullDisplayName() + " ready to build");
                 makeBuildable(new BuildableItem(top));
+                pass.moved(Transition.WAITING_TO_BUILDABLE);
             } else {
                 // this can't be built now because another build is in progress
                 // set this project aside.
                 LOGGER.fine(p.getFullDisplayName() + " is blocked");
                 blockedProjects.put(p,new BlockedItem(top));
+                pass.moved(Transition.WAITING_TO_BLOCKED);
             }
         }
+        pass.endPhase(Timing.WAITING);
 
         final QueueSorter s = sorter;
         if (s != null)
         	s.sortBuildableItems(buildables);
+        pass.endPhase(Timing.SORT);
 
         // allocate buildable jobs to executors
-        Iterator<BuildableItem> itr = buildables.iterator();
-        while (itr.hasNext()) {
-            BuildableItem p = itr.next();
+        final Map<BuildableItem,Boolean> removed = new IdentityHashMap<BuildableItem,Boolean>();
+        final long[] executionTime = new long[1];
+        MappingBatch batch = new MappingBatch(new ArrayList<BuildableItem>(buildables), parked.values()) {
+            @Override
+            protected boolean isBlocked(BuildableItem p) {
+                pass.examined();
+
+                // one last check to make sure this build is not blocked.
+                if (isBuildBlocked(p,pass)) {
+                    removed.put(p,true);
+                    blockedProjects.put(p.task,new BlockedItem(p));
+                    pass.moved(Transition.BUILDABLE_TO_BLOCKED);
+                    return true;
+                }
+                return false;
+            }
 
-            // one last check to make sure this build is not blocked.
-            if (isBuildBlocked(p)) {
-                itr.remove();
-                blockedProjects.put(p.task,new BlockedItem(p));
-                continue;
+            @Override
+            protected boolean canTake(ExecutorSlot slot, BuildableItem p) {
+                return ((JobOffer)slot).canTake(p,pass);
             }
 
-            List<JobOffer> candidates = new ArrayList<JobOffer>(parked.size());
-            for (JobOffer j : parked.values())
-                if(j.canTake(p))
-                    candidates.add(j);
-
-            MappingWorksheet ws = new MappingWorksheet(p, candidates);
-            Mapping m = loadBalancer.map(p.task, ws);
-            if (m == null)
-                // if we couldn't find the executor that fits,
-                // just leave it in the buildables list and
-                // check if we can execute other projects
-                continue;
-
-            // found a matching executor. use it.
-            WorkUnitContext wuc = new WorkUnitContext(p);
-            m.execute(wuc);
-
-            itr.remove();
-            if (!wuc.getWorkUnits().isEmpty())
-                pendings.add(p);
-        }
+            @Override
+            protected boolean canTakeDependsOnlyOnLabel(Computer c) {
+                return isDecidedByLabel(c.getNode());
+            }
+
+            @Override
+            protected void execute(BuildableItem p, Mapping m) {
+                long start = System.nanoTime();
+
+                // found a matching executor. use it.
+                WorkUnitContext wuc = new WorkUnitContext(p);
+                m.execute(wuc);
+
+                removed.put(p,true);
+                if (!wuc.getWorkUnits().isEmpty()) {
+                    pendings.add(p);
+                    pass.moved(Transition.BUILDABLE_TO_PENDING);
+                }
+                executionTime[0] += System.nanoTime()-start;
+            }
+        };
+        long start = System.nanoTime();
+        loadBalancer.map(batch);
+        pass.time(Timing.WORKSHEET, batch.getWorksheetTime());
+        pass.time(Timing.LOAD_BALANCER, System.nanoTime()-start-batch.getWorksheetTime()-executionTime[0]);
+
+        // items that were blocked or executed leave the buildables list.
+        // if we couldn't find the executor that fits, the item just stays there
+        buildables.removeAll(removed.keySet());
+        pass.endPhase(Timing.ALLOCATION);
+
+        updateSnapshot();
+        maintenanceStatistics.finish(pass);
+    }
+
+    /**
+     * Publishes the current queue content to readers.
+     * Must be called while holding the lock, at the end of every change to the queue.
+     *
+     * <p>
+     * Only the lists that changed since the last snapshot are copied, so that, for example,
+     * scheduling a new item doesn't copy the buildable items.
+     */
+    private void updateSnapshot() {
+        Snapshot s = snapshot;
+        snapshot = new Snapshot(
+                Part.of(s.waitingList, waitingList, waitingList.version),
+                Part.of(s.blockedProjects, blockedProjects, blockedProjects.version),
+                Part.of(s.buildables, buildables, buildables.version),
+                Part.of(s.pendings, pendings, pendings.version));
+    }
+
+    /**
+     * Gets the snapshot of the queue as of the end of the last change. Never blocks.
+     */
+    private Snapshot getSnapshot() {
+        return snapshot;
     }
 
     private void makeBuildable(BuildableItem p) {
@@ -985,9 +1116,11 @@ public class Queue extends ResourceController implements Saveable {
                 }
             });
             Jenkins h = Jenkins.getInstance();
-            hash.add(h, h.getNumExecutors()*100);
+            Map<Node,Integer> replicas = new HashMap<Node,Integer>();
+            replicas.put(h, h.getNumExecutors()*100);
             for (Node n : h.getNodes())
-                hash.add(n,n.getNumExecutors()*100);
+                replicas.put(n,n.getNumExecutors()*100);
+            hash.addAll(replicas);
 
             Label lbl = p.getAssignedLabel();
             for (Node n : hash.list(p.task.getFullDisplayName())) {
@@ -1014,6 +1147,17 @@ public class Queue extends ResourceController implements Saveable {
         return new Api(this);
     }
 
+    /**
+     * Gets the record of recent {@link #maintain()} invocations.
+     * This reveals the names of all the queued tasks, so it requires {@link Jenkins#ADMINISTER}.
+     *
+     * @since 1.475
+     */
+    public MaintenanceStatistics getMaintenanceStatistics() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        return maintenanceStatistics;
+    }
+
     /**
      * Marks {@link Task}s that are not persisted.
      * @since 1.311
@@ -1590,6 +1734,97 @@ public class Queue extends ResourceController implements Saveable {
         }
     }
 
+    /**
+     * Immutable copy of the queue content at some point in time.
+     * See {@link Queue#snapshot}.
+     */
+    private static final class Snapshot {
+        private final Part<WaitingItem> waitingList;
+        private final Part<BlockedItem> blockedProjects;
+        private final Part<BuildableItem> buildables;
+        private final Part<BuildableItem> pendings;
+
+        Snapshot() {
+            this(new Part<WaitingItem>(), new Part<BlockedItem>(), new Part<BuildableItem>(), new Part<BuildableItem>());
+        }
+
+        Snapshot(Part<WaitingItem> waitingList, Part<BlockedItem> blockedProjects, Part<BuildableItem> buildables, Part<BuildableItem> pendings) {
+            this.waitingList = waitingList;
+            this.blockedProjects = blockedProjects;
+            this.buildables = buildables;
+            this.pendings = pendings;
+        }
+
+        Item get(int id) {
+            Item i = blockedProjects.byId.get(id);
+            if (i==null)    i = buildables.byId.get(id);
+            if (i==null)    i = pendings.byId.get(id);
+            if (i==null)    i = waitingList.byId.get(id);
+            return i;
+        }
+
+        /**
+         * Gets all the items of the given task, in the order of blocked, buildable, pending, and waiting.
+         */
+        List<Item> get(Task t) {
+            List<Item> r = new ArrayList<Item>();
+            blockedProjects.addAll(t,r);
+            buildables.addAll(t,r);
+            pendings.addAll(t,r);
+            waitingList.addAll(t,r);
+            return r;
+        }
+    }
+
+    /**
+     * Immutable copy of one of the item lists of the queue, along with lookup tables.
+     */
+    private static final class Part<T extends Item> {
+        /**
+         * Version of the list that this is a copy of.
+         */
+        private final int version;
+        private final List<T> items;
+        /**
+         * Items keyed by {@link Item#id}.
+         */
+        private final Map<Integer,T> byId;
+        /**
+         * Items keyed by {@link Item#task} (by identity).
+         */
+        private final Map<Task,List<T>> byTask;
+
+        Part() {
+            this(Collections.<T>emptyList(), -1);
+        }
+
+        Part(Collection<T> items, int version) {
+            this.version = version;
+            this.items = new ArrayList<T>(items);
+            byId = new HashMap<Integer,T>(items.size()*2);
+            byTask = new IdentityHashMap<Task,List<T>>(items.size());
+            for (T item : this.items) {
+                byId.put(item.id,item);
+                List<T> l = byTask.get(item.task);
+                if (l==null)
+                    byTask.put(item.task, l=new ArrayList<T>(1));
+                l.add(item);
+            }
+        }
+
+        void addAll(Task t, List<Item> r) {
+            List<T> l = byTask.get(t);
+            if (l!=null)    r.addAll(l);
+        }
+
+        /**
+         * Reuses the given copy if the list hasn't changed since, or makes a new copy.
+         */
+        static <T extends Item> Part<T> of(Part<T> old, Collection<T> live, int version) {
+            return old.version==version ? old : new Part<T>(live,version);
+        }
+    }
+
     private static final Logger LOGGER = Logger.getLogger(Queue.class.getName());
 
     /**
@@ -1677,7 +1912,7 @@ public class Queue extends ResourceController implements Saveable {
             this.queue = new WeakReference<Queue>(queue);
 
             long interval = 5 * Timer.ONE_SECOND;
-            Trigger.timer.schedule(this, interval, interval);
+            Trigger.scheduler.schedule(this, interval, interval);
         }
 
         protected void doRun() {
@@ -1690,26 +1925,73 @@ public class Queue extends ResourceController implements Saveable {
     }
     
     /**
-     * {@link ArrayList} of {@link Item} with more convenience methods.
+     * Keeps track of {@link Item}s by their {@link Item#task} (by identity), so that
+     * lookups by {@link Task} don't have to scan the whole list.
      */
-    private static class ItemList<T extends Item> extends ArrayList<T> {
+    private static final class TaskIndex<T extends Item> {
+        private final Map<Task,List<T>> items = new IdentityHashMap<Task,List<T>>();
+
+        void add(T item) {
+            List<T> l = items.get(item.task);
+            if (l==null)
+                items.put(item.task, l=new ArrayList<T>(1));
+            l.add(item);
+        }
+
+        void remove(Object o) {
+            if (!(o instanceof Item))   return;
+            Item item = (Item) o;
+            List<T> l = items.get(item.task);
+            if (l==null)    return;
+            for (Iterator<T> itr = l.iterator(); itr.hasNext();) {
+                if (itr.next()==item) {
+                    itr.remove();
+                    break;
+                }
+            }
+            if (l.isEmpty())
+                items.remove(item.task);
+        }
+
+        T get(Task task) {
+            List<T> l = items.get(task);
+            return l!=null ? l.get(0) : null;
+        }
+
+        List<T> getAll(Task task) {
+            List<T> l = items.get(task);
+            return l!=null ? new ArrayList<T>(l) : new ArrayList<T>();
+        }
+
+        void clear() {
+            items.clear();
+        }
+    }
+
+    /**
+     * List of {@link Item} with more convenience methods.
+     *
+     * <p>
+     * Lookups by {@link Task} are served from an index. To keep it up to date, this class wraps
+     * an {@link ArrayList} rather than extending it: every change, including those through iterators,
+     * {@link #subList(int, int) sub lists}, and the bulk operations that {@link ArrayList} implements
+     * on its own, goes through {@link #add(int, Item)}, {@link #set(int, Item)}, {@link #remove(int)},
+     * or {@link #clear()}.
+     */
+    /*package*/ static class ItemList<T extends Item> extends AbstractList<T> implements RandomAccess {
+        private final ArrayList<T> items = new ArrayList<T>();
+        private final TaskIndex<T> index = new TaskIndex<T>();
+        /**
+         * Incremented on every change, so that {@link Snapshot} can tell if it needs to copy this list.
+         */
+        private int version;
+
     	public T get(Task task) {
-    		for (T item: this) {
-    			if (item.task == task) {
-    				return item;
-    			}
-    		}
-    		return null;
+    		return index.get(task);
     	}
     	
     	public List<T> getAll(Task task) {
-    		List<T> result = new ArrayList<T>();
-    		for (T item: this) {
-    			if (item.task == task) {
-    				result.add(item);
-    			}
-    		}
-    		return result;
+    		return index.getAll(task);
     	}
     	
     	public boolean containsKey(Task task) {
@@ -1717,15 +1999,10 @@ public class Queue extends ResourceController implements Saveable {
     	}
     	
     	public T remove(Task task) {
-    		Iterator<T> it = iterator();
-    		while (it.hasNext()) {
-    			T t = it.next();
-    			if (t.task == task) {
-    				it.remove();
-    				return t;
-    			}
-    		}
-    		return null;
+            T t = get(task);
+            if (t!=null)
+                remove(t);
+            return t;
     	}
     	
     	public void put(Task task, T item) {
@@ -1737,6 +2014,64 @@ public class Queue extends ResourceController implements Saveable {
     		return this;
     	}
 
+        @Override
+        public T get(int i) {
+            return items.get(i);
+        }
+
+        @Override
+        public int size() {
+            return items.size();
+        }
+
+        @Override
+        public void add(int i, T item) {
+            items.add(i, item);
+            index.add(item);
+            version++;
+            modCount++;
+        }
+
+        @Override
+        public T set(int i, T item) {
+            T old = items.set(i, item);
+            version++;
+            if (old!=item) {
+                index.remove(old);
+                index.add(item);
+            }
+            return old;
+        }
+
+        @Override
+        public T remove(int i) {
+            T old = items.remove(i);
+            index.remove(old);
+            version++;
+            modCount++;
+            return old;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            // items don't override equals, so the identity comparison is fine
+            for (int i=0; i<size(); i++) {
+                if (get(i)==o) {
+                    remove(i);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void clear() {
+            items.clear();
+            index.clear();
+            version++;
+            modCount++;
+        }
+
         /**
          * Works like {@link #remove(Task)} but also marks the {@link Item} as cancelled.
          */
@@ -1762,6 +2097,85 @@ public class Queue extends ResourceController implements Saveable {
         }
     }
 
+    /**
+     * Set of {@link WaitingItem}s sorted by their time stamps, that also indexes them by {@link Task}.
+     *
+     * <p>
+     * This wraps a {@link TreeSet} rather than extending it, so that there's no way to
+     * remove items that bypasses the index (such as {@link TreeSet#headSet(Object)} or {@code TreeSet.pollFirst()}.)
+     */
+    /*package*/ static final class WaitingList extends AbstractSet<WaitingItem> {
+        private final TreeSet<WaitingItem> items = new TreeSet<WaitingItem>();
+        private final TaskIndex<WaitingItem> index = new TaskIndex<WaitingItem>();
+        /**
+         * Incremented on every change, so that {@link Snapshot} can tell if it needs to copy this list.
+         */
+        private int version;
+
+        public List<WaitingItem> getAll(Task task) {
+            return index.getAll(task);
+        }
+
+        @Override
+        public int size() {
+            return items.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return items.contains(o);
+        }
+
+        @Override
+        public boolean add(WaitingItem item) {
+            boolean r = items.add(item);
+            if (r) {
+                index.add(item);
+                version++;
+            }
+            return r;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            boolean r = items.remove(o);
+            if (r) {
+                index.remove(o);
+                version++;
+            }
+            return r;
+        }
+
+        @Override
+        public Iterator<WaitingItem> iterator() {
+            final Iterator<WaitingItem> base = items.iterator();
+            return new Iterator<WaitingItem>() {
+                private WaitingItem last;
+
+                public boolean hasNext() {
+                    return base.hasNext();
+                }
+
+                public WaitingItem next() {
+                    return last = base.next();
+                }
+
+                public void remove() {
+                    base.remove();
+                    index.remove(last);
+                    version++;
+                }
+            };
+        }
+
+        @Override
+        public void clear() {
+            items.clear();
+            index.clear();
+            version++;
+        }
+    }
+
     @CLIResolver
     public static Queue getInstance() {
         return Jenkins.getInstance().getQueue();
@@ -37,7 +37,10 @@ import hudson.Util;
 import hudson.XmlFile;
 import hudson.cli.declarative.CLIMethod;
 import hudson.console.AnnotatedLargeText;
+import hudson.console.BlockCompressedLog;
+import hudson.console.ConsoleLineIndex;
 import hudson.console.ConsoleNote;
+import hudson.console.PlainTextConsoleOutputStream;
 import hudson.matrix.MatrixBuild;
 import hudson.matrix.MatrixRun;
 import hudson.model.Descriptor.FormException;
@@ -55,6 +58,8 @@ import hudson.tasks.Mailer;
 import hudson.tasks.BuildWrapper;
 import hudson.tasks.BuildStep;
 import hudson.tasks.test.AbstractTestResultAction;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
 import hudson.util.FlushProofOutputStream;
 import hudson.util.IOException2;
 import hudson.util.LogTaskListener;
@@ -89,6 +94,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
@@ -165,6 +172,12 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
      */
     /* does not compile on JDK 7: private*/ volatile transient RunT previousBuildInProgress;
 
+    /**
+     * True if this build is managed by a lazy {@link RunMap}, which doesn't maintain
+     * {@link #previousBuild} and {@link #nextBuild}.
+     */
+    /*package*/ transient boolean lazyLinks;
+
     /**
      * When the build is scheduled.
      */
@@ -638,10 +651,11 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
 
         // a new build is in progress
         BallColor baseColor;
-        if(previousBuild==null)
+        RunT pb = getPreviousBuild();
+        if(pb==null)
             baseColor = BallColor.GREY;
         else
-            baseColor = previousBuild.getIconColor();
+            baseColor = pb.getIconColor();
 
         return baseColor.anime();
     }
@@ -687,6 +701,8 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
     }
 
     public RunT getPreviousBuild() {
+        if (lazyLinks)
+            return project.getNearestOldBuild(number-1);
         return previousBuild;
     }
 
@@ -745,10 +761,10 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
      * Returns the last build that was actually built - i.e., skipping any with Result.NOT_BUILT
      */
     public RunT getPreviousBuiltBuild() {
-        RunT r=previousBuild;
+        RunT r=getPreviousBuild();
         // in certain situations (aborted m2 builds) r.getResult() can still be null, although it should theoretically never happen
         while( r!=null && (r.getResult() == null || r.getResult()==Result.NOT_BUILT) )
-            r=r.previousBuild;
+            r=r.getPreviousBuild();
         return r;
     }
 
@@ -756,9 +772,9 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
      * Returns the last build that didn't fail before this build.
      */
     public RunT getPreviousNotFailedBuild() {
-        RunT r=previousBuild;
+        RunT r=getPreviousBuild();
         while( r!=null && r.getResult()==Result.FAILURE )
-            r=r.previousBuild;
+            r=r.getPreviousBuild();
         return r;
     }
 
@@ -766,9 +782,9 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
      * Returns the last failed build before this build.
      */
     public RunT getPreviousFailedBuild() {
-        RunT r=previousBuild;
+        RunT r=getPreviousBuild();
         while( r!=null && r.getResult()!=Result.FAILURE )
-            r=r.previousBuild;
+            r=r.getPreviousBuild();
         return r;
     }
 
@@ -777,9 +793,9 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
      * @since 1.383
      */
     public RunT getPreviousSuccessfulBuild() {
-        RunT r=previousBuild;
+        RunT r=getPreviousBuild();
         while( r!=null && r.getResult()!=Result.SUCCESS )
-            r=r.previousBuild;
+            r=r.getPreviousBuild();
         return r;
     }
 
@@ -809,6 +825,8 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
     }
 
     public RunT getNextBuild() {
+        if (lazyLinks)
+            return project.getNearestBuild(number+1);
         return nextBuild;
     }
 
@@ -1150,7 +1168,8 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
 
     /**
      * Returns an input stream that reads from the log file.
-     * It will use a gzip-compressed log file (log.gz) if that exists.
+     * It will use a block compressed log file (see {@link BlockCompressedLog})
+     * or a gzip-compressed log file (log.gz) if that exists.
      *
      * @throws IOException 
      * @return an input stream from the log file, or null if none exists
@@ -1162,6 +1181,11 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
             return new FileInputStream(logFile);
     	}
 
+    	File blockCompressedLogFile = BlockCompressedLog.getFile(logFile);
+    	if (blockCompressedLogFile.exists()) {
+            return BlockCompressedLog.open(blockCompressedLogFile).read(0);
+    	}
+
     	File compressedLogFile = new File(logFile.getParentFile(), logFile.getName()+ ".gz");
     	if (compressedLogFile.exists()) {
             return new GZIPInputStream(new FileInputStream(compressedLogFile));
@@ -1215,7 +1239,27 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
      * Used to URL-bind {@link AnnotatedLargeText}.
      */
     public AnnotatedLargeText getLogText() {
-        return new AnnotatedLargeText(getLogFile(),getCharset(),!isLogUpdated(),this);
+        File logFile = getLogFile();
+        if (!logFile.exists()) {
+            File compressed = BlockCompressedLog.getFile(logFile);
+            if (compressed.exists()) {
+                try {
+                    return new AnnotatedLargeText(BlockCompressedLog.open(compressed),getCharset(),!isLogUpdated(),this);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to open "+compressed, e);
+                }
+            }
+        }
+        return new AnnotatedLargeText(logFile,getCharset(),!isLogUpdated(),this);
+    }
+
+    /**
+     * Gets the index of lines in the log file.
+     *
+     * @since 1.475
+     */
+    public ConsoleLineIndex getLogLineIndex() {
+        return new ConsoleLineIndex(getLogFile());
     }
 
     @Override
@@ -1460,7 +1504,7 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
                     // don't do buffering so that what's written to the listener
                     // gets reflected to the file immediately, which can then be
                     // served to the browser immediately
-                    OutputStream logger = new FileOutputStream(getLogFile());
+                    OutputStream logger = getLogLineIndex().createIndexingStream(new FileOutputStream(getLogFile()));
                     RunT build = job.getBuild();
 
                     // Global log filters
@@ -1547,6 +1591,9 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
                 } catch (IOException e) {
                     LOGGER.log(Level.SEVERE, "Failed to save build record",e);
                 }
+
+                if (COMPRESS_LOGS && getLogFile().exists())
+                    compressLog();
             }
 
             try {
@@ -1561,6 +1608,26 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
         }
     }
 
+    /**
+     * Compresses the log in the background, so that the completion of the build isn't delayed by it.
+     * Readers keep using the uncompressed log until the compressed one is in place.
+     */
+    private void compressLog() {
+        final File log = getLogFile();
+        final String name = toString();
+        LOG_COMPRESSOR.submit(new Runnable() {
+            public void run() {
+                if (!log.exists())  return; // the build got deleted in the mean time
+                try {
+                    BlockCompressedLog.compress(log);
+                } catch (IOException e) {
+                    if (log.exists())
+                        LOGGER.log(Level.WARNING, "Failed to compress the log of "+name,e);
+                }
+            }
+        });
+    }
+
     /**
      * Handles a fatal build problem (exception) that occurred during the build.
      */
@@ -1622,6 +1689,12 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
     public synchronized void save() throws IOException {
         if(BulkChange.contains(this))   return;
         getDataFile().write(this);
+        try {
+            getParent().getBuildIndex().update(this);
+        } catch (IOException e) {
+            // the index is just an optimization. don't fail the save over it
+            LOGGER.log(Level.WARNING, "Failed to update the build index for "+this, e);
+        }
         SaveableListener.fireOnChange(this, getDataFile());
     }
 
@@ -1638,7 +1711,13 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
      */
     @Deprecated
     public String getLog() throws IOException {
-        return Util.loadFile(getLogFile(),getCharset());
+        // go through getLogInputStream() so that compressed logs can be read, too
+        Reader r = new InputStreamReader(getLogInputStream(),getCharset());
+        try {
+            return IOUtils.toString(r);
+        } finally {
+            r.close();
+        }
     }
 
     /**
@@ -1651,9 +1730,27 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
      * @throws IOException If there is a problem reading the log file.
      */
     public List<String> getLog(int maxLines) throws IOException {
+        ConsoleLineIndex index = getLogLineIndex();
+        if (index.exists()) {
+            // only read the lines we need
+            long lineCount = index.getLineCount();
+            long start = Math.max(0, lineCount-maxLines);
+            List<String> logLines = new ArrayList<String>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(index.read(index.getLineOffset(start)),getCharset()));
+            try {
+                for (String line = reader.readLine(); line != null && logLines.size() < maxLines; line = reader.readLine())
+                    logLines.add(line);
+            } finally {
+                reader.close();
+            }
+            if (start > 0 && !logLines.isEmpty())
+                logLines.set(0, "[...truncated " + (start + 1) + " lines...]");
+            return ConsoleNote.removeNotes(logLines);
+        }
+
         int lineCount = 0;
         List<String> logLines = new LinkedList<String>();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(getLogFile()),getCharset()));
+        BufferedReader reader = new BufferedReader(new InputStreamReader(getLogInputStream(),getCharset()));
         try {
             for (String line = reader.readLine(); line != null; line = reader.readLine()) {
                 logLines.add(line);
@@ -1831,6 +1928,49 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
         out.close();
     }
 
+    /**
+     * Sends out a range of lines of the console output as plain text.
+     *
+     * <p>
+     * The "start" parameter is the 0-origin line number to start from, or if it's negative,
+     * the number of lines to show from the end. The "count" parameter is the maximum number of lines
+     * to send from the "start" line, which defaults to 100.
+     *
+     * @since 1.475
+     */
+    public void doConsoleLines(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        long start;
+        int count;
+        try {
+            String s = req.getParameter("start");
+            start = s==null ? 0 : Long.parseLong(s);
+            s = req.getParameter("count");
+            count = s==null ? 100 : Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        ConsoleLineIndex index = getLogLineIndex();
+        long begin, end;
+        if (start<0) {
+            // the last -start lines
+            begin = index.getTailOffset((int)Math.min(-start,Integer.MAX_VALUE));
+            end = Long.MAX_VALUE;
+        } else {
+            begin = index.getLineOffset(start);
+            end = index.getLineOffset(start+count);
+        }
+
+        rsp.setContentType("text/plain;charset=UTF-8");
+        OutputStream out = new PlainTextConsoleOutputStream(rsp.getCompressedOutputStream(req));
+        try {
+            index.writeTo(begin, end, out);
+        } finally {
+            out.close();
+        }
+    }
+
     /**
      * Handles incremental log output.
      * @deprecated as of 1.352
@@ -2017,6 +2157,18 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
         XSTREAM.registerConverter(Result.conv);
     }
 
+    /**
+     * If true, the log of a build is compressed into a {@link BlockCompressedLog} once the build completes.
+     * Off by default, since plugins that read {@link #getLogFile()} directly won't find the log afterward.
+     */
+    public static boolean COMPRESS_LOGS = Boolean.getBoolean(Run.class.getName()+".compressLogs");
+
+    /**
+     * Compresses logs one at a time, off the executor threads. See {@link #compressLog()}.
+     */
+    private static final ExecutorService LOG_COMPRESSOR = Executors.newSingleThreadExecutor(
+            new ExceptionCatchingThreadFactory(new DaemonThreadFactory()));
+
     private static final Logger LOGGER = Logger.getLogger(Run.class.getName());
 
     /**
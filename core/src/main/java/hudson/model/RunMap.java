@@ -24,17 +24,30 @@
 package hudson.model;
 
 import com.google.common.collect.Maps;
+import hudson.Util;
+import org.xmlpull.mxp1.MXParser;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
 import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.text.SimpleDateFormat;
 import java.text.ParseException;
@@ -47,6 +60,14 @@ import java.text.ParseException;
  * and it also updates the bi-directional links within {@link Run}
  * accordingly.
  *
+ * <p>
+ * When {@link #LAZY} is set, {@link #load(Job, Constructor)} only indexes build numbers
+ * and their directories, and {@link Run}s are loaded from disk when they are first accessed.
+ * Loaded builds are only softly reachable from this map, so they can get loaded again
+ * (as a different object) after the garbage collector discarded them. In this mode
+ * {@link Run#previousBuild} and {@link Run#nextBuild} are not maintained, and
+ * {@link Run#getPreviousBuild()}/{@link Run#getNextBuild()} consult this map instead.
+ *
  * @author Kohsuke Kawaguchi
  */
 public final class RunMap<R extends Run<?,R>> extends AbstractMap<Integer,R> implements SortedMap<Integer,R> {
@@ -54,22 +75,79 @@ public final class RunMap<R extends Run<?,R>> extends AbstractMap<Integer,R> imp
     private transient volatile SortedMap<Integer,R> builds =
         new TreeMap<Integer,R>(COMPARATOR);
 
+    /**
+     * In the lazy mode, this is the copy-on-write index of build records,
+     * and {@link #builds} is a {@link LazyView} over it. Null otherwise.
+     */
+    private transient volatile SortedMap<Integer,BuildReference<R>> index;
+
+    /**
+     * In the lazy mode, remembers where and how to load build records.
+     * Null until {@link #load(Job, Constructor)} is called.
+     */
+    private transient volatile File buildDir;
+    private transient volatile Constructor<R> cons;
+
     /**
      * Read-only view of this map.
      */
     private final SortedMap<Integer,R> view = Collections.unmodifiableSortedMap(this);
 
+    public RunMap() {
+        this(LAZY);
+    }
+
+    /*package*/ RunMap(boolean lazy) {
+        if (lazy)
+            setIndex(new TreeMap<Integer,BuildReference<R>>(COMPARATOR));
+    }
+
+    /**
+     * Returns true if this map loads build records on demand.
+     */
+    public boolean isLazy() {
+        return index!=null;
+    }
+
+    private void setIndex(SortedMap<Integer,BuildReference<R>> index) {
+        this.index = index;
+        this.builds = new LazyView(index);
+    }
+
     public Set<Entry<Integer,R>> entrySet() {
         // since the map is copy-on-write, make sure no one modifies it
         return Collections.unmodifiableSet(builds.entrySet());
     }
 
+    @Override
+    public R get(Object key) {
+        // AbstractMap.get() would scan (and in the lazy mode, load) everything
+        return builds.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return builds.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return builds.size();
+    }
+
     public synchronized R put(R value) {
         return put(value.getNumber(),value);
     }
 
     @Override
     public synchronized R put(Integer key, R value) {
+        if (isLazy()) {
+            TreeMap<Integer,BuildReference<R>> m = new TreeMap<Integer,BuildReference<R>>(index);
+            BuildReference<R> old = m.put(key, new BuildReference<R>(value));
+            setIndex(m);
+            return old!=null ? old.peek() : null;
+        }
+
         // copy-on-write update
         TreeMap<Integer,R> m = new TreeMap<Integer,R>(builds);
 
@@ -81,6 +159,14 @@ public final class RunMap<R extends Run<?,R>> extends AbstractMap<Integer,R> imp
 
     @Override
     public synchronized void putAll(Map<? extends Integer,? extends R> rhs) {
+        if (isLazy()) {
+            TreeMap<Integer,BuildReference<R>> m = new TreeMap<Integer,BuildReference<R>>(index);
+            for (Map.Entry<? extends Integer,? extends R> e : rhs.entrySet())
+                m.put(e.getKey(), new BuildReference<R>(e.getValue()));
+            setIndex(m);
+            return;
+        }
+
         // copy-on-write update
         TreeMap<Integer,R> m = new TreeMap<Integer,R>(builds);
 
@@ -113,6 +199,19 @@ public final class RunMap<R extends Run<?,R>> extends AbstractMap<Integer,R> imp
     }
 
     public synchronized boolean remove(R run) {
+        try {
+            run.getParent().getBuildIndex().remove(run.getNumber());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to update the build index for "+run, e);
+        }
+
+        if (isLazy()) {
+            TreeMap<Integer,BuildReference<R>> m = new TreeMap<Integer,BuildReference<R>>(index);
+            BuildReference<R> r = m.remove(run.getNumber());
+            setIndex(m);
+            return r!=null;
+        }
+
         if(run.nextBuild!=null)
             run.nextBuild.previousBuild = run.previousBuild;
         if(run.previousBuild!=null)
@@ -127,7 +226,10 @@ public final class RunMap<R extends Run<?,R>> extends AbstractMap<Integer,R> imp
     }
 
     public synchronized void reset(TreeMap<Integer,R> builds) {
-        this.builds = new TreeMap<Integer,R>(COMPARATOR);
+        if (isLazy())
+            setIndex(new TreeMap<Integer,BuildReference<R>>(COMPARATOR));
+        else
+            this.builds = new TreeMap<Integer,R>(COMPARATOR);
         putAll(builds);
     }
 
@@ -205,33 +307,13 @@ public final class RunMap<R extends Run<?,R>> extends AbstractMap<Integer,R> imp
      *      Used to create new instance of {@link Run}.
      */
     public synchronized void load(Job job, Constructor<R> cons) {
-        final SimpleDateFormat formatter = Run.ID_FORMATTER.get();
-
-        TreeMap<Integer,R> builds = new TreeMap<Integer,R>(RunMap.COMPARATOR);
         File buildDir = job.getBuildDir();
         buildDir.mkdirs();
-        String[] buildDirs = buildDir.list(new FilenameFilter() {
-            public boolean accept(File dir, String name) {
-                // JENKINS-1461 sometimes create bogus data directories with impossible dates, such as year 0, April 31st,
-                // or August 0th. Date object doesn't roundtrip those, so we eventually fail to load this data.
-                // Don't even bother trying.
-                if (!isCorrectDate(name)) {
-                    LOGGER.fine("Skipping "+new File(dir,name));
-                    return false;
-                }
-                return !name.startsWith("0000") && new File(dir,name).isDirectory();
-            }
-
-            private boolean isCorrectDate(String name) {
-                try {
-                    if(formatter.format(formatter.parse(name)).equals(name))
-                        return true;
-                } catch (ParseException e) {
-                    // fall through
-                }
-                return false;
-            }
-        });
+        BuildIndex buildIndex = job.getBuildIndex();
+        Map<String,Integer> indexed = Maps.newHashMap();
+        for (BuildIndex.Entry e : buildIndex.getEntries())
+            indexed.put(e.getId(), e.getNumber());
+        String[] buildDirs = listBuildDirs(buildDir, indexed.keySet());
 
         // keep all those that are building intact.
         Map<Integer,R> building = Maps.newHashMap();
@@ -239,6 +321,12 @@ public final class RunMap<R extends Run<?,R>> extends AbstractMap<Integer,R> imp
             building.put(b.getNumber(), b);
         }
 
+        if (isLazy()) {
+            loadIndex(buildDir, buildDirs, buildIndex, indexed, building, cons);
+            return;
+        }
+
+        TreeMap<Integer,R> builds = new TreeMap<Integer,R>(RunMap.COMPARATOR);
         for( String build : buildDirs ) {
             File d = new File(buildDir,build);
             if(new File(d,"build.xml").exists()) {
@@ -274,7 +362,429 @@ public final class RunMap<R extends Run<?,R>> extends AbstractMap<Integer,R> imp
 
         for (R r : builds.values())
             r.onLoad();
+
+        // bring the index up to date, in case it's missing builds that predate it
+        try {
+            for (BuildIndex.Entry e : buildIndex.getEntries())
+                if (!builds.containsKey(e.getNumber()))
+                    buildIndex.remove(e.getNumber());
+            for (R r : builds.values())
+                if (!r.isBuilding())
+                    buildIndex.update(r);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to update the build index of "+job, e);
+        }
+    }
+
+    /**
+     * Lists the build record directories in the given directory.
+     *
+     * @param known
+     *      Names of the directories that are already known to be build records,
+     *      which lets us skip the expensive date check.
+     */
+    private static String[] listBuildDirs(File buildDir, final Set<String> known) {
+        final SimpleDateFormat formatter = Run.ID_FORMATTER.get();
+
+        String[] buildDirs = buildDir.list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                if (known.contains(name))
+                    return new File(dir,name).isDirectory();
+                // JENKINS-1461 sometimes create bogus data directories with impossible dates, such as year 0, April 31st,
+                // or August 0th. Date object doesn't roundtrip those, so we eventually fail to load this data.
+                // Don't even bother trying.
+                if (!isCorrectDate(name)) {
+                    LOGGER.fine("Skipping "+new File(dir,name));
+                    return false;
+                }
+                return !name.startsWith("0000") && new File(dir,name).isDirectory();
+            }
+
+            private boolean isCorrectDate(String name) {
+                try {
+                    if(formatter.format(formatter.parse(name)).equals(name))
+                        return true;
+                } catch (ParseException e) {
+                    // fall through
+                }
+                return false;
+            }
+        });
+        return buildDirs!=null ? buildDirs : new String[0];
+    }
+
+    /**
+     * Lazy version of {@link #load(Job, Constructor)} that only figures out build numbers
+     * and leaves the unmarshalling of build records to the first access.
+     */
+    private void loadIndex(File buildDir, String[] buildDirs, BuildIndex buildIndex, Map<String,Integer> indexed,
+                           Map<Integer,R> building, Constructor<R> cons) {
+        this.buildDir = buildDir;
+        this.cons = cons;
+
+        Map<String,Integer> symlinks = null;
+
+        TreeMap<Integer,BuildReference<R>> m = new TreeMap<Integer,BuildReference<R>>(COMPARATOR);
+        for (String build : buildDirs) {
+            File d = new File(buildDir,build);
+            File xml = new File(d,"build.xml");
+            if (!xml.exists())
+                continue;   // if the build result file isn't in the directory, ignore it.
+
+            Integer n = indexed.get(build);
+            if (n==null || (buildIndex.get(n).getResult()==null && !building.containsKey(n))) {
+                // not in the build index, or indexed before the build completed (or by an older version
+                // that didn't record the outcome.) Pull what the index needs out of build.xml.
+                if (n==null) {
+                    if (symlinks==null)
+                        symlinks = readBuildNumberSymlinks(buildDir);
+                    n = symlinks.get(build);
+                }
+                BuildIndex.Entry e = readEntry(xml, n);
+                if (e==null) {
+                    LOGGER.warning("Unable to determine the build number of "+d);
+                    continue;
+                }
+                n = e.getNumber();
+                try {
+                    buildIndex.update(e);
+                } catch (IOException x) {
+                    LOGGER.log(Level.WARNING, "Failed to update the build index for "+d, x);
+                }
+            }
+            m.put(n, new BuildReference<R>(n, build));
+        }
+
+        // drop index entries of the builds that no longer exist
+        try {
+            for (BuildIndex.Entry e : buildIndex.getEntries())
+                if (!m.containsKey(e.getNumber()) && !building.containsKey(e.getNumber()))
+                    buildIndex.remove(e.getNumber());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to update the build index in "+buildDir, e);
+        }
+
+        // overlay what's currently building on top of what's indexed
+        for (R b : building.values())
+            m.put(b.getNumber(), new BuildReference<R>(b));
+
+        setIndex(m);
+    }
+
+    /**
+     * {@link Run#execute} creates symlinks from build numbers to build IDs,
+     * so whenever they are available, we use them to avoid parsing build records.
+     *
+     * @return
+     *      map from build ID to build number.
+     */
+    private static Map<String,Integer> readBuildNumberSymlinks(File buildDir) {
+        Map<String,Integer> numbers = Maps.newHashMap();
+        String[] names = buildDir.list();
+        if (names==null)    return numbers;
+
+        for (String name : names) {
+            if (name.length()==0 || !isDigits(name))
+                continue;
+            try {
+                String target = Util.resolveSymlink(new File(buildDir,name));
+                if (target==null)   continue;
+                int idx = Math.max(target.lastIndexOf('/'),target.lastIndexOf('\\'));
+                numbers.put(target.substring(idx+1), Integer.valueOf(name));
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to resolve "+name+" in "+buildDir, e);
+            } catch (InterruptedException e) {
+                LOGGER.log(Level.FINE, "Failed to resolve "+name+" in "+buildDir, e);
+            } catch (NumberFormatException e) {
+                // too big to be a build number
+            }
+        }
+        return numbers;
+    }
+
+    private static boolean isDigits(String s) {
+        for (int i=0; i<s.length(); i++)
+            if (!Character.isDigit(s.charAt(i)))
+                return false;
+        return true;
     }
 
+    /**
+     * Pulls the build number out of build.xml without unmarshalling the whole thing.
+     *
+     * @return null if the number couldn't be found.
+     */
+    /*package*/ static Integer readBuildNumber(File xml) {
+        BuildIndex.Entry e = readEntry(xml, null);
+        return e!=null ? e.getNumber() : null;
+    }
+
+    /**
+     * Pulls what {@link BuildIndex} needs out of build.xml without unmarshalling the whole thing.
+     *
+     * @param number
+     *      Build number if it's already known, or null to read it from the file.
+     * @return null if the number couldn't be determined.
+     */
+    /*package*/ static BuildIndex.Entry readEntry(File xml, Integer number) {
+        File d = xml.getParentFile();
+        Result result = null;
+        long duration = 0;
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(xml));
+            try {
+                XmlPullParser p = new MXParser();
+                p.setInput(in, null);
+                for (int t=p.getEventType(); t!=XmlPullParser.END_DOCUMENT; t=p.next()) {
+                    if (t!=XmlPullParser.START_TAG || p.getDepth()!=2)  continue;
+                    String name = p.getName();
+                    if (name.equals("number")) {
+                        Integer n = Integer.valueOf(p.nextText().trim());
+                        if (number==null)   number = n;
+                    } else
+                    if (name.equals("result")) {
+                        result = Result.fromString(p.nextText().trim());
+                    } else
+                    if (name.equals("duration")) {
+                        duration = Long.parseLong(p.nextText().trim());
+                    }
+                }
+            } finally {
+                in.close();
+            }
+            if (number==null)   return null;
+            return new BuildIndex.Entry(number, d.getName(), result, Run.parseTimestampFromBuildDir(d), result!=null ? duration : 0);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read "+xml, e);
+        } catch (XmlPullParserException e) {
+            LOGGER.log(Level.WARNING, "Failed to parse "+xml, e);
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "Malformed build record in "+xml, e);
+        }
+        return null;
+    }
+
+    /**
+     * Loads the build record of the given reference from the disk.
+     *
+     * @return null if the build fails to load.
+     */
+    private R loadBuild(BuildReference<R> ref) {
+        Constructor<R> cons = this.cons;
+        if (cons==null)     return null;
+        try {
+            return cons.create(new File(buildDir,ref.id));
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to load build #"+ref.number+" at "+ref.id, e);
+        } catch (InstantiationError e) {
+            LOGGER.log(Level.WARNING, "Failed to load build #"+ref.number+" at "+ref.id, e);
+        }
+        // don't keep trying to load a broken build record
+        synchronized (this) {
+            if (index.get(ref.number)==ref) {
+                TreeMap<Integer,BuildReference<R>> m = new TreeMap<Integer,BuildReference<R>>(index);
+                m.remove(ref.number);
+                setIndex(m);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * An entry of the index in the lazy mode, which holds on to its {@link Run} softly.
+     */
+    private static final class BuildReference<R extends Run<?,R>> {
+        final int number;
+        /**
+         * Name of the build record directory.
+         */
+        final String id;
+        /**
+         * Builds added to this map by {@link RunMap#put(Run)} are held strongly
+         * until they complete and we know how to load them back.
+         */
+        private volatile R strong;
+        private volatile Reference<R> soft;
+
+        /**
+         * Thread that is loading the build, if any. Other threads wait for it on this object's monitor.
+         * The build record is loaded, and {@link Run#onLoad()} runs, outside the monitor,
+         * since both can call back into the {@link RunMap}.
+         */
+        private Thread loader;
+        /**
+         * The build being loaded, visible only to {@link #loader} while {@link Run#onLoad()} runs.
+         */
+        private R pending;
+
+        BuildReference(int number, String id) {
+            this.number = number;
+            this.id = id;
+        }
+
+        BuildReference(R r) {
+            this(r.getNumber(), r.getId());
+            this.strong = r;
+            r.lazyLinks = true;
+        }
+
+        /**
+         * Returns the build if it's in memory, without loading it.
+         */
+        R peek() {
+            R r = strong;
+            if (r!=null)    return r;
+            Reference<R> s = soft;
+            return s!=null ? s.get() : null;
+        }
+
+        R get(RunMap<R> owner) {
+            R r = strong;
+            if (r!=null) {
+                if (!r.isBuilding() && owner.cons!=null) {
+                    synchronized (this) {
+                        if (strong==r) {
+                            soft = new SoftReference<R>(r);
+                            strong = null;
+                        }
+                    }
+                }
+                return r;
+            }
+
+            synchronized (this) {
+                boolean interrupted = false;
+                try {
+                    while (true) {
+                        r = peek();
+                        if (r!=null)    return r;
+                        if (loader==null)   break;
+                        if (loader==Thread.currentThread())
+                            return pending; // the build is looking for itself from within onLoad
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                    loader = Thread.currentThread();
+                } finally {
+                    if (interrupted)
+                        Thread.currentThread().interrupt();
+                }
+            }
+
+            try {
+                r = owner.loadBuild(this);
+                if (r==null)    return null;
+                r.lazyLinks = true;
+                pending = r;
+                r.onLoad();
+                soft = new SoftReference<R>(r);
+                return r;
+            } finally {
+                synchronized (this) {
+                    pending = null;
+                    loader = null;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * {@link SortedMap} view of {@link BuildReference}s that loads {@link Run}s as they are accessed.
+     */
+    private final class LazyView extends AbstractMap<Integer,R> implements SortedMap<Integer,R> {
+        private final SortedMap<Integer,BuildReference<R>> refs;
+
+        LazyView(SortedMap<Integer,BuildReference<R>> refs) {
+            this.refs = refs;
+        }
+
+        @Override
+        public int size() {
+            return refs.size();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return refs.containsKey(key);
+        }
+
+        @Override
+        public R get(Object key) {
+            BuildReference<R> ref = refs.get(key);
+            return ref!=null ? ref.get(RunMap.this) : null;
+        }
+
+        public Set<Entry<Integer,R>> entrySet() {
+            return new AbstractSet<Entry<Integer,R>>() {
+                public int size() {
+                    return refs.size();
+                }
+
+                public Iterator<Entry<Integer,R>> iterator() {
+                    final Iterator<BuildReference<R>> itr = refs.values().iterator();
+                    return new Iterator<Entry<Integer,R>>() {
+                        private Entry<Integer,R> next;
+
+                        public boolean hasNext() {
+                            // skip over build records that fail to load
+                            while (next==null && itr.hasNext()) {
+                                BuildReference<R> ref = itr.next();
+                                R r = ref.get(RunMap.this);
+                                if (r!=null)
+                                    next = Maps.immutableEntry(ref.number,r);
+                            }
+                            return next!=null;
+                        }
+
+                        public Entry<Integer,R> next() {
+                            if (!hasNext())     throw new NoSuchElementException();
+                            Entry<Integer,R> e = next;
+                            next = null;
+                            return e;
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+
+        public Comparator<? super Integer> comparator() {
+            return refs.comparator();
+        }
+
+        public SortedMap<Integer,R> subMap(Integer fromKey, Integer toKey) {
+            return new LazyView(refs.subMap(fromKey,toKey));
+        }
+
+        public SortedMap<Integer,R> headMap(Integer toKey) {
+            return new LazyView(refs.headMap(toKey));
+        }
+
+        public SortedMap<Integer,R> tailMap(Integer fromKey) {
+            return new LazyView(refs.tailMap(fromKey));
+        }
+
+        public Integer firstKey() {
+            return refs.firstKey();
+        }
+
+        public Integer lastKey() {
+            return refs.lastKey();
+        }
+    }
+
+    /**
+     * Set to true to make {@link RunMap}s load build records on demand.
+     * This needs to be set before jobs are loaded.
+     */
+    public static boolean LAZY = Boolean.getBoolean(RunMap.class.getName()+".lazy");
+
     private static final Logger LOGGER = Logger.getLogger(RunMap.class.getName());
 }
@@ -0,0 +1,633 @@
+package hudson.model;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.listeners.SaveableListener;
+import hudson.util.IOException2;
+import jenkins.model.Jenkins;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Default {@link FingerprintStorage}, which keeps fingerprints in 256 append-only logs
+ * "fingerprints/xx.log", sharded by the first byte of the checksum.
+ *
+ * <p>
+ * Saving a fingerprint appends its new state to the log, instead of rewriting a file per fingerprint,
+ * and inside a {@link FingerprintStorage.Batch} all the records that go to the same shard are
+ * written with a single append. Each shard remembers where the latest record of each checksum is,
+ * so a lookup reads just that one record. A shard is rewritten with only the live records once it
+ * has grown to more than twice its size after the last rewrite.
+ *
+ * <p>
+ * Unlike {@link FileFingerprintStorage}, saving a fingerprint doesn't notify {@link SaveableListener}s,
+ * as there's no {@link hudson.XmlFile} that holds just that fingerprint.
+ *
+ * <p>
+ * Each record consists of a tag byte ('+' for an update, '-' for a deletion), 16 bytes of MD5 checksum,
+ * and for updates, the length of the XML representation of the fingerprint as a 4-byte integer
+ * followed by the XML itself.
+ *
+ * <p>
+ * Fingerprints recorded by {@link FileFingerprintStorage} are still read, and they move into the
+ * logs the next time they are saved.
+ *
+ * @since 1.475
+ */
+@Extension(ordinal=-100)
+public class ShardedFingerprintStorage extends FingerprintStorage {
+    private final File root;
+    private final FileFingerprintStorage legacy;
+    private final Shard[] shards = new Shard[256];
+
+    public ShardedFingerprintStorage() {
+        this(new File(Jenkins.getInstance().getRootDir(),"fingerprints"));
+    }
+
+    public ShardedFingerprintStorage(File root) {
+        this.root = root;
+        this.legacy = new FileFingerprintStorage(root);
+        for (int i=0; i<shards.length; i++)
+            shards[i] = new Shard(new File(root,Util.toHexString(new byte[]{(byte)i})+".log"));
+    }
+
+    private Shard shardOf(byte[] md5sum) {
+        return shards[md5sum[0]&0xFF];
+    }
+
+    @Override
+    public Fingerprint load(byte[] md5sum) throws IOException {
+        byte[] xml = shardOf(md5sum).read(md5sum);
+        if (xml==null)
+            return legacy.load(md5sum);
+        return parse(md5sum,xml);
+    }
+
+    private static Fingerprint parse(byte[] md5sum, byte[] xml) throws IOException {
+        try {
+            return Fingerprint.fromXML(new ByteArrayInputStream(xml));
+        } catch (RuntimeException e) {
+            // XStream reports malformed data with a variety of runtime exceptions
+            throw new IOException2("Failed to load the fingerprint "+Util.toHexString(md5sum),e);
+        }
+    }
+
+    @Override
+    public void save(Fingerprint fp) throws IOException {
+        byte[] md5sum = Util.fromHexString(fp.getHashString());
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        synchronized (fp) {
+            // serialize and append while holding the lock, so that records of the same fingerprint land in order
+            fp.toXML(xml);
+            Shard s = shardOf(md5sum);
+            s.append(md5sum, xml.toByteArray(), legacy.getFile(md5sum));
+            if (!isBatching())
+                s.flush();
+        }
+        // SaveableListener isn't notified, since the record doesn't live in an XmlFile of its own
+    }
+
+    @Override
+    public void delete(byte[] md5sum) throws IOException {
+        Shard s = shardOf(md5sum);
+        s.remove(md5sum);
+        if (!isBatching())
+            s.flush();
+        legacy.delete(md5sum);
+    }
+
+    @Override
+    protected void flush() throws IOException {
+        IOException error = null;
+        for (Shard s : shards) {
+            try {
+                s.flush();
+            } catch (IOException e) {
+                // keep going, so that one bad shard doesn't hold up the others
+                error = e;
+            }
+        }
+        if (error!=null)    throw error;
+    }
+
+    @Override
+    public SortedSet<String> keys(String from, String to) throws IOException {
+        SortedSet<String> r = legacy.keys(from, to);
+        for (int i=firstShard(from); i<=lastShard(to); i++)
+            shards[i].keys(from,to,r);
+        return r;
+    }
+
+    /**
+     * Reads each shard in one sequential pass, instead of looking up the fingerprints one by one.
+     */
+    @Override
+    public int visit(String from, String to, Visitor v) throws IOException {
+        int deleted = 0;
+        for (int i=firstShard(from); i<=lastShard(to); i++) {
+            for (Record r : shards[i].live(from,to)) {
+                try {
+                    if (v.visit(parse(r.md5sum,r.xml))) {
+                        delete(r.md5sum);
+                        deleted++;
+                    }
+                } catch (IOException e) {
+                    v.onError(Util.toHexString(r.md5sum),e);
+                }
+            }
+        }
+
+        // fingerprints that haven't moved into the logs yet
+        for (String key : legacy.keys(from,to)) {
+            byte[] md5sum = Util.fromHexString(key);
+            if (shardOf(md5sum).contains(md5sum))
+                continue;   // superseded by the log
+            try {
+                Fingerprint fp = legacy.load(md5sum);
+                if (fp!=null && v.visit(fp)) {
+                    delete(md5sum);
+                    deleted++;
+                }
+            } catch (IOException e) {
+                v.onError(key,e);
+            }
+        }
+        return deleted;
+    }
+
+    private static int firstShard(String from) {
+        return from==null ? 0 : Integer.parseInt(pad(from).substring(0,2),16);
+    }
+
+    private static int lastShard(String to) {
+        return to==null ? 255 : Math.min(255, Integer.parseInt(pad(to).substring(0,2),16));
+    }
+
+    private static String pad(String key) {
+        return key.length()>=2 ? key : (key+"00").substring(0,2);
+    }
+
+    private static boolean inRange(String key, String from, String to) {
+        return (from==null || key.compareTo(from)>=0) && (to==null || key.compareTo(to)<0);
+    }
+
+    @Override
+    public boolean isReady() {
+        return root.exists();
+    }
+
+    /**
+     * One log file.
+     *
+     * <p>
+     * The position of the latest record of each live checksum is kept in memory, so that a lookup
+     * seeks straight to its record. The index is built when the log is first used, and costs two
+     * longs plus a map entry per fingerprint, which is much less than the fingerprints themselves.
+     */
+    private static final class Shard {
+        private final File file;
+        /**
+         * Whether {@link #open()} has checked the log file and built {@link #offsets}.
+         */
+        private boolean opened;
+        /**
+         * Size of the log file on disk.
+         */
+        private long length;
+        /**
+         * Size of the log file right after it was last compacted, or when it was opened.
+         */
+        private long compactedLength;
+        /**
+         * Number of records appended since {@link #compactedLength} was measured.
+         */
+        private int appended;
+        /**
+         * Records that are appended but not yet written to the disk.
+         * They logically sit right after the first {@link #length} bytes of the file.
+         */
+        private final Buffer pending = new Buffer();
+        /**
+         * Files of {@link FileFingerprintStorage} that become obsolete once {@link #pending} is written.
+         */
+        private final List<File> obsolete = new ArrayList<File>();
+        /**
+         * Position of the latest record of each live checksum in the log, where positions past
+         * {@link #length} point into {@link #pending}.
+         */
+        private Map<Key,Long> offsets = new HashMap<Key,Long>();
+
+        Shard(File file) {
+            this.file = file;
+        }
+
+        /**
+         * Reads the latest record of the given checksum.
+         *
+         * @return null if there's no live record.
+         */
+        synchronized byte[] read(byte[] md5sum) throws IOException {
+            open();
+            Long pos = offsets.get(new Key(md5sum));
+            if (pos==null)  return null;
+
+            Record r;
+            if (pos>=length) {
+                r = readRecord(pending.readFrom((int)(pos-length)));
+            } else {
+                RandomAccessFile raf = new RandomAccessFile(file,"r");
+                try {
+                    raf.seek(pos);
+                    r = readRecord(raf);
+                } finally {
+                    raf.close();
+                }
+            }
+            if (r==null || r.tag!='+' || !Arrays.equals(md5sum,r.md5sum))
+                throw new IOException("Expected the record of "+Util.toHexString(md5sum)+" at "+pos+" in "+file);
+            return r.xml;
+        }
+
+        synchronized boolean contains(byte[] md5sum) throws IOException {
+            open();
+            return offsets.containsKey(new Key(md5sum));
+        }
+
+        synchronized void append(byte[] md5sum, byte[] xml, File legacyFile) throws IOException {
+            open();
+            offsets.put(new Key(md5sum), length+pending.size());
+            DataOutputStream out = new DataOutputStream(pending);
+            out.writeByte('+');
+            out.write(md5sum);
+            out.writeInt(xml.length);
+            out.write(xml);
+            appended++;
+            if (legacyFile.exists())
+                obsolete.add(legacyFile);
+        }
+
+        synchronized void remove(byte[] md5sum) throws IOException {
+            open();
+            if (offsets.remove(new Key(md5sum))==null)     return;
+            DataOutputStream out = new DataOutputStream(pending);
+            out.writeByte('-');
+            out.write(md5sum);
+            appended++;
+        }
+
+        synchronized void keys(String from, String to, SortedSet<String> r) throws IOException {
+            open();
+            for (Key k : offsets.keySet()) {
+                String key = k.toString();
+                if (inRange(key,from,to))
+                    r.add(key);
+            }
+        }
+
+        /**
+         * Reads the live records in the given range, in the order they appear in the log.
+         */
+        synchronized List<Record> live(final String from, final String to) throws IOException {
+            final List<Record> r = new ArrayList<Record>();
+            scan(new RecordVisitor() {
+                void visit(long pos, Record rec, DataInput in) throws IOException {
+                    if (!isLatest(pos,rec) || !inRange(Util.toHexString(rec.md5sum),from,to))
+                        return;
+                    rec.readPayload(in);
+                    r.add(rec);
+                }
+            });
+            return r;
+        }
+
+        /**
+         * Returns true if the given record at the given position is the latest one of its checksum.
+         */
+        private boolean isLatest(long pos, Record r) {
+            if (r.tag!='+')     return false;
+            Long latest = offsets.get(new Key(r.md5sum));
+            return latest!=null && latest==pos;
+        }
+
+        synchronized void flush() throws IOException {
+            if (pending.size()==0)  return;
+            open();
+
+            file.getParentFile().mkdirs();
+            RandomAccessFile raf = new RandomAccessFile(file,"rw");
+            try {
+                // write at the known length, not at the end, so that the leftover of a failed write
+                // doesn't shift the records away from the positions in the index
+                raf.seek(length);
+                pending.writeTo(raf);
+                raf.setLength(length+pending.size());
+            } finally {
+                raf.close();
+            }
+            length += pending.size();
+            pending.reset();
+
+            for (File f : obsolete)
+                f.delete();
+            obsolete.clear();
+
+            if (appended > COMPACTION_THRESHOLD && length > 2*compactedLength)
+                compact();
+        }
+
+        /**
+         * Rewrites the log only with the live records, which {@link #offsets} identifies.
+         * This is called right after {@link #pending} has been written.
+         */
+        private void compact() throws IOException {
+            final Map<Key,Long> moved = new HashMap<Key,Long>();
+            File tmp = getTemporaryFile();
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                final long[] size = new long[1];
+                scanFile(new RecordVisitor() {
+                    void visit(long pos, Record r, DataInput in) throws IOException {
+                        if (!isLatest(pos,r))   return;
+                        r.readPayload(in);
+                        moved.put(new Key(r.md5sum),size[0]);
+                        out.writeByte('+');
+                        out.write(r.md5sum);
+                        out.writeInt(r.xml.length);
+                        out.write(r.xml);
+                        size[0] += r.size();
+                    }
+                });
+            } finally {
+                out.close();
+            }
+
+            if (!file.delete()) {
+                tmp.delete();
+                throw new IOException("Unable to delete "+file);
+            }
+            if (!tmp.renameTo(file)) {
+                opened = false; // the next access recovers from the temporary file
+                throw new IOException("Unable to rename "+tmp+" to "+file);
+            }
+            offsets = moved;
+            length = compactedLength = file.length();
+            appended = 0;
+        }
+
+        private File getTemporaryFile() {
+            return new File(file.getPath()+".tmp");
+        }
+
+        /**
+         * Recovers from a crash, if necessary, and builds the index the first time the log is used.
+         */
+        private void open() throws IOException {
+            if (opened)     return;
+
+            File tmp = getTemporaryFile();
+            if (!file.exists() && tmp.exists())
+                tmp.renameTo(file); // we crashed in the middle of compaction
+
+            Map<Key,Long> index = new HashMap<Key,Long>();
+            long pos = 0;
+            if (file.exists()) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    Record r;
+                    while ((r=readRecordHeader(in))!=null) {
+                        skipFully(in,r.length);
+                        Key k = new Key(r.md5sum);
+                        if (r.tag=='+') index.put(k,pos);
+                        else            index.remove(k);
+                        pos += r.size();
+                    }
+                } catch (EOFException e) {
+                    // the last record is incomplete, presumably because of a crash. discard it
+                    LOGGER.log(Level.WARNING, "Discarding a truncated record at "+pos+" in "+file, e);
+                    in.close();
+                    RandomAccessFile raf = new RandomAccessFile(file,"rw");
+                    try {
+                        raf.setLength(pos);
+                    } finally {
+                        raf.close();
+                    }
+                } catch (IOException e) {
+                    // refuse to append to a log we can't parse, or we'd lose records when we compact it later
+                    throw new IOException2("Failed to read "+file,e);
+                } finally {
+                    in.close();
+                }
+            }
+            offsets = index;
+            length = compactedLength = pos;
+            appended = 0;
+            opened = true;
+        }
+
+        /**
+         * Visits all the records, including those that are not written to the disk yet, oldest first.
+         */
+        private void scan(RecordVisitor v) throws IOException {
+            scanFile(v);
+            scan(pending.readFrom(0), length, Long.MAX_VALUE, v);
+        }
+
+        private void scanFile(RecordVisitor v) throws IOException {
+            open();
+            if (length==0)  return;
+            // the file might be longer than what we've written if a write failed half way,
+            // so stop at the known length
+            scan(new BufferedInputStream(new FileInputStream(file)), 0, length, v);
+        }
+
+        private void scan(InputStream data, long pos, long limit, RecordVisitor v) throws IOException {
+            DataInputStream in = new DataInputStream(data);
+            try {
+                Record r;
+                while (pos<limit && (r=readRecordHeader(in))!=null) {
+                    v.visit(pos,r,in);
+                    if (r.tag=='+' && r.xml==null)
+                        skipFully(in,r.length);
+                    pos += r.size();
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * {@link ByteArrayOutputStream} that can be read back without copying.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        DataInputStream readFrom(int pos) {
+            return new DataInputStream(new ByteArrayInputStream(buf,pos,count-pos));
+        }
+
+        void writeTo(RandomAccessFile out) throws IOException {
+            out.write(buf,0,count);
+        }
+    }
+
+    /**
+     * MD5 checksum as a map key, which takes less memory than the array or its hex string.
+     */
+    private static final class Key {
+        private final long high, low;
+
+        Key(byte[] md5sum) {
+            high = toLong(md5sum,0);
+            low = toLong(md5sum,8);
+        }
+
+        private static long toLong(byte[] b, int offset) {
+            long r = 0;
+            for (int i=0; i<8; i++)
+                r = (r<<8) | (b[offset+i]&0xFF);
+            return r;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))    return false;
+            Key that = (Key) o;
+            return high==that.high && low==that.low;
+        }
+
+        @Override
+        public int hashCode() {
+            // the checksum is already well distributed
+            return (int)low;
+        }
+
+        /**
+         * Hex representation of the checksum.
+         */
+        @Override
+        public String toString() {
+            byte[] b = new byte[16];
+            for (int i=0; i<8; i++) {
+                b[i] = (byte)(high>>>(56-8*i));
+                b[8+i] = (byte)(low>>>(56-8*i));
+            }
+            return Util.toHexString(b);
+        }
+    }
+
+    /**
+     * Receives records from {@link Shard#scan(RecordVisitor)}.
+     */
+    private static abstract class RecordVisitor {
+        /**
+         * Called for each record, with the input positioned at its payload.
+         * The payload is skipped unless the visitor calls {@link Record#readPayload(DataInput)}.
+         *
+         * @param pos
+         *      Position of the record in the log.
+         */
+        abstract void visit(long pos, Record r, DataInput in) throws IOException;
+    }
+
+    private static final class Record {
+        final byte tag;
+        final byte[] md5sum;
+        final int length;
+        byte[] xml;
+
+        Record(byte tag, byte[] md5sum, int length) {
+            this.tag = tag;
+            this.md5sum = md5sum;
+            this.length = length;
+        }
+
+        void readPayload(DataInput in) throws IOException {
+            xml = new byte[length];
+            in.readFully(xml);
+        }
+
+        /**
+         * Number of bytes this record occupies in the log.
+         */
+        long size() {
+            return tag=='+' ? 1+16+4+length : 1+16;
+        }
+    }
+
+    /**
+     * Reads the record up to the XML payload.
+     *
+     * @return null if the input is at the end.
+     */
+    private static Record readRecordHeader(DataInput in) throws IOException {
+        int tag;
+        try {
+            tag = in.readByte();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (tag!='+' && tag!='-')
+            throw new IOException("Unexpected record type "+tag);
+        byte[] md5sum = new byte[16];
+        in.readFully(md5sum);
+        int length = 0;
+        if (tag=='+') {
+            length = in.readInt();
+            if (length<0)
+                throw new IOException("Malformed record length "+length);
+        }
+        return new Record((byte)tag,md5sum,length);
+    }
+
+    /**
+     * Reads the whole record, including the XML payload of an update.
+     *
+     * @return null if the input is at the end.
+     */
+    private static Record readRecord(DataInput in) throws IOException {
+        Record r = readRecordHeader(in);
+        if (r!=null && r.tag=='+')
+            r.readPayload(in);
+        return r;
+    }
+
+    private static void skipFully(InputStream in, long n) throws IOException {
+        while (n>0) {
+            long skipped = in.skip(n);
+            if (skipped<=0) {
+                if (in.read()<0)
+                    throw new EOFException();
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    /**
+     * Rewrite a shard once this many records have been appended to it since the last compaction
+     * (and it has grown to more than twice its size since then.)
+     */
+    private static final int COMPACTION_THRESHOLD = 256;
+
+    private static final Logger LOGGER = Logger.getLogger(ShardedFingerprintStorage.class.getName());
+}
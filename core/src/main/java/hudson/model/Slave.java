@@ -222,6 +222,9 @@ public abstract class Slave extends Node implements Serializable {
         this.label = Util.fixNull(labelString).trim();
         // Compute labels now.
         getAssignedLabels();
+        Jenkins j = Jenkins.getInstance();
+        if (j!=null)
+            j.getLabelIndex().update(this);
     }
 
     public ClockDifference getClockDifference() throws IOException, InterruptedException {
@@ -0,0 +1,691 @@
+package hudson.model.labels;
+
+import hudson.model.Label;
+import hudson.model.Node;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index from {@link LabelAtom}s to the {@link Node}s that carry them,
+ * which is what {@link Label#getNodes()} is computed from.
+ *
+ * <p>
+ * Every indexed node gets a small integer slot, and every atom has the {@link BitSet} of the slots
+ * of the nodes that have it. A label expression is then resolved by doing set algebra over those
+ * bit sets, instead of evaluating {@link Label#matches(Node)} against every node.
+ *
+ * <p>
+ * The index is updated one node at a time. Each change to the membership of an atom is stamped
+ * with a monotonically increasing clock, so that a label can tell if its cached node set is still
+ * valid just by looking at the stamps of the atoms it refers to. Thus adding, removing or
+ * relabelling a node only invalidates the labels that actually involve the labels of that node.
+ * Expressions that use negation also depend on the set of all nodes.
+ *
+ * <p>
+ * Updates are serialized, and each one that changes anything publishes an immutable {@link Snapshot}
+ * of the index. All the read operations work on the current snapshot without taking any lock, so that
+ * {@link Label#getNodes()} and {@link Label#contains(Node)}, which are called from the queue maintenance
+ * and from every page that lists nodes, never wait for each other or for an update.
+ *
+ * @see jenkins.model.Jenkins#getLabelIndex()
+ * @since 1.475
+ */
+public final class LabelIndex {
+    /**
+     * Slot of each indexed node, keyed by the node name.
+     */
+    private final Map<String,Integer> slots = new HashMap<String,Integer>();
+
+    /**
+     * Indexed nodes by their slots. Null for free slots.
+     */
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    /**
+     * Slots in use.
+     */
+    private final BitSet universe = new BitSet();
+
+    private final Map<LabelAtom,Members> members = new HashMap<LabelAtom,Members>();
+
+    /**
+     * Ticks every time something changes, so that stamps are unique and increasing.
+     */
+    private long clock;
+
+    /**
+     * When {@link #universe} changed last time.
+     */
+    private long universeStamp;
+
+    /**
+     * When atoms were last dropped from {@link #members}. Atoms that are no longer in the map
+     * can't tell us when they were modified, so this acts as the stamp for all of them.
+     */
+    private long prunedStamp;
+
+    /**
+     * The node list that we synchronized with last time.
+     */
+    private volatile Collection<? extends Node> synced;
+
+    /**
+     * Atom IDs in use. IDs are handed out when an atom gets its first node, and recycled
+     * when {@link #prune()} drops the atom.
+     */
+    private final BitSet ids = new BitSet();
+
+    /**
+     * Incremented every time IDs are recycled, which invalidates all the {@link CompiledLabel}s.
+     */
+    private int idEpoch;
+
+    /**
+     * What the readers see. Replaced, never modified.
+     */
+    private volatile Snapshot current;
+
+    public LabelIndex() {
+        publish();
+    }
+
+    private static final class Entry {
+        final Node node;
+        final Set<LabelAtom> atoms;
+        /**
+         * IDs of {@link #atoms} as a bit set.
+         */
+        final long[] bits;
+
+        Entry(Node node, Set<LabelAtom> atoms, long[] bits) {
+            this.node = node;
+            this.atoms = atoms;
+            this.bits = bits;
+        }
+    }
+
+    private static final class Members {
+        final int id;
+        final BitSet slots;
+        long stamp;
+
+        Members(int id) {
+            this.id = id;
+            this.slots = new BitSet();
+        }
+
+        Members(Members that) {
+            this.id = that.id;
+            this.slots = (BitSet)that.slots.clone();
+            this.stamp = that.stamp;
+        }
+    }
+
+    /**
+     * Immutable copy of the index as of some point in time.
+     */
+    private static final class Snapshot {
+        final long clock;
+        final Map<String,Integer> slots;
+        final Entry[] entries;
+        final BitSet universe;
+        /**
+         * Copies of {@link LabelIndex#members}, which are shared with the previous snapshot if they haven't changed.
+         */
+        final Map<LabelAtom,Members> members;
+        final long universeStamp;
+        final long prunedStamp;
+        final int idEpoch;
+
+        Snapshot(long clock, Map<String,Integer> slots, Entry[] entries, BitSet universe, Map<LabelAtom,Members> members,
+                 long universeStamp, long prunedStamp, int idEpoch) {
+            this.clock = clock;
+            this.slots = slots;
+            this.entries = entries;
+            this.universe = universe;
+            this.members = members;
+            this.universeStamp = universeStamp;
+            this.prunedStamp = prunedStamp;
+            this.idEpoch = idEpoch;
+        }
+
+        long stamp(LabelAtom[] atoms, boolean complement) {
+            long r = prunedStamp;
+            if (complement)
+                r = Math.max(r,universeStamp);
+            for (LabelAtom a : atoms) {
+                Members m = members.get(a);
+                if (m!=null)
+                    r = Math.max(r,m.stamp);
+            }
+            return r;
+        }
+
+        Entry get(Node n) {
+            Integer slot = slots.get(n.getNodeName());
+            if (slot==null)     return null;
+            Entry e = entries[slot];
+            if (e.node!=n && !e.node.equals(n))
+                return null;
+            return e;
+        }
+    }
+
+    /**
+     * Brings the index up to date with the current set of nodes.
+     *
+     * @param master
+     *      The master node, which is indexed in addition to the given nodes.
+     * @param nodes
+     *      Current list of nodes. This is assumed to be copy-on-write, so if this is the same list
+     *      as the last invocation, and a rescan isn't requested, this method returns right away.
+     * @param rescan
+     *      If false, only nodes that are added, removed, or replaced by another instance are re-indexed.
+     *      If true, labels of all the nodes are re-examined to pick up changes that happen without
+     *      us being notified, such as {@link hudson.model.LabelFinder}s reporting different labels.
+     */
+    public void sync(Node master, Collection<? extends Node> nodes, boolean rescan) {
+        if (nodes==synced && !rescan)   return;
+        synchronized (this) {
+            if (nodes==synced && !rescan)   return;
+            doSync(master,nodes,rescan);
+            publish();
+        }
+    }
+
+    private void doSync(Node master, Collection<? extends Node> nodes, boolean rescan) {
+        Set<String> live = new HashSet<String>();
+        put(master,rescan);
+        live.add(master.getNodeName());
+        for (Node n : nodes) {
+            put(n,rescan);
+            live.add(n.getNodeName());
+        }
+
+        for (Iterator<Map.Entry<String,Integer>> itr = slots.entrySet().iterator(); itr.hasNext();) {
+            Map.Entry<String,Integer> e = itr.next();
+            if (!live.contains(e.getKey())) {
+                itr.remove();
+                remove(e.getValue());
+            }
+        }
+
+        if (rescan)
+            prune();
+        synced = nodes;
+    }
+
+    /**
+     * Re-indexes a node whose labels have changed.
+     * Nodes that aren't in the index yet are left for {@link #sync(Node, Collection, boolean)}.
+     */
+    public synchronized void update(Node n) {
+        Integer slot = slots.get(n.getNodeName());
+        if (slot!=null && entries.get(slot).node==n) {
+            put(n,true);
+            publish();
+        }
+    }
+
+    /**
+     * Makes the changes made since the last call visible to the readers.
+     */
+    private void publish() {
+        Snapshot last = current;
+        if (last!=null && last.clock==clock)
+            return; // nothing has changed
+
+        Map<LabelAtom,Members> m = new HashMap<LabelAtom,Members>(members.size()*2);
+        for (Map.Entry<LabelAtom,Members> e : members.entrySet()) {
+            Members old = last!=null ? last.members.get(e.getKey()) : null;
+            if (old==null || old.id!=e.getValue().id || old.stamp!=e.getValue().stamp)
+                old = new Members(e.getValue());
+            m.put(e.getKey(),old);
+        }
+        current = new Snapshot(clock, new HashMap<String,Integer>(slots), entries.toArray(new Entry[entries.size()]),
+                (BitSet)universe.clone(), m, universeStamp, prunedStamp, idEpoch);
+    }
+
+    /**
+     * Gets the node set of the given label.
+     */
+    public Membership resolve(Label l) {
+        Snapshot s = current;
+        BitSet bits = l.accept(new Resolver(s),null);
+        Set<Node> nodes = new HashSet<Node>();
+        for (int i=bits.nextSetBit(0); i>=0; i=bits.nextSetBit(i+1))
+            nodes.add(s.entries[i].node);
+
+        Set<LabelAtom> atoms = l.listAtoms();
+        LabelAtom[] a = atoms.toArray(new LabelAtom[atoms.size()]);
+        boolean complement = l.accept(COMPLEMENT_FINDER,null);
+        return new Membership(this, a, complement, s.stamp(a,complement), Collections.unmodifiableSet(nodes));
+    }
+
+    /**
+     * Checks if the nodes in the membership are still current.
+     */
+    public boolean isUpToDate(Membership m) {
+        return m.index==this && m.stamp==current.stamp(m.atoms,m.complement);
+    }
+
+    private void put(Node n, boolean rescan) {
+        String name = n.getNodeName();
+        Integer slot = slots.get(name);
+        Entry old = null;
+        if (slot!=null) {
+            old = entries.get(slot);
+            if (old.node==n && !rescan)
+                return; // unchanged
+        }
+
+        Set<LabelAtom> atoms = n.getAssignedLabels();
+        if (old!=null && old.node==n && old.atoms.equals(atoms))
+            return; // unchanged
+
+        long now = ++clock;
+        if (slot==null) {
+            slot = universe.nextClearBit(0);
+            slots.put(name,slot);
+            universe.set(slot);
+            while (entries.size()<=slot)
+                entries.add(null);
+        }
+        if (old==null || old.node!=n)
+            universeStamp = now;    // negated expressions can match this node without involving any of its atoms
+
+        if (old!=null) {
+            for (LabelAtom a : old.atoms) {
+                Members m = members.get(a);
+                m.slots.clear(slot);
+                m.stamp = now;
+            }
+        }
+        // if the node instance has changed, labels that didn't change membership still need to see the new instance,
+        // which is why we touch all the atoms of both the old and the new entries
+        long[] bits = new long[(ids.length()+atoms.size()+63)/64];
+        for (LabelAtom a : atoms) {
+            Members m = members.get(a);
+            if (m==null) {
+                int id = ids.nextClearBit(0);
+                ids.set(id);
+                members.put(a, m = new Members(id));
+            }
+            m.slots.set(slot);
+            m.stamp = now;
+            bits[m.id/64] |= 1L<<m.id;
+        }
+        entries.set(slot,new Entry(n,atoms,bits));
+    }
+
+    private void remove(int slot) {
+        long now = ++clock;
+        for (LabelAtom a : entries.get(slot).atoms) {
+            Members m = members.get(a);
+            m.slots.clear(slot);
+            m.stamp = now;
+        }
+        entries.set(slot,null);
+        universe.clear(slot);
+        universeStamp = now;
+    }
+
+    /**
+     * Drops atoms that no longer have any node, so that the index doesn't keep accumulating
+     * self labels of nodes that come and go.
+     */
+    private void prune() {
+        boolean pruned = false;
+        for (Iterator<Members> itr = members.values().iterator(); itr.hasNext();) {
+            Members m = itr.next();
+            if (m.slots.isEmpty()) {
+                itr.remove();
+                ids.clear(m.id);
+                pruned = true;
+            }
+        }
+        if (pruned) {
+            prunedStamp = ++clock;
+            idEpoch++;
+        }
+    }
+
+    /**
+     * Compiles the label expression into a {@link CompiledLabel}, which can check if a node
+     * is in the label without going through {@link Label#getNodes()}.
+     */
+    public CompiledLabel compile(Label l) {
+        Compiler c = new Compiler(current);
+        int depth = l.accept(c,null);
+        int[] code = depth<=64 ? c.getCode() : null;   // the evaluator uses a long as its stack
+        LabelAtom[] missing = c.missing.toArray(new LabelAtom[c.missing.size()]);
+        return new CompiledLabel(this, l, code, c.snapshot.idEpoch, missing, c.snapshot.clock);
+    }
+
+    /**
+     * Checks if the compiled label is still consistent with the IDs of this index.
+     *
+     * <p>
+     * Once checked, the result is remembered with the stamp of the snapshot, so until the index
+     * changes again, this is just a comparison.
+     */
+    public boolean isUpToDate(CompiledLabel c) {
+        Snapshot s = current;
+        if (c.index!=this)  return false;
+        if (c.checked==s.clock) return true;
+        if (c.epoch!=s.idEpoch)  return false;
+        for (LabelAtom a : c.missing)
+            if (s.members.containsKey(a))
+                return false;   // this atom now has an ID
+        c.checked = s.clock;
+        return true;
+    }
+
+    /**
+     * Checks if the given node is in the compiled label. Same as {@code c.label.getNodes().contains(n)}.
+     */
+    public boolean contains(CompiledLabel c, Node n) {
+        Entry e = current.get(n);
+        if (e==null)
+            return false;
+        if (c.code==null)
+            return c.label.matches(e.atoms);
+        return c.matches(e.bits);
+    }
+
+    /**
+     * Evaluates a label expression into the set of the slots of the matching nodes.
+     */
+    private static final class Resolver extends LabelVisitor<BitSet,Void> {
+        private final Snapshot snapshot;
+
+        Resolver(Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public BitSet onAtom(LabelAtom a, Void param) {
+            Members m = snapshot.members.get(a);
+            return m!=null ? (BitSet)m.slots.clone() : new BitSet();
+        }
+
+        @Override
+        public BitSet onParen(LabelExpression.Paren p, Void param) {
+            return p.base.accept(this,param);
+        }
+
+        @Override
+        public BitSet onNot(LabelExpression.Not p, Void param) {
+            return complement(p.base.accept(this,param));
+        }
+
+        @Override
+        public BitSet onAnd(LabelExpression.And p, Void param) {
+            BitSet r = p.lhs.accept(this,param);
+            r.and(p.rhs.accept(this,param));
+            return r;
+        }
+
+        @Override
+        public BitSet onOr(LabelExpression.Or p, Void param) {
+            BitSet r = p.lhs.accept(this,param);
+            r.or(p.rhs.accept(this,param));
+            return r;
+        }
+
+        @Override
+        public BitSet onIff(LabelExpression.Iff p, Void param) {
+            BitSet r = p.lhs.accept(this,param);
+            r.xor(p.rhs.accept(this,param));
+            return complement(r);
+        }
+
+        @Override
+        public BitSet onImplies(LabelExpression.Implies p, Void param) {
+            BitSet r = complement(p.lhs.accept(this,param));
+            r.or(p.rhs.accept(this,param));
+            return r;
+        }
+
+        private BitSet complement(BitSet s) {
+            BitSet r = (BitSet)snapshot.universe.clone();
+            r.andNot(s);
+            return r;
+        }
+    }
+
+    /**
+     * Compiles a label expression into postfix code for {@link CompiledLabel#matches(long[])}.
+     * Each method returns the stack depth that the evaluation of that sub-expression needs.
+     */
+    private static final class Compiler extends LabelVisitor<Integer,Void> {
+        final Snapshot snapshot;
+        private int[] code = new int[16];
+        private int size;
+        final Set<LabelAtom> missing = new HashSet<LabelAtom>();
+
+        Compiler(Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        private void emit(int op) {
+            if (size==code.length) {
+                int[] newCode = new int[size*2];
+                System.arraycopy(code,0,newCode,0,size);
+                code = newCode;
+            }
+            code[size++] = op;
+        }
+
+        int[] getCode() {
+            int[] r = new int[size];
+            System.arraycopy(code,0,r,0,size);
+            return r;
+        }
+
+        private int binary(LabelExpression.Binary p, int op) {
+            int l = p.lhs.accept(this,null);
+            int r = p.rhs.accept(this,null);
+            emit(op);
+            return Math.max(l,r+1);
+        }
+
+        @Override
+        public Integer onAtom(LabelAtom a, Void param) {
+            Members m = snapshot.members.get(a);
+            if (m!=null) {
+                emit(m.id);
+            } else {
+                // no node has this atom
+                emit(CompiledLabel.FALSE);
+                missing.add(a);
+            }
+            return 1;
+        }
+
+        @Override
+        public Integer onParen(LabelExpression.Paren p, Void param) {
+            return p.base.accept(this,param);
+        }
+
+        @Override
+        public Integer onNot(LabelExpression.Not p, Void param) {
+            int d = p.base.accept(this,param);
+            emit(CompiledLabel.NOT);
+            return d;
+        }
+
+        @Override
+        public Integer onAnd(LabelExpression.And p, Void param) {
+            return binary(p,CompiledLabel.AND);
+        }
+
+        @Override
+        public Integer onOr(LabelExpression.Or p, Void param) {
+            return binary(p,CompiledLabel.OR);
+        }
+
+        @Override
+        public Integer onIff(LabelExpression.Iff p, Void param) {
+            return binary(p,CompiledLabel.IFF);
+        }
+
+        @Override
+        public Integer onImplies(LabelExpression.Implies p, Void param) {
+            return binary(p,CompiledLabel.IMPLIES);
+        }
+    }
+
+    /**
+     * Checks if the expression involves negation, in which case its node set also depends on all the other nodes.
+     */
+    private static final LabelVisitor<Boolean,Void> COMPLEMENT_FINDER = new LabelVisitor<Boolean,Void>() {
+        @Override
+        public Boolean onAtom(LabelAtom a, Void param) {
+            return false;
+        }
+
+        @Override
+        public Boolean onParen(LabelExpression.Paren p, Void param) {
+            return p.base.accept(this,param);
+        }
+
+        @Override
+        public Boolean onNot(LabelExpression.Not p, Void param) {
+            return true;
+        }
+
+        @Override
+        public Boolean onAnd(LabelExpression.And p, Void param) {
+            return p.lhs.accept(this,param) || p.rhs.accept(this,param);
+        }
+
+        @Override
+        public Boolean onOr(LabelExpression.Or p, Void param) {
+            return p.lhs.accept(this,param) || p.rhs.accept(this,param);
+        }
+
+        @Override
+        public Boolean onIff(LabelExpression.Iff p, Void param) {
+            return true;
+        }
+
+        @Override
+        public Boolean onImplies(LabelExpression.Implies p, Void param) {
+            return true;
+        }
+    };
+
+    /**
+     * Node set of a label, as resolved by {@link LabelIndex#resolve(Label)}.
+     */
+    public static final class Membership {
+        private final LabelIndex index;
+        private final LabelAtom[] atoms;
+        private final boolean complement;
+        private final long stamp;
+        private final Set<Node> nodes;
+
+        private Membership(LabelIndex index, LabelAtom[] atoms, boolean complement, long stamp, Set<Node> nodes) {
+            this.index = index;
+            this.atoms = atoms;
+            this.complement = complement;
+            this.stamp = stamp;
+            this.nodes = nodes;
+        }
+
+        /**
+         * Unmodifiable set of the matching nodes.
+         */
+        public Set<Node> getNodes() {
+            return nodes;
+        }
+    }
+
+    /**
+     * Label expression compiled against the atom IDs of a {@link LabelIndex}.
+     *
+     * <p>
+     * The expression is flattened into postfix code where non-negative numbers push the bit of the atom
+     * of that ID, and negative numbers are operators. The operand stack is kept in a single {@code long},
+     * so evaluation doesn't allocate anything.
+     */
+    public static final class CompiledLabel {
+        private final LabelIndex index;
+        private final Label label;
+        /**
+         * Null if the expression is too deep to be compiled, in which case we fall back to the tree walk.
+         */
+        private final int[] code;
+        private final int epoch;
+        /**
+         * Atoms that didn't have IDs when we compiled, which are compiled as {@link #FALSE}.
+         */
+        private final LabelAtom[] missing;
+        /**
+         * Stamp of the last snapshot that this was found to be consistent with.
+         */
+        private volatile long checked;
+
+        private CompiledLabel(LabelIndex index, Label label, int[] code, int epoch, LabelAtom[] missing, long checked) {
+            this.index = index;
+            this.label = label;
+            this.code = code;
+            this.epoch = epoch;
+            this.missing = missing;
+            this.checked = checked;
+        }
+
+        /**
+         * Evaluates the expression against the bit set of atom IDs.
+         */
+        /*package*/ boolean matches(long[] bits) {
+            long stack = 0;     // top of the stack is the lowest bit
+            for (int op : code) {
+                if (op>=0) {
+                    int i = op/64;
+                    stack = (stack<<1) | (i<bits.length ? (bits[i]>>>op)&1 : 0);
+                    continue;
+                }
+                if (op==FALSE) {
+                    stack <<= 1;
+                    continue;
+                }
+                if (op==NOT) {
+                    stack ^= 1;
+                    continue;
+                }
+
+                long b = stack&1;
+                stack >>>= 1;
+                long a = stack&1;
+                long r;
+                switch (op) {
+                case AND:       r = a&b;        break;
+                case OR:        r = a|b;        break;
+                case IFF:       r = ~(a^b)&1;   break;
+                case IMPLIES:   r = (~a|b)&1;   break;
+                default:        throw new AssertionError(op);
+                }
+                stack = (stack&~1L) | r;
+            }
+            return (stack&1)!=0;
+        }
+
+        /*package*/ static final int FALSE = -1;
+        /*package*/ static final int NOT = -2;
+        /*package*/ static final int AND = -3;
+        /*package*/ static final int OR = -4;
+        /*package*/ static final int IFF = -5;
+        /*package*/ static final int IMPLIES = -6;
+    }
+}
@@ -49,6 +49,8 @@ public abstract class SaveableListener implements ExtensionPoint {
      *      The saveable object.
      * @param file
      *      The {@link XmlFile} for this saveable object.
+     *      Null if the object isn't persisted in a file of its own, like
+     *      {@link hudson.model.Fingerprint}s in {@link hudson.model.ShardedFingerprintStorage}.
      */
     public void onChange(Saveable o, XmlFile file) {}
 
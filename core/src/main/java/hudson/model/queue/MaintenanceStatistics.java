@@ -0,0 +1,417 @@
+package hudson.model.queue;
+
+import hudson.model.Api;
+import hudson.model.Queue;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records what {@link Queue#maintain()} does and where it spends its time.
+ *
+ * <p>
+ * Every maintenance pass produces a {@link Pass}, which keeps the time spent in each phase,
+ * the number of items examined, and how many items moved between the waiting list, the blocked list,
+ * the buildable list, and the pending list. The most recent passes are kept in a ring buffer.
+ * In addition, every {@link CauseOfBlockage} reported during maintenance is counted
+ * per dispatcher, so that a {@link QueueTaskDispatcher} that keeps vetoing builds can be identified.
+ *
+ * <p>
+ * This object is exposed to the remote API as {@code /queue/maintenanceStatistics/api/}.
+ *
+ * @since 1.475
+ * @see Queue#getMaintenanceStatistics()
+ */
+@ExportedBean
+public final class MaintenanceStatistics {
+    /**
+     * Most recent passes. Guarded by {@code this}.
+     */
+    private final Pass[] recent = new Pass[Math.max(1,SIZE)];
+    private int next;
+    private long passes;
+    private long totalTime;
+    private long longest;
+
+    private final ConcurrentMap<String,Blockage> blockages = new ConcurrentHashMap<String,Blockage>();
+
+    /**
+     * Marks the beginning of a new maintenance pass.
+     */
+    public Pass start() {
+        return new Pass();
+    }
+
+    /**
+     * Marks the end of the given pass and records it.
+     */
+    public void finish(Pass p) {
+        p.duration = System.nanoTime()-p.start;
+        synchronized (this) {
+            recent[next] = p;
+            next = (next+1)%recent.length;
+            passes++;
+            totalTime += p.duration;
+            longest = Math.max(longest,p.duration);
+        }
+        if (LOGGER.isLoggable(Level.FINE))
+            LOGGER.fine("Queue maintenance took "+formatTime(p.duration)+": "+p);
+    }
+
+    /**
+     * Records that the given source refused to let an item proceed.
+     *
+     * @param hook
+     *      Either "canRun" (the item stays blocked) or "canTake" (an executor was rejected.)
+     * @param source
+     *      Class name of the {@link QueueTaskDispatcher} or the object that made the decision.
+     * @param cause
+     *      The reason given, or null if the source doesn't report one.
+     */
+    public void blocked(Pass p, String hook, String source, CauseOfBlockage cause) {
+        p.blockages++;
+        String type = cause!=null ? cause.getClass().getName() : null;
+        String key = hook+':'+source+':'+type;
+        Blockage b = blockages.get(key);
+        if (b==null) {
+            Blockage n = new Blockage(hook,source,type);
+            b = blockages.putIfAbsent(key,n);
+            if (b==null)    b = n;
+        }
+        b.count.incrementAndGet();
+    }
+
+    /**
+     * Number of maintenance passes recorded so far.
+     */
+    @Exported
+    public synchronized long getPasses() {
+        return passes;
+    }
+
+    /**
+     * Average duration of a maintenance pass, in nanoseconds.
+     */
+    @Exported
+    public synchronized long getAverageDuration() {
+        return passes==0 ? 0 : totalTime/passes;
+    }
+
+    /**
+     * Duration of the longest maintenance pass, in nanoseconds.
+     */
+    @Exported
+    public synchronized long getLongestDuration() {
+        return longest;
+    }
+
+    /**
+     * Most recent maintenance passes, newest first.
+     */
+    @Exported
+    public synchronized List<Pass> getRecent() {
+        List<Pass> r = new ArrayList<Pass>(recent.length);
+        for (int i=1; i<=recent.length; i++) {
+            Pass p = recent[(next-i+recent.length)%recent.length];
+            if (p==null)    break;
+            r.add(p);
+        }
+        return r;
+    }
+
+    /**
+     * Blockage counts, most frequent first.
+     */
+    @Exported
+    public List<Blockage> getBlockages() {
+        List<Blockage> r = new ArrayList<Blockage>(blockages.values());
+        Collections.sort(r,new Comparator<Blockage>() {
+            public int compare(Blockage o1, Blockage o2) {
+                long l = o1.getCount(), r = o2.getCount();
+                return l<r ? 1 : l>r ? -1 : 0;
+            }
+        });
+        return r;
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public synchronized void reset() {
+        for (int i=0; i<recent.length; i++)
+            recent[i] = null;
+        next = 0;
+        passes = totalTime = longest = 0;
+        blockages.clear();
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    /**
+     * Formats a duration in nanoseconds for humans.
+     */
+    public static String formatTime(long nanos) {
+        return String.format("%.3fms",nanos/1000000.0);
+    }
+
+    /**
+     * Things we measure within a pass. The first four are the consecutive phases of the maintenance,
+     * and the rest are hot spots within those phases.
+     */
+    public enum Timing {
+        /** Moving items from the blocked list to the buildable list. */
+        BLOCKED("blocked"),
+        /** Moving items from the waiting list to the buildable or the blocked list. */
+        WAITING("waiting"),
+        /** Sorting buildable items by {@link QueueSorter}. */
+        SORT("sort"),
+        /** Assigning buildable items to executors. */
+        ALLOCATION("allocation"),
+        /** Total time spent checking if items are blocked, including the dispatchers. */
+        BLOCKAGE_CHECK("isBuildBlocked"),
+        /** Time spent in {@link QueueTaskDispatcher}s. */
+        DISPATCHERS("dispatchers"),
+        /** Construction of {@link MappingWorksheet}s, including the final blockage checks and the executor filtering. */
+        WORKSHEET("worksheet"),
+        /** Time spent in {@link hudson.model.LoadBalancer}, excluding the construction of worksheets. */
+        LOAD_BALANCER("loadBalancer");
+
+        private final String id;
+
+        Timing(String id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Movements of items between the lists of {@link Queue}.
+     */
+    public enum Transition {
+        BLOCKED_TO_BUILDABLE("blocked","buildable"),
+        WAITING_TO_BUILDABLE("waiting","buildable"),
+        WAITING_TO_BLOCKED("waiting","blocked"),
+        BUILDABLE_TO_BLOCKED("buildable","blocked"),
+        BUILDABLE_TO_PENDING("buildable","pending");
+
+        private final String from, to;
+
+        Transition(String from, String to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Record of one maintenance pass.
+     */
+    @ExportedBean(defaultVisibility=2)
+    public static final class Pass {
+        private final long timestamp = System.currentTimeMillis();
+        private final long start = System.nanoTime();
+        private long mark = start;
+        private long duration;
+        private int examined;
+        private int blockages;
+        private final long[] timings = new long[Timing.values().length];
+        private final int[] transitions = new int[Transition.values().length];
+
+        /**
+         * Ends the current phase of the maintenance, and attributes the time since the end of the
+         * previous phase to it.
+         */
+        public void endPhase(Timing t) {
+            long now = System.nanoTime();
+            timings[t.ordinal()] += now-mark;
+            mark = now;
+        }
+
+        /**
+         * Attributes additional time to a hot spot.
+         */
+        public void time(Timing t, long nanos) {
+            timings[t.ordinal()] += nanos;
+        }
+
+        public void examined() {
+            examined++;
+        }
+
+        public void moved(Transition t) {
+            transitions[t.ordinal()]++;
+        }
+
+        /**
+         * When this pass has started, in milliseconds since the epoch.
+         */
+        @Exported
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public Date getDate() {
+            return new Date(timestamp);
+        }
+
+        /**
+         * Duration of this pass, in nanoseconds.
+         */
+        @Exported
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         * Number of items looked at during this pass.
+         */
+        @Exported
+        public int getExamined() {
+            return examined;
+        }
+
+        /**
+         * Number of {@link CauseOfBlockage}s reported during this pass.
+         */
+        @Exported
+        public int getBlockages() {
+            return blockages;
+        }
+
+        public long getTime(Timing t) {
+            return timings[t.ordinal()];
+        }
+
+        public int getCount(Transition t) {
+            return transitions[t.ordinal()];
+        }
+
+        @Exported
+        public List<TimingEntry> getTimings() {
+            List<TimingEntry> r = new ArrayList<TimingEntry>();
+            for (Timing t : Timing.values())
+                r.add(new TimingEntry(t.id,timings[t.ordinal()]));
+            return r;
+        }
+
+        /**
+         * Movements that happened during this pass. Transitions that didn't happen are omitted.
+         */
+        @Exported
+        public List<TransitionEntry> getTransitions() {
+            List<TransitionEntry> r = new ArrayList<TransitionEntry>();
+            for (Transition t : Transition.values())
+                if (transitions[t.ordinal()]>0)
+                    r.add(new TransitionEntry(t.from,t.to,transitions[t.ordinal()]));
+            return r;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder buf = new StringBuilder();
+            buf.append("examined=").append(examined).append(" blockages=").append(blockages);
+            for (Timing t : Timing.values())
+                buf.append(' ').append(t.id).append('=').append(formatTime(timings[t.ordinal()]));
+            for (Transition t : Transition.values())
+                if (transitions[t.ordinal()]>0)
+                    buf.append(' ').append(t.from).append("->").append(t.to).append('=').append(transitions[t.ordinal()]);
+            return buf.toString();
+        }
+    }
+
+    @ExportedBean(defaultVisibility=3)
+    public static final class TimingEntry {
+        /**
+         * Name of the phase or the hot spot.
+         */
+        @Exported
+        public final String name;
+        /**
+         * In nanoseconds.
+         */
+        @Exported
+        public final long time;
+
+        TimingEntry(String name, long time) {
+            this.name = name;
+            this.time = time;
+        }
+    }
+
+    @ExportedBean(defaultVisibility=3)
+    public static final class TransitionEntry {
+        @Exported
+        public final String from;
+        @Exported
+        public final String to;
+        @Exported
+        public final int count;
+
+        TransitionEntry(String from, String to, int count) {
+            this.from = from;
+            this.to = to;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Number of times a particular source has blocked items for a particular reason.
+     */
+    @ExportedBean(defaultVisibility=2)
+    public static final class Blockage {
+        private final String hook, source, cause;
+        private final AtomicLong count = new AtomicLong();
+
+        Blockage(String hook, String source, String cause) {
+            this.hook = hook;
+            this.source = source;
+            this.cause = cause;
+        }
+
+        /**
+         * "canRun" or "canTake".
+         */
+        @Exported
+        public String getHook() {
+            return hook;
+        }
+
+        /**
+         * Class name of the object that made the decision, such as a {@link QueueTaskDispatcher}.
+         */
+        @Exported
+        public String getSource() {
+            return source;
+        }
+
+        /**
+         * Class name of the {@link CauseOfBlockage}, or null if none was given.
+         */
+        @Exported
+        public String getCause() {
+            return cause;
+        }
+
+        @Exported
+        public long getCount() {
+            return count.get();
+        }
+    }
+
+    /**
+     * Number of passes kept in the ring buffer.
+     */
+    public static int SIZE = Integer.getInteger(MaintenanceStatistics.class.getName()+".size",100);
+
+    private static final Logger LOGGER = Logger.getLogger(MaintenanceStatistics.class.getName());
+}
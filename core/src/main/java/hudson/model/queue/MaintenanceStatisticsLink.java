@@ -0,0 +1,42 @@
+package hudson.model.queue;
+
+import hudson.Extension;
+import hudson.model.Api;
+import hudson.model.ManagementLink;
+import jenkins.model.Jenkins;
+
+/**
+ * Shows {@link MaintenanceStatistics} from "Manage Jenkins".
+ *
+ * @since 1.475
+ */
+@Extension
+public class MaintenanceStatisticsLink extends ManagementLink {
+    @Override
+    public String getIconFileName() {
+        return "clipboard.png";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "queueMaintenance";
+    }
+
+    public String getDisplayName() {
+        return Messages.MaintenanceStatisticsLink_DisplayName();
+    }
+
+    @Override
+    public String getDescription() {
+        return Messages.MaintenanceStatisticsLink_Description();
+    }
+
+    public MaintenanceStatistics getStatistics() {
+        return Jenkins.getInstance().getQueue().getMaintenanceStatistics();
+    }
+
+    public Api getApi() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        return getStatistics().getApi();
+    }
+}
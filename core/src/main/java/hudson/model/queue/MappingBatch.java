@@ -0,0 +1,227 @@
+package hudson.model.queue;
+
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.LoadBalancer;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.Queue.BuildableItem;
+import hudson.model.queue.MappingWorksheet.ExecutorSlot;
+import hudson.model.queue.MappingWorksheet.Mapping;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * A number of {@link BuildableItem}s that are assigned to executors in one {@link LoadBalancer#map(MappingBatch)} call.
+ *
+ * <p>
+ * {@link Queue} hands all its buildable items to the load balancer at once, in their priority order.
+ * Executors are grouped by their computers only once for the whole batch, and the groups are updated
+ * as items are assigned, so each worksheet costs time proportional to the number of computers
+ * rather than the number of executors. The load balancer is free to reuse its own data structures
+ * between items.
+ *
+ * <p>
+ * The load balancer processes items by calling {@link #worksheet(int)} and then {@link #assign(int, Mapping)}
+ * for each item, in the ascending order of the index. Each assignment is carried out immediately, so the
+ * worksheet for an item only offers executors that are still available after the items before it
+ * have been assigned. This makes the outcome for each item identical to calling
+ * {@link LoadBalancer#map(Queue.Task, MappingWorksheet)} for items one by one.
+ *
+ * @since 1.475
+ */
+public abstract class MappingBatch {
+    private final List<BuildableItem> items;
+    /**
+     * Executors that are still available, grouped by their computers. The lists are never modified,
+     * only replaced, as worksheets share them.
+     */
+    private final Map<Computer,List<ExecutorSlot>> executors;
+    private final Collection<? extends LoadPredictor> loadPredictors;
+
+    /**
+     * Answers of {@link #canTake(ExecutorSlot, BuildableItem)} for each computer and label,
+     * for the computers where {@link #canTakeDependsOnlyOnLabel(Computer)}.
+     * Computers where it doesn't are mapped to null.
+     */
+    private final Map<Computer,Map<Label,Boolean>> verdicts = new HashMap<Computer,Map<Label,Boolean>>();
+
+    /**
+     * Index of the item whose worksheet is to be built next.
+     */
+    private int next;
+    private long worksheetTime;
+
+    protected MappingBatch(List<BuildableItem> items, Collection<? extends ExecutorSlot> offers) {
+        this(items,offers,LoadPredictor.all());
+    }
+
+    protected MappingBatch(List<BuildableItem> items, Collection<? extends ExecutorSlot> offers, Collection<? extends LoadPredictor> loadPredictors) {
+        this.items = items;
+        this.executors = MappingWorksheet.groupByComputer(offers);
+        for (Entry<Computer,List<ExecutorSlot>> e : executors.entrySet())
+            e.setValue(Collections.unmodifiableList(e.getValue()));
+        this.loadPredictors = loadPredictors;
+    }
+
+    /**
+     * Number of items in this batch.
+     */
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Gets the n-th item.
+     */
+    public BuildableItem get(int n) {
+        return items.get(n);
+    }
+
+    /**
+     * Builds the worksheet for the n-th item from the executors that are still available.
+     *
+     * <p>
+     * Items may be skipped, in which case they stay in the queue, but this method cannot go back
+     * to an item before the last one that was asked for.
+     *
+     * @return
+     *      null if the item shouldn't be executed now, for example because it turned out to be blocked.
+     *      In that case the load balancer should just move on to the next item.
+     */
+    public MappingWorksheet worksheet(int n) {
+        if (n<next)
+            throw new IllegalStateException("Worksheet for item "+n+" requested after item "+(next-1));
+        next = n+1;
+
+        long start = System.nanoTime();
+        try {
+            BuildableItem item = items.get(n);
+            if (isBlocked(item) || Queue.ifBlockedByHudsonShutdown(item.task))
+                return null;
+
+            Map<Computer,List<ExecutorSlot>> j = new LinkedHashMap<Computer,List<ExecutorSlot>>();
+            for (Entry<Computer,List<ExecutorSlot>> e : executors.entrySet()) {
+                if (canTake(e.getKey(),e.getValue(),item))
+                    j.put(e.getKey(),e.getValue());
+            }
+            return new MappingWorksheet(item,j,loadPredictors);
+        } finally {
+            worksheetTime += System.nanoTime()-start;
+        }
+    }
+
+    /**
+     * Carries out the mapping for the n-th item.
+     *
+     * @param m
+     *      The mapping built from {@link #worksheet(int) the worksheet of that item}. If null,
+     *      the item stays in the queue and will be considered again later.
+     */
+    public void assign(int n, Mapping m) {
+        if (m==null)    return;
+        execute(items.get(n),m);
+
+        // take the executors that got the work out of the later worksheets
+        for (int i=0; i<m.size(); i++) {
+            Computer c = m.assigned(i).computer;
+            List<ExecutorSlot> slots = executors.get(c);
+            if (slots==null)    continue;   // none left there after another work chunk
+            List<ExecutorSlot> available = new ArrayList<ExecutorSlot>(slots.size());
+            for (ExecutorSlot s : slots)
+                if (s.isAvailable())
+                    available.add(s);
+            if (available.isEmpty())
+                executors.remove(c);
+            else if (available.size()<slots.size())
+                executors.put(c,Collections.unmodifiableList(available));
+        }
+    }
+
+    /**
+     * Checks if the available executors of the given computer can take the item.
+     *
+     * <p>
+     * Whether an executor can take an item is a matter of its node and its availability, so it's enough to
+     * ask once per computer, and only for the executors that are still available.
+     */
+    private boolean canTake(Computer c, List<ExecutorSlot> slots, BuildableItem item) {
+        Map<Label,Boolean> v;
+        if (verdicts.containsKey(c)) {
+            v = verdicts.get(c);
+        } else {
+            v = canTakeDependsOnlyOnLabel(c) ? new HashMap<Label,Boolean>() : null;
+            verdicts.put(c,v);
+        }
+        if (v==null)
+            return canTake(slots.get(0),item);
+
+        Label l = item.getAssignedLabel();
+        Boolean b = v.get(l);
+        if (b==null)
+            v.put(l,b=canTake(slots.get(0),item));
+        return b;
+    }
+
+    /**
+     * Total time spent in {@link #worksheet(int)}, in nanoseconds.
+     */
+    public long getWorksheetTime() {
+        return worksheetTime;
+    }
+
+    /**
+     * Makes the final check to see if the item is blocked and shouldn't be executed.
+     */
+    protected abstract boolean isBlocked(BuildableItem item);
+
+    /**
+     * Checks if the given executor can take the item.
+     *
+     * <p>
+     * This is asked once per computer, with one of its available executors, and the answer applies to all
+     * the available executors of that computer.
+     */
+    protected abstract boolean canTake(ExecutorSlot slot, BuildableItem item);
+
+    /**
+     * Returns true if the answer of {@link #canTake(ExecutorSlot, BuildableItem)} for the given computer only depends on
+     * the {@linkplain BuildableItem#getAssignedLabel() label} of the item, so that it can be reused for
+     * other items of the same label in this batch.
+     *
+     * <p>
+     * The default implementation returns false, so every item is checked.
+     *
+     * @see #isDecidedByLabel(Node)
+     */
+    protected boolean canTakeDependsOnlyOnLabel(Computer c) {
+        return false;
+    }
+
+    /**
+     * Returns true if {@link Node#canTake(BuildableItem)} and {@link QueueTaskDispatcher}s only look at the label
+     * of the item for the given node. That is the case when there are no dispatchers, the node has no
+     * {@linkplain Node#getNodeProperties() properties}, and its class doesn't override the check.
+     */
+    protected static boolean isDecidedByLabel(Node n) {
+        if (n==null || !QueueTaskDispatcher.all().isEmpty() || !n.getNodeProperties().isEmpty())
+            return false;
+        try {
+            return n.getClass().getMethod("canTake",BuildableItem.class).getDeclaringClass()==Node.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Hands the item over to the executors as designated by the mapping.
+     */
+    protected abstract void execute(BuildableItem item, Mapping m);
+}
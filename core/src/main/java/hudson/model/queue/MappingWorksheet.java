@@ -81,6 +81,7 @@ import static java.lang.Math.*;
  * which is represented as {@link Mapping}.
  *
  * @see LoadBalancer#map(Task, MappingWorksheet)
+ * @see MappingBatch
  * @author Kohsuke Kawaguchi
  */
 public class MappingWorksheet {
@@ -304,17 +305,16 @@ public class MappingWorksheet {
     }
 
     public MappingWorksheet(BuildableItem item, List<? extends ExecutorSlot> offers, Collection<? extends LoadPredictor> loadPredictors) {
+        this(item,groupByComputer(offers),loadPredictors);
+    }
+
+    /**
+     * @param j
+     *      Executors grouped by their computers. Computers appear in the order of their first executor in the offers.
+     *      This map will be modified.
+     */
+    /*package*/ MappingWorksheet(BuildableItem item, Map<Computer,List<ExecutorSlot>> j, Collection<? extends LoadPredictor> loadPredictors) {
         this.item = item;
-        
-        // group executors by their computers
-        Map<Computer,List<ExecutorSlot>> j = new HashMap<Computer, List<ExecutorSlot>>();
-        for (ExecutorSlot o : offers) {
-            Computer c = o.getExecutor().getOwner();
-            List<ExecutorSlot> l = j.get(c);
-            if (l==null)
-                j.put(c,l=new ArrayList<ExecutorSlot>());
-            l.add(o);
-        }
 
         {// take load prediction into account and reduce the available executor pool size accordingly
             long duration = item.task.getEstimatedDuration();
@@ -377,6 +377,21 @@ public class MappingWorksheet {
         this.works = ImmutableList.copyOf(works);
     }
 
+    /**
+     * Groups executors by their computers, preserving the order of their first appearances.
+     */
+    /*package*/ static Map<Computer,List<ExecutorSlot>> groupByComputer(Collection<? extends ExecutorSlot> offers) {
+        Map<Computer,List<ExecutorSlot>> j = new LinkedHashMap<Computer, List<ExecutorSlot>>();
+        for (ExecutorSlot o : offers) {
+            Computer c = o.getExecutor().getOwner();
+            List<ExecutorSlot> l = j.get(c);
+            if (l==null)
+                j.put(c,l=new ArrayList<ExecutorSlot>());
+            l.add(o);
+        }
+        return j;
+    }
+
     public WorkChunk works(int index) {
         return works.get(index);
     }
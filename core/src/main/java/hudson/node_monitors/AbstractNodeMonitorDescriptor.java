@@ -70,10 +70,15 @@ public abstract class   AbstractNodeMonitorDescriptor<T> extends Descriptor<Node
     }
 
     private void schedule(long interval) {
-        Trigger.timer.scheduleAtFixedRate(new SafeTimerTask() {
+        Trigger.scheduler.scheduleAtFixedRate(new SafeTimerTask() {
             public void doRun() {
                 triggerUpdate();
             }
+
+            @Override
+            protected boolean isConcurrent() {
+                return true;    // the monitoring itself runs in its own thread
+            }
         }, interval, interval);
     }
 
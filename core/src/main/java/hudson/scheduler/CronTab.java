@@ -291,8 +291,20 @@ public final class CronTab {
      * This method modifies the given calendar and returns the same object.
      */
     public Calendar ceil(Calendar cal) {
+        return ceil(cal,Long.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #ceil(Calendar)}, but gives up once the search goes past the given time.
+     *
+     * @return
+     *      null if nothing matches by the limit. Some crontabs, like "0 0 30 2 *", never match.
+     */
+    /*package*/ Calendar ceil(Calendar cal, long limit) {
         OUTER:
         while (true) {
+            if (cal.getTimeInMillis()>limit)
+                return null;
             for (CalendarField f : CalendarField.ADJUST_ORDER) {
                 int cur = f.valueOf(cal);
                 int next = f.ceil(this,cur);
@@ -314,7 +326,7 @@ public final class CronTab {
                         continue OUTER; // when we modify DAY_OF_MONTH and DAY_OF_WEEK, do it all over from the top
                 }
             }
-            return cal; // all fields adjusted
+            return cal.getTimeInMillis()>limit ? null : cal; // all fields adjusted
         }
     }
 
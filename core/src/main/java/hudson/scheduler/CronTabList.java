@@ -27,6 +27,8 @@ import antlr.ANTLRException;
 
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.GregorianCalendar;
+import java.util.Locale;
 import java.util.Vector;
 
 /**
@@ -52,6 +54,28 @@ public final class CronTabList {
         return false;
     }
 
+    /**
+     * Computes the nearest future time that matches any of the crontabs.
+     * See {@link CronTab#ceil(long)} for the details.
+     *
+     * @param limit
+     *      The search gives up once it goes past this time.
+     * @return
+     *      null if nothing matches by the limit, including when there's no crontab.
+     * @since 1.475
+     */
+    public synchronized Calendar ceil(long t, long limit) {
+        Calendar r = null;
+        for (CronTab tab : tabs) {
+            Calendar cal = new GregorianCalendar(Locale.US);
+            cal.setTimeInMillis(t);
+            cal = tab.ceil(cal, r==null ? limit : r.getTimeInMillis());
+            if (cal!=null)
+                r = cal;
+        }
+        return r;
+    }
+
     /**
      * Checks if this crontab entry looks reasonable,
      * and if not, return an warning message.
@@ -171,6 +171,24 @@ public abstract class SCM implements Describable<SCM>, ExtensionPoint {
     	return true;
     }
 
+    /**
+     * Identifies the server that polling talks to, such as "svn.example.org".
+     *
+     * <p>
+     * {@link hudson.triggers.SCMTrigger} limits the number of concurrent polling activities against the same server,
+     * so that a large number of jobs polling the same repository won't overwhelm it.
+     *
+     * <p>
+     * The default implementation returns null.
+     *
+     * @return
+     *      null if unknown, in which case only the overall limit of concurrent polling applies.
+     * @since 1.475
+     */
+    public String getPollingHost() {
+        return null;
+    }
+
     /**
      * Called before a workspace is deleted on the given node, to provide SCM an opportunity to perform clean up.
      *
@@ -29,6 +29,8 @@ import jenkins.model.Jenkins;
 import static hudson.model.LoadStatistics.DECAY;
 import hudson.model.MultiStageTimeSeries.TimeScale;
 import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
 
 import java.awt.Color;
 import java.util.concurrent.Future;
@@ -36,8 +38,10 @@ import java.util.concurrent.ExecutionException;
 import java.util.List;
 import java.util.Collection;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 import java.io.IOException;
@@ -62,6 +66,11 @@ public class NodeProvisioner {
         public final Future<Node> future;
         public final int numExecutors;
 
+        /**
+         * When the provisioning started, to learn how long it takes for the capacity to arrive.
+         */
+        /*package*/ final long startTime = System.currentTimeMillis();
+
         public PlannedNode(String displayName, Future<Node> future, int numExecutors) {
             if(displayName==null || future==null || numExecutors<1)  throw new IllegalArgumentException();
             this.displayName = displayName;
@@ -96,11 +105,52 @@ public class NodeProvisioner {
     private final MultiStageTimeSeries plannedCapacitiesEMA =
             new MultiStageTimeSeries(Messages._NodeProvisioner_EmptyString(),Color.WHITE,0,DECAY);
 
+    /**
+     * Moving average of how long it took for provisioned nodes to arrive, in milliseconds. -1 if we haven't seen any.
+     */
+    private long leadTime = -1;
+
+    /**
+     * Moving average of the number of items that enter the queue for this label, per second.
+     * Only sampled when a {@link Strategy} asks for it.
+     */
+    private float arrivalRate;
+
+    /**
+     * When {@link #arrivalRate} was last sampled. 0 if never.
+     */
+    private long arrivalsSampled;
+
+    /**
+     * Number of items that entered the queue for this label since {@link #arrivalsSampled}.
+     */
+    /*package*/ final AtomicInteger arrivals = new AtomicInteger();
+
     public NodeProvisioner(Label label, LoadStatistics loadStatistics) {
         this.label = label;
         this.stat = loadStatistics;
     }
 
+    /**
+     * Called by {@link Queue} when a new item for this label enters the queue.
+     *
+     * @since 1.475
+     */
+    public void onArrival() {
+        arrivals.incrementAndGet();
+    }
+
+    /**
+     * Gets the provisioner responsible for the given label.
+     *
+     * @param l
+     *      null for the unlabeled items.
+     * @since 1.475
+     */
+    public static NodeProvisioner of(Label l) {
+        return l!=null ? l.nodeProvisioner : Jenkins.getInstance().unlabeledNodeProvisioner;
+    }
+
     /**
      * Nodes that are being launched.
      *
@@ -133,7 +183,7 @@ public class NodeProvisioner {
      * Periodically invoked to keep track of the load.
      * Launches additional nodes if necessary.
      */
-    private synchronized void update() {
+    /*package*/ synchronized void update() {
         Jenkins hudson = Jenkins.getInstance();
         lastSuggestedReview = System.currentTimeMillis();
 
@@ -145,6 +195,8 @@ public class NodeProvisioner {
                 try {
                     hudson.addNode(f.future.get());
                     LOGGER.info(f.displayName+" provisioning successfully completed. We have now "+hudson.getComputers().length+" computer(s)");
+                    long d = System.currentTimeMillis()-f.startTime;
+                    leadTime = leadTime<0 ? d : (long)(leadTime*DECAY + d*(1-DECAY));
                 } catch (InterruptedException e) {
                     throw new AssertionError(e); // since we confirmed that the future is already done
                 } catch (ExecutionException e) {
@@ -156,84 +208,317 @@ public class NodeProvisioner {
             } else
                 plannedCapacitySnapshot += f.numExecutors;
         }
-        float plannedCapacity = plannedCapacitySnapshot;
-        plannedCapacitiesEMA.update(plannedCapacity);
+        plannedCapacitiesEMA.update(plannedCapacitySnapshot);
 
-        /*
-            Here we determine how many additional slaves we need to keep up with the load (if at all),
-            which involves a simple math.
+        StrategyState state = new StrategyState(plannedCapacitySnapshot);
+        Float excessWorkload = null;
+        for (Strategy s : Strategy.all()) {
+            excessWorkload = s.apply(state);
+            if (excessWorkload!=null)   break;
+        }
+        if (excessWorkload==null)   return;
+
+        float m = state.getThresholdMargin();
+        if(excessWorkload>1-m) {// and there's more work to do...
+            LOGGER.fine("Excess workload "+excessWorkload+" detected. (planned capacity="+state.getPlannedCapacity()+",Qlen="+state.getQueueLengthSnapshot()+",idle="+state.getIdleSnapshot()+",total="+state.getTotalSnapshot()+"m,="+m+")");
+            for( Cloud c : hudson.clouds ) {
+                if(excessWorkload<0)    break;  // enough slaves allocated
+
+                // Make sure this cloud actually can provision for this label.
+                if (c.canProvision(label)) {
+                    // provisioning a new node should be conservative --- for example if exceeWorkload is 1.4,
+                    // we don't want to allocate two nodes but just one.
+                    // OTOH, because of the exponential decay, even when we need one slave, excess workload is always
+                    // something like 0.95, in which case we want to allocate one node.
+                    // so the threshold here is 1-MARGIN, and hence floor(excessWorkload+MARGIN) is needed to handle this.
+
+                    Collection<PlannedNode> additionalCapacities = c.provision(label, (int)Math.round(Math.floor(excessWorkload+m)));
+                    for (PlannedNode ac : additionalCapacities) {
+                        excessWorkload -= ac.numExecutors;
+                        LOGGER.info("Started provisioning "+ac.displayName+" from "+c.name+" with "+ac.numExecutors+" executors. Remaining excess workload:"+excessWorkload);
+                    }
+                    pendingLaunches.addAll(additionalCapacities);
+                }
+            }
+        }
+    }
 
-            Broadly speaking, first we check that all the executors are fully utilized before attempting
-            to start any new slave (this also helps to ignore the temporary gap between different numbers,
-            as changes in them are not necessarily synchronized --- for example, there's a time lag between
-            when a slave launches (thus bringing the planned capacity down) and the time when its executors
-            pick up builds (thus bringing the queue length down.)
+    /**
+     * Snapshot of the {@link NodeProvisioner} that {@link Strategy}s make decisions from.
+     * Values that take some effort to compute are computed only when asked.
+     *
+     * @since 1.475
+     */
+    public final class StrategyState {
+        private final int plannedCapacitySnapshot;
+        private Integer idleSnapshot, totalSnapshot, queueLengthSnapshot;
+
+        private StrategyState(int plannedCapacitySnapshot) {
+            this.plannedCapacitySnapshot = plannedCapacitySnapshot;
+        }
 
-            Once we confirm that, we compare the # of buildable items against the additional slaves
-            that are being brought online. If we have more jobs than our executors can handle, we'll launch a new slave.
+        /**
+         * The label being provisioned for. Null for jobs that aren't tied to any label.
+         */
+        public Label getLabel() {
+            return label;
+        }
 
-            So this computation involves three stats:
+        public LoadStatistics getLoadStatistics() {
+            return stat;
+        }
 
-              1. # of idle executors
-              2. # of jobs that are starving for executors
-              3. # of additional slaves being provisioned (planned capacities.)
+        /**
+         * Nodes that are being launched.
+         */
+        public List<PlannedNode> getPendingLaunches() {
+            return Collections.unmodifiableList(pendingLaunches);
+        }
 
-            To ignore a temporary surge/drop, we make conservative estimates on each one of them. That is,
-            we take the current snapshot value, and we take the current exponential moving average (EMA) value,
-            and use the max/min.
+        /**
+         * Number of executors that are being launched right now.
+         */
+        public int getPlannedCapacitySnapshot() {
+            return plannedCapacitySnapshot;
+        }
 
-            This is another measure to be robust against temporary surge/drop in those indicators, and helps
-            us avoid over-reacting to stats.
+        /**
+         * Moving average of {@link #getPlannedCapacitySnapshot()}.
+         */
+        public float getPlannedCapacityLatest() {
+            return plannedCapacitiesEMA.getLatest(TIME_SCALE);
+        }
 
-            If we only use the snapshot value or EMA value, tests confirmed that the gap creates phantom
-            excessive loads and Hudson ends up firing excessive capacities. In a static system, over the time
-            EMA and the snapshot value becomes the same, so this makes sure that in a long run this conservative
-            estimate won't create a starvation.
+        /**
+         * Conservative estimate of the planned capacity.
          */
+        public float getPlannedCapacity() {
+            return Math.max(getPlannedCapacityLatest(),plannedCapacitySnapshot);
+        }
+
+        public int getIdleSnapshot() {
+            if (idleSnapshot==null)
+                idleSnapshot = stat.computeIdleExecutors();
+            return idleSnapshot;
+        }
 
-        int idleSnapshot = stat.computeIdleExecutors();
-        int totalSnapshot = stat.computeTotalExecutors();
-        boolean needSomeWhenNoneAtAll = (idleSnapshot==0) && (totalSnapshot + plannedCapacitySnapshot == 0) && (stat.computeQueueLength() > 0);
-        float idle = Math.max(stat.getLatestIdleExecutors(TIME_SCALE), idleSnapshot);
-        if(idle<MARGIN || needSomeWhenNoneAtAll) {
-            // make sure the system is fully utilized before attempting any new launch.
+        public int getTotalSnapshot() {
+            if (totalSnapshot==null)
+                totalSnapshot = stat.computeTotalExecutors();
+            return totalSnapshot;
+        }
+
+        public int getQueueLengthSnapshot() {
+            if (queueLengthSnapshot==null)
+                queueLengthSnapshot = stat.computeQueueLength();
+            return queueLengthSnapshot;
+        }
+
+        /**
+         * The margin M such that the provisioning happens when the excess workload goes beyond 1-M.
+         * This gets smaller as the total number of executors grows.
+         */
+        public float getThresholdMargin() {
+            return calcThresholdMargin(getTotalSnapshot());
+        }
+
+        /**
+         * How long it takes for provisioned nodes to arrive, in milliseconds, or -1 if we haven't observed any.
+         */
+        public long getLeadTime() {
+            return leadTime;
+        }
+
+        /**
+         * Moving average of the number of items that enter the queue for this label, per second.
+         *
+         * <p>
+         * {@link Queue} counts the arrivals as items are scheduled, and the count is turned into a rate
+         * when this method is called, so the moving average is only maintained while some strategy uses it.
+         * Items that were scheduled and started between two samples are counted, too.
+         */
+        public float getArrivalRate() {
+            long now = System.currentTimeMillis();
+            if (now<=arrivalsSampled)   return arrivalRate;
+
+            int arrivals = NodeProvisioner.this.arrivals.getAndSet(0);
+            if (arrivalsSampled!=0) {
+                float rate = arrivals*1000f/(now-arrivalsSampled);
+                arrivalRate = arrivalRate*DECAY + rate*(1-DECAY);
+            }
+            arrivalsSampled = now;
+            return arrivalRate;
+        }
+
+        /**
+         * Computers whose executors can run the jobs for this label.
+         */
+        public List<Computer> getComputers() {
+            List<Computer> r = new ArrayList<Computer>();
+            for (Computer c : Jenkins.getInstance().getComputers()) {
+                Node n = c.getNode();
+                if (n==null)    continue;
+                if (label==null ? n.getMode()==Node.Mode.NORMAL : label.contains(n))
+                    r.add(c);
+            }
+            return r;
+        }
+    }
+
+    /**
+     * Decides how much capacity a {@link NodeProvisioner} should provision.
+     *
+     * <p>
+     * Strategies are consulted in the order of their ordinals until one of them reaches a decision.
+     * The {@link NodeProvisioner} then asks {@link Cloud}s for that many executors.
+     *
+     * @since 1.475
+     */
+    public static abstract class Strategy implements ExtensionPoint {
+        /**
+         * Computes the excess workload, which is the number of executors that we should provision now,
+         * in addition to those being provisioned already.
+         *
+         * <p>
+         * Provisioning happens if the excess workload is larger than {@code 1-M}, and then {@code floor(excessWorkload+M)}
+         * executors are requested, where M is {@link StrategyState#getThresholdMargin()}.
+         *
+         * @return
+         *      null to let the next strategy decide.
+         */
+        public abstract Float apply(StrategyState state);
+
+        public static ExtensionList<Strategy> all() {
+            return Jenkins.getInstance().getExtensionList(Strategy.class);
+        }
+    }
+
+    /**
+     * Reacts to the decayed {@link LoadStatistics}, which is how Jenkins has always provisioned nodes.
+     */
+    @Extension(ordinal=-100)
+    public static class StandardStrategy extends Strategy {
+        @Override
+        public Float apply(StrategyState state) {
+            /*
+                Here we determine how many additional slaves we need to keep up with the load (if at all),
+                which involves a simple math.
+
+                Broadly speaking, first we check that all the executors are fully utilized before attempting
+                to start any new slave (this also helps to ignore the temporary gap between different numbers,
+                as changes in them are not necessarily synchronized --- for example, there's a time lag between
+                when a slave launches (thus bringing the planned capacity down) and the time when its executors
+                pick up builds (thus bringing the queue length down.)
+
+                Once we confirm that, we compare the # of buildable items against the additional slaves
+                that are being brought online. If we have more jobs than our executors can handle, we'll launch a new slave.
+
+                So this computation involves three stats:
+
+                  1. # of idle executors
+                  2. # of jobs that are starving for executors
+                  3. # of additional slaves being provisioned (planned capacities.)
+
+                To ignore a temporary surge/drop, we make conservative estimates on each one of them. That is,
+                we take the current snapshot value, and we take the current exponential moving average (EMA) value,
+                and use the max/min.
+
+                This is another measure to be robust against temporary surge/drop in those indicators, and helps
+                us avoid over-reacting to stats.
+
+                If we only use the snapshot value or EMA value, tests confirmed that the gap creates phantom
+                excessive loads and Hudson ends up firing excessive capacities. In a static system, over the time
+                EMA and the snapshot value becomes the same, so this makes sure that in a long run this conservative
+                estimate won't create a starvation.
+             */
+            LoadStatistics stat = state.getLoadStatistics();
+            int idleSnapshot = state.getIdleSnapshot();
+            boolean needSomeWhenNoneAtAll = (idleSnapshot==0) && (state.getTotalSnapshot() + state.getPlannedCapacitySnapshot() == 0) && (state.getQueueLengthSnapshot() > 0);
+            float idle = Math.max(stat.getLatestIdleExecutors(TIME_SCALE), idleSnapshot);
+            if(idle>=MARGIN && !needSomeWhenNoneAtAll)
+                return 0f;  // make sure the system is fully utilized before attempting any new launch.
 
             // this is the amount of work left to be done
-            float qlen = Math.min(stat.queueLength.getLatest(TIME_SCALE), stat.computeQueueLength());
+            float qlen = Math.min(stat.queueLength.getLatest(TIME_SCALE), state.getQueueLengthSnapshot());
 
             // ... and this is the additional executors we've already provisioned.
-            plannedCapacity = Math.max(plannedCapacitiesEMA.getLatest(TIME_SCALE),plannedCapacity);
-
-            float excessWorkload = qlen - plannedCapacity;
+            float excessWorkload = qlen - state.getPlannedCapacity();
             if (needSomeWhenNoneAtAll && excessWorkload < 1) {
                 // in this specific exceptional case we should just provision right now
                 // the exponential smoothing will delay the build unnecessarily
                 excessWorkload = 1;
             }
-            float m = calcThresholdMargin(totalSnapshot);
-            if(excessWorkload>1-m) {// and there's more work to do...
-                LOGGER.fine("Excess workload "+excessWorkload+" detected. (planned capacity="+plannedCapacity+",Qlen="+qlen+",idle="+idle+"&"+idleSnapshot+",total="+totalSnapshot+"m,="+m+")");
-                for( Cloud c : hudson.clouds ) {
-                    if(excessWorkload<0)    break;  // enough slaves allocated
-
-                    // Make sure this cloud actually can provision for this label.
-                    if (c.canProvision(label)) {
-                        // provisioning a new node should be conservative --- for example if exceeWorkload is 1.4,
-                        // we don't want to allocate two nodes but just one.
-                        // OTOH, because of the exponential decay, even when we need one slave, excess workload is always
-                        // something like 0.95, in which case we want to allocate one node.
-                        // so the threshold here is 1-MARGIN, and hence floor(excessWorkload+MARGIN) is needed to handle this.
-                        
-                        Collection<PlannedNode> additionalCapacities = c.provision(label, (int)Math.round(Math.floor(excessWorkload+m)));
-                        for (PlannedNode ac : additionalCapacities) {
-                            excessWorkload -= ac.numExecutors;
-                            LOGGER.info("Started provisioning "+ac.displayName+" from "+c.name+" with "+ac.numExecutors+" executors. Remaining excess workload:"+excessWorkload);
-                        }
-                        pendingLaunches.addAll(additionalCapacities);
-                    }
+            return excessWorkload;
+        }
+    }
+
+    /**
+     * Provisions ahead of the demand, instead of waiting for the queue to build up.
+     *
+     * <p>
+     * This estimates the workload at the time when the nodes provisioned now would come online,
+     * which is {@link StrategyState#getLeadTime()} away. By then, the queue would have grown by
+     * the items arriving at {@link StrategyState#getArrivalRate()}, and executors whose builds are
+     * {@linkplain Executor#getEstimatedRemainingTimeMillis() expected to complete} by then would
+     * have become available.
+     *
+     * <p>
+     * This is off by default, in which case it defers to the next strategy.
+     */
+    @Extension(ordinal=100)
+    public static class PredictiveStrategy extends Strategy {
+        @Override
+        public Float apply(StrategyState state) {
+            if (!PREDICTIVE)    return null;
+
+            long leadTime = state.getLeadTime();
+            if (leadTime<0)     leadTime = DEFAULT_LEAD_TIME;
+
+            int idle = 0;
+            List<Long> remaining = new ArrayList<Long>();
+            for (Computer c : state.getComputers()) {
+                if (!c.isOnline() && !c.isConnecting())    continue;
+                for (Executor e : c.getExecutors()) {
+                    if (e.isIdle())
+                        idle++;
+                    else
+                        remaining.add(e.getEstimatedRemainingTimeMillis());
                 }
             }
+
+            float arrivalRate = state.getArrivalRate();
+            float excess = predictExcessWorkload(state.getQueueLengthSnapshot(), arrivalRate, leadTime,
+                    idle, remaining, state.getPlannedCapacitySnapshot());
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.fine("Predicted excess workload "+excess+" for "+state.getLabel()+" (lead time="+leadTime+"ms, arrival rate="+arrivalRate+"/s)");
+            return excess;
+        }
+
+        /**
+         * Estimates how many more executors will be needed when the nodes provisioned now come online.
+         *
+         * @param remaining
+         *      Estimated remaining time of the busy executors, in milliseconds, or -1 if unknown.
+         */
+        /*package*/ static float predictExcessWorkload(int queueLength, float arrivalRate, long leadTime,
+                                                      int idle, Collection<Long> remaining, int plannedCapacity) {
+            float demand = queueLength + arrivalRate*leadTime/1000;
+            int freed = 0;
+            for (long r : remaining)
+                if (r>=0 && r<leadTime)
+                    freed++;
+            return demand - idle - freed - plannedCapacity;
         }
+
+        /**
+         * Enables this strategy.
+         */
+        public static boolean PREDICTIVE = Boolean.getBoolean(NodeProvisioner.class.getName()+".predictive");
+
+        /**
+         * Lead time to assume until we've seen nodes being provisioned, in milliseconds.
+         */
+        public static long DEFAULT_LEAD_TIME = Long.getLong(NodeProvisioner.class.getName()+".defaultLeadTime",60*1000);
     }
 
     /**
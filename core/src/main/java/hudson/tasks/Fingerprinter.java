@@ -41,6 +41,7 @@ import hudson.model.DependencyGraph.Dependency;
 import hudson.model.Fingerprint;
 import hudson.model.Fingerprint.BuildPtr;
 import hudson.model.FingerprintMap;
+import hudson.model.FingerprintStorage;
 import jenkins.model.Jenkins;
 import hudson.model.Result;
 import hudson.model.Run;
@@ -249,14 +250,20 @@ public class Fingerprinter extends Recorder implements Serializable, DependecyDe
             }
         });
 
-        for (Record r : records) {
-            Fingerprint fp = r.addRecord(build);
-            if(fp==null) {
-                listener.error(Messages.Fingerprinter_FailedFor(r.relativePath));
-                continue;
+        // write all the fingerprints of this build together
+        FingerprintStorage.Batch batch = FingerprintStorage.get().openBatch();
+        try {
+            for (Record r : records) {
+                Fingerprint fp = r.addRecord(build);
+                if(fp==null) {
+                    listener.error(Messages.Fingerprinter_FailedFor(r.relativePath));
+                    continue;
+                }
+                fp.add(build);
+                record.put(r.relativePath,fp.getHashString());
             }
-            fp.add(build);
-            record.put(r.relativePath,fp.getHashString());
+        } finally {
+            batch.close();
         }
     }
 
@@ -25,14 +25,18 @@ package hudson.tasks.junit;
 
 import org.jvnet.localizer.Localizable;
 import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
 import hudson.model.Run;
+import hudson.tasks.test.AbstractTestResultAction;
 import hudson.tasks.test.TestResult;
 import org.dom4j.Element;
 import org.kohsuke.stapler.export.Exported;
 
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.text.ParseException;
 import java.util.*;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static java.util.Collections.emptyList;
@@ -77,8 +81,7 @@ public final class CaseResult extends TestResult implements Comparable<CaseResul
      */
     private /*final*/ int failedSince;
 
-    private static float parseTime(Element testCase) {
-        String time = testCase.attributeValue("time");
+    /*package*/ static float parseTime(String time) {
         if(time!=null) {
             time = time.replace(",","");
             try {
@@ -95,6 +98,21 @@ public final class CaseResult extends TestResult implements Comparable<CaseResul
     }
 
     CaseResult(SuiteResult parent, Element testCase, String testClassName, boolean keepLongStdio) {
+        this(parent, testClassName, testCase.attributeValue("name"), getError(testCase), getErrorMessage(testCase),
+                parseTime(testCase.attributeValue("time")), isMarkedAsSkipped(testCase),
+                testCase.elementText("system-out"), testCase.elementText("system-err"), keepLongStdio);
+    }
+
+    /**
+     * @param nameAttr
+     *      The 'name' attribute of the test case.
+     * @param errorStackTrace
+     *      The text of the 'error' element, or if there's none, that of the 'failure' element.
+     * @param errorDetails
+     *      The 'message' attribute of the same.
+     */
+    CaseResult(SuiteResult parent, String testClassName, String nameAttr, String errorStackTrace, String errorDetails,
+               float duration, boolean skipped, String stdout, String stderr, boolean keepLongStdio) {
         // schema for JUnit report XML format is not available in Ant,
         // so I don't know for sure what means what.
         // reports in http://www.nabble.com/difference-in-junit-publisher-and-ant-junitreport-tf4308604.html#a12265700
@@ -111,7 +129,6 @@ public final class CaseResult extends TestResult implements Comparable<CaseResul
             there's some odd-ball cases where testClassName is null but
             @name contains fully qualified name.
          */
-        String nameAttr = testCase.attributeValue("name");
         if(testClassName==null && nameAttr.contains(".")) {
             testClassName = nameAttr.substring(0,nameAttr.lastIndexOf('.'));
             nameAttr = nameAttr.substring(nameAttr.lastIndexOf('.')+1);
@@ -119,18 +136,18 @@ public final class CaseResult extends TestResult implements Comparable<CaseResul
 
         className = testClassName;
         testName = nameAttr;
-        errorStackTrace = getError(testCase);
-        errorDetails = getErrorMessage(testCase);
+        this.errorStackTrace = errorStackTrace;
+        this.errorDetails = errorDetails;
         this.parent = parent;
-        duration = parseTime(testCase);
-        skipped = isMarkedAsSkipped(testCase);
+        this.duration = duration;
+        this.skipped = skipped;
         @SuppressWarnings("LeakingThisInConstructor")
         Collection<CaseResult> _this = Collections.singleton(this);
-        stdout = possiblyTrimStdio(_this, keepLongStdio, testCase.elementText("system-out"));
-        stderr = possiblyTrimStdio(_this, keepLongStdio, testCase.elementText("system-err"));
+        this.stdout = possiblyTrimStdio(_this, keepLongStdio, stdout);
+        this.stderr = possiblyTrimStdio(_this, keepLongStdio, stderr);
     }
 
-    private static final int HALF_MAX_SIZE = 500;
+    /*package*/ static final int HALF_MAX_SIZE = 500;
     static String possiblyTrimStdio(Collection<CaseResult> results, boolean keepLongStdio, String stdio) { // HUDSON-6516
         if (stdio == null) {
             return null;
@@ -297,18 +314,41 @@ public final class CaseResult extends TestResult implements Comparable<CaseResul
         // If we haven't calculated failedSince yet, and we should,
         // do it now.
         if (failedSince==0 && getFailCount()==1) {
-            CaseResult prev = getPreviousResult();
-            if(prev!=null && !prev.isPassed())
-                this.failedSince = prev.failedSince;
-            else if (getOwner() != null) {
-                this.failedSince = getOwner().getNumber();
-            } else {
+            this.failedSince = computeFailedSince();
+            if (failedSince==0) {
                 LOGGER.warning("trouble calculating getFailedSince. We've got prev, but no owner.");
                 // failedSince will be 0, which isn't correct. 
             }
         }
         return failedSince;
     }
+
+    /**
+     * Computes {@link #failedSince} from {@link TestHistoryIndex}, or if that can't tell, from the previous build.
+     *
+     * @return 0 if we don't know the owner.
+     */
+    private int computeFailedSince() {
+        AbstractBuild<?,?> owner = getOwner();
+        if (owner != null) {
+            final AbstractProject<?,?> project = owner.getProject();
+            try {
+                int n = TestHistoryIndex.of(owner).getFailedSince(owner.getNumber(), getFullName(), new TestHistoryIndex.Gaps() {
+                    public boolean hasTestResult(int number) {
+                        AbstractBuild<?,?> b = project.getBuildByNumber(number);
+                        return b != null && b.getTestResultAction() != null;
+                    }
+                });
+                if (n != 0) return n;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to look up the test history of "+owner.getParent(), e);
+            }
+        }
+        CaseResult prev = getPreviousResult();
+        if(prev!=null && !prev.isPassed())
+            return prev.failedSince;
+        return owner != null ? owner.getNumber() : 0;
+    }
     
     public Run<?,?> getFailedSinceRun() {
     	return getOwner().getParent().getBuildByNumber(getFailedSince());
@@ -368,9 +408,42 @@ public final class CaseResult extends TestResult implements Comparable<CaseResul
     @Override
     public CaseResult getPreviousResult() {
         if (parent == null) return null;
-        SuiteResult pr = parent.getPreviousResult();
-        if(pr==null)    return null;
-        return pr.getCase(getName());
+        hudson.tasks.junit.TestResult tr = parent.getParent();
+        if (tr == null) return null;
+        return tr.getPreviousCase(parent.getName(), getName());
+    }
+
+    /**
+     * Looks up the test case by its class and test names, so that {@link History} doesn't need to load
+     * the whole test result of every build. Builds that didn't run this test are skipped
+     * by {@link TestHistoryIndex} without touching their test results.
+     */
+    @Override
+    public TestResult getResultInBuild(AbstractBuild<?,?> build) {
+        AbstractTestResultAction tra = build.getAction(getParentAction().getClass());
+        if (tra == null) {
+            tra = build.getAction(AbstractTestResultAction.class);
+        }
+        if (!(tra instanceof TestResultAction) || hasNamesake()) {
+            // tests of the same name are told apart by their position, which needs the whole tree
+            return super.getResultInBuild(build);
+        }
+        try {
+            TestHistoryIndex index = TestHistoryIndex.of(build);
+            if (index.isIndexed(build.getNumber()) && index.get(build.getNumber(), getFullName()) == null)
+                return null;    // this test didn't run in that build
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to look up the test history of "+build.getParent(), e);
+        }
+        return ((TestResultAction)tra).findCase(null, className, testName);
+    }
+
+    private boolean hasNamesake() {
+        if (classResult == null) return false;
+        for (CaseResult c : classResult.getChildren())
+            if (c != this && c.testName.equals(testName))
+                return true;
+        return false;
     }
     
     /**
@@ -479,11 +552,7 @@ public final class CaseResult extends TestResult implements Comparable<CaseResul
         this.parent = parent;
         // some old test data doesn't have failedSince value set, so for those compute them.
         if(!isPassed() && failedSince==0) {
-            CaseResult prev = getPreviousResult();
-            if(prev!=null && !prev.isPassed())
-                this.failedSince = prev.failedSince;
-            else
-                this.failedSince = getOwner().getNumber();
+            this.failedSince = computeFailedSince();
         }
     }
 
@@ -508,6 +577,21 @@ public final class CaseResult extends TestResult implements Comparable<CaseResul
         }
     }
 
+    /**
+     * The stdout of this test itself, without falling back to that of the suite like {@link #getStdout()} does.
+     */
+    /*package*/ String getOwnStdout() {
+        return stdout;
+    }
+
+    /*package*/ String getOwnStderr() {
+        return stderr;
+    }
+
+    /*package*/ void setFailedSince(int failedSince) {
+        this.failedSince = failedSince;
+    }
+
     /*package*/ void setClass(ClassResult classResult) {
         this.classResult = classResult;
     }
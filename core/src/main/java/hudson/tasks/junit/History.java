@@ -23,8 +23,10 @@
  */
 package hudson.tasks.junit;
 
+import hudson.Util;
 import hudson.model.AbstractBuild;
 import jenkins.model.Jenkins;
+import hudson.tasks.junit.TestHistoryIndex.Entry;
 import hudson.tasks.test.TestObject;
 import hudson.tasks.test.TestResult;
 import hudson.util.ChartUtil;
@@ -36,8 +38,11 @@ import hudson.util.StackedAreaRenderer2;
 
 import java.awt.Color;
 import java.awt.Paint;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.JFreeChart;
@@ -76,9 +81,7 @@ public class History {
 	
     public List<TestResult> getList(int start, int end) {
     	List<TestResult> list = new ArrayList<TestResult>();
-    	end = Math.min(end, testObject.getOwner().getParent().getBuilds().size());
-    	for (AbstractBuild<?,?> b: testObject.getOwner().getParent().getBuilds().subList(start, end)) {
-    		if (b.isBuilding()) continue;
+    	for (AbstractBuild<?,?> b: getBuilds(start, end)) {
     		TestResult o = testObject.getResultInBuild(b);
     		if (o != null) {
     			list.add(o);
@@ -91,6 +94,71 @@ public class History {
 		return getList(0, testObject.getOwner().getParent().getBuilds().size());
 	}
 
+    private List<AbstractBuild<?,?>> getBuilds(int start, int end) {
+        List<AbstractBuild<?,?>> list = new ArrayList<AbstractBuild<?,?>>();
+        List<? extends AbstractBuild<?,?>> builds = testObject.getOwner().getParent().getBuilds();
+        end = Math.min(end, builds.size());
+        for (AbstractBuild<?,?> b: builds.subList(start, end)) {
+            if (b.isBuilding()) continue;
+            list.add(b);
+        }
+        return list;
+    }
+
+    /**
+     * Gets what's plotted in the graphs, for the range of builds given in the request.
+     *
+     * <p>
+     * The history of a test case comes from the {@link TestHistoryIndex} wherever possible,
+     * so that drawing the graphs doesn't load the test result of every build.
+     */
+    private List<Sample> getSamples() {
+        List<AbstractBuild<?,?>> builds;
+        try {
+            builds = getBuilds(
+                    Integer.parseInt(Stapler.getCurrentRequest().getParameter("start")),
+                    Integer.parseInt(Stapler.getCurrentRequest().getParameter("end")));
+        } catch (NumberFormatException e) {
+            builds = getBuilds(0, Integer.MAX_VALUE);
+        }
+
+        Entry[] entries = new Entry[builds.size()];
+        TestHistoryIndex index = null;
+        if (testObject instanceof CaseResult) {
+            index = TestHistoryIndex.existing(testObject.getOwner().getProject());
+            if (index != null) {
+                int[] numbers = new int[builds.size()];
+                for (int i = 0; i < numbers.length; i++)
+                    numbers[i] = builds.get(i).getNumber();
+                try {
+                    entries = index.get(numbers, ((CaseResult) testObject).getFullName());
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to read the test history of "+testObject.getOwner().getProject(), e);
+                    index = null;
+                }
+            }
+        }
+
+        List<Sample> list = new ArrayList<Sample>();
+        for (int i = 0; i < entries.length; i++) {
+            AbstractBuild<?,?> b = builds.get(i);
+            Entry e = entries[i];
+            if (e != null && e.status != TestHistoryIndex.AMBIGUOUS) {
+                list.add(new Sample(b, e.duration,
+                        e.status == TestHistoryIndex.PASSED ? 1 : 0,
+                        e.status == TestHistoryIndex.FAILED ? 1 : 0,
+                        e.status == TestHistoryIndex.SKIPPED ? 1 : 0));
+            } else if (e == null && index != null && index.isIndexed(b.getNumber())) {
+                // the test didn't run in this build
+            } else {
+                TestResult o = testObject.getResultInBuild(b);
+                if (o != null)
+                    list.add(new Sample(o));
+            }
+        }
+        return list;
+    }
+
     /**
      * Graph of duration of tests over time.
      */
@@ -100,22 +168,13 @@ public class History {
            protected DataSetBuilder<String, ChartLabel> createDataSet() {
                DataSetBuilder<String, ChartLabel> data = new DataSetBuilder<String, ChartLabel>();
                
-               List<TestResult> list;
-               try {
-               	list = getList(
-               			Integer.parseInt(Stapler.getCurrentRequest().getParameter("start")), 
-               			Integer.parseInt(Stapler.getCurrentRequest().getParameter("end")));
-               } catch (NumberFormatException e) {
-               	list = getList();
-               }
-               
-			for (hudson.tasks.test.TestResult o: list) {
-                   data.add(((double) o.getDuration()) / (1000), "", new ChartLabel(o)  {
+			for (final Sample o: getSamples()) {
+                   data.add(((double) o.duration) / (1000), "", new ChartLabel(o)  {
                        @Override
                        public Color getColor() {
-                           if (o.getFailCount() > 0)
+                           if (o.failCount > 0)
                                return ColorPalette.RED;
-                           else if (o.getSkipCount() > 0)
+                           else if (o.skipCount > 0)
                                return ColorPalette.YELLOW;
                            else
                                return ColorPalette.BLUE;
@@ -136,19 +195,10 @@ public class History {
             protected DataSetBuilder<String, ChartLabel> createDataSet() {
                 DataSetBuilder<String, ChartLabel> data = new DataSetBuilder<String, ChartLabel>();
 
-                List<TestResult> list;
-                try {
-                	list = getList(
-                			Integer.parseInt(Stapler.getCurrentRequest().getParameter("start")), 
-                			Integer.parseInt(Stapler.getCurrentRequest().getParameter("end")));
-                } catch (NumberFormatException e) {
-                	list = getList();
-                }
-                
-                for (TestResult o: list) {
-                    data.add(o.getPassCount(), "2Passed", new ChartLabel(o));
-                    data.add(o.getFailCount(), "1Failed", new ChartLabel(o));
-                    data.add(o.getSkipCount(), "0Skipped", new ChartLabel(o));
+                for (Sample o: getSamples()) {
+                    data.add(o.passCount, "2Passed", new ChartLabel(o));
+                    data.add(o.failCount, "1Failed", new ChartLabel(o));
+                    data.add(o.skipCount, "0Skipped", new ChartLabel(o));
                 }
                 return data;
             }
@@ -223,8 +273,8 @@ public class History {
                 public String generateToolTip(CategoryDataset dataset, int row,
                         int column) {
                     ChartLabel label = (ChartLabel) dataset.getColumnKey(column);
-                    return label.o.getOwner().getDisplayName() + " : "
-                            + label.o.getDurationString();
+                    return label.o.owner.getDisplayName() + " : "
+                            + Util.getTimeSpanString((long) (label.o.duration * 1000));
                 }
             };
             plot.setRenderer(ar);
@@ -239,10 +289,34 @@ public class History {
         }
     }
 
+    /**
+     * Outcome of the test in one build, as plotted in the graphs.
+     */
+    private static final class Sample {
+        final AbstractBuild<?,?> owner;
+        /**
+         * In seconds.
+         */
+        final float duration;
+        final int passCount, failCount, skipCount;
+
+        Sample(AbstractBuild<?,?> owner, float duration, int passCount, int failCount, int skipCount) {
+            this.owner = owner;
+            this.duration = duration;
+            this.passCount = passCount;
+            this.failCount = failCount;
+            this.skipCount = skipCount;
+        }
+
+        Sample(TestResult o) {
+            this(o.getOwner(), o.getDuration(), o.getPassCount(), o.getFailCount(), o.getSkipCount());
+        }
+    }
+
     class ChartLabel implements Comparable<ChartLabel> {
-    	TestResult o;
+    	Sample o;
         String url;
-        public ChartLabel(TestResult o) {
+        public ChartLabel(Sample o) {
             this.o = o;
             this.url = null;
         }
@@ -253,14 +327,15 @@ public class History {
         }
 
          private void generateUrl() {
-            AbstractBuild<?,?> build = o.getOwner();
+            AbstractBuild<?,?> build = o.owner;
             String buildLink = build.getUrl();
-            String actionUrl = o.getTestResultAction().getUrlName();
-            this.url = Jenkins.getInstance().getRootUrl() + buildLink + actionUrl + o.getUrl();
+            // the test has the same URL in every build
+            String actionUrl = testObject.getTestResultAction().getUrlName();
+            this.url = Jenkins.getInstance().getRootUrl() + buildLink + actionUrl + testObject.getUrl();
         }
 
         public int compareTo(ChartLabel that) {
-            return this.o.getOwner().number - that.o.getOwner().number;
+            return this.o.owner.number - that.o.owner.number;
         }
 
         @Override
@@ -283,8 +358,8 @@ public class History {
 
         @Override
         public String toString() {
-            String l = o.getOwner().getDisplayName();
-            String s = o.getOwner().getBuiltOnStr();
+            String l = o.owner.getDisplayName();
+            String s = o.owner.getBuiltOnStr();
             if (s != null)
                 l += ' ' + s;
             return l;
@@ -293,4 +368,5 @@ public class History {
 
     }
 
+    private static final Logger LOGGER = Logger.getLogger(History.class.getName());
 }
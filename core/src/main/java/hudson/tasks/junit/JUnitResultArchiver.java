@@ -39,6 +39,7 @@ import hudson.model.CheckPoint;
 import hudson.model.Descriptor;
 import hudson.model.Result;
 import hudson.model.Saveable;
+import hudson.model.listeners.RunListener;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Publisher;
@@ -62,6 +63,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Generates HTML report from JUnit test result XML files.
@@ -173,6 +176,11 @@ public class JUnitResultArchiver extends Recorder implements MatrixAggregatable
 		}
 
 		build.getActions().add(action);
+		try {
+			TestHistoryIndex.of(build).record(build.getNumber(), action.getResult());
+		} catch (IOException e) {
+			e.printStackTrace(listener.error("Failed to update the test history"));
+		}
 		CHECKPOINT.report();
 
 		if (action.getResult().getFailCount() > 0)
@@ -270,4 +278,28 @@ public class JUnitResultArchiver extends Recorder implements MatrixAggregatable
 			return true;
 		}
     }
+
+    /**
+     * Removes deleted builds from the {@link TestHistoryIndex}, so that it doesn't keep growing
+     * as old builds are discarded.
+     */
+    @Extension
+    public static class DeletionListener extends RunListener<AbstractBuild> {
+        public DeletionListener() {
+            super(AbstractBuild.class);
+        }
+
+        @Override
+        public void onDeleted(AbstractBuild b) {
+            TestHistoryIndex index = TestHistoryIndex.existing(b.getProject());
+            if (index==null)    return; // no test result recorded in this project
+            try {
+                index.remove(b.getNumber());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to remove "+b+" from the test history", e);
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(JUnitResultArchiver.class.getName());
 }
@@ -0,0 +1,406 @@
+package hudson.tasks.junit;
+
+import hudson.util.IOException2;
+import hudson.util.io.ParserConfigurator;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.dom4j.DocumentException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static javax.xml.stream.XMLStreamConstants.*;
+
+/**
+ * Parses a JUnit XML report into {@link SuiteResult}s without building the whole document in memory.
+ *
+ * <p>
+ * This produces the same result as {@link SuiteResult#parse(File, boolean, Collection)}, but
+ * unless 'keepLongStdio' is set, the text of 'system-out' and 'system-err' elements is trimmed as it's read,
+ * so huge output doesn't have to fit in memory. Whether the output needs to be kept in full depends
+ * on whether the test failed, which may only become known after the output is read. In that case, the report is
+ * read one more time, keeping those elements in full.
+ */
+final class StreamingReportParser {
+    private final File xmlReport;
+    private final boolean keepLongStdio;
+
+    /**
+     * 'system-out' and 'system-err' elements (in the order of appearance) that turned out to need to be kept in full.
+     */
+    private final Set<Integer> keep = new HashSet<Integer>();
+
+    /**
+     * Number of 'system-out' and 'system-err' elements seen so far in this pass.
+     */
+    private int stdioCount;
+
+    /**
+     * Set when the current pass trimmed something that needs to be kept in full.
+     */
+    private boolean reparse;
+
+    StreamingReportParser(File xmlReport, boolean keepLongStdio) {
+        this.xmlReport = xmlReport;
+        this.keepLongStdio = keepLongStdio;
+    }
+
+    /**
+     * Can this parser be used instead of {@link org.dom4j.io.SAXReader}? This parser does what
+     * {@link XMLEntityResolver} does, but other {@link ParserConfigurator}s need the DOM-based parsing.
+     */
+    static boolean isApplicable(Collection<ParserConfigurator> configurators) {
+        for (ParserConfigurator pc : configurators)
+            if (pc.getClass()!=XMLEntityResolver.class)
+                return false;
+        return true;
+    }
+
+    List<SuiteResult> parse() throws DocumentException, IOException {
+        while (true) {
+            reparse = false;
+            stdioCount = 0;
+            List<SuiteResult> r = parseOnce();
+            if (!reparse)
+                return r;
+            // the second pass keeps everything that got flagged in full, so it never asks for the third
+        }
+    }
+
+    private List<SuiteResult> parseOnce() throws DocumentException, IOException {
+        InputStream in;
+        try {
+            in = new BufferedInputStream(new FileInputStream(xmlReport));
+        } catch (FileNotFoundException e) {
+            throw new DocumentException(e.getMessage(),e);
+        }
+        try {
+            XMLStreamReader r = createFactory().createXMLStreamReader(xmlReport.toURI().toString(), in);
+            try {
+                List<SuiteResult> results = new ArrayList<SuiteResult>();
+                while (r.next()!=START_ELEMENT)
+                    ;
+                // the root element is treated as a suite, whether it's 'testsuites' or 'testsuite'
+                readSuite(r,results);
+                while (r.hasNext())
+                    r.next();   // make sure the rest is well-formed, too
+                return results;
+            } finally {
+                r.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new DocumentException(e.getMessage(),e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private XMLInputFactory createFactory() {
+        XMLInputFactory f = XMLInputFactory.newInstance();
+        // don't let the parser put the whole text of an element into one string
+        f.setProperty(XMLInputFactory.IS_COALESCING, false);
+        f.setXMLResolver(RESOLVER);
+        return f;
+    }
+
+    /**
+     * Reads a suite, including nested suites, and adds them to the list in the same order as
+     * {@link SuiteResult#parse(File, boolean, Collection)} does.
+     * The reader is at the start tag of the suite, and this returns at its end tag.
+     */
+    private void readSuite(XMLStreamReader r, List<SuiteResult> results) throws XMLStreamException, IOException {
+        String nameAttr = r.getAttributeValue(null,"name");
+        String pkg = r.getAttributeValue(null,"package");
+        String timestamp = r.getAttributeValue(null,"timestamp");
+        String id = r.getAttributeValue(null,"id");
+        String time = r.getAttributeValue(null,"time");
+
+        List<CaseResult> cases = new ArrayList<CaseResult>();
+        boolean hasCase = false, skipped = false, failed = false;
+        Failure error = null;
+        Stdio stdout = null, stderr = null;
+
+        while (r.next()!=END_ELEMENT) {
+            if (r.getEventType()!=START_ELEMENT)
+                continue;
+            String tag = r.getLocalName();
+            if (tag.equals("testsuite")) {
+                readSuite(r,results);
+            } else if (tag.equals("testcase")) {
+                hasCase = true;
+                CaseResult c = readCase(r,nameAttr);
+                failed |= c.getErrorStackTrace()!=null;
+                cases.add(c);
+            } else if (tag.equals("error") && error==null) {
+                // according to junit-noframes.xsl l.229, this happens when the test class failed to load
+                error = readFailure(r);
+                failed = true;
+            } else if (tag.equals("skipped")) {
+                skipped = true;
+                skip(r);
+            } else if (tag.equals("system-out") && stdout==null) {
+                stdout = readStdio(r,failed);
+            } else if (tag.equals("system-err") && stderr==null) {
+                stderr = readStdio(r,failed);
+            } else {
+                skip(r);
+            }
+        }
+
+        if (!hasCase && error==null)
+            return;     // just a container of other suites
+
+        String out = finish(stdout,failed);
+        String err = finish(stderr,failed);
+        if (error!=null)
+            cases.add(0,new CaseResult(null,"<init>",nameAttr,error.text,error.message,CaseResult.parseTime(time),skipped,out,err,true));
+
+        if (stdout==null && stderr==null) {
+            File mavenOutputFile = SuiteResult.findSurefireOutput(xmlReport);
+            if (mavenOutputFile!=null) {
+                try {
+                    out = readFile(mavenOutputFile,failed);
+                } catch (IOException e) {
+                    throw new IOException2("Failed to read "+mavenOutputFile,e);
+                }
+            }
+        }
+
+        results.add(new SuiteResult(xmlReport,SuiteResult.nameOf(xmlReport,nameAttr,pkg),timestamp,id,cases,out,err));
+    }
+
+    private CaseResult readCase(XMLStreamReader r, String suiteName) throws XMLStreamException {
+        String nameAttr = r.getAttributeValue(null,"name");
+        String classname = r.getAttributeValue(null,"classname");
+        if (classname==null)
+            classname = suiteName;
+        float duration = CaseResult.parseTime(r.getAttributeValue(null,"time"));
+
+        boolean skipped = false;
+        Failure error = null, failure = null;
+        Stdio stdout = null, stderr = null;
+
+        while (r.next()!=END_ELEMENT) {
+            if (r.getEventType()!=START_ELEMENT)
+                continue;
+            String tag = r.getLocalName();
+            if (tag.equals("error") && error==null) {
+                error = readFailure(r);
+            } else if (tag.equals("failure") && failure==null) {
+                failure = readFailure(r);
+            } else if (tag.equals("skipped")) {
+                skipped = true;
+                skip(r);
+            } else if (tag.equals("system-out") && stdout==null) {
+                stdout = readStdio(r,error!=null || failure!=null);
+            } else if (tag.equals("system-err") && stderr==null) {
+                stderr = readStdio(r,error!=null || failure!=null);
+            } else {
+                skip(r);
+            }
+        }
+
+        Failure f = error!=null ? error : failure;
+        boolean failed = f!=null;
+        return new CaseResult(null, classname, nameAttr, failed ? f.text : null, failed ? f.message : null,
+                duration, skipped, finish(stdout,failed), finish(stderr,failed), true);
+    }
+
+    private Failure readFailure(XMLStreamReader r) throws XMLStreamException {
+        String message = r.getAttributeValue(null,"message");
+        StringBuilder text = new StringBuilder();
+        while (r.next()!=END_ELEMENT) {
+            switch (r.getEventType()) {
+            case CHARACTERS:
+            case CDATA:
+                text.append(r.getTextCharacters(),r.getTextStart(),r.getTextLength());
+                break;
+            case START_ELEMENT:
+                skip(r);    // only the text directly inside counts
+                break;
+            }
+        }
+        return new Failure(text.toString(),message);
+    }
+
+    /**
+     * @param full
+     *      True if we already know the text needs to be kept in full.
+     */
+    private Stdio readStdio(XMLStreamReader r, boolean full) throws XMLStreamException {
+        int ordinal = stdioCount++;
+        Stdio s = new Stdio(ordinal, full || keepLongStdio || keep.contains(ordinal));
+        while (r.next()!=END_ELEMENT) {
+            switch (r.getEventType()) {
+            case CHARACTERS:
+            case CDATA:
+                s.append(r.getTextCharacters(),r.getTextStart(),r.getTextLength());
+                break;
+            case START_ELEMENT:
+                skip(r);
+                break;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Gets the text of stdout/stderr, and if it was trimmed while it needs to be in full, arranges another pass.
+     */
+    private String finish(Stdio s, boolean full) {
+        if (s==null)    return null;
+        if (full && s.isTrimmed()) {
+            keep.add(s.ordinal);
+            reparse = true;
+        }
+        return s.toString();
+    }
+
+    private String readFile(File f, boolean full) throws IOException {
+        if (full || keepLongStdio)
+            return FileUtils.readFileToString(f);
+
+        Stdio s = new Stdio(-1,false);
+        Reader in = new FileReader(f);
+        try {
+            char[] buf = new char[8192];
+            int len;
+            while ((len=in.read(buf))>=0)
+                s.append(buf,0,len);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return s.toString();
+    }
+
+    /**
+     * Skips the current element, from its start tag to its end tag.
+     */
+    private static void skip(XMLStreamReader r) throws XMLStreamException {
+        int depth = 1;
+        while (depth>0) {
+            switch (r.next()) {
+            case START_ELEMENT:
+                depth++;
+                break;
+            case END_ELEMENT:
+                depth--;
+                break;
+            }
+        }
+    }
+
+    /**
+     * The 'error' or 'failure' element.
+     */
+    private static final class Failure {
+        final String text;
+        final String message;
+
+        Failure(String text, String message) {
+            this.text = text;
+            this.message = message;
+        }
+    }
+
+    /**
+     * Text of 'system-out' or 'system-err', which only keeps the head and the tail unless it's in the full mode.
+     * The result is the same as {@link CaseResult#possiblyTrimStdio(Collection, boolean, String)}.
+     */
+    private static final class Stdio {
+        private static final int HALF = CaseResult.HALF_MAX_SIZE;
+
+        final int ordinal;
+        private final boolean full;
+        /**
+         * In the trimming mode, the first {@link #HALF} chars followed by a window of recent chars.
+         */
+        private final StringBuilder buf = new StringBuilder();
+        private long length;
+
+        Stdio(int ordinal, boolean full) {
+            this.ordinal = ordinal;
+            this.full = full;
+        }
+
+        void append(char[] ch, int start, int len) {
+            length += len;
+            if (full) {
+                buf.append(ch,start,len);
+                return;
+            }
+
+            if (buf.length()<HALF) {
+                int n = Math.min(len,HALF-buf.length());
+                buf.append(ch,start,n);
+                start += n;
+                len -= n;
+            }
+            if (len>HALF) {
+                // only the last part of this chunk can make it to the tail
+                start += len-HALF;
+                len = HALF;
+            }
+            buf.append(ch,start,len);
+            if (buf.length()>HALF*2+WINDOW)
+                buf.delete(HALF,buf.length()-HALF);
+        }
+
+        /**
+         * True if some text was dropped.
+         */
+        boolean isTrimmed() {
+            return !full && length>HALF*2;
+        }
+
+        @Override
+        public String toString() {
+            if (!isTrimmed())
+                return buf.toString();
+            int len = buf.length();
+            return buf.substring(0,HALF) + "...[truncated " + (length-HALF*2) + " chars]..." + buf.substring(len-HALF,len);
+        }
+
+        /**
+         * How much text we let accumulate before dropping the middle, to amortize the cost of moving the tail.
+         */
+        private static final int WINDOW = 8192;
+    }
+
+    /**
+     * Does what {@link XMLEntityResolver} does for {@link org.dom4j.io.SAXReader}.
+     */
+    private static final XMLResolver RESOLVER = new XMLResolver() {
+        public Object resolveEntity(String publicID, String systemID, String baseURI, String namespace) throws XMLStreamException {
+            if (systemID!=null && systemID.startsWith(TESTNG_NAMESPACE)) {
+                URL url = StreamingReportParser.class.getClassLoader().getResource(systemID.substring(TESTNG_NAMESPACE.length()));
+                if (url!=null) {
+                    try {
+                        return url.openStream();
+                    } catch (IOException e) {
+                        throw new XMLStreamException(e);
+                    }
+                }
+            }
+            return null;    // default behaviour
+        }
+    };
+
+    private static final String TESTNG_NAMESPACE = "http://testng.org/";
+}
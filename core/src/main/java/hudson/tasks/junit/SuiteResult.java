@@ -38,6 +38,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -103,11 +104,31 @@ public final class SuiteResult implements Serializable {
      * elements wrapped into the top-level &lt;testsuites>.
      */
     static List<SuiteResult> parse(File xmlReport, boolean keepLongStdio) throws DocumentException, IOException, InterruptedException {
+        return parse(xmlReport,keepLongStdio,ParserConfigurator.findAll());
+    }
+
+    /**
+     * Same as {@link #parse(File, boolean)}, but with the {@link ParserConfigurator}s already looked up,
+     * since {@link ParserConfigurator#findAll()} only works on the thread that runs the remote call on a slave.
+     */
+    /*package*/ static List<SuiteResult> parse(File xmlReport, boolean keepLongStdio, Collection<ParserConfigurator> configurators) throws DocumentException, IOException {
+        if (StreamingReportParser.isApplicable(configurators))
+            return new StreamingReportParser(xmlReport,keepLongStdio).parse();
+        return parseDom(xmlReport,keepLongStdio,configurators);
+    }
+
+    /**
+     * Parses the report into DOM first, so that {@link ParserConfigurator}s can configure the parser.
+     * This needs memory proportional to the size of the report.
+     */
+    /*package*/ static List<SuiteResult> parseDom(File xmlReport, boolean keepLongStdio, Collection<ParserConfigurator> configurators) throws DocumentException, IOException {
         List<SuiteResult> r = new ArrayList<SuiteResult>();
 
         // parse into DOM
         SAXReader saxReader = new SAXReader();
-        ParserConfigurator.applyConfiguration(saxReader,new SuiteResultParserConfigurationContext(xmlReport));
+        SuiteResultParserConfigurationContext context = new SuiteResultParserConfigurationContext(xmlReport);
+        for (ParserConfigurator pc : configurators)
+            pc.configure(saxReader,context);
 
         Document result = saxReader.read(xmlReport);
         Element root = result.getRootElement();
@@ -138,16 +159,7 @@ public final class SuiteResult implements Serializable {
      */
     private SuiteResult(File xmlReport, Element suite, boolean keepLongStdio) throws DocumentException, IOException {
     	this.file = xmlReport.getAbsolutePath();
-        String name = suite.attributeValue("name");
-        if(name==null)
-            // some user reported that name is null in their environment.
-            // see http://www.nabble.com/Unexpected-Null-Pointer-Exception-in-Hudson-1.131-tf4314802.html
-            name = '('+xmlReport.getName()+')';
-        else {
-            String pkg = suite.attributeValue("package");
-            if(pkg!=null&& pkg.length()>0)   name=pkg+'.'+name;
-        }
-        this.name = TestObject.safe(name);
+        this.name = TestObject.safe(nameOf(xmlReport,suite.attributeValue("name"),suite.attributeValue("package")));
         this.timestamp = suite.attributeValue("timestamp");
         this.id = suite.attributeValue("id");
 
@@ -186,16 +198,12 @@ public final class SuiteResult implements Serializable {
         String stderr = suite.elementText("system-err");
         if (stdout==null && stderr==null) {
             // Surefire never puts stdout/stderr in the XML. Instead, it goes to a separate file
-            Matcher m = SUREFIRE_FILENAME.matcher(xmlReport.getName());
-            if (m.matches()) {
-                // look for ***-output.txt from TEST-***.xml
-                File mavenOutputFile = new File(xmlReport.getParentFile(),m.group(1)+"-output.txt");
-                if (mavenOutputFile.exists()) {
-                    try {
-                        stdout = FileUtils.readFileToString(mavenOutputFile);
-                    } catch (IOException e) {
-                        throw new IOException2("Failed to read "+mavenOutputFile,e);
-                    }
+            File mavenOutputFile = findSurefireOutput(xmlReport);
+            if (mavenOutputFile!=null) {
+                try {
+                    stdout = FileUtils.readFileToString(mavenOutputFile);
+                } catch (IOException e) {
+                    throw new IOException2("Failed to read "+mavenOutputFile,e);
                 }
             }
         }
@@ -204,6 +212,67 @@ public final class SuiteResult implements Serializable {
         this.stderr = CaseResult.possiblyTrimStdio(cases, keepLongStdio, stderr);
     }
 
+    /**
+     * Used by {@link StreamingReportParser}, which has already trimmed stdout/stderr as needed.
+     *
+     * @param cases
+     *      Their parent is set to this suite.
+     */
+    /*package*/ SuiteResult(File xmlReport, String name, String timestamp, String id, List<CaseResult> cases, String stdout, String stderr) {
+        this.file = xmlReport.getAbsolutePath();
+        this.name = TestObject.safe(name);
+        this.timestamp = timestamp;
+        this.id = id;
+        for (CaseResult c : cases) {
+            addCase(c);
+            c.replaceParent(this);
+        }
+        this.stdout = stdout;
+        this.stderr = stderr;
+    }
+
+    /**
+     * Used by {@link TestResultStore} to restore the persisted result.
+     */
+    /*package*/ SuiteResult(String file, String name, String timestamp, String id, float duration, List<CaseResult> cases, String stdout, String stderr) {
+        this.file = file;
+        this.name = name;
+        this.timestamp = timestamp;
+        this.id = id;
+        this.cases.addAll(cases);
+        this.duration = duration;
+        this.stdout = stdout;
+        this.stderr = stderr;
+    }
+
+    /**
+     * Computes the name of the suite from the 'name' and 'package' attributes of the 'testsuite' element.
+     */
+    /*package*/ static String nameOf(File xmlReport, String name, String pkg) {
+        if(name==null)
+            // some user reported that name is null in their environment.
+            // see http://www.nabble.com/Unexpected-Null-Pointer-Exception-in-Hudson-1.131-tf4314802.html
+            return '('+xmlReport.getName()+')';
+        if(pkg!=null&& pkg.length()>0)   name=pkg+'.'+name;
+        return name;
+    }
+
+    /**
+     * Surefire never puts stdout/stderr in the XML. Instead, it goes to a separate file.
+     * Finds ***-output.txt from TEST-***.xml.
+     *
+     * @return null if there's no such file.
+     */
+    /*package*/ static File findSurefireOutput(File xmlReport) {
+        Matcher m = SUREFIRE_FILENAME.matcher(xmlReport.getName());
+        if (m.matches()) {
+            File mavenOutputFile = new File(xmlReport.getParentFile(),m.group(1)+"-output.txt");
+            if (mavenOutputFile.exists())
+                return mavenOutputFile;
+        }
+        return null;
+    }
+
     /*package*/ void addCase(CaseResult cr) {
         cases.add(cr);
         duration += cr.getDuration();
@@ -0,0 +1,618 @@
+package hudson.tasks.junit;
+
+import com.google.common.collect.MapMaker;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Status and duration of every test case in every build of a project, so that the history of a test
+ * can be looked up without loading the test result of each build.
+ *
+ * <p>
+ * {@link JUnitResultArchiver} appends a record to junitHistory.bin in the project directory for each build,
+ * and a removal is appended when the build is deleted:
+ *
+ * <pre>
+ * file    := MAGIC VERSION (record|removal)*
+ * record  := int(build number) int(N) (int(len) byte[len] as UTF-8)*N int(M) entry*M
+ * entry   := int(test) byte(status) float(duration)
+ * removal := int(build number) int(-1)
+ * </pre>
+ *
+ * Tests are identified by {@linkplain CaseResult#getFullName() their full names}, and each record defines
+ * the names that haven't appeared before, which are then referred to by their position in the order of definition.
+ * Entries are sorted by this position, so that the entry of a test can be found by a binary search on the file.
+ * Only the positions of the records and the positions of the names are kept in memory.
+ *
+ * <p>
+ * Once more than half of the file is taken up by records of deleted or re-recorded builds, the file is rewritten
+ * with just the live records, which also drops the names of the tests that no longer appear in any of them.
+ *
+ * <p>
+ * Builds made before the index was introduced aren't in the index. The history of those is
+ * looked up from their test results as before.
+ *
+ * @since 1.475
+ */
+final class TestHistoryIndex {
+    private final File file;
+
+    /**
+     * Position of each test name in the order of definition.
+     */
+    private final Map<String,Integer> nameIndex = new HashMap<String,Integer>();
+
+    /**
+     * Positions of the entries of each build in the file, as {offset, count, size of the whole record}.
+     */
+    private final TreeMap<Integer,long[]> builds = new TreeMap<Integer,long[]>();
+
+    /**
+     * Length of the file up to the last complete record. Anything after that is
+     * from an append that didn't complete, and it gets overwritten.
+     */
+    private long length;
+
+    /**
+     * Bytes in the file taken up by records that no longer count, and removals.
+     */
+    private long obsolete;
+
+    /*package*/ TestHistoryIndex(File file) {
+        this.file = file;
+        reload();
+    }
+
+    private void reload() {
+        nameIndex.clear();
+        builds.clear();
+        length = obsolete = 0;
+        try {
+            load();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to load "+file+". Starting over", e);
+            nameIndex.clear();
+            builds.clear();
+            length = obsolete = 0;
+        }
+    }
+
+    private void load() throws IOException {
+        File tmp = getTemporaryFile();
+        if (!file.exists() && tmp.exists())
+            tmp.renameTo(file); // we crashed in the middle of compaction
+        if (!file.exists())
+            return;
+
+        length = scan(file.length(), new Visitor() {
+            void onRecord(int number, String[] defined, long offset, int count, long size) {
+                for (String name : defined)
+                    nameIndex.put(name,nameIndex.size());
+                long[] old = builds.put(number,new long[] {offset,count,size});
+                if (old!=null)
+                    obsolete += old[2];
+            }
+
+            void onRemoval(int number) {
+                long[] old = builds.remove(number);
+                if (old!=null)
+                    obsolete += old[2];
+                obsolete += REMOVAL_SIZE;
+            }
+        });
+    }
+
+    /**
+     * Receives the records in the file, in the order they were written.
+     */
+    private static abstract class Visitor {
+        abstract void onRecord(int number, String[] defined, long offset, int count, long size) throws IOException;
+        abstract void onRemoval(int number) throws IOException;
+    }
+
+    /**
+     * Reads the file sequentially up to the given length.
+     *
+     * @return
+     *      The length of the file up to the last complete record.
+     */
+    private long scan(long limit, Visitor v) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        long end = 0;
+        try {
+            if (in.readInt()!=MAGIC)
+                throw new IOException(file+" is not a test history file");
+            int ver = in.readInt();
+            if (ver!=VERSION)
+                throw new IOException("Unsupported version "+ver+" of "+file);
+            long pos = end = 8;
+
+            while (pos<limit) {
+                long start = pos;
+                int number = in.readInt();
+                int n = in.readInt();
+                pos += 8;
+                if (pos>limit)
+                    throw new EOFException();
+                if (n==REMOVED) {
+                    v.onRemoval(number);
+                    end = pos;
+                    continue;
+                }
+
+                String[] defined = new String[n];
+                for (int i=0; i<n; i++) {
+                    int len = in.readInt();
+                    pos += 4+len;
+                    if (len<0 || pos>limit)
+                        throw new EOFException();
+                    byte[] buf = new byte[len];
+                    in.readFully(buf);
+                    defined[i] = new String(buf,UTF8);
+                }
+                int m = in.readInt();
+                long offset = pos += 4;
+                pos += (long)m*ENTRY_SIZE;
+                if (m<0 || pos>limit)
+                    throw new EOFException();
+                skipFully(in,(long)m*ENTRY_SIZE);
+
+                // the record is complete
+                v.onRecord(number,defined,offset,m,pos-start);
+                end = pos;
+            }
+        } catch (EOFException e) {
+            // the last append didn't complete. ignore the partial record
+            LOGGER.fine("Ignoring the incomplete record at the end of "+file);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return end;
+    }
+
+    /**
+     * Is the given build in the index? If so, tests that aren't in the index weren't run in that build.
+     */
+    synchronized boolean isIndexed(int number) {
+        return builds.containsKey(number);
+    }
+
+    /**
+     * Finds the entry of the test in the given build.
+     *
+     * @return null if the build isn't in the index, or it doesn't have the test.
+     */
+    synchronized Entry get(int number, String name) throws IOException {
+        return get(new int[] {number},name)[0];
+    }
+
+    /**
+     * Finds the entries of the test in the given builds, opening the file just once.
+     *
+     * @return
+     *      Array of the same length as {@code numbers}, with nulls for builds that aren't
+     *      in the index or don't have the test.
+     */
+    synchronized Entry[] get(int[] numbers, String name) throws IOException {
+        Entry[] r = new Entry[numbers.length];
+        Integer i = nameIndex.get(name);
+        if (i==null)    return r;
+        RandomAccessFile raf = new RandomAccessFile(file,"r");
+        try {
+            for (int j=0; j<numbers.length; j++) {
+                long[] pos = builds.get(numbers[j]);
+                if (pos!=null)
+                    r[j] = find(raf,pos,i);
+            }
+            return r;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Tells the index about the builds it doesn't have a record of.
+     */
+    interface Gaps {
+        /**
+         * Returns true if the given build exists and has a test result, which the index missed.
+         */
+        boolean hasTestResult(int number);
+    }
+
+    /**
+     * Computes the number of the build the test has been failing since, assuming that it fails in the given build.
+     *
+     * <p>
+     * Builds between the ones in the index are checked with {@code gaps}, since a build whose test result
+     * wasn't recorded (because the recording failed, or the result came from elsewhere) could change the answer.
+     * This is done outside the lock, as it may load builds.
+     *
+     * @return
+     *      0 if this can't be determined from the index, because the test fails in all the earlier builds
+     *      in the index, there are tests of the same name, or a build that isn't in the index has a test result.
+     */
+    int getFailedSince(int number, String name, Gaps gaps) throws IOException {
+        List<Integer> walked = new ArrayList<Integer>();
+        int since = walkFailures(number, name, walked);
+        if (since==0)   return 0;
+
+        int prev = number;
+        for (int n : walked) {
+            for (int k=prev-1; k>n; k--)
+                if (gaps.hasTestResult(k))
+                    return 0;
+            prev = n;
+        }
+        return since;
+    }
+
+    /**
+     * Walks back the builds in the index while the test keeps failing.
+     *
+     * @param walked
+     *      Receives the numbers of the builds looked at, newest first.
+     */
+    private synchronized int walkFailures(int number, String name, List<Integer> walked) throws IOException {
+        Integer i = nameIndex.get(name);
+        RandomAccessFile raf = i==null ? null : new RandomAccessFile(file,"r");
+        try {
+            int since = number;
+            for (SortedMap<Integer,long[]> head=builds.headMap(number); !head.isEmpty(); head=builds.headMap(since)) {
+                int n = head.lastKey();
+                walked.add(n);
+                Entry e = i==null ? null : find(raf,head.get(n),i);
+                if (e==null || e.status==PASSED)
+                    return since;
+                if (e.status==AMBIGUOUS)
+                    return 0;
+                since = n;
+            }
+            return 0;   // the test might be failing since before the index was created
+        } finally {
+            if (raf!=null)
+                raf.close();
+        }
+    }
+
+    private Entry find(RandomAccessFile raf, long[] pos, int name) throws IOException {
+        long lo = 0, hi = pos[1]-1;
+        while (lo<=hi) {
+            long mid = (lo+hi)>>>1;
+            raf.seek(pos[0]+mid*ENTRY_SIZE);
+            int v = raf.readInt();
+            if (v<name)         lo = mid+1;
+            else if (v>name)    hi = mid-1;
+            else                return new Entry(raf.readByte(),raf.readFloat());
+        }
+        return null;
+    }
+
+    /**
+     * Appends the test result of the build.
+     * If the build has already been recorded, the new record replaces the old one.
+     */
+    synchronized void record(int number, TestResult result) throws IOException {
+        // collect entries by the test name. for tests of the same name, we can't tell which is which
+        Map<String,Entry> entries = new HashMap<String,Entry>();
+        for (SuiteResult s : result.getSuites()) {
+            for (CaseResult c : s.getCases()) {
+                String name = c.getFullName();
+                Entry e = new Entry(c.isSkipped() ? SKIPPED : c.isPassed() ? PASSED : FAILED, c.getDuration());
+                entries.put(name, entries.containsKey(name) ? new Entry(AMBIGUOUS,0) : e);
+            }
+        }
+
+        List<String> defined = new ArrayList<String>();
+        int[] ids = new int[entries.size()];
+        Map<Integer,Entry> byId = new HashMap<Integer,Entry>();
+        int j=0;
+        for (Map.Entry<String,Entry> e : entries.entrySet()) {
+            Integer id = nameIndex.get(e.getKey());
+            if (id==null) {
+                id = nameIndex.size()+defined.size();
+                defined.add(e.getKey());
+            }
+            ids[j++] = id;
+            byId.put(id,e.getValue());
+        }
+        Arrays.sort(ids);
+
+        Entry[] sorted = new Entry[ids.length];
+        for (int i=0; i<ids.length; i++)
+            sorted[i] = byId.get(ids[i]);
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        long offset = writeRecord(new DataOutputStream(buf), number, defined, ids, sorted);
+        long start = append(buf.toByteArray());
+
+        // now that it's on disk, update what we have in memory
+        for (String name : defined)
+            nameIndex.put(name,nameIndex.size());
+        long[] old = builds.put(number,new long[] {start+offset,ids.length,buf.size()});
+        if (old!=null)
+            obsolete += old[2];
+        compactIfNeeded();
+    }
+
+    /**
+     * Forgets the given build, which is being deleted.
+     */
+    synchronized void remove(int number) throws IOException {
+        long[] old = builds.get(number);
+        if (old==null)  return;
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        out.writeInt(number);
+        out.writeInt(REMOVED);
+        out.flush();
+        append(buf.toByteArray());
+
+        builds.remove(number);
+        obsolete += old[2]+REMOVAL_SIZE;
+        compactIfNeeded();
+    }
+
+    /**
+     * Writes a record.
+     *
+     * @return
+     *      Offset of the entries from the start of the record.
+     */
+    private static long writeRecord(DataOutputStream out, int number, List<String> defined, int[] ids, Entry[] entries) throws IOException {
+        out.writeInt(number);
+        out.writeInt(defined.size());
+        for (String name : defined) {
+            byte[] b = name.getBytes(UTF8);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+        out.writeInt(ids.length);
+        long offset = out.size();
+        for (int i=0; i<ids.length; i++) {
+            out.writeInt(ids[i]);
+            out.writeByte(entries[i].status);
+            out.writeFloat(entries[i].duration);
+        }
+        out.flush();
+        return offset;
+    }
+
+    /**
+     * Appends the given bytes after the last complete record, writing the header first if this is a new file.
+     *
+     * @return
+     *      Where the bytes were written.
+     */
+    private long append(byte[] data) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file,"rw");
+        try {
+            raf.setLength(length);  // drop the incomplete record, if any
+            raf.seek(length);
+            if (length==0) {
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+                length = 8;
+            }
+            raf.write(data);
+        } finally {
+            raf.close();
+        }
+        long start = length;
+        length += data.length;
+        return start;
+    }
+
+    private void compactIfNeeded() {
+        if (length<COMPACTION_THRESHOLD || obsolete*2<length)
+            return;
+        try {
+            compact();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to compact "+file, e);
+            reload();
+        }
+    }
+
+    /**
+     * Rewrites the file with just the records of the builds that are in the index.
+     *
+     * <p>
+     * Tests are renumbered in the order of their first appearance among the remaining records,
+     * so the names of the tests that no longer appear are gone. All the names are read from the file
+     * for the duration of the compaction.
+     */
+    /*package*/ synchronized void compact() throws IOException {
+        final List<String> names = new ArrayList<String>();
+        scan(length, new Visitor() {
+            void onRecord(int number, String[] defined, long offset, int count, long size) {
+                names.addAll(Arrays.asList(defined));
+            }
+
+            void onRemoval(int number) {}
+        });
+
+        Map<Integer,Integer> renumbered = new HashMap<Integer,Integer>();
+        Map<String,Integer> newNameIndex = new HashMap<String,Integer>();
+        TreeMap<Integer,long[]> newBuilds = new TreeMap<Integer,long[]>();
+
+        File tmp = getTemporaryFile();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        RandomAccessFile raf = new RandomAccessFile(file,"r");
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            long pos = 8;
+
+            for (Map.Entry<Integer,long[]> b : builds.entrySet()) {
+                long[] p = b.getValue();
+                int m = (int)p[1];
+                byte[] data = new byte[m*ENTRY_SIZE];
+                raf.seek(p[0]);
+                raf.readFully(data);
+
+                // renumber, and sort by the new numbers. the index of each entry rides in the lower half
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+                List<String> defined = new ArrayList<String>();
+                Entry[] entries = new Entry[m];
+                long[] order = new long[m];
+                for (int i=0; i<m; i++) {
+                    int id = in.readInt();
+                    entries[i] = new Entry(in.readByte(),in.readFloat());
+                    Integer n = renumbered.get(id);
+                    if (n==null) {
+                        renumbered.put(id, n=renumbered.size());
+                        defined.add(names.get(id));
+                        newNameIndex.put(names.get(id),n);
+                    }
+                    order[i] = ((long)n<<32)|i;
+                }
+                Arrays.sort(order);
+                int[] ids = new int[m];
+                Entry[] sorted = new Entry[m];
+                for (int i=0; i<m; i++) {
+                    ids[i] = (int)(order[i]>>>32);
+                    sorted[i] = entries[(int)order[i]];
+                }
+
+                ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                long offset = writeRecord(new DataOutputStream(buf), b.getKey(), defined, ids, sorted);
+                buf.writeTo(out);
+                newBuilds.put(b.getKey(),new long[] {pos+offset,m,buf.size()});
+                pos += buf.size();
+            }
+        } finally {
+            raf.close();
+            out.close();
+        }
+
+        if (!file.delete()) {
+            tmp.delete();
+            throw new IOException("Unable to delete "+file);
+        }
+        if (!tmp.renameTo(file))
+            throw new IOException("Unable to rename "+tmp+" to "+file);   // the reload recovers from the temporary file
+
+        nameIndex.clear();
+        nameIndex.putAll(newNameIndex);
+        builds.clear();
+        builds.putAll(newBuilds);
+        length = file.length();
+        obsolete = 0;
+    }
+
+    private File getTemporaryFile() {
+        return new File(file.getPath()+".tmp");
+    }
+
+    /**
+     * Status and duration of a test in a build.
+     */
+    static final class Entry {
+        /**
+         * One of {@link #PASSED}, {@link #FAILED}, {@link #SKIPPED}, or {@link #AMBIGUOUS}.
+         */
+        final byte status;
+        /**
+         * In seconds, like {@link CaseResult#getDuration()}.
+         */
+        final float duration;
+
+        Entry(byte status, float duration) {
+            this.status = status;
+            this.duration = duration;
+        }
+    }
+
+    static final byte PASSED = 0, FAILED = 1, SKIPPED = 2;
+    /**
+     * There are more than one test of this name in the build, so the index can't tell which one is meant.
+     */
+    static final byte AMBIGUOUS = 3;
+
+    /**
+     * Gets the index of the given project.
+     */
+    static TestHistoryIndex of(AbstractProject<?,?> project) {
+        File f = new File(project.getRootDir(),FILE_NAME);
+        synchronized (INDICES) {
+            TestHistoryIndex index = INDICES.get(project);
+            if (index==null || !index.file.equals(f)) {
+                // not loaded yet, or the project got renamed
+                index = new TestHistoryIndex(f);
+                INDICES.put(project,index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Gets the index of the project of the given build.
+     */
+    static TestHistoryIndex of(AbstractBuild<?,?> build) {
+        return of(build.getProject());
+    }
+
+    /**
+     * Gets the index of the given project, if it has recorded any test result.
+     *
+     * @return null if there's no index file.
+     */
+    static TestHistoryIndex existing(AbstractProject<?,?> project) {
+        if (!new File(project.getRootDir(),FILE_NAME).exists())
+            return null;
+        return of(project);
+    }
+
+    private static void skipFully(DataInputStream in, long n) throws IOException {
+        while (n>0) {
+            long skipped = in.skip(n);
+            if (skipped<=0)
+                throw new EOFException();
+            n -= skipped;
+        }
+    }
+
+    /**
+     * Indices are reloaded from the disk if the memory gets tight.
+     */
+    private static final Map<AbstractProject<?,?>,TestHistoryIndex> INDICES = new MapMaker().weakKeys().softValues().makeMap();
+
+    private static final String FILE_NAME = "junitHistory.bin";
+    private static final int MAGIC = 0x4A554849; // "JUHI"
+    private static final int VERSION = 1;
+    private static final int ENTRY_SIZE = 4+1+4;
+    private static final int REMOVED = -1;
+    private static final int REMOVAL_SIZE = 8;
+    /**
+     * Files smaller than this aren't worth compacting.
+     */
+    private static final long COMPACTION_THRESHOLD = 64*1024;
+    private static final String UTF8 = "UTF-8";
+
+    private static final Logger LOGGER = Logger.getLogger(TestHistoryIndex.class.getName());
+}
@@ -30,7 +30,10 @@ import hudson.model.Run;
 import hudson.tasks.test.MetaTabulatedResult;
 import hudson.tasks.test.TestObject;
 import hudson.tasks.test.AbstractTestResultAction;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
 import hudson.util.IOException2;
+import hudson.util.io.ParserConfigurator;
 import org.apache.tools.ant.DirectoryScanner;
 import org.dom4j.DocumentException;
 import org.kohsuke.stapler.StaplerRequest;
@@ -48,6 +51,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Root of all the test results for one build.
@@ -116,6 +124,15 @@ public final class TestResult extends MetaTabulatedResult {
         parse(buildTime, results);
     }
 
+    /**
+     * Used by {@link TestResultStore} to restore the persisted result.
+     */
+    /*package*/ TestResult(boolean keepLongStdio, float duration, List<SuiteResult> suites) {
+        this.keepLongStdio = keepLongStdio;
+        this.duration = duration;
+        this.suites.addAll(suites);
+    }
+
     public TestObject getParent() {
     	return parent;
     }
@@ -148,25 +165,17 @@ public final class TestResult extends MetaTabulatedResult {
      */
     public void parse(long buildTime, File baseDir, String[] reportFiles) throws IOException {
 
-        boolean parsed=false;
+        List<File> files = new ArrayList<File>();
 
         for (String value : reportFiles) {
             File reportFile = new File(baseDir, value);
             // only count files that were actually updated during this build
             if ( (buildTime-3000/*error margin*/ <= reportFile.lastModified()) || !checkTimestamps) {
-                if(reportFile.length()==0) {
-                    // this is a typical problem when JVM quits abnormally, like OutOfMemoryError during a test.
-                    SuiteResult sr = new SuiteResult(reportFile.getName(), "", "");
-                    sr.addCase(new CaseResult(sr,"<init>","Test report file "+reportFile.getAbsolutePath()+" was length 0"));
-                    add(sr);
-                } else {
-                    parse(reportFile);
-                }
-                parsed = true;
+                files.add(reportFile);
             }
         }
 
-        if(!parsed) {
+        if(files.isEmpty()) {
             long localTime = System.currentTimeMillis();
             if(localTime < buildTime-1000) /*margin*/
                 // build time is in the the future. clock on this slave must be running behind
@@ -182,6 +191,81 @@ public final class TestResult extends MetaTabulatedResult {
                 "For example, %s is %s old%n", f,
                 Util.getTimeSpanString(buildTime-f.lastModified())));
         }
+
+        parse(files);
+    }
+
+    /**
+     * Parses report files in parallel, then adds them in the given order,
+     * so that the result is the same as parsing them one by one.
+     */
+    private void parse(List<File> reportFiles) throws IOException {
+        final Collection<ParserConfigurator> configurators;
+        try {
+            configurators = ParserConfigurator.findAll();
+        } catch (InterruptedException e) {
+            throw new IOException2("Interrupted while parsing test reports",e);
+        }
+
+        int n = Math.min(PARSER_THREADS,reportFiles.size());
+        if (n<=1) {
+            for (File reportFile : reportFiles)
+                add(reportFile, parseQuietly(reportFile, configurators));
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(n, new ExceptionCatchingThreadFactory(new DaemonThreadFactory()));
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>(reportFiles.size());
+            for (final File reportFile : reportFiles) {
+                results.add(pool.submit(new Callable<Object>() {
+                    public Object call() {
+                        return parseQuietly(reportFile, configurators);
+                    }
+                }));
+            }
+            for (int i=0; i<reportFiles.size(); i++) {
+                try {
+                    add(reportFiles.get(i), results.get(i).get());
+                } catch (ExecutionException e) {
+                    throw new IOException2("Failed to read "+reportFiles.get(i),e.getCause());
+                } catch (InterruptedException e) {
+                    throw new IOException2("Interrupted while parsing test reports",e);
+                }
+            }
+        } finally {
+            // when we bail out early, don't waste time on the remaining files
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Parses a report file, and returns either the list of {@link SuiteResult}s or the exception,
+     * so that failures can be reported in the same order as in the sequential parsing.
+     */
+    private Object parseQuietly(File reportFile, Collection<ParserConfigurator> configurators) {
+        if(reportFile.length()==0) {
+            // this is a typical problem when JVM quits abnormally, like OutOfMemoryError during a test.
+            SuiteResult sr = new SuiteResult(reportFile.getName(), "", "");
+            sr.addCase(new CaseResult(sr,"<init>","Test report file "+reportFile.getAbsolutePath()+" was length 0"));
+            return Collections.singletonList(sr);
+        }
+        try {
+            return SuiteResult.parse(reportFile, keepLongStdio, configurators);
+        } catch (Exception e) {
+            return e;
+        }
+    }
+
+    /**
+     * Adds the outcome of {@link #parseQuietly(File, Collection)}.
+     */
+    @SuppressWarnings("unchecked")
+    private void add(File reportFile, Object parsed) throws IOException {
+        if (parsed instanceof Exception)
+            throw handleFailure(reportFile, (Exception) parsed);
+        for (SuiteResult suiteResult : (List<SuiteResult>) parsed)
+            add(suiteResult);
     }
 
     private void add(SuiteResult sr) {
@@ -227,12 +311,26 @@ public final class TestResult extends MetaTabulatedResult {
             for (SuiteResult suiteResult : SuiteResult.parse(reportFile, keepLongStdio))
                 add(suiteResult);
         } catch (InterruptedException e) {
-            throw new IOException2("Failed to read "+reportFile,e);
+            throw handleFailure(reportFile,e);
         } catch (RuntimeException e) {
-            throw new IOException2("Failed to read "+reportFile,e);
+            throw handleFailure(reportFile,e);
         } catch (DocumentException e) {
+            throw handleFailure(reportFile,e);
+        }
+    }
+
+    /**
+     * Reports the failure to parse a report file.
+     *
+     * @return
+     *      The exception to be thrown.
+     */
+    private IOException handleFailure(File reportFile, Exception e) {
+        if (e instanceof IOException)
+            return (IOException)e;
+        if (e instanceof DocumentException) {
             if (!reportFile.getPath().endsWith(".xml")) {
-                throw new IOException2("Failed to read "+reportFile+"\n"+
+                return new IOException2("Failed to read "+reportFile+"\n"+
                     "Is this really a JUnit report file? Your configuration must be matching too many files",e);
             } else {
                 SuiteResult sr = new SuiteResult(reportFile.getName(), "", "");
@@ -241,9 +339,9 @@ public final class TestResult extends MetaTabulatedResult {
                 String error = "Failed to read test report file "+reportFile.getAbsolutePath()+"\n"+writer.toString();
                 sr.addCase(new CaseResult(sr,"<init>",error));
                 add(sr);
-                throw new IOException2("Failed to read "+reportFile,e);
             }
         }
+        return new IOException2("Failed to read "+reportFile,e);
     }
 
     public String getDisplayName() {
@@ -491,6 +589,53 @@ public final class TestResult extends MetaTabulatedResult {
         return suitesByName.get(name);
     }
 
+    /**
+     * Finds the first test case of the given name.
+     *
+     * @param suiteName
+     *      The name of the suite, or null to look at all the suites.
+     * @param className
+     *      The class name of the test case, or null to match any class.
+     * @see TestResultStore#load(String, String, String)
+     */
+    /*package*/ CaseResult findCase(String suiteName, String className, String testName) {
+        for (SuiteResult s : suiteName!=null ? Collections.singletonList(getSuite(suiteName)) : suites) {
+            if (s==null)    continue;
+            for (CaseResult c : s.getCases())
+                if (c.getName().equals(testName) && (className==null || className.equals(c.getClassName())))
+                    return c;
+        }
+        return null;
+    }
+
+    /**
+     * Finds the test case of the given name in the given suite from the previous build that has the test result.
+     *
+     * <p>
+     * Unlike {@link #getPreviousResult()}, this doesn't require the whole test result of the previous build
+     * to be loaded.
+     */
+    /*package*/ CaseResult getPreviousCase(String suiteName, String testName) {
+        AbstractBuild<?,?> b = getOwner();
+        if (b==null || parentAction==null)
+            return null;
+        while(true) {
+            b = b.getPreviousBuild();
+            if(b==null)
+                return null;
+            AbstractTestResultAction r = b.getAction(parentAction.getClass());
+            if (r instanceof TestResultAction)
+                return ((TestResultAction)r).findCase(suiteName,null,testName);
+            if(r!=null) {
+                hudson.tasks.test.TestResult result = r.findCorrespondingResult(this.getId());
+                if (result instanceof TestResult)
+                    return ((TestResult)result).findCase(suiteName,null,testName);
+                if (result!=null)
+                    return null;
+            }
+        }
+    }
+
      @Override
      public void setParentAction(AbstractTestResultAction action) {
         this.parentAction = action;
@@ -587,7 +732,16 @@ public final class TestResult extends MetaTabulatedResult {
             pr.freeze();
     }
 
+    /*package*/ boolean isKeepLongStdio() {
+        return keepLongStdio;
+    }
+
     private static final long serialVersionUID = 1L;
     private static final boolean checkTimestamps = true; // TODO: change to System.getProperty
 
+    /**
+     * Number of threads used to parse report files. This runs where the reports are, so it's the CPUs of the slave.
+     */
+    public static int PARSER_THREADS = Integer.getInteger(TestResult.class.getName()+".parserThreads", Runtime.getRuntime().availableProcessors());
+
 }
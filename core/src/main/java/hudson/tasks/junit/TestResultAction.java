@@ -50,10 +50,15 @@ import java.util.logging.Logger;
  * The actual test reports are isolated by {@link WeakReference}
  * so that it doesn't eat up too much memory.
  *
+ * <p>
+ * The test reports are persisted in junitResult.bin by {@link TestResultStore}.
+ * Builds made by earlier versions have them in junitResult.xml instead.
+ *
  * @author Kohsuke Kawaguchi
  */
 public class TestResultAction extends AbstractTestResultAction<TestResultAction> implements StaplerProxy {
     private transient WeakReference<TestResult> result;
+    private transient WeakReference<TestResultStore> store;
 
     // Hudson < 1.25 didn't set these fields, so use Integer
     // so that we can distinguish between 0 tests vs not-computed-yet.
@@ -79,18 +84,43 @@ public class TestResultAction extends AbstractTestResultAction<TestResultAction>
 
         // persist the data
         try {
-            getDataFile().write(result);
+            TestResultStore.write(result, getStoreFile());
         } catch (IOException e) {
             e.printStackTrace(listener.fatalError("Failed to save the JUnit test result"));
         }
 
         this.result = new WeakReference<TestResult>(result);
+        this.store = null;
     }
 
+    /**
+     * Where the test result was persisted by earlier versions.
+     */
     private XmlFile getDataFile() {
         return new XmlFile(XSTREAM,new File(owner.getRootDir(), "junitResult.xml"));
     }
 
+    private File getStoreFile() {
+        return new File(owner.getRootDir(), "junitResult.bin");
+    }
+
+    /**
+     * Gets the index of the persisted test result.
+     *
+     * @return null if the test result is in the old format.
+     */
+    private TestResultStore getStore() throws IOException {
+        TestResultStore s = store==null ? null : store.get();
+        if (s==null) {
+            File f = getStoreFile();
+            if (!f.exists())
+                return null;
+            s = TestResultStore.open(f);
+            store = new WeakReference<TestResultStore>(s);
+        }
+        return s;
+    }
+
     public synchronized TestResult getResult() {
         TestResult r;
         if(result==null) {
@@ -138,15 +168,42 @@ public class TestResultAction extends AbstractTestResultAction<TestResultAction>
           return getResult().getFailedTests();
      }
 
+    /**
+     * Finds a test case without loading the whole {@link TestResult}, unless it's already in memory.
+     *
+     * @see TestResult#findCase(String, String, String)
+     * @return null if not found.
+     */
+    /*package*/ synchronized CaseResult findCase(String suiteName, String className, String testName) {
+        TestResult r = result==null ? null : result.get();
+        if (r==null) {
+            try {
+                TestResultStore s = getStore();
+                if (s!=null) {
+                    r = s.load(suiteName,className,testName);
+                    if (r==null)
+                        return null;
+                    r.freeze(this);
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to load "+getStoreFile(),e);
+            }
+        }
+        if (r==null)
+            r = getResult();
+        return r.findCase(suiteName,className,testName);
+    }
+
     /**
      * Loads a {@link TestResult} from disk.
      */
     private TestResult load() {
         TestResult r;
         try {
-            r = (TestResult)getDataFile().read();
+            TestResultStore s = getStore();
+            r = s!=null ? s.load() : (TestResult)getDataFile().read();
         } catch (IOException e) {
-            logger.log(Level.WARNING, "Failed to load "+getDataFile(),e);
+            logger.log(Level.WARNING, "Failed to load the test result of "+owner,e);
             r = new TestResult();   // return a dummy
         }
         r.freeze(this);
@@ -0,0 +1,441 @@
+package hudson.tasks.junit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary form of {@link TestResult}, used in place of XStream-serialized XML.
+ *
+ * <p>
+ * The file starts with the "blobs", which are texts that can be big, such as stdout and stack traces,
+ * followed by the index, which has everything else in columns. Names are interned in a string table, so
+ * the class name shared by all the test cases of a class is stored only once, and the columns
+ * refer to it by its position.
+ *
+ * <pre>
+ * file    := MAGIC VERSION blob* index long(offset of index)
+ * index   := strings blobs suites cases
+ * strings := int(N) (int(len) byte[len] as UTF-8)*N
+ * blobs   := int(N) (long(offset) int(len))*N
+ * suites  := int(N) int[N](name) int[N](file) int[N](timestamp) int[N](id) float[N](duration)
+ *            blob[N](stdout) blob[N](stderr) int[N](number of cases) ; cases are stored in the order of suites
+ * cases   := int(N) int[N](class name) int[N](test name) float[N](duration) byte[N](flags) int[N](failed since)
+ *            blob[N](error stack trace) blob[N](error details) blob[N](stdout) blob[N](stderr)
+ * </pre>
+ * where references to strings and blobs are -1 for null.
+ *
+ * <p>
+ * {@link #open(File) Opening} the store only reads the index, and the blobs are read when needed.
+ * So a single test case can be {@linkplain #load(String, String, String) loaded} without inflating the whole tree.
+ *
+ * @since 1.475
+ */
+final class TestResultStore {
+    private final File file;
+
+    private final boolean keepLongStdio;
+    private final float duration;
+
+    private final String[] strings;
+    private final long[] blobOffsets;
+    private final int[] blobLengths;
+
+    private final int[] suiteName, suiteFile, suiteTimestamp, suiteId;
+    private final float[] suiteDuration;
+    private final int[] suiteStdout, suiteStderr;
+    /**
+     * Index of the first test case of each suite. Has one extra element at the end, for the convenience of iteration.
+     */
+    private final int[] suiteCases;
+
+    private final int[] caseClassName, caseTestName;
+    private final float[] caseDuration;
+    private final byte[] caseFlags;
+    private final int[] caseFailedSince;
+    private final int[] caseErrorStackTrace, caseErrorDetails, caseStdout, caseStderr;
+
+    /**
+     * Position in {@link #strings} by the string, to find things without comparing strings.
+     */
+    private final Map<String,Integer> stringIndex;
+
+    private TestResultStore(File file) throws IOException {
+        this.file = file;
+
+        RandomAccessFile raf = new RandomAccessFile(file,"r");
+        long indexOffset;
+        try {
+            if (raf.readInt()!=MAGIC)
+                throw new IOException(file+" is not a test result file");
+            int v = raf.readInt();
+            if (v!=VERSION)
+                throw new IOException("Unsupported version "+v+" of "+file);
+            raf.seek(raf.length()-8);
+            indexOffset = raf.readLong();
+        } finally {
+            raf.close();
+        }
+
+        InputStream fis = new FileInputStream(file);
+        try {
+            skipFully(fis,indexOffset);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(fis));
+
+            keepLongStdio = in.readBoolean();
+            duration = in.readFloat();
+
+            strings = new String[in.readInt()];
+            stringIndex = new HashMap<String,Integer>(strings.length*2);
+            for (int i=0; i<strings.length; i++) {
+                byte[] buf = new byte[in.readInt()];
+                in.readFully(buf);
+                strings[i] = new String(buf,UTF8);
+                stringIndex.put(strings[i],i);
+            }
+
+            int n = in.readInt();
+            blobOffsets = new long[n];
+            blobLengths = new int[n];
+            for (int i=0; i<n; i++) {
+                blobOffsets[i] = in.readLong();
+                blobLengths[i] = in.readInt();
+            }
+
+            n = in.readInt();
+            suiteName = readInts(in,n);
+            suiteFile = readInts(in,n);
+            suiteTimestamp = readInts(in,n);
+            suiteId = readInts(in,n);
+            suiteDuration = readFloats(in,n);
+            suiteStdout = readInts(in,n);
+            suiteStderr = readInts(in,n);
+            suiteCases = new int[n+1];
+            for (int i=0; i<n; i++)
+                suiteCases[i+1] = suiteCases[i]+in.readInt();
+
+            n = in.readInt();
+            caseClassName = readInts(in,n);
+            caseTestName = readInts(in,n);
+            caseDuration = readFloats(in,n);
+            caseFlags = new byte[n];
+            in.readFully(caseFlags);
+            caseFailedSince = readInts(in,n);
+            caseErrorStackTrace = readInts(in,n);
+            caseErrorDetails = readInts(in,n);
+            caseStdout = readInts(in,n);
+            caseStderr = readInts(in,n);
+        } finally {
+            IOUtils.closeQuietly(fis);
+        }
+    }
+
+    /**
+     * Reads the index of the store.
+     */
+    static TestResultStore open(File file) throws IOException {
+        return new TestResultStore(file);
+    }
+
+    /**
+     * Number of test cases in the store.
+     */
+    int getCaseCount() {
+        return caseTestName.length;
+    }
+
+    /**
+     * Loads the whole {@link TestResult}. It needs to be {@linkplain TestResult#freeze(TestResultAction) frozen}.
+     */
+    TestResult load() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file,"r");
+        try {
+            List<SuiteResult> suites = new ArrayList<SuiteResult>(suiteName.length);
+            for (int s=0; s<suiteName.length; s++)
+                suites.add(loadSuite(raf,s,suiteCases[s],suiteCases[s+1]));
+            return new TestResult(keepLongStdio,duration,suites);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Loads just one test case, in a {@link TestResult} that only contains it and its suite.
+     *
+     * <p>
+     * When more than one test case match the criteria, the first one is loaded,
+     * like {@link SuiteResult#getCase(String)} does.
+     *
+     * @param suiteName
+     *      The name of the suite, or null to match any suite.
+     * @param className
+     *      The class name of the test case, or null to match any class.
+     * @param testName
+     *      The name of the test case.
+     * @return
+     *      null if not found.
+     */
+    TestResult load(String suiteName, String className, String testName) throws IOException {
+        int sn = indexOf(suiteName);
+        int cn = indexOf(className);
+        int tn = indexOf(testName);
+        if (sn==MISSING || cn==MISSING || tn==MISSING)
+            return null;
+
+        for (int s=0; s<this.suiteName.length; s++) {
+            if (suiteName!=null && this.suiteName[s]!=sn)
+                continue;
+            for (int c=suiteCases[s]; c<suiteCases[s+1]; c++) {
+                if (caseTestName[c]==tn && (className==null || caseClassName[c]==cn)) {
+                    RandomAccessFile raf = new RandomAccessFile(file,"r");
+                    try {
+                        List<SuiteResult> suites = new ArrayList<SuiteResult>(1);
+                        suites.add(loadSuite(raf,s,c,c+1));
+                        return new TestResult(keepLongStdio,suiteDuration[s],suites);
+                    } finally {
+                        raf.close();
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private SuiteResult loadSuite(RandomAccessFile raf, int s, int from, int to) throws IOException {
+        List<CaseResult> cases = new ArrayList<CaseResult>(to-from);
+        for (int c=from; c<to; c++) {
+            CaseResult cr = new CaseResult(null, string(caseClassName[c]), string(caseTestName[c]),
+                    blob(raf,caseErrorStackTrace[c]), blob(raf,caseErrorDetails[c]), caseDuration[c],
+                    (caseFlags[c]&SKIPPED)!=0, blob(raf,caseStdout[c]), blob(raf,caseStderr[c]), true);
+            cr.setFailedSince(caseFailedSince[c]);
+            cases.add(cr);
+        }
+        return new SuiteResult(string(suiteFile[s]), string(suiteName[s]), string(suiteTimestamp[s]), string(suiteId[s]),
+                suiteDuration[s], cases, blob(raf,suiteStdout[s]), blob(raf,suiteStderr[s]));
+    }
+
+    /**
+     * @return
+     *      -1 for null, or {@link #MISSING} if the string is not in the store.
+     */
+    private int indexOf(String s) {
+        if (s==null)    return -1;
+        Integer i = stringIndex.get(s);
+        return i!=null ? i : MISSING;
+    }
+
+    private String string(int i) {
+        return i<0 ? null : strings[i];
+    }
+
+    private String blob(RandomAccessFile raf, int i) throws IOException {
+        if (i<0)    return null;
+        byte[] buf = new byte[blobLengths[i]];
+        raf.seek(blobOffsets[i]);
+        raf.readFully(buf);
+        return new String(buf,UTF8);
+    }
+
+    /**
+     * Writes the {@link TestResult} into the file.
+     */
+    static void write(TestResult result, File file) throws IOException {
+        File tmp = new File(file.getPath()+".tmp");
+        CountingOutputStream cos = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            new Writer(new DataOutputStream(cos),cos).write(result);
+        } finally {
+            cos.close();
+        }
+        // File.renameTo doesn't overwrite on Windows
+        if (file.exists() && !file.delete())
+            throw new IOException("Failed to delete "+file);
+        if (!tmp.renameTo(file))
+            throw new IOException("Failed to rename "+tmp+" to "+file);
+    }
+
+    /**
+     * Collects the columns while writing the blobs, then writes the index.
+     */
+    private static final class Writer {
+        private final DataOutputStream out;
+        private final CountingOutputStream counter;
+
+        private final List<String> strings = new ArrayList<String>();
+        private final Map<String,Integer> stringIndex = new HashMap<String,Integer>();
+        private final List<long[]> blobs = new ArrayList<long[]>();
+
+        Writer(DataOutputStream out, CountingOutputStream counter) {
+            this.out = out;
+            this.counter = counter;
+        }
+
+        void write(TestResult result) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            List<SuiteResult> suites = new ArrayList<SuiteResult>(result.getSuites());
+            int ns = suites.size();
+            int[] suiteName = new int[ns], suiteFile = new int[ns], suiteTimestamp = new int[ns], suiteId = new int[ns];
+            float[] suiteDuration = new float[ns];
+            int[] suiteStdout = new int[ns], suiteStderr = new int[ns], suiteCases = new int[ns];
+
+            int nc = 0;
+            for (SuiteResult s : suites)
+                nc += s.getCases().size();
+            int[] caseClassName = new int[nc], caseTestName = new int[nc];
+            float[] caseDuration = new float[nc];
+            byte[] caseFlags = new byte[nc];
+            int[] caseFailedSince = new int[nc];
+            int[] caseErrorStackTrace = new int[nc], caseErrorDetails = new int[nc], caseStdout = new int[nc], caseStderr = new int[nc];
+
+            int c = 0;
+            for (int s=0; s<ns; s++) {
+                SuiteResult sr = suites.get(s);
+                suiteName[s] = string(sr.getName());
+                suiteFile[s] = string(sr.getFile());
+                suiteTimestamp[s] = string(sr.getTimestamp());
+                suiteId[s] = string(sr.getId());
+                suiteDuration[s] = sr.getDuration();
+                suiteStdout[s] = blob(sr.getStdout());
+                suiteStderr[s] = blob(sr.getStderr());
+                suiteCases[s] = sr.getCases().size();
+
+                for (CaseResult cr : sr.getCases()) {
+                    caseClassName[c] = string(cr.getClassName());
+                    caseTestName[c] = string(cr.getName());
+                    caseDuration[c] = cr.getDuration();
+                    caseFlags[c] = cr.isSkipped() ? SKIPPED : 0;
+                    caseFailedSince[c] = cr.getFailedSince();
+                    caseErrorStackTrace[c] = blob(cr.getErrorStackTrace());
+                    caseErrorDetails[c] = blob(cr.getErrorDetails());
+                    // CaseResult.getStdout() falls back to the suite, so we need the field
+                    caseStdout[c] = blob(cr.getOwnStdout());
+                    caseStderr[c] = blob(cr.getOwnStderr());
+                    c++;
+                }
+            }
+
+            long indexOffset = counter.getByteCount();
+
+            out.writeBoolean(result.isKeepLongStdio());
+            out.writeFloat(result.getDuration());
+
+            out.writeInt(strings.size());
+            for (String s : strings) {
+                byte[] buf = s.getBytes(UTF8);
+                out.writeInt(buf.length);
+                out.write(buf);
+            }
+
+            out.writeInt(blobs.size());
+            for (long[] b : blobs) {
+                out.writeLong(b[0]);
+                out.writeInt((int)b[1]);
+            }
+
+            out.writeInt(ns);
+            writeInts(suiteName);
+            writeInts(suiteFile);
+            writeInts(suiteTimestamp);
+            writeInts(suiteId);
+            writeFloats(suiteDuration);
+            writeInts(suiteStdout);
+            writeInts(suiteStderr);
+            writeInts(suiteCases);
+
+            out.writeInt(nc);
+            writeInts(caseClassName);
+            writeInts(caseTestName);
+            writeFloats(caseDuration);
+            out.write(caseFlags);
+            writeInts(caseFailedSince);
+            writeInts(caseErrorStackTrace);
+            writeInts(caseErrorDetails);
+            writeInts(caseStdout);
+            writeInts(caseStderr);
+
+            out.writeLong(indexOffset);
+            out.flush();
+        }
+
+        private int string(String s) {
+            if (s==null)    return -1;
+            Integer i = stringIndex.get(s);
+            if (i==null) {
+                i = strings.size();
+                strings.add(s);
+                stringIndex.put(s,i);
+            }
+            return i;
+        }
+
+        private int blob(String s) throws IOException {
+            if (s==null)    return -1;
+            byte[] buf = s.getBytes(UTF8);
+            blobs.add(new long[] {counter.getByteCount(), buf.length});
+            out.write(buf);
+            return blobs.size()-1;
+        }
+
+        private void writeInts(int[] values) throws IOException {
+            for (int v : values)
+                out.writeInt(v);
+        }
+
+        private void writeFloats(float[] values) throws IOException {
+            for (float v : values)
+                out.writeFloat(v);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in, int n) throws IOException {
+        int[] r = new int[n];
+        for (int i=0; i<n; i++)
+            r[i] = in.readInt();
+        return r;
+    }
+
+    private static float[] readFloats(DataInputStream in, int n) throws IOException {
+        float[] r = new float[n];
+        for (int i=0; i<n; i++)
+            r[i] = in.readFloat();
+        return r;
+    }
+
+    private static void skipFully(InputStream in, long n) throws IOException {
+        while (n>0) {
+            long skipped = in.skip(n);
+            if (skipped<=0)
+                throw new EOFException();
+            n -= skipped;
+        }
+    }
+
+    private static final int MAGIC = 0x4A555452; // "JUTR"
+    private static final int VERSION = 1;
+
+    private static final byte SKIPPED = 1;
+
+    /**
+     * Returned by {@link #indexOf(String)} for strings that aren't in the store at all.
+     */
+    private static final int MISSING = -2;
+
+    private static final String UTF8 = "UTF-8";
+}
@@ -0,0 +1,140 @@
+package hudson.triggers;
+
+import hudson.model.AbstractProject;
+import hudson.scheduler.CronTab;
+import hudson.util.TimeUnit2;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps {@link Trigger}s in the order of the time they fire next, so that {@link Trigger.Cron}
+ * only needs to look at triggers that are due, as opposed to all the triggers of all the jobs every minute.
+ *
+ * <p>
+ * Triggers are added when they {@linkplain Trigger#start(hudson.model.Item, boolean) start},
+ * and removed when they {@linkplain Trigger#stop() stop} or their job is deleted. Since not all the code
+ * paths that discard triggers stop them, {@link Trigger.Cron} also removes the ones that are no longer
+ * attached to a live job when they come due.
+ *
+ * <p>
+ * Times are expressed in milliseconds, truncated to the minute, which is the granularity of {@link CronTab}.
+ */
+final class CronIndex {
+    private final PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+
+    /**
+     * Current {@link Entry} of each trigger, which is the only entry of the trigger in {@link #queue}.
+     */
+    private final Map<Trigger<?>,Entry> entries = new IdentityHashMap<Trigger<?>,Entry>();
+
+    /**
+     * The minute {@link #due(Calendar)} will be called for next.
+     */
+    private long cursor;
+
+    CronIndex(Calendar start) {
+        cursor = minuteOf(start);
+    }
+
+    /**
+     * Adds the trigger, or updates its next firing time if it's already indexed.
+     */
+    synchronized void add(Trigger<?> t) {
+        if (t.tabs==null || !(t.job instanceof AbstractProject))
+            return;     // the cron only looks at projects
+        schedule(t,cursor);
+    }
+
+    synchronized void remove(Trigger<?> t) {
+        Entry e = entries.remove(t);
+        if (e!=null)
+            queue.remove(e);
+    }
+
+    /**
+     * Number of indexed triggers.
+     */
+    synchronized int size() {
+        assert queue.size()==entries.size();
+        return entries.size();
+    }
+
+    /**
+     * Gets the triggers that may fire at the minute of the given calendar, and moves them to their next firing time.
+     *
+     * <p>
+     * This must be called for every minute in the ascending order. The caller still needs to
+     * {@linkplain hudson.scheduler.CronTabList#check(Calendar) check} the returned triggers,
+     * as some of them are only due for recomputing their next firing time.
+     */
+    synchronized List<Trigger<?>> due(Calendar cal) {
+        long now = minuteOf(cal);
+        cursor = now+MIN;
+
+        List<Trigger<?>> r = new ArrayList<Trigger<?>>();
+        while (!queue.isEmpty() && queue.peek().next<=now) {
+            Entry e = queue.poll();
+            entries.remove(e.trigger);
+            r.add(e.trigger);
+            schedule(e.trigger,cursor);
+        }
+        return r;
+    }
+
+    private void schedule(Trigger<?> t, long from) {
+        long limit = from+HORIZON;
+        long next;
+        try {
+            Calendar c = t.tabs.ceil(from,limit);
+            // if nothing matches in the horizon, come back at the horizon and look further
+            next = c!=null ? minuteOf(c) : limit;
+        } catch (RuntimeException x) {
+            // shouldn't happen, but be defensive since the failure would stop the trigger forever
+            LOGGER.log(Level.WARNING, "Failed to compute the next firing time of "+t+" in "+t.job, x);
+            next = from;
+        }
+        Entry e = new Entry(t,Math.max(next,from));
+        Entry old = entries.put(t,e);
+        if (old!=null)
+            queue.remove(old);
+        queue.add(e);
+    }
+
+    private static long minuteOf(Calendar cal) {
+        Calendar c = (Calendar)cal.clone();
+        c.set(Calendar.SECOND,0);
+        c.set(Calendar.MILLISECOND,0);
+        return c.getTimeInMillis();
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final Trigger<?> trigger;
+        final long next;
+
+        Entry(Trigger<?> trigger, long next) {
+            this.trigger = trigger;
+            this.next = next;
+        }
+
+        public int compareTo(Entry that) {
+            return this.next<that.next ? -1 : this.next==that.next ? 0 : 1;
+        }
+    }
+
+    /**
+     * How far in the future we look for the next firing time. Crontabs that fire less often than this
+     * (like "0 0 29 2 *") are revisited at this interval.
+     */
+    private static final long HORIZON = TimeUnit2.DAYS.toMillis(366);
+
+    private static final long MIN = TimeUnit2.MINUTES.toMillis(1);
+
+    private static final Logger LOGGER = Logger.getLogger(CronIndex.class.getName());
+}
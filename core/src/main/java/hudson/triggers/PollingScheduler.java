@@ -0,0 +1,450 @@
+package hudson.triggers;
+
+import hudson.model.Api;
+import hudson.model.SCMedItem;
+import hudson.scheduler.Hash;
+import hudson.scm.SCM;
+import hudson.triggers.SCMTrigger.Runner;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Schedules the polling activities of {@link SCMTrigger}s.
+ *
+ * <p>
+ * Like {@link hudson.util.SequentialExecutionQueue} that this replaces, no two threads poll the same job at once,
+ * and requests for a job whose polling hasn't started yet are combined into one. In addition,
+ *
+ * <ul>
+ * <li>
+ * Periodic polling requests are delayed by a random but stable amount of time per job (up to {@link #SPREAD}),
+ * so that jobs whose crontab fire at the same minute don't all hit their servers at once.
+ * <li>
+ * Periodic polling requests for a job that's being polled are dropped, as the polling in progress
+ * will pick up the changes anyway. Explicit requests, such as commit notifications, are carried out
+ * once the current polling completes.
+ * <li>
+ * The number of concurrent polling activities against the same {@linkplain SCM#getPollingHost() server} can be capped,
+ * in addition to the overall cap imposed by the size of the thread pool.
+ * </ul>
+ *
+ * <p>
+ * The queue depth and the latency are exposed to the remote API.
+ *
+ * @since 1.475
+ */
+@ExportedBean
+public final class PollingScheduler {
+    /**
+     * Jobs that are either waiting for polling or being polled.
+     */
+    private final Map<SCMedItem,Entry> entries = new HashMap<SCMedItem,Entry>();
+
+    /**
+     * Servers that have polling activities.
+     */
+    private final Map<String,Host> hosts = new HashMap<String,Host>();
+
+    private ExecutorService executors;
+
+    /**
+     * Max number of concurrent polling activities per server. 0 for unbounded.
+     */
+    private int maxPerHost;
+
+    private long requests, coalesced, skipped, completed;
+    private long totalWait, maxWait, totalDuration, maxDuration;
+
+    public PollingScheduler(ExecutorService executors) {
+        this.executors = executors;
+    }
+
+    /**
+     * Gets the base underlying executors.
+     */
+    public synchronized ExecutorService getExecutors() {
+        return executors;
+    }
+
+    /**
+     * Starts using a new {@link ExecutorService} to carry out executions.
+     *
+     * <p>
+     * The older {@link ExecutorService} will be shut down, but it's still expected to
+     * complete whatever they are doing and scheduled.
+     */
+    public synchronized void setExecutors(ExecutorService svc) {
+        ExecutorService old = this.executors;
+        this.executors = svc;
+        old.shutdown();
+    }
+
+    public synchronized int getMaxPerHost() {
+        return maxPerHost;
+    }
+
+    /**
+     * Sets the max number of concurrent polling activities against the same server.
+     *
+     * @param n
+     *      0 for unbounded.
+     */
+    public synchronized void setMaxPerHost(int n) {
+        maxPerHost = n;
+        for (Host h : new ArrayList<Host>(hosts.values()))
+            drain(h);
+    }
+
+    /**
+     * Requests polling.
+     *
+     * @param periodic
+     *      True if this request comes from the crontab of the trigger, as opposed to explicit requests like
+     *      commit notifications. Periodic requests are spread over time, and dropped if the job is being polled.
+     */
+    public void schedule(Runner r, boolean periodic) {
+        // this calls into the SCM plugin, so do it before we take the lock
+        String host = hostOf(r.getTarget());
+        synchronized (this) {
+            schedule(r,periodic,host);
+        }
+    }
+
+    private void schedule(Runner r, boolean periodic, String host) {
+        requests++;
+        SCMedItem job = r.getTarget();
+
+        Entry e = entries.get(job);
+        if (e!=null) {
+            if (e.state==State.RUNNING) {
+                if (periodic) {
+                    skipped++;
+                } else {
+                    e.followUp = r;
+                    e.followUpHost = host;
+                    coalesced++;
+                }
+                return;
+            }
+
+            // the polling hasn't started yet, so just combine them
+            coalesced++;
+            if (!periodic) {
+                e.runner = r;   // the explicit one may carry actions
+                if (e.state==State.DELAYED)
+                    ready(e);
+            }
+            return;
+        }
+
+        e = new Entry(job,r,host);
+        entries.put(job,e);
+
+        long delay = periodic ? delayOf(job) : 0;
+        if (delay>0 && Trigger.scheduler!=null) {
+            final Entry x = e;
+            Trigger.scheduler.schedule(new SafeTimerTask() {
+                protected void doRun() {
+                    synchronized (PollingScheduler.this) {
+                        if (x.state==State.DELAYED)
+                            ready(x);
+                    }
+                }
+            },delay);
+        } else {
+            ready(e);
+        }
+    }
+
+    /**
+     * Computes the delay of periodic polling for the given job.
+     */
+    private long delayOf(SCMedItem job) {
+        if (SPREAD<=0)  return 0;
+        return Hash.from(job.getFullName()).next((int)Math.min(SPREAD,Integer.MAX_VALUE));
+    }
+
+    private String hostOf(SCMedItem job) {
+        try {
+            SCM scm = job.getScm();
+            return scm!=null ? scm.getPollingHost() : null;
+        } catch (RuntimeException x) {
+            // SCM is a plugin. don't let that stop the polling of everyone else
+            LOGGER.log(Level.WARNING, "Failed to determine the polling host of "+job,x);
+            return null;
+        }
+    }
+
+    /**
+     * Makes the entry eligible for execution, and executes it if the server allows.
+     */
+    private void ready(Entry e) {
+        e.state = State.READY;
+        e.readyTime = System.currentTimeMillis();
+
+        Host h = hosts.get(e.host);
+        if (h==null)
+            hosts.put(e.host,h=new Host(e.host));
+        h.waiting.add(e);
+        drain(h);
+    }
+
+    /**
+     * Dispatches waiting entries of the given server as long as its limit allows.
+     */
+    private void drain(Host h) {
+        while (!h.waiting.isEmpty() && (h.name==null || maxPerHost<=0 || h.running<maxPerHost)) {
+            Entry e = h.waiting.removeFirst();
+            e.state = State.RUNNING;
+            h.running++;
+            try {
+                executors.submit(e);
+            } catch (RejectedExecutionException x) {
+                // undo the dispatch and drop the request, so that the next request of this job starts afresh
+                // instead of being combined into an entry that never runs
+                LOGGER.log(Level.WARNING, "Failed to start polling "+e.job, x);
+                h.running--;
+                entries.remove(e.job);
+            }
+        }
+        if (h.waiting.isEmpty() && h.running==0)
+            hosts.remove(h.name);
+    }
+
+    private void finished(Entry e) {
+        long now = System.currentTimeMillis();
+        long duration = now-e.startTime;
+        completed++;
+        totalDuration += duration;
+        maxDuration = Math.max(maxDuration,duration);
+
+        Host h = hosts.get(e.host);
+        h.running--;
+
+        if (e.followUp!=null) {
+            // another polling for this job is requested while we were doing the polling. do it again.
+            e.runner = e.followUp;
+            e.host = e.followUpHost;
+            e.followUp = null;
+            e.followUpHost = null;
+            e.started = false;
+            ready(e);
+        } else {
+            entries.remove(e.job);
+        }
+        drain(h);
+    }
+
+    /**
+     * Returns true if too much time is spent since some polling became ready until it started executing.
+     */
+    public synchronized boolean isStarving(long threshold) {
+        long now = System.currentTimeMillis();
+        for (Entry e : entries.values())
+            if (e.state!=State.DELAYED && !e.started && now-e.readyTime > threshold)
+                return true;
+        return false;
+    }
+
+    /**
+     * Gets {@link Runner}s that are currently executed by a live thread.
+     */
+    public synchronized List<Runner> getInProgress() {
+        List<Runner> r = new ArrayList<Runner>();
+        for (Entry e : entries.values())
+            if (e.started)
+                r.add(e.runner);
+        return r;
+    }
+
+    /**
+     * Number of polling activities that are waiting for their spread delay to pass.
+     */
+    @Exported
+    public synchronized int getDelayed() {
+        int n=0;
+        for (Entry e : entries.values())
+            if (e.state==State.DELAYED)
+                n++;
+        return n;
+    }
+
+    /**
+     * Number of polling activities that are ready but not yet started, because of the limits.
+     */
+    @Exported
+    public synchronized int getQueueLength() {
+        int n=0;
+        for (Entry e : entries.values())
+            if (e.state!=State.DELAYED && !e.started)
+                n++;
+        return n;
+    }
+
+    /**
+     * Number of polling activities in progress.
+     */
+    @Exported
+    public synchronized int getInFlight() {
+        int n=0;
+        for (Entry e : entries.values())
+            if (e.started)
+                n++;
+        return n;
+    }
+
+    /**
+     * Number of polling requests received.
+     */
+    @Exported
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    /**
+     * Number of polling requests that were combined with another request of the same job.
+     */
+    @Exported
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * Number of periodic polling requests that were dropped because the job was being polled.
+     */
+    @Exported
+    public synchronized long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Number of polling activities completed.
+     */
+    @Exported
+    public synchronized long getCompleted() {
+        return completed;
+    }
+
+    /**
+     * Average time polling activities waited from being ready until they started, in milliseconds.
+     */
+    @Exported
+    public synchronized long getAverageWait() {
+        long started = completed+getInFlight();
+        return started==0 ? 0 : totalWait/started;
+    }
+
+    /**
+     * Longest time a polling activity waited from being ready until it started, in milliseconds.
+     */
+    @Exported
+    public synchronized long getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * Average duration of polling activities, in milliseconds.
+     */
+    @Exported
+    public synchronized long getAverageDuration() {
+        return completed==0 ? 0 : totalDuration/completed;
+    }
+
+    /**
+     * Longest duration of a polling activity, in milliseconds.
+     */
+    @Exported
+    public synchronized long getMaxDuration() {
+        return maxDuration;
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    private enum State {
+        /**
+         * Waiting for the spread delay.
+         */
+        DELAYED,
+        /**
+         * Waiting for the server to become available.
+         */
+        READY,
+        /**
+         * Submitted to the executors. See {@link Entry#started} for whether a thread has picked it up.
+         */
+        RUNNING
+    }
+
+    private static final class Host {
+        /**
+         * {@link SCM#getPollingHost()}. Null for unknown ones, which aren't limited.
+         */
+        private final String name;
+        private int running;
+        private final LinkedList<Entry> waiting = new LinkedList<Entry>();
+
+        private Host(String name) {
+            this.name = name;
+        }
+    }
+
+    private final class Entry implements Runnable {
+        private final SCMedItem job;
+        private Runner runner;
+        /**
+         * Explicit request made while the polling is in progress.
+         */
+        private Runner followUp;
+        private State state = State.DELAYED;
+        private boolean started;
+        /**
+         * {@link SCM#getPollingHost()}, determined when the request was made.
+         */
+        private String host, followUpHost;
+        private long readyTime, startTime;
+
+        private Entry(SCMedItem job, Runner runner, String host) {
+            this.job = job;
+            this.runner = runner;
+            this.host = host;
+        }
+
+        public void run() {
+            Runner r;
+            synchronized (PollingScheduler.this) {
+                started = true;
+                startTime = System.currentTimeMillis();
+                long wait = startTime-readyTime;
+                totalWait += wait;
+                maxWait = Math.max(maxWait,wait);
+                r = runner;
+            }
+            try {
+                r.run();
+            } finally {
+                synchronized (PollingScheduler.this) {
+                    finished(this);
+                }
+            }
+        }
+    }
+
+    /**
+     * Periodic polling is spread over this many milliseconds.
+     */
+    public static long SPREAD = Long.getLong(PollingScheduler.class.getName()+".spread", 60*1000);
+
+    private static final Logger LOGGER = Logger.getLogger(PollingScheduler.class.getName());
+}
@@ -40,7 +40,6 @@ import hudson.util.FlushProofOutputStream;
 import hudson.util.FormValidation;
 import hudson.util.StreamTaskListener;
 import hudson.util.TimeUnit2;
-import hudson.util.SequentialExecutionQueue;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.jelly.XMLOutput;
 import org.kohsuke.stapler.StaplerRequest;
@@ -91,6 +90,21 @@ public class SCMTrigger extends Trigger<SCMedItem> {
      * @since 1.375
      */
     public void run(Action[] additionalActions) {
+        run(additionalActions,false);
+    }
+
+    /**
+     * Called by {@link Trigger.Cron} when the crontab fires.
+     *
+     * <p>
+     * Unlike explicit requests, these are spread over time and dropped if the job is already being polled.
+     * See {@link PollingScheduler}.
+     */
+    /*package*/ void runPeriodically() {
+        run(null,true);
+    }
+
+    private void run(Action[] additionalActions, boolean periodic) {
         if(Jenkins.getInstance().isQuietingDown())
             return; // noop
 
@@ -106,7 +120,7 @@ public class SCMTrigger extends Trigger<SCMedItem> {
             // even if we end up submitting this too many times, that's OK.
             // the real exclusion control happens inside Runner.
         	LOGGER.fine("scheduling the trigger to (asynchronously) run");
-            d.queue.execute(new Runner(additionalActions));
+            d.scheduler.schedule(new Runner(additionalActions),periodic);
             d.clogCheck();
         }
     }
@@ -133,12 +147,12 @@ public class SCMTrigger extends Trigger<SCMedItem> {
         /**
          * Used to control the execution of the polling tasks.
          * <p>
-         * This executor implementation has a semantics suitable for polling. Namely, no two threads will try to poll the same project
+         * This scheduler has a semantics suitable for polling. Namely, no two threads will try to poll the same project
          * at once, and multiple polling requests to the same job will be combined into one. Note that because executor isn't aware
          * of a potential workspace lock between a build and a polling, we may end up using executor threads unwisely --- they
          * may block.
          */
-        private transient final SequentialExecutionQueue queue = new SequentialExecutionQueue(Executors.newSingleThreadExecutor());
+        private transient final PollingScheduler scheduler = new PollingScheduler(Executors.newSingleThreadExecutor());
 
         /**
          * Whether the projects should be polled all in one go in the order of dependencies. The default behavior is
@@ -152,6 +166,12 @@ public class SCMTrigger extends Trigger<SCMedItem> {
          */
         private int maximumThreads;
 
+        /**
+         * Max number of concurrent polling activities against the same server.
+         * 0 for unbounded.
+         */
+        private int maximumThreadsPerHost;
+
         public DescriptorImpl() {
             load();
             resizeThreadPool();
@@ -162,7 +182,16 @@ public class SCMTrigger extends Trigger<SCMedItem> {
         }
 
         public ExecutorService getExecutor() {
-            return queue.getExecutors();
+            return scheduler.getExecutors();
+        }
+
+        /**
+         * Gets the scheduler of the polling activities, which also exposes the queue depth and the latency.
+         *
+         * @since 1.475
+         */
+        public PollingScheduler getScheduler() {
+            return scheduler;
         }
 
         /**
@@ -170,7 +199,7 @@ public class SCMTrigger extends Trigger<SCMedItem> {
          * than it can handle.
          */
         public boolean isClogged() {
-            return queue.isStarving(STARVATION_THRESHOLD);
+            return scheduler.isStarving(STARVATION_THRESHOLD);
         }
 
         /**
@@ -185,7 +214,7 @@ public class SCMTrigger extends Trigger<SCMedItem> {
          * Gets the snapshot of {@link Runner}s that are performing polling.
          */
         public List<Runner> getRunners() {
-            return Util.filter(queue.getInProgress(),Runner.class);
+            return scheduler.getInProgress();
         }
 
         /**
@@ -226,12 +255,36 @@ public class SCMTrigger extends Trigger<SCMedItem> {
             resizeThreadPool();
         }
 
+        /**
+         * Gets the number of concurrent polling activities against the same server.
+         *
+         * @return
+         *      0 if unlimited.
+         * @since 1.475
+         */
+        public int getPollingThreadCountPerHost() {
+            return maximumThreadsPerHost;
+        }
+
+        /**
+         * Sets the number of concurrent polling activities against the same server.
+         * @param n number of concurrent polling, zero or less means unlimited
+         * @since 1.475
+         */
+        public void setPollingThreadCountPerHost(int n) {
+            if(n<0)     n=0;
+
+            maximumThreadsPerHost = n;
+            scheduler.setMaxPerHost(n);
+        }
+
         /**
          * Update the {@link ExecutorService} instance.
          */
         /*package*/ synchronized void resizeThreadPool() {
-            queue.setExecutors(
+            scheduler.setExecutors(
                     (maximumThreads==0 ? Executors.newCachedThreadPool() : Executors.newFixedThreadPool(maximumThreads)));
+            scheduler.setMaxPerHost(maximumThreadsPerHost);
         }
 
         @Override
@@ -242,6 +295,12 @@ public class SCMTrigger extends Trigger<SCMedItem> {
             else
                 setPollingThreadCount(Integer.parseInt(t));
 
+            t = json.optString("pollingThreadCountPerHost",null);
+            if(t==null || t.length()==0)
+                setPollingThreadCountPerHost(0);
+            else
+                setPollingThreadCountPerHost(Integer.parseInt(t));
+
             // Save configuration
             save();
 
@@ -253,6 +312,10 @@ public class SCMTrigger extends Trigger<SCMedItem> {
                 return FormValidation.ok();
             return FormValidation.validateNonNegativeInteger(value);
         }
+
+        public FormValidation doCheckPollingThreadCountPerHost(@QueryParameter String value) {
+            return doCheckPollingThreadCount(value);
+        }
     }
 
     @Extension
@@ -471,7 +534,7 @@ public class SCMTrigger extends Trigger<SCMedItem> {
             return job;
         }
 
-        // as per the requirement of SequentialExecutionQueue, value equality is necessary
+        // two runners for the same job are the same polling activity
         @Override
         public boolean equals(Object that) {
             return that instanceof Runner && job()==((Runner)that).job();
@@ -38,14 +38,18 @@ import hudson.security.ACL;
  * won't terminate the timer.
  *
  * <p>
- * {@link Trigger#timer} is a shared timer instance that can be used inside Hudson to
- * schedule a recurring work.
+ * {@link Trigger#scheduler} is a shared thread pool that can be used inside Hudson to
+ * schedule a recurring work. {@link Trigger#timer} is a shared timer instance that does the same
+ * in a single thread. See {@link #isConcurrent()} for how tasks share the pool.
  *
  * @author Kohsuke Kawaguchi
  * @since 1.124
  * @see Trigger#timer
+ * @see Trigger#scheduler
  */
 public abstract class SafeTimerTask extends TimerTask {
+    private volatile boolean cancelled;
+
     public final void run() {
         // background activity gets system credential,
         // just like executors get it.
@@ -61,5 +65,33 @@ public abstract class SafeTimerTask extends TimerTask {
 
     protected abstract void doRun() throws Exception;
 
+    /**
+     * Cancels this task, whether it's scheduled on {@link Trigger#timer} or {@link Trigger#scheduler}.
+     */
+    @Override
+    public boolean cancel() {
+        cancelled = true;
+        return super.cancel();
+    }
+
+    /*package*/ boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Whether this task can run at the same time as other tasks on {@link Trigger#scheduler}.
+     *
+     * <p>
+     * Tasks used to run one at a time on {@link Trigger#timer}, and many of them update state that they share
+     * with other tasks without any synchronization. So by default, {@link Trigger#scheduler} still runs them
+     * one at a time, on a thread of its own. Override this method to return true if this task
+     * can safely run alongside others, so that it neither waits for them nor holds them up.
+     *
+     * @since 1.475
+     */
+    protected boolean isConcurrent() {
+        return false;
+    }
+
     private static final Logger LOGGER = Logger.getLogger(SafeTimerTask.class.getName());
 }
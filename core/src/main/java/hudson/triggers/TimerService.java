@@ -0,0 +1,319 @@
+package hudson.triggers;
+
+import hudson.model.Api;
+import hudson.model.AperiodicWork;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.PeriodicWork;
+import hudson.util.DaemonThreadFactory;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of threads that runs {@link PeriodicWork}s, {@link AperiodicWork}s, and other {@link SafeTimerTask}s.
+ *
+ * <p>
+ * {@link Trigger#timer} runs everything in one thread, so one slow task delays all the others.
+ * This runs tasks that {@linkplain SafeTimerTask#isConcurrent() declare themselves safe to do so} on a
+ * {@link ScheduledThreadPoolExecutor} instead. All the other tasks still run one at a time on a single thread,
+ * as they did on {@link Trigger#timer}, since they may share unsynchronized state with each other.
+ * Either way, this keeps track of how long each kind of task takes, so that the slow ones can be spotted.
+ * Work that routinely takes long should still be an {@link AsyncPeriodicWork}, which runs in its own thread
+ * and only occupies the pool to get started.
+ *
+ * <p>
+ * {@link SafeTimerTask}s can be scheduled here as they are. {@link SafeTimerTask#cancel()} works as it does
+ * with {@link java.util.Timer}.
+ *
+ * @since 1.475
+ * @see Trigger#scheduler
+ */
+@ExportedBean
+public final class TimerService {
+    private final ScheduledThreadPoolExecutor executor;
+
+    /**
+     * Runs the tasks that aren't {@linkplain SafeTimerTask#isConcurrent() concurrent}, one at a time.
+     */
+    private final ScheduledThreadPoolExecutor serial;
+
+    /**
+     * Statistics keyed by the task class name.
+     */
+    private final ConcurrentMap<String,TaskStatistics> statistics = new ConcurrentHashMap<String,TaskStatistics>();
+
+    public TimerService(final String name, int poolSize) {
+        final AtomicInteger n = new AtomicInteger();
+        executor = new ScheduledThreadPoolExecutor(poolSize, new DaemonThreadFactory(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                return new Thread(r, name+" ["+n.incrementAndGet()+"]");
+            }
+        }));
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
+
+        serial = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                return new Thread(r, name);
+            }
+        }));
+        serial.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        serial.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
+    }
+
+    private ScheduledThreadPoolExecutor executorFor(SafeTimerTask task) {
+        return task.isConcurrent() ? executor : serial;
+    }
+
+    /**
+     * Runs the task once after the given delay.
+     *
+     * @param delay
+     *      in milliseconds.
+     */
+    public ScheduledFuture<?> schedule(SafeTimerTask task, long delay) {
+        Wrapper w = new Wrapper(task,0);
+        w.future = executorFor(task).schedule(w, delay, TimeUnit.MILLISECONDS);
+        return w.future;
+    }
+
+    /**
+     * Runs the task repeatedly with the given delay between the end of one execution and the start of the next,
+     * like {@link java.util.Timer#schedule(java.util.TimerTask, long, long)}.
+     *
+     * @param delay
+     *      until the first execution, in milliseconds.
+     * @param period
+     *      in milliseconds.
+     */
+    public ScheduledFuture<?> schedule(SafeTimerTask task, long delay, long period) {
+        Wrapper w = new Wrapper(task,period);
+        w.future = executorFor(task).scheduleWithFixedDelay(w, delay, period, TimeUnit.MILLISECONDS);
+        return w.future;
+    }
+
+    /**
+     * Runs the task repeatedly with the given period, like {@link java.util.Timer#scheduleAtFixedRate(java.util.TimerTask, long, long)}.
+     * If an execution takes longer than the period, the next one starts late, but never concurrently.
+     *
+     * @param delay
+     *      until the first execution, in milliseconds.
+     * @param period
+     *      in milliseconds.
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(SafeTimerTask task, long delay, long period) {
+        Wrapper w = new Wrapper(task,period);
+        w.future = executorFor(task).scheduleAtFixedRate(w, delay, period, TimeUnit.MILLISECONDS);
+        return w.future;
+    }
+
+    /**
+     * Discards all the scheduled tasks. Tasks that are running are allowed to complete.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        serial.shutdown();
+    }
+
+    /**
+     * Max number of concurrent tasks that can run at the same time,
+     * in addition to the one thread that runs the others.
+     */
+    @Exported
+    public int getPoolSize() {
+        return executor.getCorePoolSize();
+    }
+
+    /**
+     * Number of tasks running right now.
+     */
+    @Exported
+    public int getActiveCount() {
+        return executor.getActiveCount()+serial.getActiveCount();
+    }
+
+    /**
+     * Number of tasks waiting for their next execution.
+     */
+    @Exported
+    public int getScheduledCount() {
+        return executor.getQueue().size()+serial.getQueue().size();
+    }
+
+    /**
+     * Statistics of each kind of task, the slowest first.
+     */
+    @Exported(inline=true)
+    public List<TaskStatistics> getTasks() {
+        List<TaskStatistics> r = new ArrayList<TaskStatistics>(statistics.values());
+        Collections.sort(r,new Comparator<TaskStatistics>() {
+            public int compare(TaskStatistics o1, TaskStatistics o2) {
+                long l = o2.getTotalTime()-o1.getTotalTime();
+                return l<0 ? -1 : l>0 ? 1 : 0;
+            }
+        });
+        return r;
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    private TaskStatistics statisticsOf(SafeTimerTask task) {
+        String name = task.getClass().getName();
+        TaskStatistics s = statistics.get(name);
+        if (s==null) {
+            TaskStatistics x = statistics.putIfAbsent(name, s=new TaskStatistics(name));
+            if (x!=null)    s=x;
+        }
+        return s;
+    }
+
+    /**
+     * Measures each execution, and takes care of {@link SafeTimerTask#cancel()}.
+     */
+    private final class Wrapper implements Runnable {
+        private final SafeTimerTask task;
+        private final long period;
+        private final TaskStatistics stats;
+        private volatile ScheduledFuture<?> future;
+
+        Wrapper(SafeTimerTask task, long period) {
+            this.task = task;
+            this.period = period;
+            this.stats = statisticsOf(task);
+        }
+
+        public void run() {
+            if (task.isCancelled()) {
+                cancel();
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            try {
+                task.run();
+            } finally {
+                long duration = System.currentTimeMillis()-start;
+                stats.record(start,duration,period);
+                if (duration>SLOW_TASK_THRESHOLD)
+                    LOGGER.log(Level.WARNING, "{0} took {1}ms, holding up a timer thread. Long-running work should be done asynchronously",
+                            new Object[]{task.getClass().getName(),duration});
+            }
+
+            if (task.isCancelled())
+                cancel();
+        }
+
+        private void cancel() {
+            ScheduledFuture<?> f = future;
+            if (f!=null)
+                f.cancel(false);
+        }
+    }
+
+    /**
+     * How long each kind of task takes.
+     */
+    @ExportedBean(defaultVisibility=2)
+    public static final class TaskStatistics {
+        private final String name;
+        private long runs, overruns, totalTime, maxTime, lastRun, lastDuration;
+
+        TaskStatistics(String name) {
+            this.name = name;
+        }
+
+        private synchronized void record(long start, long duration, long period) {
+            runs++;
+            if (period>0 && duration>period)
+                overruns++;
+            totalTime += duration;
+            maxTime = Math.max(maxTime,duration);
+            lastRun = start;
+            lastDuration = duration;
+        }
+
+        /**
+         * Class name of the task.
+         */
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        @Exported
+        public synchronized long getRuns() {
+            return runs;
+        }
+
+        /**
+         * Number of executions of periodic tasks that took longer than the period, and thus delayed the next one.
+         */
+        @Exported
+        public synchronized long getOverruns() {
+            return overruns;
+        }
+
+        /**
+         * Total time spent in milliseconds.
+         */
+        @Exported
+        public synchronized long getTotalTime() {
+            return totalTime;
+        }
+
+        @Exported
+        public synchronized long getAverageTime() {
+            return runs==0 ? 0 : totalTime/runs;
+        }
+
+        @Exported
+        public synchronized long getMaxTime() {
+            return maxTime;
+        }
+
+        /**
+         * When the task last started, in milliseconds since the epoch.
+         */
+        @Exported
+        public synchronized long getLastRun() {
+            return lastRun;
+        }
+
+        public synchronized Date getLastRunDate() {
+            return new Date(lastRun);
+        }
+
+        @Exported
+        public synchronized long getLastDuration() {
+            return lastDuration;
+        }
+    }
+
+    /**
+     * Number of threads of the pool Jenkins creates.
+     */
+    public static int POOL_SIZE = Integer.getInteger(TimerService.class.getName()+".poolSize", 10);
+
+    /**
+     * Tasks that take longer than this many milliseconds are reported.
+     */
+    public static long SLOW_TASK_THRESHOLD = Long.getLong(TimerService.class.getName()+".slowTaskThreshold", 60*1000);
+
+    private static final Logger LOGGER = Logger.getLogger(TimerService.class.getName());
+}
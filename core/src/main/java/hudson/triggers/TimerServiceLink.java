@@ -0,0 +1,40 @@
+package hudson.triggers;
+
+import hudson.Extension;
+import hudson.model.Api;
+import hudson.model.ManagementLink;
+
+/**
+ * Shows how long the tasks on {@link Trigger#scheduler} take, from "Manage Jenkins".
+ *
+ * @since 1.475
+ */
+@Extension
+public class TimerServiceLink extends ManagementLink {
+    @Override
+    public String getIconFileName() {
+        return "monitor.png";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "timerTasks";
+    }
+
+    public String getDisplayName() {
+        return Messages.TimerServiceLink_DisplayName();
+    }
+
+    @Override
+    public String getDescription() {
+        return Messages.TimerServiceLink_Description();
+    }
+
+    public TimerService getService() {
+        return Trigger.scheduler;
+    }
+
+    public Api getApi() {
+        return getService().getApi();
+    }
+}
@@ -93,6 +93,10 @@ public abstract class Trigger<J extends Item> implements Describable<Trigger<?>>
             // so if it fails, use whatever 'tabs' that we already have.
             LOGGER.log(Level.FINE, "Failed to parse crontab spec: "+spec,e);
         }
+
+        CronIndex index = Cron.index();
+        if (index!=null)
+            index.add(this);
     }
 
     /**
@@ -112,7 +116,11 @@ public abstract class Trigger<J extends Item> implements Describable<Trigger<?>>
      * When the configuration is changed for a project, all triggers
      * are removed once and then added back.
      */
-    public void stop() {}
+    public void stop() {
+        CronIndex index = Cron.index();
+        if (index!=null)
+            index.remove(this);
+    }
 
     /**
      * Returns an action object if this {@link Trigger} has an action
@@ -195,16 +203,31 @@ public abstract class Trigger<J extends Item> implements Describable<Trigger<?>>
     public static class Cron extends PeriodicWork {
         private final Calendar cal = new GregorianCalendar();
 
+        /**
+         * Triggers in the order of their next firing time, so that each minute we only look at the due ones.
+         */
+        private final CronIndex index = new CronIndex(cal);
+
         public long getRecurrencePeriod() {
             return MIN;
         }
 
+        /**
+         * Triggers run plugin code, and with {@link SCMTrigger.DescriptorImpl#synchronousPolling} this even polls,
+         * so don't make other timer tasks wait for it. It only shares state with itself, and {@link hudson.model.Queue} and
+         * {@link PollingScheduler} that it talks to are thread-safe.
+         */
+        @Override
+        protected boolean isConcurrent() {
+            return true;
+        }
+
         public void doRun() {
             while(new Date().getTime()-cal.getTimeInMillis()>1000) {
                 LOGGER.fine("cron checking "+cal.getTime().toLocaleString());
 
                 try {
-                    checkTriggers(cal);
+                    check(cal);
                 } catch (Throwable e) {
                     LOGGER.log(Level.WARNING,"Cron thread throw an exception",e);
                     // bug in the code. Don't let the thread die.
@@ -214,38 +237,75 @@ public abstract class Trigger<J extends Item> implements Describable<Trigger<?>>
                 cal.add(Calendar.MINUTE,1);
             }
         }
+
+        /**
+         * Does what {@link Trigger#checkTriggers(Calendar)} does, but only for the triggers that are due.
+         */
+        /*package*/ void check(Calendar cal) {
+            SCMTrigger.DescriptorImpl scmd = Jenkins.getInstance().getDescriptorByType(SCMTrigger.DescriptorImpl.class);
+            if (scmd.synchronousPolling)
+                pollSynchronously(scmd);
+
+            for (Trigger t : index.due(cal)) {
+                AbstractProject p = liveProjectOf(t);
+                if (p==null) {
+                    // the job is gone, or the trigger is replaced without being stopped
+                    index.remove(t);
+                    continue;
+                }
+                if (!(t instanceof SCMTrigger && scmd.synchronousPolling) && t.tabs.check(cal))
+                    fire(t,p);
+            }
+        }
+
+        /**
+         * Gets the project of the trigger if the trigger is still attached to a live project, or null.
+         */
+        private AbstractProject liveProjectOf(Trigger t) {
+            if (!(t.job instanceof AbstractProject))
+                return null;
+            AbstractProject p = (AbstractProject) t.job;
+            if (Jenkins.getInstance().getItemByFullName(p.getFullName())!=p)
+                return null;
+            for (Object o : p.getTriggers().values())
+                if (o==t)
+                    return p;
+            return null;
+        }
+
+        /**
+         * Number of triggers Cron keeps track of.
+         */
+        /*package*/ int getIndexSize() {
+            return index.size();
+        }
+
+        /**
+         * Gets the index of the running {@link Cron}, or null if Jenkins isn't running.
+         */
+        /*package*/ static CronIndex index() {
+            Jenkins j = Jenkins.getInstance();
+            if (j==null)    return null;
+            Cron c = j.getExtensionList(PeriodicWork.class).get(Cron.class);
+            return c!=null ? c.index : null;
+        }
     }
 
     private static Future previousSynchronousPolling;
 
+    /**
+     * Checks all the triggers of all the projects against the given time, and runs the matching ones.
+     *
+     * <p>
+     * {@link Cron} no longer does this every minute. It only looks at the triggers that are due.
+     */
     public static void checkTriggers(final Calendar cal) {
         Jenkins inst = Jenkins.getInstance();
 
         // Are we using synchronous polling?
         SCMTrigger.DescriptorImpl scmd = inst.getDescriptorByType(SCMTrigger.DescriptorImpl.class);
-        if (scmd.synchronousPolling) {
-            LOGGER.fine("using synchronous polling");
-
-            // Check that previous synchronous polling job is done to prevent piling up too many jobs
-            if (previousSynchronousPolling == null || previousSynchronousPolling.isDone()) {
-                // Process SCMTriggers in the order of dependencies. Note that the crontab spec expressed per-project is
-                // ignored, only the global setting is honored. The polling job is submitted only if the previous job has
-                // terminated.
-                // FIXME allow to set a global crontab spec
-                previousSynchronousPolling = scmd.getExecutor().submit(new DependencyRunner(new ProjectRunnable() {
-                    public void run(AbstractProject p) {
-                        for (Trigger t : (Collection<Trigger>) p.getTriggers().values()) {
-                            if (t instanceof SCMTrigger) {
-                                LOGGER.fine("synchronously triggering SCMTrigger for project " + t.job.getName());
-                                t.run();
-                            }
-                        }
-                    }
-                }));
-            } else {
-                LOGGER.fine("synchronous polling has detected unfinished jobs, will not trigger additional jobs.");
-            }
-        }
+        if (scmd.synchronousPolling)
+            pollSynchronously(scmd);
 
         // Process all triggers, except SCMTriggers when synchronousPolling is set
         for (AbstractProject<?,?> p : inst.getAllItems(AbstractProject.class)) {
@@ -253,18 +313,48 @@ public abstract class Trigger<J extends Item> implements Describable<Trigger<?>>
                 if (! (t instanceof SCMTrigger && scmd.synchronousPolling)) {
                     LOGGER.fine("cron checking "+p.getName());
 
-                    if (t.tabs.check(cal)) {
-                        LOGGER.config("cron triggered "+p.getName());
-                        try {
+                    if (t.tabs.check(cal))
+                        fire(t,p);
+                }
+            }
+        }
+    }
+
+    private static void pollSynchronously(SCMTrigger.DescriptorImpl scmd) {
+        LOGGER.fine("using synchronous polling");
+
+        // Check that previous synchronous polling job is done to prevent piling up too many jobs
+        if (previousSynchronousPolling == null || previousSynchronousPolling.isDone()) {
+            // Process SCMTriggers in the order of dependencies. Note that the crontab spec expressed per-project is
+            // ignored, only the global setting is honored. The polling job is submitted only if the previous job has
+            // terminated.
+            // FIXME allow to set a global crontab spec
+            previousSynchronousPolling = scmd.getExecutor().submit(new DependencyRunner(new ProjectRunnable() {
+                public void run(AbstractProject p) {
+                    for (Trigger t : (Collection<Trigger>) p.getTriggers().values()) {
+                        if (t instanceof SCMTrigger) {
+                            LOGGER.fine("synchronously triggering SCMTrigger for project " + t.job.getName());
                             t.run();
-                        } catch (Throwable e) {
-                            // t.run() is a plugin, and some of them throw RuntimeException and other things.
-                            // don't let that cancel the polling activity. report and move on.
-                            LOGGER.log(Level.WARNING, t.getClass().getName()+".run() failed for "+p.getName(),e);
                         }
                     }
                 }
-            }
+            }));
+        } else {
+            LOGGER.fine("synchronous polling has detected unfinished jobs, will not trigger additional jobs.");
+        }
+    }
+
+    private static void fire(Trigger t, AbstractProject<?,?> p) {
+        LOGGER.config("cron triggered "+p.getName());
+        try {
+            if (t instanceof SCMTrigger)
+                ((SCMTrigger)t).runPeriodically();
+            else
+                t.run();
+        } catch (Throwable e) {
+            // t.run() is a plugin, and some of them throw RuntimeException and other things.
+            // don't let that cancel the polling activity. report and move on.
+            LOGGER.log(Level.WARNING, t.getClass().getName()+".run() failed for "+p.getName(),e);
         }
     }
 
@@ -280,20 +370,31 @@ public abstract class Trigger<J extends Item> implements Describable<Trigger<?>>
      */
     public static Timer timer;
 
+    /**
+     * Thread pool that runs {@link PeriodicWork}s, {@link AperiodicWork}s and other {@link SafeTimerTask}s.
+     * Tasks that are {@linkplain SafeTimerTask#isConcurrent() concurrent} don't hold up the others
+     * the way they do on {@link #timer}. The rest still run one at a time.
+     *
+     * Initialized and cleaned up by {@link jenkins.model.Jenkins}.
+     *
+     * @since 1.475
+     */
+    public static TimerService scheduler;
+
     @Initializer(after=JOB_LOADED)
     public static void init() {
         new DoubleLaunchChecker().schedule();
 
         // start all PeridocWorks
         for(PeriodicWork p : PeriodicWork.all())
-            timer.scheduleAtFixedRate(p,p.getInitialDelay(),p.getRecurrencePeriod());
+            scheduler.scheduleAtFixedRate(p,p.getInitialDelay(),p.getRecurrencePeriod());
         
         // start all AperidocWorks
         for(AperiodicWork p : AperiodicWork.all())
-            timer.schedule(p,p.getInitialDelay());
+            scheduler.schedule(p,p.getInitialDelay());
 
         // start monitoring nodes, although there's no hurry.
-        timer.schedule(new SafeTimerTask() {
+        scheduler.schedule(new SafeTimerTask() {
             public void doRun() {
                 ComputerSet.initialize();
             }
@@ -27,10 +27,12 @@ import com.trilead.ssh2.crypto.digest.MD5;
 
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Map.Entry;
 
 import hudson.util.Iterators.DuplicateFilterIterator;
 
@@ -52,6 +54,12 @@ import hudson.util.Iterators.DuplicateFilterIterator;
  * as increase/decrease of the replicas.
  *
  * <p>
+ * The ring is kept as a sorted array of points and a parallel array of their owners. Adding or removing
+ * a node merges its points into a copy of the ring, instead of sorting all the points again.
+ * The MD5 hashes of the points are cached across instances, since the same nodes get hashed over and over
+ * again (for example, by {@link hudson.model.LoadBalancer#CONSISTENT_HASH}.)
+ *
+ * <p>
  * See http://en.wikipedia.org/wiki/Consistent_hashing for references, and
  * http://weblogs.java.net/blog/tomwhite/archive/2007/11/consistent_hash.html is probably a reasonable depiction.
  * If we trust his experiments, creating 100 replicas will reduce the stddev to 10% of the mean for 10 nodes.
@@ -61,32 +69,13 @@ import hudson.util.Iterators.DuplicateFilterIterator;
  */
 public class ConsistentHash<T> {
     /**
-     * All the items in the hash, to their replication factors.
+     * All the items in the hash, to their points, in the order of the replicas.
      */
-    private final Map<T,Point[]> items = new HashMap<T,Point[]>();
+    private final Map<T,int[]> items = new HashMap<T,int[]>();
 
     private final int defaultReplication;
     private final Hash<T> hash;
 
-    /**
-     * Used for remembering the computed MD5 hash, since it's bit expensive to do it all over again.
-     */
-    private static final class Point implements Comparable<Point> {
-        final int hash;
-        final Object item;
-
-        private Point(int hash, Object item) {
-            this.hash = hash;
-            this.item = item;
-        }
-
-        public int compareTo(Point that) {
-            if(this.hash<that.hash) return -1;
-            if(this.hash==that.hash) return 0;
-            return 1;
-        }
-    }
-
     /**
      * Table that gets atomically replaced for concurrency safe operation.
      */
@@ -96,27 +85,67 @@ public class ConsistentHash<T> {
      * Immutable consistent hash table.
      */
     private final class Table {
+        /**
+         * Points on the ring, sorted.
+         */
         private final int[] hash;
+        /**
+         * Owner of each point.
+         */
         private final Object[] owner; // really T[]
 
+        private Table(int[] hash, Object[] owner) {
+            this.hash = hash;
+            this.owner = owner;
+        }
+
+        /**
+         * Builds a table from all the points of all the nodes.
+         */
         private Table() {
-            // merge all points from all nodes and sort them into a single array
-            Point[] allPoints = new Point[countAllPoints()];
+            // sort (point,owner) pairs as longs, so that we don't need an object per point
+            Object[] nodes = items.keySet().toArray();
+            long[] pairs = new long[countAllPoints()];
             int p=0;
-            for (Point[] v : items.values()) {
-                System.arraycopy(v,0,allPoints,p,v.length);
-                p+=v.length;
+            for (int n=0; n<nodes.length; n++)
+                for (int h : items.get(nodes[n]))
+                    pairs[p++] = ((long)h)<<32 | n;
+            Arrays.sort(pairs);
+
+            hash = new int[pairs.length];
+            owner = new Object[pairs.length];
+            for (int i=0; i<pairs.length; i++) {
+                hash[i] = (int)(pairs[i]>>32);
+                owner[i] = nodes[(int)pairs[i]];
             }
-            Arrays.sort(allPoints);
-
-            hash = new int[allPoints.length];
-            owner = new Object[allPoints.length];
+        }
 
-            for (int i=0; i<allPoints.length; i++) {
-                Point pt = allPoints[i];
-                hash[i]=pt.hash;
-                owner[i]=pt.item;
+        /**
+         * Returns a new table where the given node has the given points in place of its current ones.
+         *
+         * @param points
+         *      Sorted. Can be empty to remove the node.
+         */
+        private Table replace(T node, int[] points, int current) {
+            int size = hash.length-current+points.length;
+            int[] h = new int[size];
+            Object[] o = new Object[size];
+
+            int i=0, j=0, k=0;
+            while (k<size) {
+                if (i<hash.length && node.equals(owner[i])) {
+                    i++;    // drop the current points of the node
+                    continue;
+                }
+                if (j==points.length || (i<hash.length && hash[i]<=points[j])) {
+                    h[k] = hash[i];
+                    o[k++] = owner[i++];
+                } else {
+                    h[k] = points[j++];
+                    o[k++] = node;
+                }
             }
+            return new Table(h,o);
         }
 
         T lookup(int queryPoint) {
@@ -212,7 +241,7 @@ public class ConsistentHash<T> {
 
     public int countAllPoints() {
         int r=0;
-        for (Point[] v : items.values())
+        for (int[] v : items.values())
             r+=v.length;
         return r;
     }
@@ -228,16 +257,32 @@ public class ConsistentHash<T> {
      * Calls {@link #add(Object)} with all the arguments.
      */
     public void addAll(T... nodes) {
-        for (T node : nodes)
-            add(node);
+        addAll(Arrays.asList(nodes));
     }
 
     /**
      * Calls {@link #add(Object)} with all the arguments.
      */
     public void addAll(Collection<? extends T> nodes) {
+        Map<T,Integer> m = new LinkedHashMap<T,Integer>();
         for (T node : nodes)
-            add(node);
+            m.put(node,defaultReplication);
+        addAll(m);
+    }
+
+    /**
+     * Calls {@link #add(Object, int)} with all the entries, but only rebuilds the table once.
+     *
+     * @since 1.475
+     */
+    public synchronized void addAll(Map<? extends T,Integer> nodes) {
+        for (Entry<? extends T,Integer> e : nodes.entrySet()) {
+            if (e.getValue()==0)
+                items.remove(e.getKey());
+            else
+                items.put(e.getKey(),points(hash.hash(e.getKey()),e.getValue()));
+        }
+        table = new Table();
     }
 
     /**
@@ -251,25 +296,55 @@ public class ConsistentHash<T> {
      * Adds a new node with the given number of replica.
      *
      * <p>
-     * This is the only function that manipulates {@link #items}.
+     * Together with {@link #addAll(Map)}, this is the only function that manipulates {@link #items}.
      */
     public synchronized void add(T node, int replica) {
+        int[] old = items.get(node);
+        int current = old!=null ? old.length : 0;
+        if (current==replica)   return; // no change
+
+        int[] points;
         if(replica==0) {
             items.remove(node);
+            points = new int[0];
         } else {
-            Point[] points = new Point[replica];
-            String seed = hash.hash(node);
-            for (int i=0; i<replica; i++)
-                points[i] = new Point(md5(seed+':'+i),node);
+            points = points(hash.hash(node),replica);
             items.put(node,points);
+            points = points.clone();
+            Arrays.sort(points);
         }
-        table = new Table();
+        table = table.replace(node,points,current);
+    }
+
+    /**
+     * Computes the points of a node, in the order of the replicas.
+     */
+    private static int[] points(String seed, int replica) {
+        int[] cached;
+        synchronized (POINTS) {
+            cached = POINTS.get(seed);
+        }
+
+        int[] r = new int[replica];
+        int n = 0;
+        if (cached!=null) {
+            n = Math.min(cached.length,replica);
+            System.arraycopy(cached,0,r,0,n);
+        }
+        if (n<replica) {
+            for (int i=n; i<replica; i++)
+                r[i] = md5(seed+':'+i);
+            synchronized (POINTS) {
+                POINTS.put(seed,r);
+            }
+        }
+        return r;
     }
 
     /**
      * Compresses a string into an integer with MD5.
      */
-    private int md5(String s) {
+    private static int md5(String s) {
         MD5 md5 = new MD5();
         md5.update(s.getBytes());
         byte[] digest = new byte[16];
@@ -284,7 +359,7 @@ public class ConsistentHash<T> {
     /**
      * unsigned byte->int.
      */
-    private int b2i(byte b) {
+    private static int b2i(byte b) {
         return ((int)b)&0xFF;
     }
 
@@ -335,4 +410,21 @@ public class ConsistentHash<T> {
     public Iterable<T> list(String queryPoint) {
         return list(md5(queryPoint));
     }
+
+    /**
+     * Points computed so far, keyed by the seeds. The points of a seed never change,
+     * and a node with fewer replicas uses a prefix of them.
+     * Least recently used seeds are evicted.
+     */
+    private static final Map<String,int[]> POINTS = new LinkedHashMap<String,int[]>(16,0.75f,true) {
+        @Override
+        protected boolean removeEldestEntry(Entry<String,int[]> eldest) {
+            return size()>CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Number of nodes whose points are cached.
+     */
+    public static int CACHE_SIZE = Integer.getInteger(ConsistentHash.class.getName()+".cacheSize",4096);
 }
@@ -145,7 +145,7 @@ public class DoubleLaunchChecker {
     public void schedule() {
         // randomize the scheduling so that multiple Hudson instances will write at the file at different time
         long MINUTE = 1000*60;
-        Trigger.timer.schedule(new SafeTimerTask() {
+        Trigger.scheduler.schedule(new SafeTimerTask() {
             protected void doRun() {
                 execute();
             }
@@ -73,6 +73,19 @@ public abstract class ParserConfigurator implements ExtensionPoint, Serializable
     }
 
     public static void applyConfiguration(SAXReader reader, Object context) throws IOException, InterruptedException {
+        for (ParserConfigurator pc : findAll())
+            pc.configure(reader,context);
+    }
+
+    /**
+     * Returns all the registered {@link ParserConfigurator}s, like {@link #all()}, but this works on slaves, too.
+     *
+     * <p>
+     * Parsers that don't use {@link SAXReader} can use this to see if anything wants to configure the parsing.
+     *
+     * @since 1.475
+     */
+    public static Collection<ParserConfigurator> findAll() throws IOException, InterruptedException {
         Collection<ParserConfigurator> all = Collections.emptyList();
 
         if (Jenkins.getInstance()==null) {
@@ -88,7 +101,6 @@ public abstract class ParserConfigurator implements ExtensionPoint, Serializable
                 });
         } else
             all = all();
-        for (ParserConfigurator pc : all)
-            pc.configure(reader,context);
+        return all;
     }
 }
@@ -0,0 +1,126 @@
+package jenkins.model;
+
+import hudson.model.AbstractProject;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.RunMap;
+import hudson.util.IOException2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits the loading of an item from the disk into stages that Jenkins can schedule as separate
+ * tasks during the start up.
+ *
+ * <p>
+ * Parsing <tt>config.xml</tt> of a job is cheap compared to loading its build records and starting
+ * its triggers, yet historically {@link Item#onLoad(ItemGroup, String)} did all three in one go. While
+ * Jenkins is loading jobs, {@link AbstractProject} and friends hand the expensive parts over to
+ * {@link #run(Stage, Step)}, which queues them up so that {@link Jenkins} can run them as independent
+ * reactor tasks. Outside the start up (for example when a job is created by copying another), there's no
+ * active {@link DeferredItemLoad} and steps simply run right away.
+ *
+ * @since 1.475
+ */
+public final class DeferredItemLoad {
+    /**
+     * Stages that follow the parsing of the configuration, in the order they run.
+     */
+    public enum Stage {
+        /**
+         * Reads the index of the build records, if they are {@linkplain RunMap#LAZY loaded lazily}.
+         */
+        BUILD_INDEX,
+        /**
+         * Loads the build records.
+         */
+        BUILDS,
+        /**
+         * Starts triggers and other things that expect the build records to be already loaded.
+         */
+        TRIGGERS
+    }
+
+    /**
+     * Deferred piece of work.
+     */
+    public interface Step {
+        void run() throws IOException;
+    }
+
+    private final Map<Stage,List<Step>> steps = new EnumMap<Stage,List<Step>>(Stage.class);
+
+    /**
+     * Makes this object collect the steps submitted from the current thread, until {@link #end()}.
+     */
+    /*package*/ void begin() {
+        CURRENT.set(this);
+    }
+
+    /*package*/ void end() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Discards all the steps submitted so far, such as when the item failed to load.
+     */
+    /*package*/ synchronized void clear() {
+        steps.clear();
+    }
+
+    /**
+     * Runs all the steps submitted for the given stage, in the order they were submitted.
+     *
+     * <p>
+     * A failing step doesn't prevent the rest of the stage from running, so that one broken
+     * nested item doesn't take down its siblings. The first failure is reported once all the steps ran.
+     */
+    /*package*/ void run(Stage stage) throws IOException {
+        List<Step> list;
+        synchronized (this) {
+            list = steps.remove(stage);
+        }
+        if (list==null)     return;
+
+        IOException failure = null;
+        for (Step s : list) {
+            try {
+                s.run();
+            } catch (IOException e) {
+                if (failure==null)  failure = e;
+            } catch (RuntimeException e) {
+                if (failure==null)  failure = new IOException2(e);
+            }
+        }
+        if (failure!=null)
+            throw failure;
+    }
+
+    private synchronized void add(Stage stage, Step step) {
+        List<Step> list = steps.get(stage);
+        if (list==null)
+            steps.put(stage, list=new ArrayList<Step>());
+        list.add(step);
+    }
+
+    /**
+     * Runs the given step as a part of the given stage of loading the item.
+     *
+     * <p>
+     * If Jenkins is loading items on this thread, the step is queued and runs later as a separate task,
+     * after all the steps of the earlier stages of the same item. Otherwise the step runs synchronously.
+     */
+    public static void run(Stage stage, Step step) throws IOException {
+        DeferredItemLoad current = CURRENT.get();
+        if (current!=null)
+            current.add(stage,step);
+        else
+            step.run();
+    }
+
+    private static final ThreadLocal<DeferredItemLoad> CURRENT = new ThreadLocal<DeferredItemLoad>();
+}
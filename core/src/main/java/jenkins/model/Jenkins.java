@@ -82,10 +82,12 @@ import hudson.model.ViewGroup;
 import hudson.model.ViewGroupMixIn;
 import hudson.model.Descriptor.FormException;
 import hudson.model.labels.LabelAtom;
+import hudson.model.labels.LabelIndex;
 import hudson.model.listeners.ItemListener;
 import hudson.model.listeners.SCMListener;
 import hudson.model.listeners.SaveableListener;
 import hudson.model.Queue;
+import hudson.model.RunMap;
 import hudson.model.WorkspaceCleanupThread;
 
 import antlr.ANTLRException;
@@ -122,6 +124,7 @@ import hudson.cli.declarative.CLIMethod;
 import hudson.cli.declarative.CLIResolver;
 import hudson.init.InitMilestone;
 import hudson.init.InitStrategy;
+import hudson.init.InitializerFinder;
 import hudson.lifecycle.Lifecycle;
 import hudson.logging.LogRecorderManager;
 import hudson.lifecycle.RestartNotSupportedException;
@@ -165,6 +168,7 @@ import hudson.tasks.Builder;
 import hudson.tasks.Mailer;
 import hudson.tasks.Publisher;
 import hudson.triggers.SafeTimerTask;
+import hudson.triggers.TimerService;
 import hudson.triggers.Trigger;
 import hudson.triggers.TriggerDescriptor;
 import hudson.util.AdministrativeError;
@@ -198,7 +202,9 @@ import hudson.widgets.Widget;
 import jenkins.ExtensionComponentSet;
 import jenkins.ExtensionRefreshException;
 import jenkins.InitReactorRunner;
+import jenkins.model.DeferredItemLoad.Stage;
 import jenkins.model.ProjectNamingStrategy.DefaultProjectNamingStrategy;
+import jenkins.model.StartupProfile.Category;
 import net.sf.json.JSONObject;
 import org.acegisecurity.AccessDeniedException;
 import org.acegisecurity.AcegiSecurityException;
@@ -412,6 +418,11 @@ public class Jenkins extends AbstractCIBase implements ModifiableItemGroup<TopLe
      */
     private transient volatile InitMilestone initLevel = InitMilestone.STARTED;
 
+    /**
+     * Profile of the start up in progress, or null once Jenkins is up.
+     */
+    private transient volatile StartupProfile startupProfile;
+
     /**
      * All {@link Item}s keyed by their {@link Item#getName() name}s.
      */
@@ -574,6 +585,11 @@ public class Jenkins extends AbstractCIBase implements ModifiableItemGroup<TopLe
      */
     private transient final ConcurrentHashMap<String,Label> labels = new ConcurrentHashMap<String,Label>();
 
+    /**
+     * Which nodes have which labels.
+     */
+    private transient final LabelIndex labelIndex = new LabelIndex();
+
     /**
      * Load statistics of the entire system.
      *
@@ -743,6 +759,7 @@ public class Jenkins extends AbstractCIBase implements ModifiableItemGroup<TopLe
             if(theInstance!=null)
                 throw new IllegalStateException("second instance");
             theInstance = this;
+            startupProfile = new StartupProfile();
 
             if (!new File(root,"jobs").exists()) {
                 // if this is a fresh install, use more modern default layout that's consistent with slaves
@@ -753,6 +770,7 @@ public class Jenkins extends AbstractCIBase implements ModifiableItemGroup<TopLe
             final InitStrategy is = InitStrategy.get(Thread.currentThread().getContextClassLoader());
 
             Trigger.timer = new Timer("Jenkins cron thread");
+            Trigger.scheduler = new TimerService("Jenkins timer", TimerService.POOL_SIZE);
             queue = new Queue(CONSISTENT_HASH?LoadBalancer.CONSISTENT_HASH:LoadBalancer.DEFAULT);
 
             try {
@@ -819,7 +837,7 @@ public class Jenkins extends AbstractCIBase implements ModifiableItemGroup<TopLe
             }
             dnsMultiCast = new DNSMultiCast(this);
 
-            Trigger.timer.scheduleAtFixedRate(new SafeTimerTask() {
+            Trigger.scheduler.scheduleAtFixedRate(new SafeTimerTask() {
                 @Override
                 protected void doRun() throws Exception {
                     trimLabels();
@@ -846,6 +864,13 @@ public class Jenkins extends AbstractCIBase implements ModifiableItemGroup<TopLe
             if (LOG_STARTUP_PERFORMANCE)
                 LOGGER.info(String.format("Took %dms for complete Jenkins startup",
                         System.currentTimeMillis()-start));
+
+            try {
+                startupProfile.write(new File(root,"startup-profile.txt"));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to write the startup profile",e);
+            }
+            startupProfile = null;
         } finally {
             SecurityContextHolder.clearContext();
         }
@@ -876,9 +901,13 @@ public class Jenkins extends AbstractCIBase implements ModifiableItemGroup<TopLe
                 try {
                     long start = System.currentTimeMillis();
                     super.runTask(task);
+                    long elapsed = System.currentTimeMillis()-start;
                     if(LOG_STARTUP_PERFORMANCE)
                         LOGGER.info(String.format("Took %dms for %s by %s",
-                                System.currentTimeMillis()-start, taskName, name));
+                                elapsed, taskName, name));
+                    StartupProfile p = startupProfile;
+                    if (p!=null && task instanceof InitializerFinder.TaskImpl)
+                        p.record(Category.INITIALIZER, taskName, null, elapsed);
                 } finally {
                     t.setName(name);
                     SecurityContextHolder.clearContext();
@@ -890,6 +919,9 @@ public class Jenkins extends AbstractCIBase implements ModifiableItemGroup<TopLe
             @Override
             protected void onInitMilestoneAttained(InitMilestone milestone) {
                 initLevel = milestone;
+                StartupProfile p = startupProfile;
+                if (p!=null)
+                    p.onMilestone(milestone);
             }
         }.run(reactor);
     }
@@ -1549,6 +1581,18 @@ public class Jenkins extends AbstractCIBase implements ModifiableItemGroup<TopLe
         }
     }
 
+    /**
+     * Gets the index that {@link Label#getNodes()} is computed from.
+     *
+     * @since 1.475
+     */
+    public LabelIndex getLabelIndex() {
+        NodeList slaves = this.slaves;
+        if (slaves!=null)
+            labelIndex.sync(this,slaves,false);    // no-op unless the node list has changed
+        return labelIndex;
+    }
+
     /**
      * Gets all the active labels in the current system.
      */
@@ -1657,7 +1701,7 @@ public class Jenkins extends AbstractCIBase implements ModifiableItemGroup<TopLe
     public void setNodes(List<? extends Node> nodes) throws IOException {
         this.slaves = new NodeList(nodes);
         updateComputerList();
-        trimLabels();
+        trimLabels(false);
         save();
     }
 
@@ -1676,9 +1720,22 @@ public class Jenkins extends AbstractCIBase implements ModifiableItemGroup<TopLe
      * but we also call this periodically to self-heal any data out-of-sync issue.
      */
     private void trimLabels() {
+        trimLabels(true);
+    }
+
+    /**
+     * @param reset
+     *      If false, only re-index the nodes that were added, removed or replaced, and keep
+     *      whatever is cached in labels that are unaffected by those changes.
+     */
+    private void trimLabels(boolean reset) {
+        NodeList slaves = this.slaves;
+        if (slaves!=null)
+            labelIndex.sync(this,slaves,reset);
         for (Iterator<Label> itr = labels.values().iterator(); itr.hasNext();) {
             Label l = itr.next();
-            resetLabel(l);
+            if (reset)
+                resetLabel(l);
             if(l.isEmpty())
                 itr.remove();
         }
@@ -2142,6 +2199,18 @@ public class Jenkins extends AbstractCIBase implements ModifiableItemGroup<TopLe
         return initLevel;
     }
 
+    /**
+     * Gets the profile of the start up in progress, for recording the time spent in various places.
+     *
+     * @return
+     *      null once Jenkins has finished starting up. The profile is persisted in
+     *      <tt>$JENKINS_HOME/startup-profile.txt</tt> by then.
+     * @since 1.475
+     */
+    public StartupProfile getStartupProfile() {
+        return startupProfile;
+    }
+
     public void setNumExecutors(int n) throws IOException {
         this.numExecutors = n;
         save();
@@ -2422,6 +2491,7 @@ public class Jenkins extends AbstractCIBase implements ModifiableItemGroup<TopLe
     @Override
     public void setLabelString(String label) throws IOException {
         this.label = label;
+        labelIndex.update(this);
         save();
     }
 
@@ -2434,6 +2504,12 @@ public class Jenkins extends AbstractCIBase implements ModifiableItemGroup<TopLe
         return new Hudson.MasterComputer();
     }
 
+    private void recordItemLoad(String name, String stage, long start) {
+        StartupProfile p = startupProfile;
+        if (p!=null)
+            p.record(Category.ITEM, name, stage, System.currentTimeMillis()-start);
+    }
+
     private synchronized TaskBuilder loadTasks() throws IOException {
         File projectsDir = new File(root,"jobs");
         if(!projectsDir.isDirectory() && !projectsDir.mkdirs()) {
@@ -2487,11 +2563,77 @@ public class Jenkins extends AbstractCIBase implements ModifiableItemGroup<TopLe
             }
         });
 
+        // loading a job is split into stages, so that slow ones (typically loading the build records)
+        // don't hold up the rest, and so that the startup profile can tell where the time went.
+        // configurations of all the jobs are loaded before any trigger starts,
+        // as triggers may refer to other jobs.
+        List<Handle> configured = new ArrayList<Handle>(subdirs.length+1);
+        configured.add(loadHudson);
+        List<Handle> builds = new ArrayList<Handle>(subdirs.length);
+        final List<DeferredItemLoad> deferred = new ArrayList<DeferredItemLoad>(subdirs.length);
         for (final File subdir : subdirs) {
-            g.requires(loadHudson).attains(JOB_LOADED).notFatal().add("Loading job "+subdir.getName(),new Executable() {
+            final String name = subdir.getName();
+            final DeferredItemLoad d = new DeferredItemLoad();
+            deferred.add(d);
+            Handle h = g.requires(loadHudson).attains(JOB_LOADED).notFatal().add("Loading job "+name,new Executable() {
+                public void run(Reactor session) throws Exception {
+                    long start = System.currentTimeMillis();
+                    d.begin();
+                    try {
+                        TopLevelItem item = (TopLevelItem) Items.load(Jenkins.this, subdir);
+                        items.put(item.getName(), item);
+                    } catch (Exception e) {
+                        d.clear(); // don't load builds nor start triggers of a job that failed to load
+                        throw e;
+                    } finally {
+                        d.end();
+                        recordItemLoad(name, "config", start);
+                    }
+                }
+            });
+            configured.add(h);
+            if (RunMap.LAZY) {
+                // reading the build index is what lazy loading spends its time on, so it gets its own task
+                h = g.requires(h).attains(JOB_LOADED).notFatal().add("Loading build index of "+name,new Executable() {
+                    public void run(Reactor session) throws Exception {
+                        long start = System.currentTimeMillis();
+                        try {
+                            d.run(Stage.BUILD_INDEX);
+                        } finally {
+                            recordItemLoad(name, "buildIndex", start);
+                        }
+                    }
+                });
+            }
+            builds.add(g.requires(h).attains(JOB_LOADED).notFatal().add("Loading builds of "+name,new Executable() {
                 public void run(Reactor session) throws Exception {
-                    TopLevelItem item = (TopLevelItem) Items.load(Jenkins.this, subdir);
-                    items.put(item.getName(), item);
+                    long start = System.currentTimeMillis();
+                    try {
+                        d.run(Stage.BUILDS);
+                    } finally {
+                        recordItemLoad(name, "builds", start);
+                    }
+                }
+            }));
+        }
+
+        Handle allConfigured = g.requires(configured.toArray(new Handle[configured.size()])).attains(JOB_LOADED).add("Loaded all job configurations", new Executable() {
+            public void run(Reactor session) throws Exception {
+                // synchronization point
+            }
+        });
+
+        for (int i=0; i<subdirs.length; i++) {
+            final String name = subdirs[i].getName();
+            final DeferredItemLoad d = deferred.get(i);
+            g.requires(allConfigured,builds.get(i)).attains(JOB_LOADED).notFatal().add("Starting triggers of "+name,new Executable() {
+                public void run(Reactor session) throws Exception {
+                    long start = System.currentTimeMillis();
+                    try {
+                        d.run(Stage.TRIGGERS);
+                    } finally {
+                        recordItemLoad(name, "triggers", start);
+                    }
                 }
             });
         }
@@ -2584,6 +2726,8 @@ public class Jenkins extends AbstractCIBase implements ModifiableItemGroup<TopLe
         Trigger.timer.cancel();
         // TODO: how to wait for the completion of the last job?
         Trigger.timer = null;
+        Trigger.scheduler.shutdown();
+        Trigger.scheduler = null;
         if(tcpSlaveAgentListener!=null)
             tcpSlaveAgentListener.shutdown();
 
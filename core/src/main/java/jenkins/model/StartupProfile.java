@@ -0,0 +1,171 @@
+package jenkins.model;
+
+import hudson.init.InitMilestone;
+import hudson.util.AtomicFileWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Records where the time went while Jenkins was starting up.
+ *
+ * <p>
+ * Items, plugins and {@link hudson.init.Initializer}s report how long they took, together with the
+ * time each {@link InitMilestone} was attained. Once Jenkins is up, the slowest of them are written to
+ * <tt>$JENKINS_HOME/startup-profile.txt</tt>, so that an administrator wondering why the start up is slow
+ * can see what to look at without turning on {@link Jenkins#LOG_STARTUP_PERFORMANCE} and restarting.
+ *
+ * @since 1.475
+ * @see Jenkins#getStartupProfile()
+ */
+public final class StartupProfile {
+    /**
+     * Kinds of things whose time is measured.
+     */
+    public enum Category {
+        ITEM("Items"),
+        PLUGIN("Plugins"),
+        INITIALIZER("Initializers");
+
+        private final String displayName;
+
+        Category(String displayName) {
+            this.displayName = displayName;
+        }
+    }
+
+    /**
+     * Time spent by one item/plugin/initializer, broken down into the stages it was reported in.
+     */
+    private static final class Record {
+        private final String name;
+        private long total;
+        private final Map<String,Long> stages = new LinkedHashMap<String,Long>();
+
+        Record(String name) {
+            this.name = name;
+        }
+
+        synchronized void add(String stage, long ms) {
+            total += ms;
+            if (stage!=null) {
+                Long l = stages.get(stage);
+                stages.put(stage, l==null ? ms : l+ms);
+            }
+        }
+
+        synchronized long getTotal() {
+            return total;
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder buf = new StringBuilder(String.format("%8dms  %s", total, name));
+            if (stages.size()>1) {
+                String sep = " (";
+                for (Entry<String,Long> e : stages.entrySet()) {
+                    buf.append(sep).append(e.getKey()).append(' ').append(e.getValue()).append("ms");
+                    sep = ", ";
+                }
+                buf.append(')');
+            }
+            return buf.toString();
+        }
+    }
+
+    private final long start = System.currentTimeMillis();
+
+    private final Map<Category,ConcurrentMap<String,Record>> records = new EnumMap<Category,ConcurrentMap<String,Record>>(Category.class);
+
+    /**
+     * Elapsed time since {@link #start} when each milestone was attained, in the order they were attained.
+     */
+    private final Map<InitMilestone,Long> milestones = Collections.synchronizedMap(new LinkedHashMap<InitMilestone,Long>());
+
+    /*package*/ StartupProfile() {
+        for (Category c : Category.values())
+            records.put(c, new ConcurrentHashMap<String,Record>());
+    }
+
+    /**
+     * Records the time spent by something during the start up.
+     *
+     * @param name
+     *      Name of the item, plugin, or initializer. Multiple calls for the same name add up.
+     * @param stage
+     *      Optional name of the part of the work that took this time, such as "builds" for
+     *      loading build records of an item. Used to show the breakdown. Can be null.
+     * @param ms
+     *      Time spent, in milliseconds.
+     */
+    public void record(Category category, String name, String stage, long ms) {
+        ConcurrentMap<String,Record> m = records.get(category);
+        Record r = m.get(name);
+        if (r==null) {
+            Record n = new Record(name);
+            r = m.putIfAbsent(name,n);
+            if (r==null)    r = n;
+        }
+        r.add(stage,ms);
+    }
+
+    /*package*/ void onMilestone(InitMilestone milestone) {
+        milestones.put(milestone, System.currentTimeMillis()-start);
+    }
+
+    /**
+     * Writes the profile into the given file, listing up to {@link #TOP} slowest entries per category.
+     */
+    /*package*/ void write(File file) throws IOException {
+        AtomicFileWriter w = new AtomicFileWriter(file);
+        try {
+            PrintWriter out = new PrintWriter(w);
+            out.printf("Jenkins started up in %dms%n", System.currentTimeMillis()-start);
+
+            out.println();
+            out.println("Milestones:");
+            synchronized (milestones) {
+                for (Entry<InitMilestone,Long> e : milestones.entrySet())
+                    out.printf("%8dms  %s%n", e.getValue(), e.getKey());
+            }
+
+            for (Category c : Category.values()) {
+                List<Record> all = new ArrayList<Record>(records.get(c).values());
+                Collections.sort(all,SLOWEST_FIRST);
+
+                out.println();
+                out.printf("%s (%d slowest out of %d):%n", c.displayName, Math.min(TOP,all.size()), all.size());
+                for (Record r : all.subList(0,Math.min(TOP,all.size())))
+                    out.println(r);
+            }
+
+            out.flush();
+            w.commit();
+        } finally {
+            w.abort();
+        }
+    }
+
+    private static final Comparator<Record> SLOWEST_FIRST = new Comparator<Record>() {
+        public int compare(Record o1, Record o2) {
+            long l = o2.getTotal(), r = o1.getTotal();
+            return l<r ? -1 : l>r ? 1 : 0;
+        }
+    };
+
+    /**
+     * Number of the slowest entries listed for each category.
+     */
+    public static int TOP = Integer.getInteger(StartupProfile.class.getName()+".top",20);
+}
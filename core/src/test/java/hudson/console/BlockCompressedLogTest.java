@@ -0,0 +1,67 @@
+package hudson.console;
+
+import hudson.Util;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+public class BlockCompressedLogTest extends TestCase {
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Util.createTempDir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Util.deleteRecursive(dir);
+    }
+
+    public void testRoundtrip() throws Exception {
+        File log = new File(dir,"log");
+        ConsoleLineIndex index = new ConsoleLineIndex(log);
+        OutputStream out = index.createIndexingStream(new FileOutputStream(log));
+        for (int i=0; i<20000; i++)
+            out.write(("[INFO] Compiling module "+i+"\n").getBytes("US-ASCII"));
+        out.close();
+        byte[] original = FileUtils.readFileToByteArray(log);
+        long lineOffset = index.getLineOffset(12345);
+
+        File compressed = BlockCompressedLog.compress(log);
+        assertFalse(log.exists());
+        assertTrue(compressed.length()*5 < original.length);
+
+        BlockCompressedLog c = BlockCompressedLog.open(compressed);
+        assertEquals(original.length, c.length());
+        assertEquals(new String(original,"US-ASCII"), IOUtils.toString(c.read(0),"US-ASCII"));
+
+        // reads that cross block boundaries
+        long start = BlockCompressedLog.BLOCK_SIZE-10;
+        byte[] buf = new byte[100];
+        new DataInputStream(c.read(start)).readFully(buf);
+        for (int i=0; i<buf.length; i++)
+            assertEquals(original[(int)start+i], buf[i]);
+
+        // line index keeps working on top of the compressed log
+        assertEquals(lineOffset, index.getLineOffset(12345));
+        assertEquals(20000, index.getLineCount());
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        index.writeTo(index.getTailOffset(1), Long.MAX_VALUE, line);
+        assertEquals("[INFO] Compiling module 19999\n", line.toString("US-ASCII"));
+    }
+
+    public void testEmpty() throws Exception {
+        File log = new File(dir,"log");
+        log.createNewFile();
+        BlockCompressedLog c = BlockCompressedLog.open(BlockCompressedLog.compress(log));
+        assertEquals(0, c.length());
+        assertEquals(-1, c.read(0).read());
+    }
+}
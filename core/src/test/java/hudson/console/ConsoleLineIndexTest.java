@@ -0,0 +1,75 @@
+package hudson.console;
+
+import hudson.Util;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+public class ConsoleLineIndexTest extends TestCase {
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Util.createTempDir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Util.deleteRecursive(dir);
+    }
+
+    public void testIndex() throws Exception {
+        File log = new File(dir,"log");
+        ConsoleLineIndex index = new ConsoleLineIndex(log);
+        OutputStream out = index.createIndexingStream(new FileOutputStream(log));
+        long[] offsets = new long[1000];
+        long pos = 0;
+        for (int i=0; i<1000; i++) {
+            offsets[i] = pos;
+            byte[] line = ("line "+i+"\n").getBytes("US-ASCII");
+            if (i%2==0) {
+                out.write(line);
+            } else {
+                for (byte b : line)
+                    out.write(b);
+            }
+            pos += line.length;
+        }
+        out.write("partial".getBytes("US-ASCII"));
+        out.close();
+
+        assertTrue(index.exists());
+        assertEquals(1001, index.getLineCount());
+        for (int i=0; i<1000; i+=7)
+            assertEquals(offsets[i], index.getLineOffset(i));
+        assertEquals(pos, index.getLineOffset(1000));
+        assertEquals(log.length(), index.getLineOffset(5000));
+
+        assertEquals(pos, index.getTailOffset(1));
+        assertEquals(offsets[998], index.getTailOffset(3));
+        assertEquals(0, index.getTailOffset(2000));
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        index.writeTo(index.getLineOffset(10), index.getLineOffset(12), buf);
+        assertEquals("line 10\nline 11\n", buf.toString("US-ASCII"));
+    }
+
+    /**
+     * Logs written by earlier versions don't have the index.
+     */
+    public void testNoIndex() throws Exception {
+        File log = new File(dir,"log");
+        FileOutputStream out = new FileOutputStream(log);
+        out.write("a\nbb\nccc\n".getBytes("US-ASCII"));
+        out.close();
+
+        ConsoleLineIndex index = new ConsoleLineIndex(log);
+        assertFalse(index.exists());
+        assertEquals(3, index.getLineCount());
+        assertEquals(5, index.getLineOffset(2));
+        assertEquals(2, index.getTailOffset(2));
+    }
+}
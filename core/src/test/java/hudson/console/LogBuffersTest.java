@@ -0,0 +1,46 @@
+package hudson.console;
+
+import junit.framework.TestCase;
+
+import java.io.StringWriter;
+
+public class LogBuffersTest extends TestCase {
+    public void testBytesAreReused() {
+        byte[] a = LogBuffers.borrowBytes();
+        // nested use gets its own buffer
+        byte[] b = LogBuffers.borrowBytes();
+        assertNotSame(a,b);
+        LogBuffers.release(a);
+
+        long misses = LogBuffers.getMisses();
+        assertSame(a, LogBuffers.borrowBytes());
+        assertEquals(misses, LogBuffers.getMisses());
+    }
+
+    public void testSpool() throws Exception {
+        LogBuffers.Spool spool = LogBuffers.borrowSpool();
+        spool.write("abc");
+        spool.write('d');
+        spool.write(new char[]{'e','f'},0,2);
+        StringWriter w = new StringWriter();
+        spool.writeTo(w);
+        assertEquals("abcdef", w.toString());
+        LogBuffers.release(spool);
+
+        LogBuffers.Spool again = LogBuffers.borrowSpool();
+        assertSame(spool, again);
+        assertEquals(0, again.size());
+
+        // a huge spool shouldn't be retained with its buffer
+        char[] big = new char[LogBuffers.MAX_RETAINED_SPOOL+1];
+        again.write(big,0,big.length);
+        assertEquals(big.length, again.size());
+        LogBuffers.release(again);
+        again = LogBuffers.borrowSpool();
+        again.write("x");
+        w = new StringWriter();
+        again.writeTo(w);
+        assertEquals("x", w.toString());
+        LogBuffers.release(again);
+    }
+}
@@ -0,0 +1,56 @@
+package hudson.model;
+
+import hudson.Util;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.List;
+
+public class BuildIndexTest extends TestCase {
+    public void testRoundtrip() throws Exception {
+        File dir = Util.createTempDir();
+        try {
+            BuildIndex idx = new BuildIndex(dir);
+            assertFalse(idx.exists());
+            idx.update(new BuildIndex.Entry(1, "2012-01-01_00-00-01", Result.SUCCESS, 1000, 10));
+            idx.update(new BuildIndex.Entry(2, "2012-01-01_00-00-02", null, 2000, 0));
+            idx.update(new BuildIndex.Entry(2, "2012-01-01_00-00-02", Result.FAILURE, 2000, 20));
+            idx.update(new BuildIndex.Entry(3, "2012-01-01_00-00-03", Result.UNSTABLE, 3000, 30));
+            idx.remove(1);
+            assertTrue(idx.exists());
+
+            // read it back from the disk
+            idx = new BuildIndex(dir);
+            List<BuildIndex.Entry> entries = idx.getEntries();
+            assertEquals(2, entries.size());
+            assertEquals(3, entries.get(0).getNumber());
+            assertEquals(2, entries.get(1).getNumber());
+            assertNull(idx.get(1));
+
+            BuildIndex.Entry e = idx.get(2);
+            assertEquals("2012-01-01_00-00-02", e.getId());
+            assertEquals(Result.FAILURE, e.getResult());
+            assertEquals(2000, e.getTimestamp());
+            assertEquals(20, e.getDuration());
+        } finally {
+            Util.deleteRecursive(dir);
+        }
+    }
+
+    public void testCompaction() throws Exception {
+        File dir = Util.createTempDir();
+        try {
+            BuildIndex idx = new BuildIndex(dir);
+            for (int i=0; i<1000; i++)
+                idx.update(new BuildIndex.Entry(1, "2012-01-01_00-00-01", Result.SUCCESS, 1000, i));
+
+            File f = new File(dir,"builds.index");
+            assertTrue("superseded lines should have been discarded", f.length() < 300*40);
+
+            idx = new BuildIndex(dir);
+            assertEquals(999, idx.get(1).getDuration());
+        } finally {
+            Util.deleteRecursive(dir);
+        }
+    }
+}
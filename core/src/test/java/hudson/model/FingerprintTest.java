@@ -26,6 +26,9 @@ package hudson.model;
 import junit.framework.TestCase;
 import hudson.model.Fingerprint.RangeSet;
 
+import java.util.BitSet;
+import java.util.Random;
+
 /**
  * @author Kohsuke Kawaguchi
  */
@@ -113,4 +116,46 @@ public class FingerprintTest extends TestCase {
         x.add(y);
         assertEquals("[1,2),[3,4),[5,6),[7,8)",x.toString());
     }
+
+    /**
+     * Compares random insertions and merges against {@link BitSet}.
+     */
+    public void testRandom() {
+        Random r = new Random(0);
+        for (int t=0; t<100; t++) {
+            RangeSet x = new RangeSet(), y = new RangeSet();
+            BitSet bx = new BitSet(), by = new BitSet();
+            for (int i=0; i<50; i++) {
+                int n = r.nextInt(100);
+                x.add(n);
+                bx.set(n);
+                n = r.nextInt(100);
+                y.add(n);
+                by.set(n);
+            }
+            assertEquals(toString(bx), x.toString());
+            assertEquals(toString(by), y.toString());
+
+            x.add(y);
+            bx.or(by);
+            assertEquals(toString(bx), x.toString());
+            for (int i=-1; i<=101; i++)
+                assertEquals(bx.get(Math.max(i,0)) && i>=0, x.includes(i));
+        }
+    }
+
+    private String toString(BitSet bs) {
+        StringBuilder buf = new StringBuilder();
+        for (int i=bs.nextSetBit(0); i>=0; ) {
+            int end = bs.nextClearBit(i);
+            if(buf.length()>0)  buf.append(',');
+            buf.append('[').append(i).append(',').append(end).append(')');
+            i = bs.nextSetBit(end);
+        }
+        return buf.toString();
+    }
+
+    public void testFromStringUnsorted() {
+        assertEquals("[1,6),[9,10)", RangeSet.fromString("4-5,9,1-3",false).toString());
+    }
 }
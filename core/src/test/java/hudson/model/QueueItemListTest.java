@@ -0,0 +1,118 @@
+package hudson.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import hudson.model.Queue.BuildableItem;
+import hudson.model.Queue.ItemList;
+import hudson.model.Queue.Task;
+import hudson.model.Queue.WaitingItem;
+import hudson.model.Queue.WaitingList;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests that the lookups of {@link Queue}'s item lists by {@link Task} stay consistent
+ * no matter how items are removed.
+ */
+public class QueueItemListTest {
+    private final Task t1 = mock(Task.class);
+    private final Task t2 = mock(Task.class);
+
+    private static WaitingItem waiting(Task t, int quietPeriod) {
+        Calendar due = new GregorianCalendar();
+        due.add(Calendar.SECOND, quietPeriod);
+        return new WaitingItem(due, t, Collections.<Action>emptyList());
+    }
+
+    private static BuildableItem buildable(Task t) {
+        return new BuildableItem(waiting(t, 0));
+    }
+
+    @Test
+    public void itemListRemovals() {
+        ItemList<BuildableItem> l = new ItemList<BuildableItem>();
+        BuildableItem a = buildable(t1), b = buildable(t2), c = buildable(t1);
+        l.addAll(Arrays.asList(a, b, c));
+        assertSame(a, l.get(t1));
+        assertEquals(Arrays.asList(a, c), l.getAll(t1));
+
+        l.subList(0, 1).clear();
+        assertSame(c, l.get(t1));
+        assertEquals(Arrays.asList(c), l.getAll(t1));
+
+        Iterator<BuildableItem> itr = l.iterator();
+        assertSame(b, itr.next());
+        itr.remove();
+        assertNull(l.get(t2));
+
+        l.add(b);
+        l.retainAll(Collections.singleton(b));
+        assertNull(l.get(t1));
+        assertSame(b, l.get(t2));
+
+        l.removeAll(Collections.singleton(b));
+        assertNull(l.get(t2));
+        assertTrue(l.isEmpty());
+    }
+
+    @Test
+    public void itemListReordering() {
+        ItemList<BuildableItem> l = new ItemList<BuildableItem>();
+        BuildableItem a = buildable(t1), b = buildable(t2);
+        l.add(a);
+        l.add(b);
+
+        // QueueSorter sorts the list in place
+        Collections.reverse(l);
+        assertEquals(Arrays.asList(b, a), l);
+        assertSame(a, l.get(t1));
+        assertSame(b, l.get(t2));
+
+        BuildableItem c = buildable(t1);
+        assertSame(a, l.set(1, c));
+        assertSame(c, l.get(t1));
+        assertEquals(1, l.getAll(t1).size());
+    }
+
+    @Test
+    public void waitingListRemovals() {
+        WaitingList l = new WaitingList();
+        WaitingItem a = waiting(t1, 0), b = waiting(t2, 10), c = waiting(t1, 20);
+        l.addAll(Arrays.asList(c, b, a));
+        assertEquals(Arrays.asList(a, c), l.getAll(t1));
+
+        // sorted by time stamps
+        Iterator<WaitingItem> itr = l.iterator();
+        assertSame(a, itr.next());
+        itr.remove();
+        assertEquals(Arrays.asList(c), l.getAll(t1));
+
+        l.removeAll(Collections.singleton(b));
+        assertTrue(l.getAll(t2).isEmpty());
+
+        l.retainAll(Collections.emptySet());
+        assertTrue(l.getAll(t1).isEmpty());
+        assertTrue(l.isEmpty());
+    }
+
+    @Test
+    public void waitingListClear() {
+        WaitingList l = new WaitingList();
+        l.add(waiting(t1, 0));
+        List<WaitingItem> all = l.getAll(t1);
+        assertEquals(1, all.size());
+        l.clear();
+        assertTrue(l.getAll(t1).isEmpty());
+    }
+}
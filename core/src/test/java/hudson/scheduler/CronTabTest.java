@@ -192,4 +192,23 @@ public class CronTabTest {
         assertEquals(x.bits[0],1L<<1);
         assertEquals(x.bits[1],1L<<6);
     }
+
+    @Test
+    public void testCeilWithLimit() throws Exception {
+        Calendar c = new GregorianCalendar(2012,0,1,0,0);
+        long limit = new GregorianCalendar(2013,0,1,0,0).getTimeInMillis();
+
+        // the earliest of all the tabs
+        CronTabList x = CronTabList.create("0 12 * * *\n30 6 * * *\n# comment");
+        assertEquals(new GregorianCalendar(2012,0,1,6,30).getTimeInMillis(),x.ceil(c.getTimeInMillis(),limit).getTimeInMillis());
+
+        // never matches
+        assertNull(CronTabList.create("0 0 30 2 *").ceil(c.getTimeInMillis(),limit));
+        assertNull(CronTabList.create("").ceil(c.getTimeInMillis(),limit));
+
+        // matches only beyond the limit
+        CronTabList leap = CronTabList.create("0 0 29 2 *");
+        assertNull(leap.ceil(new GregorianCalendar(2012,2,1,0,0).getTimeInMillis(),limit));
+        assertEquals(new GregorianCalendar(2012,1,29,0,0).getTimeInMillis(),leap.ceil(c.getTimeInMillis(),limit).getTimeInMillis());
+    }
 }
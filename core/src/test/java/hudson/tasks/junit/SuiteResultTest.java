@@ -24,10 +24,12 @@
 package hudson.tasks.junit;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.List;
 import java.net.URISyntaxException;
 
 import hudson.XmlFile;
+import hudson.util.io.ParserConfigurator;
 
 import org.jvnet.hudson.test.Bug;
 
@@ -212,4 +214,123 @@ public class SuiteResultTest extends TestCase {
             assertEquals(1, result.getCases().size());
         }
     }
+
+    /**
+     * The streaming parser needs to produce the same result as the DOM-based one.
+     */
+    public void testStreamingParserMatchesDom() throws Exception {
+        String[] reports = {
+            "junit-report-1233.xml", "junit-report-1463.xml", "junit-report-1472.xml", "junit-report-2874.xml",
+            "junit-report-6700.xml", "junit-report-errror-details.xml", "junit-report-nested-testsuites.xml",
+            "eclipse-plugin-test-report.xml", "junitResult.xml",
+            "JENKINS-12457/TestSuite_a1.xml", "JENKINS-12457/TestSuite_b.xml", "JENKINS-13214/27449.xml"
+        };
+        for (String report : reports) {
+            File f = getDataFile(report);
+            for (boolean keepLongStdio : new boolean[] {false,true}) {
+                assertSameSuites(report,
+                        SuiteResult.parseDom(f,keepLongStdio,Collections.<ParserConfigurator>emptyList()),
+                        new StreamingReportParser(f,keepLongStdio).parse());
+            }
+        }
+    }
+
+    private void assertSameSuites(String report, List<SuiteResult> expected, List<SuiteResult> actual) {
+        assertEquals(report, expected.size(), actual.size());
+        for (int i=0; i<expected.size(); i++) {
+            SuiteResult e = expected.get(i), a = actual.get(i);
+            assertEquals(report, e.getName(), a.getName());
+            assertEquals(report, e.getTimestamp(), a.getTimestamp());
+            assertEquals(report, e.getId(), a.getId());
+            assertEquals(report, e.getDuration(), a.getDuration());
+            assertEquals(report, e.getStdout(), a.getStdout());
+            assertEquals(report, e.getStderr(), a.getStderr());
+            assertEquals(report, e.getCases().size(), a.getCases().size());
+            for (int j=0; j<e.getCases().size(); j++) {
+                CaseResult ec = e.getCases().get(j), ac = a.getCases().get(j);
+                assertEquals(report, ec.getClassName(), ac.getClassName());
+                assertEquals(report, ec.getName(), ac.getName());
+                assertEquals(report, ec.getDuration(), ac.getDuration());
+                assertEquals(report, ec.isSkipped(), ac.isSkipped());
+                assertEquals(report, ec.getErrorStackTrace(), ac.getErrorStackTrace());
+                assertEquals(report, ec.getErrorDetails(), ac.getErrorDetails());
+                assertEquals(report, ec.getStdout(), ac.getStdout());
+                assertEquals(report, ec.getStderr(), ac.getStderr());
+                assertSame(a, ac.getSuiteResult());
+            }
+        }
+    }
+
+    /**
+     * Output much bigger than what we keep shouldn't need to fit in memory.
+     */
+    public void testHugeStdioIsTrimmedWhileParsing() throws Exception {
+        File data = File.createTempFile("testHugeStdioIsTrimmedWhileParsing", ".xml");
+        try {
+            Writer w = new FileWriter(data);
+            try {
+                PrintWriter pw = new PrintWriter(w);
+                pw.println("<testsuite name='x'>");
+                pw.println("<testcase name='x' classname='x'>");
+                pw.print("<system-out>");
+                pw.print("First line is intact.");
+                for (int i = 0; i < 1000000; i++) {
+                    pw.print("Line #" + i + " is elided.\n");
+                }
+                pw.print("Last line is intact.");
+                pw.println("</system-out>");
+                pw.println("</testcase>");
+                pw.println("</testsuite>");
+                pw.flush();
+            } finally {
+                w.close();
+            }
+            String stdout = parseOne(data).getCases().get(0).getStdout();
+            assertTrue(stdout, stdout.startsWith("First line is intact."));
+            assertTrue(stdout, stdout.endsWith("Last line is intact."));
+            assertTrue(stdout, stdout.contains("...[truncated "));
+            assertTrue(stdout, stdout.length() < 1100);
+        } finally {
+            data.delete();
+        }
+    }
+
+    /**
+     * Output of a failed test is kept in full, even if we only find out about the failure after the output.
+     */
+    public void testStdioBeforeFailureIsKept() throws Exception {
+        File data = File.createTempFile("testStdioBeforeFailureIsKept", ".xml");
+        try {
+            Writer w = new FileWriter(data);
+            try {
+                PrintWriter pw = new PrintWriter(w);
+                pw.println("<testsuite name='x'>");
+                pw.println("<testcase name='x' classname='x'>");
+                pw.print("<system-out>");
+                for (int i = 0; i < 100; i++) {
+                    pw.println("Line #" + i + " is kept.");
+                }
+                pw.println("</system-out>");
+                pw.println("<failure message='oops'>stack trace</failure>");
+                pw.println("</testcase>");
+                pw.println("<system-err>");
+                for (int i = 0; i < 100; i++) {
+                    pw.println("Line #" + i + " is kept, too.");
+                }
+                pw.println("</system-err>");
+                pw.println("</testsuite>");
+                pw.flush();
+            } finally {
+                w.close();
+            }
+            SuiteResult sr = parseOne(data);
+            CaseResult cr = sr.getCases().get(0);
+            assertEquals("stack trace", cr.getErrorStackTrace());
+            assertFalse(cr.getStdout(), cr.getStdout().contains("...[truncated "));
+            assertTrue(cr.getStdout(), cr.getStdout().contains("Line #50 is kept."));
+            assertFalse(sr.getStderr(), sr.getStderr().contains("...[truncated "));
+        } finally {
+            data.delete();
+        }
+    }
 }
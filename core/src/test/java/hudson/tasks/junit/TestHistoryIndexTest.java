@@ -0,0 +1,192 @@
+package hudson.tasks.junit;
+
+import hudson.Util;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests {@link TestHistoryIndex}.
+ */
+public class TestHistoryIndexTest extends TestCase {
+    private File dir;
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = Util.createTempDir();
+        file = new File(dir, "junitHistory.bin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+        super.tearDown();
+    }
+
+    private static final String PASS = null, FAIL = "stack trace";
+
+    /**
+     * All the builds with a test result are in the index.
+     */
+    private static final TestHistoryIndex.Gaps NO_GAPS = new TestHistoryIndex.Gaps() {
+        public boolean hasTestResult(int number) {
+            return false;
+        }
+    };
+
+    /**
+     * Creates a test result where the test 'x.X.t'+i has the given i-th outcome, or doesn't exist if it's "absent".
+     */
+    private static TestResult result(String... outcomes) {
+        List<CaseResult> cases = new ArrayList<CaseResult>();
+        for (int i=0; i<outcomes.length; i++) {
+            if ("absent".equals(outcomes[i]))  continue;
+            cases.add(new CaseResult(null, "x.X", "t"+i, outcomes[i], null, 1.5f, false, null, null, true));
+        }
+        SuiteResult sr = new SuiteResult("x.xml", "x.X", null, null, 0, cases, null, null);
+        return new TestResult(false, 0, Collections.singletonList(sr));
+    }
+
+    public void testFailedSince() throws Exception {
+        TestHistoryIndex index = new TestHistoryIndex(file);
+        // nothing is known before the first build in the index
+        assertEquals(0, index.getFailedSince(1, "x.X.t0", NO_GAPS));
+
+        index.record(1, result(PASS, FAIL, PASS));
+        index.record(2, result(FAIL, FAIL, "absent"));
+        index.record(3, result(FAIL, FAIL, FAIL));
+
+        assertEquals(2, index.getFailedSince(4, "x.X.t0", NO_GAPS));
+        assertEquals(0, index.getFailedSince(4, "x.X.t1", NO_GAPS));    // failing since before the index
+        assertEquals(3, index.getFailedSince(4, "x.X.t2", NO_GAPS));
+        assertEquals(4, index.getFailedSince(4, "x.X.t3", NO_GAPS));    // new test
+        assertEquals(2, index.getFailedSince(3, "x.X.t0", NO_GAPS));
+
+        assertTrue(index.isIndexed(2));
+        assertFalse(index.isIndexed(4));
+        assertNull(index.get(2, "x.X.t2"));
+        assertEquals(TestHistoryIndex.FAILED, index.get(2, "x.X.t1").status);
+        assertEquals(1.5f, index.get(2, "x.X.t1").duration);
+
+        // survives the reload
+        index = new TestHistoryIndex(file);
+        assertEquals(2, index.getFailedSince(4, "x.X.t0", NO_GAPS));
+        assertEquals(TestHistoryIndex.PASSED, index.get(1, "x.X.t0").status);
+    }
+
+    /**
+     * Tests of the same name can't be told apart.
+     */
+    public void testAmbiguous() throws Exception {
+        TestHistoryIndex index = new TestHistoryIndex(file);
+        index.record(1, result(PASS));
+        TestResult r = result(FAIL);
+        r.getSuites().iterator().next().getCases().add(new CaseResult(null, "x.X", "t0", FAIL, null, 0, false, null, null, true));
+        index.record(2, r);
+
+        assertEquals(TestHistoryIndex.AMBIGUOUS, index.get(2, "x.X.t0").status);
+        assertEquals(0, index.getFailedSince(3, "x.X.t0", NO_GAPS));
+    }
+
+    /**
+     * A record that didn't get written completely is ignored, and overwritten by the next one.
+     */
+    public void testIncompleteRecord() throws Exception {
+        TestHistoryIndex index = new TestHistoryIndex(file);
+        index.record(1, result(FAIL));
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length());
+        raf.writeInt(2);
+        raf.writeInt(3);
+        raf.close();
+
+        index = new TestHistoryIndex(file);
+        assertTrue(index.isIndexed(1));
+        assertFalse(index.isIndexed(2));
+
+        index.record(2, result(FAIL, PASS));
+        index = new TestHistoryIndex(file);
+        assertEquals(TestHistoryIndex.FAILED, index.get(2, "x.X.t0").status);
+        assertEquals(TestHistoryIndex.FAILED, index.get(1, "x.X.t0").status);
+        assertEquals(TestHistoryIndex.PASSED, index.get(2, "x.X.t1").status);
+    }
+
+    /**
+     * Deleted builds are forgotten, and compaction drops their records along with the tests only they had.
+     */
+    public void testRemoveAndCompact() throws Exception {
+        TestHistoryIndex index = new TestHistoryIndex(file);
+        index.record(1, result(FAIL, PASS));
+        index.record(2, result(FAIL, "absent", FAIL));
+        index.record(3, result(FAIL, "absent", "absent", PASS));
+        index.record(4, result(FAIL, "absent", "absent", FAIL));
+        assertEquals(2, index.getFailedSince(3, "x.X.t2", NO_GAPS));
+        index.remove(2);
+        index.remove(5);    // not in the index
+
+        assertFalse(index.isIndexed(2));
+        assertEquals(3, index.getFailedSince(3, "x.X.t2", NO_GAPS));
+
+        index = new TestHistoryIndex(file);
+        assertFalse(index.isIndexed(2));
+        assertTrue(index.isIndexed(3));
+
+        index.remove(1);
+        long before = file.length();
+        index.compact();
+        assertTrue(file.length() < before);
+        assertFalse(new File(dir, "junitHistory.bin.tmp").exists());
+
+        for (TestHistoryIndex i : new TestHistoryIndex[] {index, new TestHistoryIndex(file)}) {
+            assertFalse(i.isIndexed(1));
+            assertFalse(i.isIndexed(2));
+            assertNull(i.get(3, "x.X.t2"));
+            assertEquals(TestHistoryIndex.PASSED, i.get(3, "x.X.t3").status);
+            assertEquals(TestHistoryIndex.FAILED, i.get(4, "x.X.t3").status);
+            assertEquals(4, i.getFailedSince(5, "x.X.t3", NO_GAPS));
+            assertEquals(0, i.getFailedSince(5, "x.X.t0", NO_GAPS));
+        }
+
+        // keeps working after the compaction
+        index.record(5, result(PASS, PASS));
+        index = new TestHistoryIndex(file);
+        assertEquals(TestHistoryIndex.PASSED, index.get(5, "x.X.t1").status);
+        assertEquals(TestHistoryIndex.FAILED, index.get(4, "x.X.t0").status);
+    }
+
+    /**
+     * A build that has a test result but isn't in the index leaves the answer to the caller.
+     */
+    public void testUnindexedBuild() throws Exception {
+        TestHistoryIndex index = new TestHistoryIndex(file);
+        index.record(1, result(PASS, FAIL));
+        index.record(3, result(FAIL, FAIL));
+        index.record(5, result(FAIL, FAIL));
+
+        final List<Integer> checked = new ArrayList<Integer>();
+        TestHistoryIndex.Gaps build4HasResults = new TestHistoryIndex.Gaps() {
+            public boolean hasTestResult(int number) {
+                checked.add(number);
+                return number == 4;
+            }
+        };
+        assertEquals(0, index.getFailedSince(6, "x.X.t0", build4HasResults));
+        assertEquals(Collections.singletonList(4), checked);
+
+        // the build between the last pass and the failures is checked, too
+        checked.clear();
+        assertEquals(3, index.getFailedSince(3, "x.X.t0", build4HasResults));
+        assertEquals(Collections.singletonList(2), checked);
+
+        // builds without test results are skipped
+        assertEquals(3, index.getFailedSince(6, "x.X.t0", NO_GAPS));
+    }
+}
@@ -0,0 +1,101 @@
+package hudson.tasks.junit;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests {@link TestResultStore}.
+ */
+public class TestResultStoreTest extends TestCase {
+    private File getDataFile(String name) throws URISyntaxException {
+        return new File(TestResultStoreTest.class.getResource(name).toURI());
+    }
+
+    private TestResult parse(String... names) throws Exception {
+        TestResult r = new TestResult();
+        for (String name : names)
+            r.parse(getDataFile(name));
+        r.tally();
+        return r;
+    }
+
+    private TestResultStore write(TestResult r) throws Exception {
+        File f = File.createTempFile("junitResult", ".bin");
+        f.deleteOnExit();
+        TestResultStore.write(r, f);
+        return TestResultStore.open(f);
+    }
+
+    public void testRoundTrip() throws Exception {
+        TestResult expected = parse("junit-report-1233.xml", "junit-report-1472.xml", "junit-report-6700.xml",
+                "junit-report-errror-details.xml", "eclipse-plugin-test-report.xml");
+        TestResultStore store = write(expected);
+        assertEquals(expected.getTotalCount(), store.getCaseCount());
+
+        TestResult actual = store.load();
+        actual.tally();
+        assertEquals(expected.getDuration(), actual.getDuration());
+        assertEquals(expected.getTotalCount(), actual.getTotalCount());
+        assertEquals(expected.getFailCount(), actual.getFailCount());
+
+        List<SuiteResult> es = new ArrayList<SuiteResult>(expected.getSuites());
+        List<SuiteResult> as = new ArrayList<SuiteResult>(actual.getSuites());
+        assertEquals(es.size(), as.size());
+        for (int i=0; i<es.size(); i++) {
+            SuiteResult e = es.get(i), a = as.get(i);
+            assertEquals(e.getName(), a.getName());
+            assertEquals(e.getFile(), a.getFile());
+            assertEquals(e.getTimestamp(), a.getTimestamp());
+            assertEquals(e.getId(), a.getId());
+            assertEquals(e.getDuration(), a.getDuration());
+            assertEquals(e.getStdout(), a.getStdout());
+            assertEquals(e.getStderr(), a.getStderr());
+            assertEquals(e.getCases().size(), a.getCases().size());
+            for (int j=0; j<e.getCases().size(); j++) {
+                CaseResult ec = e.getCases().get(j), ac = a.getCases().get(j);
+                assertEquals(ec.getClassName(), ac.getClassName());
+                assertEquals(ec.getName(), ac.getName());
+                assertEquals(ec.getDuration(), ac.getDuration());
+                assertEquals(ec.isSkipped(), ac.isSkipped());
+                assertEquals(ec.getErrorStackTrace(), ac.getErrorStackTrace());
+                assertEquals(ec.getErrorDetails(), ac.getErrorDetails());
+                assertEquals(ec.getOwnStdout(), ac.getOwnStdout());
+                assertEquals(ec.getOwnStderr(), ac.getOwnStderr());
+            }
+        }
+    }
+
+    /**
+     * Names are stored once, so they are shared among the loaded test cases.
+     */
+    public void testNamesAreShared() throws Exception {
+        TestResult r = write(parse("junit-report-1233.xml")).load();
+        List<CaseResult> cases = r.getSuites().iterator().next().getCases();
+        // the 2nd and the 3rd test cases are from the same class
+        assertEquals(cases.get(1).getClassName(), cases.get(2).getClassName());
+        assertSame(cases.get(1).getClassName(), cases.get(2).getClassName());
+    }
+
+    public void testLoadSingleCase() throws Exception {
+        TestResultStore store = write(parse("junit-report-1233.xml", "junit-report-errror-details.xml"));
+
+        TestResult r = store.load(null, "test.foo.bar.ProjectSettingsTest", "testNatureRemoval");
+        assertNotNull(r);
+        assertEquals(1, r.getSuites().size());
+        SuiteResult sr = r.getSuites().iterator().next();
+        assertEquals("test.infor.clearux.studio.integration.StudioAllTests", sr.getName());
+        assertEquals(1, sr.getCases().size());
+        assertEquals("testNatureRemoval", sr.getCases().get(0).getName());
+
+        CaseResult failed = store.load("vodafone.nip.services.types.TestStringMapType", null, "testHudsonReporting").getSuites().iterator().next().getCases().get(0);
+        assertEquals("this normally has the string like, expected mullet, but got bream", failed.getErrorDetails());
+
+        assertNull(store.load(null, "test.foo.bar.ProjectSettingsTest", "noSuchTest"));
+        assertNull(store.load("noSuchSuite", null, "testNatureRemoval"));
+        assertNull(store.load(null, "test.foo.bar.DefaultIntegrationTest", "testNatureRemoval"));
+    }
+}
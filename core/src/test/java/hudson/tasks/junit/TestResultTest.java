@@ -23,16 +23,20 @@
  */
 package hudson.tasks.junit;
 
+import hudson.Util;
 import hudson.XmlFile;
 import hudson.util.HeapSpaceStringConverter;
 import hudson.util.XStream2;
 
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.Collection;
 import java.util.List;
 
+import org.apache.commons.io.FileUtils;
+
 import junit.framework.TestCase;
 
 import org.jvnet.hudson.test.Bug;
@@ -145,6 +149,80 @@ public class TestResultTest extends TestCase {
         assertEquals("Wrong duration for test result", 1.0, testResult.getDuration(), 0.01);
     }
 
+    /**
+     * Parsing many report files in parallel should give the same result as parsing them one by one.
+     */
+    public void testParallelParsingIsDeterministic() throws Exception {
+        File dir = Util.createTempDir();
+        try {
+            String[] files = new String[200];
+            for (int i=0; i<files.length; i++) {
+                files[i] = "TEST-"+i+".xml";
+                FileWriter w = new FileWriter(new File(dir,files[i]));
+                // every 10 files share a suite, to exercise the merge
+                w.write("<testsuite name='Suite"+(i/10)+"' timestamp='t"+i+"'>" +
+                        "<testcase classname='Suite"+(i/10)+"' name='test"+i+"' time='0.5'/></testsuite>");
+                w.close();
+            }
+
+            int threads = TestResult.PARSER_THREADS;
+            try {
+                TestResult.PARSER_THREADS = 1;
+                TestResult sequential = new TestResult();
+                sequential.parse(0, dir, files);
+                sequential.tally();
+
+                TestResult.PARSER_THREADS = 8;
+                TestResult parallel = new TestResult();
+                parallel.parse(0, dir, files);
+                parallel.tally();
+
+                assertEquals(20, parallel.getSuites().size());
+                assertEquals(200, parallel.getTotalCount());
+                assertEquals(sequential.getDuration(), parallel.getDuration(), 0.001);
+                List<SuiteResult> expected = (List<SuiteResult>)sequential.getSuites();
+                List<SuiteResult> actual = (List<SuiteResult>)parallel.getSuites();
+                for (int i=0; i<expected.size(); i++) {
+                    assertEquals(expected.get(i).getName(), actual.get(i).getName());
+                    assertEquals(expected.get(i).getCases().size(), actual.get(i).getCases().size());
+                    for (int j=0; j<expected.get(i).getCases().size(); j++)
+                        assertEquals(expected.get(i).getCases().get(j).getName(), actual.get(i).getCases().get(j).getName());
+                }
+            } finally {
+                TestResult.PARSER_THREADS = threads;
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    /**
+     * A broken report file fails the parsing as before, after the files before it are added.
+     */
+    public void testParallelParsingReportsBrokenFile() throws Exception {
+        File dir = Util.createTempDir();
+        try {
+            String[] files = {"TEST-a.xml", "TEST-b.xml", "TEST-c.xml"};
+            FileUtils.writeStringToFile(new File(dir,files[0]), "<testsuite name='a'><testcase classname='a' name='x'/></testsuite>");
+            FileUtils.writeStringToFile(new File(dir,files[1]), "<testsuite name='b'><testcase");
+            FileUtils.writeStringToFile(new File(dir,files[2]), "<testsuite name='c'><testcase classname='c' name='x'/></testsuite>");
+
+            TestResult testResult = new TestResult();
+            try {
+                testResult.parse(0, dir, files);
+                fail();
+            } catch (IOException e) {
+                // expected
+            }
+            List<SuiteResult> suites = (List<SuiteResult>)testResult.getSuites();
+            assertEquals(2, suites.size());
+            assertEquals("a", suites.get(0).getName());
+            assertEquals("TEST-b.xml", suites.get(1).getName());
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
     private static final XStream XSTREAM = new XStream2();
 
     static {
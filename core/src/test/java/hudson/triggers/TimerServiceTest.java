@@ -0,0 +1,119 @@
+package hudson.triggers;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TimerServiceTest extends TestCase {
+    private TimerService service;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        service = new TimerService("test timer", 2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        service.shutdown();
+        super.tearDown();
+    }
+
+    /**
+     * A task that hangs shouldn't stop concurrent tasks from running.
+     */
+    public void testSlowTaskDoesNotHoldUpOthers() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch runs = new CountDownLatch(3);
+        service.schedule(new SafeTimerTask() {
+            protected void doRun() throws Exception {
+                release.await();
+            }
+        },0);
+        service.scheduleAtFixedRate(new SafeTimerTask() {
+            protected void doRun() {
+                runs.countDown();
+            }
+
+            @Override
+            protected boolean isConcurrent() {
+                return true;
+            }
+        },10,10);
+
+        try {
+            assertTrue(runs.await(10,TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    /**
+     * Tasks that aren't marked as concurrent run one at a time, as they did on {@link java.util.Timer}.
+     */
+    public void testSerialTasksDoNotOverlap() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final CountDownLatch runs = new CountDownLatch(20);
+        for (int i=0; i<2; i++) {
+            service.scheduleAtFixedRate(new SafeTimerTask() {
+                protected void doRun() throws Exception {
+                    if (running.incrementAndGet()>1)
+                        overlaps.incrementAndGet();
+                    Thread.sleep(5);
+                    running.decrementAndGet();
+                    runs.countDown();
+                }
+            },0,1);
+        }
+
+        assertTrue(runs.await(10,TimeUnit.SECONDS));
+        assertEquals(0, overlaps.get());
+    }
+
+    /**
+     * {@link SafeTimerTask#cancel()} should stop the repetition, like it does on {@link java.util.Timer}.
+     */
+    public void testCancel() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        service.schedule(new SafeTimerTask() {
+            protected void doRun() {
+                if (count.incrementAndGet()==3)
+                    cancel();
+            }
+        },0,5);
+
+        Thread.sleep(200);
+        assertEquals(3, count.get());
+    }
+
+    /**
+     * Executions that take longer than the period are reported as overruns.
+     */
+    public void testStatistics() throws Exception {
+        final CountDownLatch done = new CountDownLatch(2);
+        service.scheduleAtFixedRate(new SlowTask(done),0,10);
+        assertTrue(done.await(10,TimeUnit.SECONDS));
+
+        TimerService.TaskStatistics s = service.getTasks().get(0);
+        assertEquals(SlowTask.class.getName(), s.getName());
+        assertTrue(s.getRuns()>=1);  // the second one may not be recorded yet
+        assertTrue(s.getOverruns()>=1);
+        assertTrue(s.getMaxTime()>=30);
+    }
+
+    private static final class SlowTask extends SafeTimerTask {
+        private final CountDownLatch done;
+
+        SlowTask(CountDownLatch done) {
+            this.done = done;
+        }
+
+        protected void doRun() throws Exception {
+            Thread.sleep(30);
+            done.countDown();
+        }
+    }
+}
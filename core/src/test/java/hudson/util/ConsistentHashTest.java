@@ -113,6 +113,31 @@ public class ConsistentHashTest extends TestCase {
         }
     }
 
+    /**
+     * Adding nodes one by one, in bulk, and changing their replicas should all end up in the same ring.
+     */
+    public void testIncrementalUpdate() {
+        ConsistentHash<String> one = new ConsistentHash<String>();
+        Map<String,Integer> all = new HashMap<String,Integer>();
+        for (int i=0; i<10; i++) {
+            one.add("node"+i, 50);
+            all.put("node"+i, i*20);
+        }
+        for (int i=0; i<10; i++)
+            one.add("node"+i, i*20);    // grow some, shrink some, remove one
+
+        ConsistentHash<String> bulk = new ConsistentHash<String>();
+        bulk.addAll(all);
+
+        assertEquals(bulk.countAllPoints(), one.countAllPoints());
+        Random r = new Random(0);
+        for (int i=0; i<1000; i++) {
+            int q = r.nextInt();
+            assertEquals(bulk.lookup(q), one.lookup(q));
+        }
+        assertFalse(one.list(0).iterator().next().equals("node0"));
+    }
+
     public void testEmptyBehavior() {
         ConsistentHash<String> hash = new ConsistentHash<String>();
         assertFalse(hash.list(0).iterator().hasNext());
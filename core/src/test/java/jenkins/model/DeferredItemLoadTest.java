@@ -0,0 +1,95 @@
+package jenkins.model;
+
+import jenkins.model.DeferredItemLoad.Stage;
+import jenkins.model.DeferredItemLoad.Step;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class DeferredItemLoadTest {
+    private final StringBuilder log = new StringBuilder();
+
+    private Step step(final String s) {
+        return new Step() {
+            public void run() {
+                log.append(s);
+            }
+        };
+    }
+
+    /**
+     * Without an active {@link DeferredItemLoad}, steps run right away.
+     */
+    @Test
+    public void runsImmediately() throws Exception {
+        DeferredItemLoad.run(Stage.BUILDS, step("a"));
+        assertEquals("a", log.toString());
+    }
+
+    @Test
+    public void deferredPerStage() throws Exception {
+        DeferredItemLoad d = new DeferredItemLoad();
+        d.begin();
+        try {
+            DeferredItemLoad.run(Stage.TRIGGERS, step("t"));
+            DeferredItemLoad.run(Stage.BUILDS, step("b1"));
+            DeferredItemLoad.run(Stage.BUILDS, step("b2"));
+        } finally {
+            d.end();
+        }
+        assertEquals("", log.toString());
+
+        // once ended, steps from this thread are no longer collected
+        DeferredItemLoad.run(Stage.BUILDS, step("x"));
+
+        d.run(Stage.BUILDS);
+        d.run(Stage.BUILDS); // each step runs just once
+        d.run(Stage.TRIGGERS);
+        assertEquals("xb1b2t", log.toString());
+    }
+
+    /**
+     * A failing step doesn't prevent the other steps from running.
+     */
+    @Test
+    public void failure() throws Exception {
+        DeferredItemLoad d = new DeferredItemLoad();
+        d.begin();
+        try {
+            DeferredItemLoad.run(Stage.BUILDS, new Step() {
+                public void run() throws IOException {
+                    throw new IOException("broken");
+                }
+            });
+            DeferredItemLoad.run(Stage.BUILDS, step("b"));
+        } finally {
+            d.end();
+        }
+
+        try {
+            d.run(Stage.BUILDS);
+            fail();
+        } catch (IOException e) {
+            assertEquals("broken", e.getMessage());
+        }
+        assertEquals("b", log.toString());
+    }
+
+    @Test
+    public void clear() throws Exception {
+        DeferredItemLoad d = new DeferredItemLoad();
+        d.begin();
+        try {
+            DeferredItemLoad.run(Stage.BUILDS, step("b"));
+            DeferredItemLoad.run(Stage.TRIGGERS, step("t"));
+        } finally {
+            d.end();
+        }
+        d.clear();
+        d.run(Stage.BUILDS);
+        d.run(Stage.TRIGGERS);
+        assertEquals("", log.toString());
+    }
+}
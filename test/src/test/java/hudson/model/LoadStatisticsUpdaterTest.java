@@ -0,0 +1,52 @@
+package hudson.model;
+
+import hudson.model.MultiStageTimeSeries.TimeScale;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+public class LoadStatisticsUpdaterTest extends HudsonTestCase {
+    public void testBulkUpdate() throws Exception {
+        jenkins.setNumExecutors(0);
+        createOnlineSlave(jenkins.getLabel("foo"));
+
+        FreeStyleProject p = createFreeStyleProject();
+        p.setAssignedLabel(jenkins.getLabel("foo&&nosuch"));
+        p.scheduleBuild2(0);
+        jenkins.getQueue().maintain();
+        assertEquals(1, jenkins.getQueue().getBuildableItems().size());
+
+        LoadStatistics.LoadStatisticsUpdater updater = PeriodicWork.all().get(LoadStatistics.LoadStatisticsUpdater.class);
+        // let the decaying averages converge
+        for (int i=0; i<300; i++)
+            updater.doRun();
+
+        LoadStatistics foo = jenkins.getLabel("foo").loadStatistics;
+        assertEquals(1, latest(foo.totalExecutors));
+        assertEquals(0, latest(foo.busyExecutors));
+        assertEquals(0, latest(foo.queueLength));
+
+        assertEquals(1, latest(jenkins.unlabeledLoad.totalExecutors));
+        assertEquals(0, latest(jenkins.unlabeledLoad.queueLength));
+
+        assertEquals(1, latest(jenkins.overallLoad.totalExecutors));
+        assertEquals(1, latest(jenkins.overallLoad.queueLength));
+    }
+
+    public void testOverriddenCountsAreHonored() throws Exception {
+        OverallLoadStatistics custom = new OverallLoadStatistics() {
+            @Override
+            public int computeTotalExecutors() {
+                return 42;
+            }
+        };
+        assertTrue(LoadStatistics.LoadStatisticsUpdater.countsInBulk(OverallLoadStatistics.class, OverallLoadStatistics.class,
+                "computeTotalExecutors", "computeIdleExecutors", "updateExecutorCounts"));
+        assertFalse(LoadStatistics.LoadStatisticsUpdater.countsInBulk(custom.getClass(), OverallLoadStatistics.class,
+                "computeTotalExecutors", "computeIdleExecutors", "updateExecutorCounts"));
+        assertTrue(LoadStatistics.LoadStatisticsUpdater.countsInBulk(jenkins.getLabel("foo").getClass(), Label.class,
+                "getTotalExecutors", "getIdleExecutors"));
+    }
+
+    private int latest(MultiStageTimeSeries ts) {
+        return Math.round(ts.pick(TimeScale.SEC10).getLatest());
+    }
+}
@@ -60,7 +60,11 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Kohsuke Kawaguchi
@@ -310,4 +314,90 @@ public class QueueTest extends HudsonTestCase {
         FreeStyleBuild b2 = assertBuildStatusSuccess(v);
         assertSame(b,b2);
     }
+
+    /**
+     * Reading the queue shouldn't require the queue lock.
+     */
+    public void testReadWithoutLock() throws Exception {
+        final Queue q = jenkins.getQueue();
+
+        // prevent execution to push stuff into the queue
+        jenkins.setNumExecutors(0);
+        jenkins.setNodes(jenkins.getNodes());
+
+        final FreeStyleProject p = createFreeStyleProject();
+        p.scheduleBuild2(0);
+
+        ExecutorService es = Executors.newSingleThreadExecutor();
+        try {
+            synchronized (q) {
+                // another thread must be able to see the item while we hold the lock
+                Future<Queue.Item> f = es.submit(new Callable<Queue.Item>() {
+                    public Queue.Item call() throws Exception {
+                        assertEquals(1, q.getItems().length);
+                        assertTrue(q.contains(p));
+                        return q.getItem(p);
+                    }
+                });
+                Queue.Item item = f.get(10, TimeUnit.SECONDS);
+                assertSame(item, q.getItem(item.id));
+            }
+        } finally {
+            es.shutdown();
+        }
+    }
+
+    /**
+     * Lookups by task and by ID follow items as they are scheduled, move through the queue, and leave it.
+     */
+    public void testIndexFollowsItems() throws Exception {
+        Queue q = jenkins.getQueue();
+
+        // prevent execution to keep stuff in the queue
+        jenkins.setNumExecutors(0);
+        jenkins.setNodes(jenkins.getNodes());
+
+        FreeStyleProject p1 = createFreeStyleProject();
+        FreeStyleProject p2 = createFreeStyleProject();
+
+        WaitingItem w1 = q.schedule(p1, 1000);
+        assertIndexed(q, p1, w1.id, WaitingItem.class);
+        assertNull(q.getItem(p2));
+        assertFalse(q.contains(p2));
+
+        // pulling in the quiet period re-sorts the same item in the waiting list
+        assertNull(q.schedule(p1, 0));
+        assertIndexed(q, p1, w1.id, WaitingItem.class);
+
+        // then it becomes buildable, but there's no executor to take it
+        q.maintain();
+        assertIndexed(q, p1, w1.id, BuildableItem.class);
+
+        WaitingItem w2 = q.schedule(p2, 1000);
+        assertIndexed(q, p2, w2.id, WaitingItem.class);
+        assertIndexed(q, p1, w1.id, BuildableItem.class);
+
+        assertTrue(q.cancel(p1));
+        assertNull(q.getItem(p1));
+        assertTrue(q.getItems(p1).isEmpty());
+        assertNull(q.getItem(w1.id));
+        assertFalse(q.contains(p1));
+        assertIndexed(q, p2, w2.id, WaitingItem.class);
+
+        q.clear();
+        assertNull(q.getItem(p2));
+        assertNull(q.getItem(w2.id));
+        assertFalse(q.contains(p2));
+    }
+
+    private void assertIndexed(Queue q, Task t, int id, Class<? extends Queue.Item> type) {
+        Queue.Item item = q.getItem(t);
+        assertNotNull(item);
+        assertTrue(item+" isn't "+type, type.isInstance(item));
+        assertEquals(id, item.id);
+        assertSame(item, q.getItem(id));
+        assertEquals(1, q.getItems(t).size());
+        assertSame(item, q.getItems(t).get(0));
+        assertTrue(q.contains(t));
+    }
 }
@@ -0,0 +1,76 @@
+package hudson.model;
+
+import org.jvnet.hudson.test.HudsonTestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+public class RunMapTest extends HudsonTestCase {
+    /**
+     * Lazy {@link RunMap} should only load builds that are asked for.
+     */
+    public void testLazyLoad() throws Exception {
+        final FreeStyleProject p = createFreeStyleProject();
+        for (int i=0; i<3; i++)
+            assertBuildStatusSuccess(p.scheduleBuild2(0));
+
+        final int[] loaded = new int[1];
+        RunMap<FreeStyleBuild> m = new RunMap<FreeStyleBuild>(true);
+        m.load(p, new RunMap.Constructor<FreeStyleBuild>() {
+            public FreeStyleBuild create(File dir) throws IOException {
+                loaded[0]++;
+                return new FreeStyleBuild(p, dir);
+            }
+        });
+        assertTrue(m.isLazy());
+        assertEquals(0, loaded[0]);
+        assertEquals(3, m.size());
+        assertEquals(Integer.valueOf(3), m.firstKey());
+        assertEquals(Integer.valueOf(1), m.lastKey());
+
+        FreeStyleBuild b2 = m.get(2);
+        assertEquals(2, b2.getNumber());
+        assertEquals(1, loaded[0]);
+        assertSame(b2, m.get(2));
+        assertEquals(1, loaded[0]);
+
+        assertEquals(1, b2.getPreviousBuild().getNumber());
+        assertEquals(3, b2.getNextBuild().getNumber());
+
+        int n=3;
+        for (FreeStyleBuild b : m.values())
+            assertEquals(n--, b.getNumber());
+        assertEquals(3, loaded[0]);
+    }
+
+    public void testReadBuildNumber() throws Exception {
+        FreeStyleProject p = createFreeStyleProject();
+        FreeStyleBuild b = assertBuildStatusSuccess(p.scheduleBuild2(0));
+        assertEquals(Integer.valueOf(b.getNumber()), RunMap.readBuildNumber(new File(b.getRootDir(),"build.xml")));
+    }
+
+    /**
+     * Index entries that lack the outcome of the build get filled in, without loading the build.
+     */
+    public void testBackfill() throws Exception {
+        final FreeStyleProject p = createFreeStyleProject();
+        FreeStyleBuild b = assertBuildStatusSuccess(p.scheduleBuild2(0));
+        // what an older version would have recorded
+        p.getBuildIndex().update(new BuildIndex.Entry(b.getNumber(), b.getId(), null, b.getTimeInMillis(), 0));
+
+        final int[] loaded = new int[1];
+        RunMap<FreeStyleBuild> m = new RunMap<FreeStyleBuild>(true);
+        m.load(p, new RunMap.Constructor<FreeStyleBuild>() {
+            public FreeStyleBuild create(File dir) throws IOException {
+                loaded[0]++;
+                return new FreeStyleBuild(p, dir);
+            }
+        });
+        assertEquals(0, loaded[0]);
+
+        BuildIndex.Entry e = p.getBuildIndex().get(b.getNumber());
+        assertEquals(b.getId(), e.getId());
+        assertEquals(Result.SUCCESS, e.getResult());
+        assertEquals(b.getDuration(), e.getDuration());
+    }
+}
@@ -0,0 +1,170 @@
+package hudson.model;
+
+import hudson.Util;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ShardedFingerprintStorageTest extends HudsonTestCase {
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = new File(jenkins.getRootDir(),"test-fingerprints");
+    }
+
+    public void testDefault() {
+        assertTrue(FingerprintStorage.get() instanceof ShardedFingerprintStorage);
+    }
+
+    public void testRoundtrip() throws Exception {
+        ShardedFingerprintStorage s = new ShardedFingerprintStorage(dir);
+        Fingerprint a = fingerprint(0x12, "a.jar", 1);
+        Fingerprint b = fingerprint(0x12, "b.jar", 2);
+        s.save(a);
+        s.save(b);
+        a.add("foo",5);
+        s.save(a);
+        s.delete(md5(0x12,"b.jar"));
+
+        // read it back from the disk
+        s = new ShardedFingerprintStorage(dir);
+        Fingerprint a2 = s.load(md5(0x12,"a.jar"));
+        assertEquals("a.jar", a2.getFileName());
+        assertTrue(a2.getRangeSet("foo").includes(5));
+        assertNull(s.load(md5(0x12,"b.jar")));
+        assertEquals(Arrays.asList(Util.toHexString(md5(0x12,"a.jar"))), Arrays.asList(s.keys(null,null).toArray()));
+    }
+
+    public void testBatch() throws Exception {
+        ShardedFingerprintStorage s = new ShardedFingerprintStorage(dir);
+        FingerprintStorage.Batch batch = s.openBatch();
+        s.save(fingerprint(0x01, "a.jar", 1));
+        s.save(fingerprint(0x02, "b.jar", 1));
+        // visible through the same storage, but not written yet
+        assertNotNull(s.load(md5(0x01,"a.jar")));
+        assertNull(new ShardedFingerprintStorage(dir).load(md5(0x01,"a.jar")));
+        batch.close();
+
+        s = new ShardedFingerprintStorage(dir);
+        assertNotNull(s.load(md5(0x01,"a.jar")));
+        assertNotNull(s.load(md5(0x02,"b.jar")));
+    }
+
+    public void testKeyRange() throws Exception {
+        ShardedFingerprintStorage s = new ShardedFingerprintStorage(dir);
+        for (int i=0; i<5; i++)
+            s.save(fingerprint(i*0x40, "x.jar", 1));
+        assertEquals(2, s.keys("40","c0").size());
+        assertEquals(3, s.keys("40",null).size());
+        assertEquals(1, s.keys(null,"40").size());
+    }
+
+    public void testMigration() throws Exception {
+        FileFingerprintStorage legacy = new FileFingerprintStorage(dir);
+        Fingerprint f = fingerprint(0x34, "a.jar", 3);
+        legacy.save(f);
+        File file = legacy.getFile(md5(0x34,"a.jar"));
+        assertTrue(file.exists());
+
+        ShardedFingerprintStorage s = new ShardedFingerprintStorage(dir);
+        assertEquals(1, s.keys(null,null).size());
+        f = s.load(md5(0x34,"a.jar"));
+        assertTrue(f.getRangeSet("foo").includes(3));
+        f.add("foo",4);
+        s.save(f);
+        assertFalse(file.exists());
+
+        s = new ShardedFingerprintStorage(dir);
+        assertTrue(s.load(md5(0x34,"a.jar")).getRangeSet("foo").includes(4));
+        assertEquals(1, s.keys(null,null).size());
+    }
+
+    public void testCompaction() throws Exception {
+        ShardedFingerprintStorage s = new ShardedFingerprintStorage(dir);
+        Fingerprint f = fingerprint(0x56, "a.jar", 1);
+        for (int i=2; i<1000; i++) {
+            f.add("foo",i);
+            s.save(f);
+        }
+        File log = new File(dir,"56.log");
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        f.toXML(xml);
+        long recordSize = 1+16+4+xml.size();
+        assertTrue("superseded records should have been discarded", log.length() < 300*recordSize);
+
+        s = new ShardedFingerprintStorage(dir);
+        assertTrue(s.load(md5(0x56,"a.jar")).getRangeSet("foo").includes(999));
+    }
+
+    public void testCompactionKeepsOtherRecords() throws Exception {
+        ShardedFingerprintStorage s = new ShardedFingerprintStorage(dir);
+        s.save(fingerprint(0x78, "a.jar", 1));
+        s.save(fingerprint(0x78, "b.jar", 2));
+        Fingerprint f = fingerprint(0x78, "c.jar", 1);
+        for (int i=2; i<1000; i++) {
+            f.add("foo",i);
+            s.save(f);
+        }
+        s.delete(md5(0x78,"b.jar"));
+
+        // both the index of the live storage and the one rebuilt from the compacted log should find them
+        for (ShardedFingerprintStorage t : Arrays.asList(s, new ShardedFingerprintStorage(dir))) {
+            assertTrue(t.load(md5(0x78,"a.jar")).getRangeSet("foo").includes(1));
+            assertNull(t.load(md5(0x78,"b.jar")));
+            assertTrue(t.load(md5(0x78,"c.jar")).getRangeSet("foo").includes(999));
+            assertEquals(2, t.keys(null,null).size());
+        }
+    }
+
+    public void testVisit() throws Exception {
+        new FileFingerprintStorage(dir).save(fingerprint(0x9a, "legacy.jar", 1));
+        ShardedFingerprintStorage s = new ShardedFingerprintStorage(dir);
+        s.save(fingerprint(0x9a, "a.jar", 1));
+        s.save(fingerprint(0x9a, "b.jar", 2));
+        s.save(fingerprint(0x9b, "c.jar", 1));
+
+        FingerprintStorage.Batch batch = s.openBatch();
+        s.save(fingerprint(0x9a, "d.jar", 2)); // still pending
+        final List<String> seen = new ArrayList<String>();
+        int deleted = s.visit("9a","9b",new FingerprintStorage.Visitor() {
+            public boolean visit(Fingerprint fp) {
+                seen.add(fp.getFileName());
+                return fp.getRangeSet("foo").includes(2);
+            }
+        });
+        batch.close();
+
+        Collections.sort(seen);
+        assertEquals(Arrays.asList("a.jar","b.jar","d.jar","legacy.jar"), seen);
+        assertEquals(2, deleted);
+
+        s = new ShardedFingerprintStorage(dir);
+        assertNotNull(s.load(md5(0x9a,"a.jar")));
+        assertNull(s.load(md5(0x9a,"b.jar")));
+        assertNull(s.load(md5(0x9a,"d.jar")));
+        assertNotNull(s.load(md5(0x9a,"legacy.jar")));
+        assertNotNull(s.load(md5(0x9b,"c.jar")));
+    }
+
+    /**
+     * Creates a fingerprint whose checksum starts with the given byte.
+     */
+    private Fingerprint fingerprint(int firstByte, String fileName, int build) throws Exception {
+        Fingerprint f = new Fingerprint(null, fileName, md5(firstByte,fileName));
+        f.add("foo",build);
+        return f;
+    }
+
+    private byte[] md5(int firstByte, String fileName) throws Exception {
+        byte[] md5 = Util.fromHexString(Util.getDigestOf(fileName));
+        md5[0] = (byte)firstByte;
+        return md5;
+    }
+}
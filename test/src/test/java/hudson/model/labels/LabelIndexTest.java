@@ -0,0 +1,81 @@
+package hudson.model.labels;
+
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.slaves.DumbSlave;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class LabelIndexTest extends HudsonTestCase {
+    public void testIncrementalUpdate() throws Exception {
+        DumbSlave a = createSlave("a", "linux x64", null);
+        DumbSlave b = createSlave("b", "windows x64", null);
+
+        Label linux = jenkins.getLabel("linux");
+        Label notLinux = jenkins.getLabel("!linux");
+        Label x64 = jenkins.getLabel("x64&&!windows");
+        Label windows = jenkins.getLabel("windows");
+
+        assertNodes(linux, a);
+        assertNodes(notLinux, jenkins, b);
+        assertNodes(x64, a);
+        assertNodes(windows, b);
+        Set<Node> cached = windows.getNodes();
+
+        // relabelling a node in place only affects the labels involving its labels
+        a.setLabelString("solaris x64");
+        assertNodes(linux);
+        assertNodes(notLinux, jenkins, a, b);
+        assertNodes(x64, a);
+        assertSame(cached, windows.getNodes());
+
+        // so does adding a node
+        DumbSlave c = createSlave("c", "linux", null);
+        assertNodes(linux, c);
+        assertNodes(notLinux, jenkins, a, b);
+        assertSame(cached, windows.getNodes());
+
+        // removing a node
+        jenkins.removeNode(b);
+        assertNodes(windows);
+        assertNodes(notLinux, jenkins, a);
+        assertNodes(jenkins.getLabel("linux||solaris"), a, c);
+        assertNodes(jenkins.getLabel("linux->x64"), jenkins, a);
+        assertNodes(jenkins.getLabel("linux<->x64"), jenkins);
+    }
+
+    private void assertNodes(Label l, Node... expected) {
+        Set<Node> nodes = new HashSet<Node>();
+        for (Node n : expected)
+            nodes.add(n);
+        assertEquals(l.getExpression(), nodes, l.getNodes());
+
+        // should agree with the evaluation of the expression
+        Set<Node> matched = new HashSet<Node>();
+        if (l.matches(jenkins))
+            matched.add(jenkins);
+        for (Node n : jenkins.getNodes())
+            if (l.matches(n))
+                matched.add(n);
+        assertEquals(l.getExpression(), matched, l.getNodes());
+
+        // and so should the compiled expression
+        assertEquals(l.getExpression(), matched.contains(jenkins), l.contains(jenkins));
+        for (Node n : jenkins.getNodes())
+            assertEquals(l.getExpression()+" on "+n.getNodeName(), matched.contains(n), l.contains(n));
+    }
+
+    public void testDeepExpression() throws Exception {
+        DumbSlave a = createSlave("a", "x", null);
+        // too deep to be compiled, so evaluated by walking the tree
+        StringBuilder expr = new StringBuilder();
+        for (int i=0; i<100; i++)
+            expr.append("y||(");
+        expr.append("x");
+        for (int i=0; i<100; i++)
+            expr.append(')');
+        assertNodes(jenkins.getLabel(expr.toString()), a);
+    }
+}
@@ -0,0 +1,71 @@
+package hudson.model.queue;
+
+import com.gargoylesoftware.htmlunit.xml.XmlPage;
+import hudson.model.FreeStyleProject;
+import hudson.model.Queue;
+import hudson.model.Queue.Item;
+import hudson.model.queue.MaintenanceStatistics.Blockage;
+import hudson.model.queue.MaintenanceStatistics.Pass;
+import hudson.model.queue.MaintenanceStatistics.Transition;
+import org.jvnet.hudson.test.HudsonTestCase;
+import org.jvnet.hudson.test.TestExtension;
+
+public class MaintenanceStatisticsTest extends HudsonTestCase {
+    public void testBlockagesAreCountedPerDispatcher() throws Exception {
+        FreeStyleProject p = createFreeStyleProject();
+        Queue q = jenkins.getQueue();
+        MaintenanceStatistics stats = q.getMaintenanceStatistics();
+
+        q.schedule(p,0);
+        Item item = q.getItem(p);
+        for (int i = 0; i < 4 * 60 && !item.isBlocked(); i++) {
+            Thread.sleep(250);
+            q.maintain();
+            item = q.getItem(p);
+        }
+        assertTrue("Not blocked after 60 seconds", item.isBlocked());
+        q.maintain();
+
+        Blockage found = null;
+        for (Blockage b : stats.getBlockages())
+            if (b.getSource().equals(Veto.class.getName()))
+                found = b;
+        assertNotNull(found);
+        assertEquals("canRun", found.getHook());
+        assertEquals(Veto.Cause.class.getName(), found.getCause());
+        assertTrue(found.getCount()>=2); // once when it got blocked, and once more in the last pass
+
+        // the item went from the waiting list to the blocked list in one of the passes
+        int moves = 0;
+        for (Pass pass : stats.getRecent())
+            moves += pass.getCount(Transition.WAITING_TO_BLOCKED);
+        assertEquals(1, moves);
+        assertTrue(stats.getPasses()>=2);
+
+        q.cancel(p);
+    }
+
+    public void testExposure() throws Exception {
+        jenkins.getQueue().maintain();
+
+        XmlPage xml = (XmlPage) createWebClient().goTo("queue/maintenanceStatistics/api/xml?depth=1","application/xml");
+        assertFalse(xml.getByXPath("/maintenanceStatistics/recent/timing[name='allocation']").isEmpty());
+
+        createWebClient().goTo("queueMaintenance");
+    }
+
+    @TestExtension("testBlockagesAreCountedPerDispatcher")
+    public static class Veto extends QueueTaskDispatcher {
+        @Override
+        public CauseOfBlockage canRun(Item item) {
+            return new Cause();
+        }
+
+        static class Cause extends CauseOfBlockage {
+            @Override
+            public String getShortDescription() {
+                return "vetoed";
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package hudson.model.queue;
+
+import hudson.model.Action;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.LoadBalancer;
+import hudson.model.Node;
+import hudson.model.Queue.BuildableItem;
+import hudson.model.Queue.Task;
+import hudson.model.Queue.WaitingItem;
+import hudson.model.queue.MappingWorksheet.ExecutorChunk;
+import hudson.model.queue.MappingWorksheet.ExecutorSlot;
+import hudson.model.queue.MappingWorksheet.Mapping;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import static java.util.Arrays.*;
+import static org.mockito.Mockito.*;
+
+public class MappingBatchTest extends HudsonTestCase {
+    /**
+     * Assigning items in a batch should produce the same result as assigning them one by one.
+     */
+    public void testSameAsOneByOne() throws Exception {
+        List<BuildableItem> items = new ArrayList<BuildableItem>();
+        for (int i=0; i<30; i++)
+            items.add(createItem("task"+i));
+
+        assertEquals(assignOneByOne(items, createSlots()), assignInBatch(items, createSlots(), null));
+    }
+
+    /**
+     * Blocked items are skipped, and don't consume executors.
+     */
+    public void testBlockedItemsAreSkipped() throws Exception {
+        List<BuildableItem> items = new ArrayList<BuildableItem>();
+        for (int i=0; i<10; i++)
+            items.add(createItem("task"+i));
+        BuildableItem blocked = items.get(3);
+
+        List<BuildableItem> unblocked = new ArrayList<BuildableItem>(items);
+        unblocked.remove(blocked);
+
+        List<String> r = assignInBatch(items, createSlots(), blocked);
+        assertEquals(assignOneByOne(unblocked, createSlots()), r);
+        assertFalse(r.contains("task3"));
+    }
+
+    /**
+     * Each computer is asked once per item, or once per label if the answer only depends on the label.
+     */
+    public void testCanTakeIsAskedPerComputer() throws Exception {
+        List<BuildableItem> items = new ArrayList<BuildableItem>();
+        for (int i=0; i<10; i++)
+            items.add(createItem("task"+i));
+
+        for (final boolean byLabel : new boolean[] {false,true}) {
+            final int[] asked = new int[1];
+            MappingBatch batch = new MappingBatch(items, createSlots()) {
+                @Override
+                protected boolean isBlocked(BuildableItem item) {
+                    return false;
+                }
+
+                @Override
+                protected boolean canTake(ExecutorSlot slot, BuildableItem item) {
+                    asked[0]++;
+                    return true;
+                }
+
+                @Override
+                protected boolean canTakeDependsOnlyOnLabel(Computer c) {
+                    return byLabel;
+                }
+
+                @Override
+                protected void execute(BuildableItem item, Mapping m) {
+                    throw new AssertionError();
+                }
+            };
+            for (int i=0; i<batch.size(); i++)
+                assertEquals(6, batch.worksheet(i).executors.size());
+            assertEquals(byLabel ? 6 : 60, asked[0]);
+        }
+    }
+
+    private List<String> assignOneByOne(List<BuildableItem> items, List<Slot> slots) {
+        List<String> r = new ArrayList<String>();
+        for (BuildableItem item : items) {
+            List<Slot> available = new ArrayList<Slot>();
+            for (Slot s : slots)
+                if (s.isAvailable())
+                    available.add(s);
+            Mapping m = LoadBalancer.CONSISTENT_HASH.map(item.task, new MappingWorksheet(item, available));
+            if (m!=null)
+                r.add(consume(item, m));
+        }
+        return r;
+    }
+
+    private List<String> assignInBatch(List<BuildableItem> items, List<Slot> slots, final BuildableItem blocked) {
+        final List<String> r = new ArrayList<String>();
+        LoadBalancer.CONSISTENT_HASH.map(new MappingBatch(items, slots) {
+            @Override
+            protected boolean isBlocked(BuildableItem item) {
+                return item==blocked;
+            }
+
+            @Override
+            protected boolean canTake(ExecutorSlot slot, BuildableItem item) {
+                return slot.isAvailable();
+            }
+
+            @Override
+            protected void execute(BuildableItem item, Mapping m) {
+                r.add(consume(item, m));
+            }
+        });
+        return r;
+    }
+
+    /**
+     * Marks the executors used by the mapping as busy, and reports where the item went.
+     */
+    private String consume(BuildableItem item, Mapping m) {
+        ExecutorChunk ec = m.assigned(0);
+        int n = m.get(0).size();
+        for (ExecutorSlot s : ec) {
+            if (n>0 && s.isAvailable()) {
+                ((Slot)s).available = false;
+                n--;
+            }
+        }
+        return item.task.getFullDisplayName()+"@"+ec.getName();
+    }
+
+    private BuildableItem createItem(String name) {
+        Task t = mock(Task.class);
+        when(t.getFullDisplayName()).thenReturn(name);
+        when(t.getSubTasks()).thenReturn((Collection) asList(t));
+        return new BuildableItem(new WaitingItem(new GregorianCalendar(),t,new ArrayList<Action>()));
+    }
+
+    private List<Slot> createSlots() {
+        List<Slot> slots = new ArrayList<Slot>();
+        for (int i=0; i<6; i++) {
+            Node n = mock(Node.class);
+            when(n.getNodeName()).thenReturn("node"+i);
+            Computer c = mock(Computer.class);
+            when(c.getNode()).thenReturn(n);
+
+            for (int j=0; j<=i%4; j++) {
+                Executor e = mock(Executor.class);
+                when(e.getOwner()).thenReturn(c);
+                slots.add(new Slot(e));
+            }
+        }
+        return slots;
+    }
+
+    private static class Slot extends ExecutorSlot {
+        private final Executor executor;
+        boolean available = true;
+
+        Slot(Executor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public Executor getExecutor() {
+            return executor;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return available;
+        }
+
+        @Override
+        protected void set(WorkUnit p) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
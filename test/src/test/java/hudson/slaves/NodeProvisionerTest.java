@@ -31,15 +31,18 @@ import hudson.tasks.Builder;
 
 import org.jvnet.hudson.test.HudsonTestCase;
 import org.jvnet.hudson.test.SleepBuilder;
+import org.jvnet.hudson.test.TestExtension;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author Kohsuke Kawaguchi
@@ -64,7 +67,63 @@ public class NodeProvisionerTest extends HudsonTestCase {
         NodeProvisionerInvoker.RECURRENCEPERIOD = original;
     }
 
-    public void testDummy() {} // just to make Surefire happy
+    /**
+     * {@link NodeProvisioner.Strategy} gets to decide how many executors to provision.
+     */
+    public void testStrategy() throws Exception {
+        DummyCloudImpl cloud = initHudson(60*1000);
+        Label label = jenkins.getLabel("sim");
+        cloud.label = label;
+
+        label.nodeProvisioner.update();
+        try {
+            assertEquals(2, cloud.numProvisioned);
+            assertEquals(2, label.nodeProvisioner.getPendingLaunches().size());
+        } finally {
+            for (NodeProvisioner.PlannedNode n : label.nodeProvisioner.getPendingLaunches())
+                n.future.cancel(true);
+        }
+    }
+
+    @TestExtension("testStrategy")
+    public static class TwoExecutorsStrategy extends NodeProvisioner.Strategy {
+        private final AtomicBoolean provisioned = new AtomicBoolean();
+
+        @Override
+        public Float apply(NodeProvisioner.StrategyState state) {
+            if (state.getLabel()==null || !"sim".equals(state.getLabel().getName()))
+                return null;
+            return provisioned.getAndSet(true) ? 0f : 2f;
+        }
+    }
+
+    /**
+     * Items are counted as they enter the queue, even if they leave before the rate is sampled.
+     */
+    public void testArrivals() throws Exception {
+        Label foo = jenkins.getLabel("foo");
+        FreeStyleProject p = createFreeStyleProject();
+        p.setAssignedLabel(foo);
+        int before = foo.nodeProvisioner.arrivals.get();
+
+        jenkins.getQueue().schedule(p, 1000);
+        jenkins.getQueue().schedule(p, 1000);   // folded into the existing item
+        jenkins.getQueue().cancel(p);
+        assertEquals(before+1, foo.nodeProvisioner.arrivals.get());
+    }
+
+    public void testPredictExcessWorkload() {
+        // 2 items in the queue, 6 more arriving per minute, 30 seconds to get a new node
+        // one idle executor, one build that finishes in time, one that doesn't, and one we can't tell
+        float excess = NodeProvisioner.PredictiveStrategy.predictExcessWorkload(2, 0.1f, 30*1000,
+                1, Arrays.asList(10*1000L, 60*1000L, -1L), 0);
+        assertEquals(2+3-1-1, excess, 0.001f);
+
+        // and what's being provisioned already counts
+        excess = NodeProvisioner.PredictiveStrategy.predictExcessWorkload(2, 0.1f, 30*1000,
+                1, Arrays.asList(10*1000L, 60*1000L, -1L), 3);
+        assertEquals(0, excess, 0.001f);
+    }
 
     /**
      * Latch synchronization primitive that waits for N thread to pass the checkpoint.
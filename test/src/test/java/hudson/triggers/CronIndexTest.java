@@ -0,0 +1,86 @@
+package hudson.triggers;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.PeriodicWork;
+import hudson.triggers.Trigger.Cron;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+public class CronIndexTest extends HudsonTestCase {
+    /**
+     * The index should come up with the same triggers as checking all of them every minute.
+     */
+    public void testSameAsCheckingEverything() throws Exception {
+        List<Trigger<?>> triggers = new ArrayList<Trigger<?>>();
+        for (String spec : new String[]{"*/15 * * * *", "H H * * *", "@hourly", "30 2 * * 1-5", "0 0 29 2 *", "0 0 30 2 *", "5 * * * *\n45 1 * * *"}) {
+            FreeStyleProject p = createFreeStyleProject();
+            TimerTrigger t = new TimerTrigger(spec);
+            t.start(p,true);
+            triggers.add(t);
+        }
+
+        Calendar cal = new GregorianCalendar(2012,1,27,23,58,17);
+        CronIndex index = new CronIndex(cal);
+        for (Trigger<?> t : triggers)
+            index.add(t);
+        assertEquals(triggers.size(), index.size());
+
+        int fired = 0;
+        for (int i=0; i<4*24*60; i++) {
+            List<Trigger<?>> expected = new ArrayList<Trigger<?>>();
+            for (Trigger<?> t : triggers)
+                if (t.tabs.check(cal))
+                    expected.add(t);
+
+            List<Trigger<?>> actual = new ArrayList<Trigger<?>>();
+            for (Trigger<?> t : index.due(cal))
+                if (t.tabs.check(cal))
+                    actual.add(t);
+
+            assertEquals(cal.getTime().toString(), expected.size(), actual.size());
+            assertTrue(cal.getTime().toString(), actual.containsAll(expected));
+            fired += actual.size();
+            cal.add(Calendar.MINUTE,1);
+        }
+        assertTrue(fired>4*24*4);
+    }
+
+    /**
+     * Reconfiguring a job shouldn't leave its old triggers in the index.
+     */
+    public void testReconfiguration() throws Exception {
+        Cron cron = PeriodicWork.all().get(Cron.class);
+        int base = cron.getIndexSize();
+
+        FreeStyleProject p = createFreeStyleProject();
+        TimerTrigger t = new TimerTrigger("@daily");
+        t.start(p,true);
+        p.addTrigger(t);
+        assertEquals(base+1, cron.getIndexSize());
+
+        configRoundtrip(p);
+        assertNotSame(t, p.getTrigger(TimerTrigger.class));
+        assertEquals(base+1, cron.getIndexSize());
+    }
+
+    /**
+     * Deleting a job should take its triggers out of the index right away.
+     */
+    public void testDeletion() throws Exception {
+        Cron cron = PeriodicWork.all().get(Cron.class);
+        int base = cron.getIndexSize();
+
+        FreeStyleProject p = createFreeStyleProject();
+        TimerTrigger t = new TimerTrigger("@daily");
+        t.start(p,true);
+        p.addTrigger(t);
+        assertEquals(base+1, cron.getIndexSize());
+
+        p.delete();
+        assertEquals(base, cron.getIndexSize());
+    }
+}
@@ -41,6 +41,7 @@ import hudson.scm.PollingResult.Change;
 import hudson.scm.RepositoryBrowser;
 import hudson.scm.SCMDescriptor;
 import hudson.scm.SCMRevisionState;
+import hudson.triggers.SCMTrigger.DescriptorImpl;
 import hudson.triggers.SCMTrigger.SCMTriggerCause;
 import hudson.triggers.SCMTrigger.BuildAction;
 import org.jvnet.hudson.test.Bug;
@@ -50,6 +51,8 @@ import org.jvnet.hudson.test.TestBuilder;
 import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayList;
 import java.util.List;
 /**
  * @author Alan Harder
@@ -136,5 +139,117 @@ public class SCMTriggerTest extends HudsonTestCase {
 
         assertFalse("There should only be one BuildAction.", ba.size()!=1);
     }
-}
 
+    /**
+     * Polling against the same server shouldn't exceed the per-server limit.
+     */
+    public void testPollingThreadCountPerHost() throws Exception {
+        DescriptorImpl d = jenkins.getDescriptorByType(DescriptorImpl.class);
+        d.setPollingThreadCount(10);
+        d.setPollingThreadCountPerHost(1);
+
+        HostSCM.running.set(0);
+        HostSCM.peak.set(0);
+        HostSCM.polled.set(0);
+        List<SCMTrigger> triggers = new ArrayList<SCMTrigger>();
+        for (int i=0; i<4; i++)
+            triggers.add(createPolledProject(new HostSCM("svn.example.org")));
+
+        for (SCMTrigger t : triggers)
+            t.run();
+        waitForPolling(d.getScheduler());
+
+        assertEquals(4, HostSCM.polled.get());
+        assertEquals("polling against the same server should be serialized", 1, HostSCM.peak.get());
+    }
+
+    /**
+     * Periodic polling of a job that's being polled is dropped, but explicit requests are carried out afterward.
+     */
+    public void testPeriodicPollingSkippedWhileInProgress() throws Exception {
+        DescriptorImpl d = jenkins.getDescriptorByType(DescriptorImpl.class);
+        PollingScheduler s = d.getScheduler();
+        long spread = PollingScheduler.SPREAD;
+        PollingScheduler.SPREAD = 0;
+        try {
+            HostSCM.polled.set(0);
+            HostSCM.block = new OneShotEvent();
+            SCMTrigger t = createPolledProject(new HostSCM(null));
+
+            t.run();
+            while (s.getInFlight()==0 || HostSCM.polled.get()==0)
+                Thread.sleep(50);
+
+            long skipped = s.getSkipped();
+            long coalesced = s.getCoalesced();
+            t.runPeriodically();
+            assertEquals(skipped+1, s.getSkipped());
+            t.run();
+            t.run();
+            assertEquals(coalesced+2, s.getCoalesced());
+
+            HostSCM.block.signal();
+            waitForPolling(s);
+            assertEquals("one follow-up polling should have happened", 2, HostSCM.polled.get());
+        } finally {
+            PollingScheduler.SPREAD = spread;
+            HostSCM.block = null;
+        }
+    }
+
+    private SCMTrigger createPolledProject(HostSCM scm) throws Exception {
+        FreeStyleProject p = createFreeStyleProject();
+        p.setScm(scm);
+        assertBuildStatusSuccess(p.scheduleBuild2(0));  // without a build, polling just schedules one
+        SCMTrigger t = new SCMTrigger("@daily");
+        t.start(p,true);
+        p.addTrigger(t);
+        return t;
+    }
+
+    private void waitForPolling(PollingScheduler s) throws InterruptedException {
+        long timeout = System.currentTimeMillis()+60*1000;
+        while (s.getInFlight()+s.getQueueLength()+s.getDelayed()>0) {
+            assertTrue("polling didn't complete", System.currentTimeMillis()<timeout);
+            Thread.sleep(50);
+        }
+    }
+
+    private static class HostSCM extends NullSCM {
+        static final AtomicInteger running = new AtomicInteger(), peak = new AtomicInteger(), polled = new AtomicInteger();
+        static volatile OneShotEvent block;
+
+        private final String host;
+
+        HostSCM(String host) {
+            this.host = host;
+        }
+
+        @Override
+        public String getPollingHost() {
+            return host;
+        }
+
+        @Override
+        public boolean requiresWorkspaceForPolling() {
+            return false;
+        }
+
+        @Override
+        protected PollingResult compareRemoteRevisionWith(AbstractProject project, Launcher launcher, FilePath workspace, TaskListener listener, SCMRevisionState baseline) throws IOException, InterruptedException {
+            int n = running.incrementAndGet();
+            synchronized (peak) {
+                peak.set(Math.max(peak.get(),n));
+            }
+            polled.incrementAndGet();
+            try {
+                OneShotEvent b = block;
+                if (b!=null)    b.block();
+                else            Thread.sleep(200);
+                return PollingResult.NO_CHANGES;
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+}